@@ -2,27 +2,35 @@
 
 set src_dir=src
 set out_dir=bin
+set class_dir=%out_dir%\classes
 set libs=""
 set compile_flags=-J-Xms2048m -J-Xmx2048m -J-XX:+UseG1GC -Xdiags:verbose -Xlint:all -deprecation -Xmaxerrs 5 -encoding UTF8 --release 17 -g
 
 set entry_point=Main
-set jvm_flags=-ea -Xms2048m -Xmx2048m -XX:+AlwaysPreTouch -XX:+UseG1GC -Xmixed
+set jvm_flags=-ea -Xms64m -Xmx2048m -XX:+UseG1GC -Xmixed
 set possible_program_args=%2 %3 %4 %5 %6 %7 %8 %9
 
+REM note(nschultz): class data sharing only archives classes loaded from jar files, so we package
+REM the compiled classes and record an archive of everything a training run loads.
+set app_jar=%out_dir%\app.jar
+set cds_archive=%out_dir%\app.jsa
+
 IF "%1"==""    goto build
 IF "%1"=="run" goto run
 
 :build
 if exist %out_dir% (
     rmdir /s /q %out_dir%
-    mkdir %out_dir%
 )
+mkdir %class_dir%
 
 dir /s /b %src_dir%\*.java > sources.txt
-"%JAVA_HOME%\bin\javac.exe" %compile_flags% -classpath %libs% -d %out_dir% -sourcepath %src_dir% @sources.txt
+"%JAVA_HOME%\bin\javac.exe" %compile_flags% -classpath %libs% -d %class_dir% -sourcepath %src_dir% @sources.txt
 
 if %ERRORLEVEL% == 0 (
     echo Build successful
+    "%JAVA_HOME%\bin\jar.exe" --create --file %app_jar% -C %class_dir% .
+    "%JAVA_HOME%\bin\java.exe" %jvm_flags% -XX:ArchiveClassesAtExit=%cds_archive% -cp %app_jar% %entry_point% --cds-training
 ) else (
     echo Build failed
 )
@@ -30,7 +38,9 @@ del sources.txt
 goto end
 
 :run
-"%JAVA_HOME%\bin\java.exe" %jvm_flags% -cp %libs%;bin %entry_point% %possible_program_args%
+set cds_flags=
+if exist %cds_archive% set cds_flags=-XX:SharedArchiveFile=%cds_archive%
+"%JAVA_HOME%\bin\java.exe" %jvm_flags% %cds_flags% -cp %libs%;%app_jar% %entry_point% %possible_program_args%
 goto end
 
 :end
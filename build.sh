@@ -2,23 +2,35 @@
 
 src_dir=src
 out_dir=bin
+class_dir=$out_dir/classes
 compile_flags="-J-Xms2048m -J-Xmx2048m -J-XX:+UseG1GC -Xdiags:verbose -Xlint:all -deprecation -Xmaxerrs 5 -encoding UTF8 --release 17 -g"
 
 entry_point=Main
-jvm_flags="-ea -Xms2048m -Xmx2048m -XX:+AlwaysPreTouch -XX:+UseG1GC -Xmixed"
+jvm_flags="-ea -Xms64m -Xmx2048m -XX:+UseG1GC -Xmixed"
 possible_program_args="$2 $3 $4 $5 $6 $7 $8 $9"
 
+# note(nschultz): class data sharing only archives classes loaded from jar files, so we package
+# the compiled classes and record an archive of everything a training run loads.
+app_jar=$out_dir/app.jar
+cds_archive=$out_dir/app.jsa
+
 if [ "$1" = "run" ]; then
-    "/usr/bin/java" $jvm_flags -cp $out_dir $entry_point $possible_program_args
+    cds_flags=""
+    if test -f $cds_archive; then cds_flags="-XX:SharedArchiveFile=$cds_archive"; fi
+    "/usr/bin/java" $jvm_flags $cds_flags -cp $app_jar $entry_point $possible_program_args
 else
-    if test -d $out_dir; then rm -r $out_dir;mkdir $out_dir; fi
+    if test -d $out_dir; then rm -r $out_dir; fi
+    mkdir -p $class_dir
 
     find $src_dir -type f > sources.txt
-    "/usr/bin/javac" $compile_flags -d $out_dir -sourcepath $src_dir @sources.txt
+    "/usr/bin/javac" $compile_flags -d $class_dir -sourcepath $src_dir @sources.txt
 
     if [ $? -eq 0 ]
     then
       echo "Build successful"
+      "/usr/bin/jar" --create --file $app_jar -C $class_dir .
+      "/usr/bin/java" $jvm_flags -XX:ArchiveClassesAtExit=$cds_archive -cp $app_jar $entry_point --cds-training
+      if [ $? -ne 0 ]; then echo "Failed to generate the CDS archive, startup will be slower"; fi
     else
       echo "Build failed"
     fi
@@ -0,0 +1,146 @@
+//
+// Copyright (c) 2022 Niklas Schultz
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+// documentation files (the "Software"), to deal in the Software without restriction,
+// including without limitation the rights to use, copy, modify, merge, publish, distribute,
+// sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so,
+// subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED
+// TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+// IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+// WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+// SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+//
+import java.lang.management.*;
+import java.util.concurrent.atomic.*;
+
+// note(nschultz): Diagnostic mode (Settings.allocationProfiling). Counts the bytes the current thread
+// allocates while it handles one message, using the per thread allocation counter of HotSpot.
+// There is one slot per kind of work:
+//
+//     received - reader thread, from the read call until the callback returned
+//     sent     - sending thread (encode + transcript) and the writer pool thread that drains it
+//     ui       - event dispatch thread, appending the message to the output pane
+//
+// The gc numbers are process wide, we simply attribute everything since the last reset to the session.
+// When the mode is off 'begin()' returns -1 and nothing is counted, so the hot paths only pay for a volatile read.
+public final class AllocationProfile {
+
+    private static final com.sun.management.ThreadMXBean threads = threadBean();
+
+    public final Slot received = new Slot("received");
+    public final Slot sent     = new Slot("sent");
+    public final Slot ui       = new Slot("ui");
+
+    private volatile long resetNanos    = System.nanoTime();
+    private volatile long gcCountBase   = gcCount();
+    private volatile long gcMillisBase  = gcMillis();
+
+    public void reset() {
+        this.received.reset();
+        this.sent.reset();
+        this.ui.reset();
+        this.resetNanos   = System.nanoTime();
+        this.gcCountBase  = gcCount();
+        this.gcMillisBase = gcMillis();
+    }
+
+    public static boolean isSupported() {
+        return threads != null;
+    }
+
+    // note(nschultz): Pass the returned mark to Slot.end() on the same thread
+    public static long begin() {
+        if (!Settings.allocationProfiling || threads == null) return -1;
+        return threads.getCurrentThreadAllocatedBytes();
+    }
+
+    public String report() {
+        if (threads == null) return "Allocation profile: not supported by this JVM\n";
+
+        final long gcCount  = gcCount()  - this.gcCountBase;
+        final long gcMillis = gcMillis() - this.gcMillisBase;
+        final double wallMillis = Math.max(1, System.nanoTime() - this.resetNanos) / 1_000_000.0;
+
+        final StringBuilder sb = new StringBuilder();
+        sb.append(String.format("Allocation profile%s:%n", Settings.allocationProfiling ? "" : " (off)"));
+        for (final Slot slot : new Slot[] {this.received, this.sent, this.ui}) {
+            sb.append("  ").append(slot.summary()).append(System.lineSeparator());
+        }
+        sb.append(String.format("  gc:       %d collection(s), %d ms (%.2f%% of %.1f s)%n",
+                                gcCount, gcMillis, 100.0 * gcMillis / wallMillis, wallMillis / 1000.0));
+        return sb.toString();
+    }
+
+    private static com.sun.management.ThreadMXBean threadBean() {
+        final ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (!(bean instanceof com.sun.management.ThreadMXBean)) return null;
+
+        final com.sun.management.ThreadMXBean sunBean = (com.sun.management.ThreadMXBean) bean;
+        if (!sunBean.isThreadAllocatedMemorySupported()) return null;
+        if (!sunBean.isThreadAllocatedMemoryEnabled()) sunBean.setThreadAllocatedMemoryEnabled(true);
+        return sunBean;
+    }
+
+    private static long gcCount() {
+        long count = 0;
+        for (final GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            count += Math.max(0, gc.getCollectionCount());
+        }
+        return count;
+    }
+
+    private static long gcMillis() {
+        long millis = 0;
+        for (final GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            millis += Math.max(0, gc.getCollectionTime());
+        }
+        return millis;
+    }
+
+    public static final class Slot {
+
+        public final String name;
+
+        private final LongAdder messages = new LongAdder();
+        private final LongAdder bytes    = new LongAdder();
+
+        private Slot(final String name) {
+            this.name = name;
+        }
+
+        // note(nschultz): 'messages' is 0 when the work belongs to a message that was already counted,
+        // e.g. the writer thread draining a broadcast that 'send' counted once.
+        public void end(final long mark, final int messages) {
+            if (mark < 0) return;
+            final long allocated = threads.getCurrentThreadAllocatedBytes() - mark;
+            this.bytes.add(allocated);
+            if (messages > 0) this.messages.add(messages);
+        }
+
+        public long messages() {
+            return this.messages.sum();
+        }
+
+        public long bytes() {
+            return this.bytes.sum();
+        }
+
+        private void reset() {
+            this.messages.reset();
+            this.bytes.reset();
+        }
+
+        private String summary() {
+            final long messages = messages();
+            final long bytes    = bytes();
+            return String.format("%-9s %d message(s), %s allocated, %s per message",
+                                 this.name + ":", messages, Stats.formatBytes(bytes),
+                                 messages == 0 ? "-" : Stats.formatBytes(bytes / messages));
+        }
+    }
+}
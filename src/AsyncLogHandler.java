@@ -0,0 +1,239 @@
+//
+// Copyright (c) 2022 Niklas Schultz
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+// documentation files (the "Software"), to deal in the Software without restriction,
+// including without limitation the rights to use, copy, modify, merge, publish, distribute,
+// sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so,
+// subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED
+// TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+// IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+// WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+// SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+//
+
+import java.io.*;
+import java.nio.charset.*;
+import java.nio.file.*;
+import java.time.*;
+import java.time.format.*;
+import java.util.concurrent.atomic.*;
+import java.util.concurrent.locks.*;
+import java.util.logging.*;
+
+// note(nschultz): The handler behind Main.logger. The reading threads log on every disconnect and failure,
+// with the old console handler a storm of flapping connections queued up on its synchronized formatter
+// (a new SimpleDateFormat and a String.format per record). Now 'publish' only claims a slot in a bounded
+// ring (Vyukov style, one CAS per record) and a single writer thread formats and writes whatever piled up
+// in batches. If the ring is full the record is dropped and counted, a logging thread never waits.
+// The writer mentions the drops in the log itself as soon as it catches up.
+//
+// The output goes to stderr like before, or with -Dlog.file=<path> to a file that is rolled over
+// once it reaches -Dlog.file.limit bytes (16 MiB by default), keeping BACKUPS old ones as <path>.1 and so on.
+public final class AsyncLogHandler extends Handler {
+
+    private static final int  CAPACITY   = 8192; // note(nschultz): Power of two
+    private static final int  MASK       = CAPACITY - 1;
+    private static final int  BATCH      = 256;  // note(nschultz): Records per write
+    private static final int  BACKUPS    = 3;
+    private static final long IDLE_NANOS = 100_000_000;
+    private static final long CLOSE_WAIT_MILLIS = 1000;
+    private static final DateTimeFormatter TIME = DateTimeFormatter.ofPattern("dd.MM.uuuu HH:mm:ss:SSS").withZone(ZoneId.systemDefault());
+
+    public final LongAdder dropped = new LongAdder();
+
+    private final LogRecord[] slots = new LogRecord[CAPACITY];
+    private final AtomicLongArray sequence = new AtomicLongArray(CAPACITY); // note(nschultz): Publishes the slot with the same index
+    private final AtomicLong head = new AtomicLong(0);                      // note(nschultz): Next position a producer claims
+    private long tail = 0;                                                  // note(nschultz): Writer thread only
+    private volatile boolean idle   = false;
+    private volatile boolean closed = false;
+    private final Thread thread;
+
+    private final Path file; // note(nschultz): null for stderr
+    private final long fileLimit;
+    private OutputStream out = null; // note(nschultz): Writer thread only, until it is gone
+    private long fileBytes = 0;
+
+    public AsyncLogHandler(final Path file, final long fileLimit) {
+        assert fileLimit > 0;
+
+        this.file      = file;
+        this.fileLimit = fileLimit;
+        for (int i = 0; i < CAPACITY; ++i) {
+            this.sequence.set(i, i);
+        }
+
+        this.thread = new Thread(this::run);
+        this.thread.setName("LogWriterThread");
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    // note(nschultz): Where -Dlog.file and -Dlog.file.limit say
+    public static AsyncLogHandler fromProperties() {
+        final String file = System.getProperty("log.file", "");
+        return new AsyncLogHandler(file.isEmpty() ? null : Paths.get(file), Math.max(1, Long.getLong("log.file.limit", 16 * 1024 * 1024)));
+    }
+
+    @Override
+    public void publish(final LogRecord record) {
+        if (this.closed || !isLoggable(record)) return;
+
+        // note(nschultz): The caller is found by walking the stack, that has to happen on the logging thread
+        record.getSourceClassName();
+        if (!offer(record)) {
+            this.dropped.increment();
+            return;
+        }
+        if (this.idle) LockSupport.unpark(this.thread);
+    }
+
+    // note(nschultz): Never waits for the writer, it gets woken up and catches up on its own
+    @Override
+    public void flush() {
+        LockSupport.unpark(this.thread);
+    }
+
+    // note(nschultz): Whatever is queued still gets written, for at most CLOSE_WAIT_MILLIS
+    @Override
+    public void close() {
+        if (this.closed) return;
+        this.closed = true;
+
+        LockSupport.unpark(this.thread);
+        try {
+            this.thread.join(CLOSE_WAIT_MILLIS);
+        } catch (final InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        if (!this.thread.isAlive()) closeFile();
+    }
+
+    private boolean offer(final LogRecord record) {
+        long pos = this.head.get();
+        for (;;) {
+            final int index = (int) (pos & MASK);
+            final long diff = this.sequence.get(index) - pos;
+            if (diff == 0) {
+                if (this.head.compareAndSet(pos, pos + 1)) {
+                    this.slots[index] = record;
+                    this.sequence.set(index, pos + 1);
+                    return true;
+                }
+                pos = this.head.get();
+            } else if (diff < 0) {
+                return false; // note(nschultz): Full, the writer has not freed this slot since the last round
+            } else {
+                pos = this.head.get(); // note(nschultz): Somebody else claimed it first
+            }
+        }
+    }
+
+    private LogRecord poll() {
+        final int index = (int) (this.tail & MASK);
+        if (this.sequence.get(index) != this.tail + 1) return null;
+
+        final LogRecord record = this.slots[index];
+        this.slots[index] = null;
+        this.sequence.set(index, this.tail + CAPACITY);
+        this.tail += 1;
+        return record;
+    }
+
+    private boolean isEmpty() {
+        return this.sequence.get((int) (this.tail & MASK)) != this.tail + 1;
+    }
+
+    private void run() {
+        final StringBuilder batch = new StringBuilder(BATCH * 128);
+        long reportedDrops = 0;
+        for (;;) {
+            int count = 0;
+            LogRecord record;
+            while (count < BATCH && (record = poll()) != null) {
+                format(batch, record.getLevel().getLocalizedName(), record.getInstant(), record.getSourceClassName(), record.getSourceMethodName(), record.getMessage());
+                count += 1;
+            }
+            final long drops = this.dropped.sum();
+            if (drops != reportedDrops) {
+                format(batch, Level.WARNING.getLocalizedName(), Instant.now(), AsyncLogHandler.class.getName(), "run",
+                       String.format("%d log record(s) dropped, the log could not keep up", drops - reportedDrops));
+                reportedDrops = drops;
+            }
+            if (batch.length() > 0) {
+                write(batch.toString().getBytes(StandardCharsets.UTF_8));
+                batch.setLength(0);
+                continue;
+            }
+            if (this.closed) return;
+
+            // note(nschultz): 'publish' looks at 'idle' after it published, so either it wakes us or we see its record here
+            this.idle = true;
+            if (isEmpty()) LockSupport.parkNanos(this, IDLE_NANOS);
+            this.idle = false;
+        }
+    }
+
+    private static void format(final StringBuilder sb, final String level, final Instant time, final String sourceClass, final String sourceMethod, final String message) {
+        sb.append('[').append(level).append("] [");
+        TIME.formatTo(time, sb);
+        sb.append("] [").append(sourceClass).append('.').append(sourceMethod).append("]: ").append(message).append('\n');
+    }
+
+    private void write(final byte[] bytes) {
+        if (this.file == null) {
+            System.err.write(bytes, 0, bytes.length);
+            System.err.flush();
+            return;
+        }
+
+        try {
+            if (this.out == null) {
+                open();
+            } else if (this.fileBytes + bytes.length > this.fileLimit) {
+                closeFile();
+                roll();
+                open();
+            }
+            this.out.write(bytes);
+            this.out.flush();
+            this.fileBytes += bytes.length;
+        } catch (final IOException ex) {
+            reportError("Failed to write the log file " + this.file, ex, ErrorManager.WRITE_FAILURE);
+            closeFile(); // note(nschultz): The next batch tries again
+        }
+    }
+
+    private void open() throws IOException {
+        this.out       = Files.newOutputStream(this.file, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        this.fileBytes = Files.size(this.file);
+    }
+
+    // note(nschultz): <path> becomes <path>.1, <path>.1 becomes <path>.2 and so on, the oldest one is gone
+    private void roll() throws IOException {
+        for (int i = BACKUPS - 1; i >= 1; --i) {
+            final Path from = backup(i);
+            if (Files.exists(from)) Files.move(from, backup(i + 1), StandardCopyOption.REPLACE_EXISTING);
+        }
+        Files.move(this.file, backup(1), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    private Path backup(final int index) {
+        return this.file.resolveSibling(this.file.getFileName() + "." + index);
+    }
+
+    private void closeFile() {
+        if (this.out == null) return;
+        try {
+            this.out.close();
+        } catch (final IOException ex) {
+            reportError("Failed to close the log file " + this.file, ex, ErrorManager.CLOSE_FAILURE);
+        }
+        this.out = null;
+    }
+}
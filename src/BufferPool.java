@@ -0,0 +1,227 @@
+//
+// Copyright (c) 2022 Niklas Schultz
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+// documentation files (the "Software"), to deal in the Software without restriction,
+// including without limitation the rights to use, copy, modify, merge, publish, distribute,
+// sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so,
+// subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED
+// TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+// IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+// WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+// SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+//
+
+import java.nio.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+// note(nschultz): Read buffers in power of two size classes, one pool for heap and one for direct buffers.
+// Connections read through an Adaptive (one per connection) which picks the class from what the reads actually
+// return. It grows by one class as soon as a read fills the buffer, so a bulk peer gets to a fitting size within a
+// few reads, and shrinks by one class after SHRINK_AFTER reads in a row that would have fit into a quarter of it,
+// so one burst does not keep a chatty peer on a big buffer. Settings.bufSize is where a connection starts,
+// bufSizeMin and bufSizeMax are the bounds (all three the same is a fixed size). Sizes are rounded up to the class.
+//
+// Buffers given back are kept for the next connection, up to RETAIN_BYTES per class, the rest is left to the gc.
+// That matters most for the direct ones, allocating them is slow and their memory only goes away with a gc.
+//
+// The tap pool is for short hand offs instead (see 'borrow'), e.g. the relay's copies for the transcript.
+public final class BufferPool {
+
+    public static final int MIN_SIZE = 256;
+    public static final int MAX_SIZE = 4 * 1024 * 1024;
+    private static final int MIN_SHIFT = 8;  // note(nschultz): log2(MIN_SIZE)
+    private static final int CLASSES   = 15; // note(nschultz): MIN_SIZE .. MAX_SIZE
+    private static final long RETAIN_BYTES = 8 * 1024 * 1024;
+    private static final int SHRINK_AFTER  = 16;
+
+    private static final BufferPool heap   = new BufferPool("heap", false);
+    private static final BufferPool direct = new BufferPool("direct", true);
+    private static final BufferPool tap    = new BufferPool("tap", false);
+
+    public final LongAdder taken   = new LongAdder();
+    public final LongAdder reused  = new LongAdder(); // note(nschultz): Taken from the pool instead of allocated
+    public final LongAdder grows   = new LongAdder();
+    public final LongAdder shrinks = new LongAdder();
+
+    private final String name;
+    private final boolean isDirect;
+    private final ArrayList<ConcurrentLinkedQueue<ByteBuffer>> idle = new ArrayList<>();
+    private final AtomicIntegerArray idleCount = new AtomicIntegerArray(CLASSES);
+    private final AtomicIntegerArray inUse     = new AtomicIntegerArray(CLASSES);
+    private final AtomicIntegerArray settled   = new AtomicIntegerArray(CLASSES); // note(nschultz): The size connections had when they were done
+
+    private BufferPool(final String name, final boolean isDirect) {
+        this.name     = name;
+        this.isDirect = isDirect;
+        for (int i = 0; i < CLASSES; ++i) {
+            this.idle.add(new ConcurrentLinkedQueue<>());
+        }
+    }
+
+    public static BufferPool heap() {
+        return heap;
+    }
+
+    public static BufferPool direct() {
+        return direct;
+    }
+
+    public static BufferPool tap() {
+        return tap;
+    }
+
+    // note(nschultz): At least 'size' bytes, cleared. Whoever ends up with it hands it to 'giveBack' once done.
+    public ByteBuffer borrow(final int size) {
+        assert size <= MAX_SIZE;
+
+        return take(classOf(size));
+    }
+
+    public void giveBack(final ByteBuffer buf) {
+        give(buf);
+    }
+
+    // note(nschultz): Starts at and stays within what the settings say
+    public Adaptive adaptive(final Settings.Snapshot settings) {
+        return new Adaptive(settings.bufSize, settings.bufSizeMin, settings.bufSizeMax);
+    }
+
+    public static int sizeOf(final int cls) {
+        return MIN_SIZE << cls;
+    }
+
+    // note(nschultz): The smallest class that holds 'size' bytes
+    public static int classOf(final int size) {
+        if (size <= MIN_SIZE) return 0;
+        return Math.min(CLASSES - 1, 32 - Integer.numberOfLeadingZeros(size - 1) - MIN_SHIFT);
+    }
+
+    private ByteBuffer take(final int cls) {
+        this.taken.increment();
+        this.inUse.incrementAndGet(cls);
+        final ByteBuffer pooled = this.idle.get(cls).poll();
+        if (pooled != null) {
+            this.idleCount.decrementAndGet(cls);
+            this.reused.increment();
+            return pooled.clear();
+        }
+        return this.isDirect ? ByteBuffer.allocateDirect(sizeOf(cls)) : ByteBuffer.allocate(sizeOf(cls));
+    }
+
+    private void give(final ByteBuffer buf) {
+        final int cls = classOf(buf.capacity());
+        assert sizeOf(cls) == buf.capacity();
+
+        this.inUse.decrementAndGet(cls);
+        if ((long) this.idleCount.incrementAndGet(cls) * sizeOf(cls) <= RETAIN_BYTES) {
+            this.idle.get(cls).offer(buf);
+        } else {
+            this.idleCount.decrementAndGet(cls);
+        }
+    }
+
+    // note(nschultz): Which sizes the connections ended up with, one line per pool that was ever used
+    public static String report() {
+        final StringBuilder sb = new StringBuilder();
+        for (final BufferPool pool : new BufferPool[] {heap, direct, tap}) {
+            if (pool.taken.sum() == 0) continue;
+
+            long idleBytes = 0;
+            for (int cls = 0; cls < CLASSES; ++cls) {
+                idleBytes += (long) pool.idleCount.get(cls) * sizeOf(cls);
+            }
+            sb.append(String.format("Read buffers (%s): in use %s, done at %s, %s idle, %d grows, %d shrinks, %d of %d taken from the pool%n",
+                                    pool.name, sizes(pool.inUse), sizes(pool.settled), Stats.formatBytes(idleBytes),
+                                    pool.grows.sum(), pool.shrinks.sum(), pool.reused.sum(), pool.taken.sum()));
+        }
+        return sb.toString();
+    }
+
+    private static String sizes(final AtomicIntegerArray counts) {
+        final StringBuilder sb = new StringBuilder();
+        for (int cls = 0; cls < CLASSES; ++cls) {
+            final int count = counts.get(cls);
+            if (count > 0) sb.append(String.format("%s%s x%d", sb.length() == 0 ? "" : ", ", Stats.formatBytes(sizeOf(cls)), count));
+        }
+        return sb.length() == 0 ? "none" : sb.toString();
+    }
+
+    // note(nschultz): One connection's read buffer, used by its reading thread alone. The fields the UI
+    // shows are volatile, everything else belongs to the reader.
+    public final class Adaptive {
+
+        private final int minClass;
+        private final int maxClass;
+        private int cls;
+        private int small = 0; // note(nschultz): Reads in a row that would have fit into a quarter
+        private ByteBuffer buf = null;
+
+        public volatile int size;
+        public volatile int peak;
+        public volatile long grows   = 0;
+        public volatile long shrinks = 0;
+
+        private Adaptive(final int initial, final int min, final int max) {
+            this.minClass = classOf(Math.min(min, max));
+            this.maxClass = classOf(Math.max(min, max));
+            this.cls  = Math.max(this.minClass, Math.min(this.maxClass, classOf(initial)));
+            this.size = sizeOf(this.cls);
+            this.peak = this.size;
+        }
+
+        // note(nschultz): Cleared, valid until the next 'adapt' or 'release'
+        public ByteBuffer buffer() {
+            if (this.buf == null) this.buf = take(this.cls);
+            return this.buf.clear();
+        }
+
+        // note(nschultz): After every read, once nothing looks at the buffer anymore
+        public void adapt(final int readBytes) {
+            final int capacity = sizeOf(this.cls);
+            if (readBytes >= capacity && this.cls < this.maxClass) {
+                this.small = 0;
+                this.grows += 1;
+                BufferPool.this.grows.increment();
+                resize(this.cls + 1);
+            } else if (readBytes <= capacity / 4 && this.cls > this.minClass) {
+                if (++this.small < SHRINK_AFTER) return;
+                this.small = 0;
+                this.shrinks += 1;
+                BufferPool.this.shrinks.increment();
+                resize(this.cls - 1);
+            } else {
+                this.small = 0;
+            }
+        }
+
+        // note(nschultz): Once the connection is done, the buffer goes back to the pool
+        public void release() {
+            if (this.buf == null) return;
+            settled.incrementAndGet(this.cls);
+            giveBack();
+        }
+
+        private void giveBack() {
+            if (this.buf != null) give(this.buf);
+            this.buf = null;
+        }
+
+        private void resize(final int cls) {
+            giveBack();
+            this.cls  = cls;
+            this.size = sizeOf(cls);
+            this.peak = Math.max(this.peak, this.size);
+        }
+
+        public String describe() {
+            return String.format("%s (%d up, %d down, peak %s)", Stats.formatBytes(this.size), this.grows, this.shrinks, Stats.formatBytes(this.peak));
+        }
+    }
+}
@@ -0,0 +1,160 @@
+//
+// Copyright (c) 2022 Niklas Schultz
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+// documentation files (the "Software"), to deal in the Software without restriction,
+// including without limitation the rights to use, copy, modify, merge, publish, distribute,
+// sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so,
+// subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED
+// TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+// IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+// WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+// SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+//
+
+import java.lang.management.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+// note(nschultz): Receiving without ever blocking. A reader parked in read() has to be woken up by the kernel
+// and scheduled again once data arrives, which costs anything from a few to a few hundred microseconds and
+// varies a lot from message to message. A busy polling reader keeps calling read() on a non-blocking channel
+// and sees the data the moment it lands, for the price of a core per connection.
+//
+// SPIN polls as fast as it can. YIELD spins for SPIN_NANOS after the last data and then yields the core
+// between polls, so other threads get to run while the line is quiet, at the cost of an occasional
+// round trip through the scheduler.
+//
+// The gap between two consecutive polls is the latest we can have noticed arriving data, so its histogram
+// is the jitter the tester itself adds to a measurement. The cpu time of the polling threads against their
+// wall time is what that costs. One instance may be shared by any number of readers.
+public final class BusyPoll {
+
+    private static final long SPIN_NANOS = 50_000;
+
+    // note(nschultz): Of the readers that stopped polling, the ones still at it are added up by 'report'
+    private final Histogram gaps   = new Histogram();
+    private final LongAdder polls  = new LongAdder();
+    private final LongAdder hits   = new LongAdder();
+    private final LongAdder yields = new LongAdder();
+    private final LongAdder cpuNanos  = new LongAdder();
+    private final LongAdder wallNanos = new LongAdder();
+    private final LongAdder readers   = new LongAdder();
+    private final CopyOnWriteArrayList<Poller> active = new CopyOnWriteArrayList<>();
+
+    private volatile Mode mode = Mode.BLOCKING; // note(nschultz): Of the last reader that started, for the report
+
+    // note(nschultz): One per reading thread, never shared. 'close' has to be called when the thread stops polling.
+    public Poller poller(final Mode mode) {
+        assert mode != Mode.BLOCKING;
+
+        this.mode = mode;
+        final Poller poller = new Poller(mode);
+        this.active.add(poller);
+        return poller;
+    }
+
+    public boolean isEmpty() {
+        return this.readers.sum() == 0 && this.active.isEmpty();
+    }
+
+    // note(nschultz): Any thread, while the readers are still polling too
+    public String report() {
+        final Histogram gaps = new Histogram();
+        gaps.add(this.gaps);
+        long polls   = this.polls.sum();
+        long hits    = this.hits.sum();
+        long yields  = this.yields.sum();
+        long cpu     = this.cpuNanos.sum();
+        long wall    = this.wallNanos.sum();
+        long readers = this.readers.sum();
+        for (final Poller poller : this.active) {
+            gaps.add(poller.gaps);
+            polls   += poller.polls.getOpaque();
+            hits    += poller.hits.getOpaque();
+            yields  += poller.yields.getOpaque();
+            cpu     += Math.max(0, poller.cpuTime() - poller.startCpu);
+            wall    += System.nanoTime() - poller.startNanos;
+            readers += 1;
+        }
+
+        final StringBuilder sb = new StringBuilder();
+        sb.append(String.format("Busy poll (%s): %d reader(s), %d polls, %d with data (%.3f%%), %d yields%n",
+                                this.mode.name().toLowerCase(), readers, polls, hits, polls == 0 ? 0.0 : 100.0 * hits / polls, yields));
+        sb.append(String.format("  poll gap:  %s (how late we may notice data)%n", gaps.summary()));
+        sb.append(String.format("  cpu:       %s of %s reading (%.0f%% of a core per reader)%n",
+                                Histogram.formatNanos(cpu), Histogram.formatNanos(wall), wall == 0 ? 0.0 : 100.0 * cpu / wall));
+        return sb.toString();
+    }
+
+    public final class Poller {
+
+        private final Mode mode;
+        private final Thread thread = Thread.currentThread();
+        private final Histogram gaps = new Histogram(); // note(nschultz): Our own, the shared one would make the readers fight
+        private final long startNanos = System.nanoTime();
+        private final long startCpu   = cpuTime();
+        // note(nschultz): Only we write them, 'report' reads them. Opaque so counting stays a plain store.
+        private final AtomicLong polls  = new AtomicLong(0);
+        private final AtomicLong hits   = new AtomicLong(0);
+        private final AtomicLong yields = new AtomicLong(0);
+        private long lastPoll = 0;
+        private long lastData = this.startNanos;
+
+        private Poller(final Mode mode) {
+            this.mode = mode;
+        }
+
+        // note(nschultz): After every read, 'now' is when it returned
+        public void polled(final long now, final boolean data) {
+            if (this.lastPoll != 0) this.gaps.record(now - this.lastPoll);
+            this.lastPoll = now;
+            this.polls.setOpaque(this.polls.getPlain() + 1);
+            if (data) {
+                this.hits.setOpaque(this.hits.getPlain() + 1);
+                this.lastData = now;
+            }
+        }
+
+        // note(nschultz): After a read that returned nothing
+        public void idle(final long now) {
+            if (this.mode == Mode.YIELD && now - this.lastData > SPIN_NANOS) {
+                this.yields.setOpaque(this.yields.getPlain() + 1);
+                Thread.yield();
+            } else {
+                Thread.onSpinWait();
+            }
+        }
+
+        public void close() {
+            assert Thread.currentThread() == this.thread;
+
+            final long cpu = cpuTime();
+            BusyPoll.this.active.remove(this);
+            BusyPoll.this.gaps.add(this.gaps);
+            BusyPoll.this.polls.add(this.polls.getPlain());
+            BusyPoll.this.hits.add(this.hits.getPlain());
+            BusyPoll.this.yields.add(this.yields.getPlain());
+            BusyPoll.this.wallNanos.add(System.nanoTime() - this.startNanos);
+            BusyPoll.this.cpuNanos.add(Math.max(0, cpu - this.startCpu));
+            BusyPoll.this.readers.increment();
+        }
+
+        // note(nschultz): 0 if the JVM can not tell. The thread bean is only loaded once somebody busy polls.
+        private long cpuTime() {
+            final ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+            if (!bean.isThreadCpuTimeSupported()) return 0;
+            return Math.max(0, bean.getThreadCpuTime(this.thread.getId()));
+        }
+    }
+
+    public enum Mode {
+        BLOCKING, // note(nschultz): The default, the reader parks in read()
+        SPIN,     // note(nschultz): Poll without ever letting go of the core
+        YIELD;    // note(nschultz): Spin a little after data, yield between polls after that
+    }
+}
@@ -19,6 +19,8 @@
 import java.awt.*;
 import java.io.*;
 import java.net.*;
+import java.nio.*;
+import java.nio.channels.*;
 import java.nio.charset.*;
 import java.util.logging.*;
 
@@ -26,8 +28,25 @@ public final class ClientConHandler implements Runnable {
 
     public Callback callback; // note(nschultz): Gets set after ctor, if not then default callback will be used
 
-    private Socket clientSocket = null;
-    private String ipv4;
+    public final Transcript transcript = new Transcript();
+    public AllocationProfile profile = new AllocationProfile(); // note(nschultz): May be replaced so several handlers share one
+    public TlsTransport.Handshakes handshakes = new TlsTransport.Handshakes(); // note(nschultz): Same, and never reset by us
+    public BusyPoll busyPoll = new BusyPoll(); // note(nschultz): Same, only counts while the receive setting asks for busy polling
+    public volatile Payload.Verifier verifier = null; // note(nschultz): If set, everything received is checked as Payload records
+    public volatile DuplexLoad duplex = null; // note(nschultz): If set, traffic is only counted (no transcript, no callback) like the built-in server modes
+
+    private volatile Transport transport = null;
+    private volatile Settings.Snapshot settings = Settings.snapshot(); // note(nschultz): Retaken on every 'start()'
+    private volatile Impairment impairment = null; // note(nschultz): Snapshot of the settings at connect time, null if none
+    private Impairment.Pipe inPipe  = null;
+    private Impairment.Pipe outPipe = null;
+    private volatile Heartbeat heartbeat = null; // note(nschultz): Same, null if none
+    private volatile Heartbeat.Monitor monitor = null;
+    private volatile Resolver.Connection connection = null;
+    private volatile BusyPoll.Mode receive = BusyPoll.Mode.BLOCKING; // note(nschultz): Of the current connection
+    private volatile long arrivalNanos = 0;
+    private volatile BufferPool.Adaptive readBuffer = null;
+    private String host;
     private int port;
 
     public ClientConHandler()  {
@@ -50,27 +69,46 @@ public final class ClientConHandler implements Runnable {
     @Override
     public void run() {
         try_open: {
-            this.clientSocket = new Socket();
+            SocketChannel channel = null;
             try {
                 final int timeoutMillis = 4000; // todo(nschultz): Dynamic
-                this.clientSocket.connect(new InetSocketAddress(ipv4, this.port), timeoutMillis); // note(nschultz): Blocks until error, timeout or connection establishment
-                // this.clientSocket.setSoTimeout(); // todo(nschultz): Later, if we have the option for a heartbeat connection
+                final Resolver.Connection connection = Resolver.shared().connect(this.host, this.port, timeoutMillis); // note(nschultz): Blocks until error, timeout or connection establishment
+                this.connection = connection;
+                channel = connection.channel;
+                // note(nschultz): No SO_TIMEOUT, dead peers are found by the heartbeat monitor (see 'watch')
 
-                // note(nschultz): We do not store the return values because
-                // we will call them for each send we are doing. If they then fail at some point
-                // we know the connection has been lost.
-                this.clientSocket.getInputStream();
-                this.clientSocket.getOutputStream();
+                // note(nschultz): The TLS handshake counts as part of establishing the connection
+                final Transport transport = this.settings.clientTls ? TlsTransport.connect(channel, Resolver.strip(this.host), this.port, this.handshakes) : new Transport.Plain(channel);
+                this.receive = this.settings.clientReceive;
+                if (this.receive != BusyPoll.Mode.BLOCKING) {
+                    if (transport instanceof Transport.Plain) {
+                        channel.configureBlocking(false); // note(nschultz): Plain keeps writing until everything is out (one sender at a time), the reads come back empty
+                    } else {
+                        Main.logger.log(Level.WARNING, "Busy polling is not supported over TLS, receiving blocking instead");
+                        this.receive = BusyPoll.Mode.BLOCKING;
+                    }
+                }
+                impair(transport);
+                this.transport = transport; // note(nschultz): Publishes the pipes as well
+                watch(transport);
 
+                this.transcript.nameConnection(0, Resolver.format(this.host, this.port));
                 this.callback.onConnectionEstablished(); // todo(nschultz): pass time it took?
             } catch (final IOException ex) {
+                if (this.transport == null && channel != null) {
+                    try {
+                        channel.close(); // note(nschultz): Connected, but the TLS handshake failed
+                    } catch (final IOException ex2) {
+                        Main.logger.log(Level.SEVERE, "Failed to cleanup client connection!");
+                    }
+                }
                 if (ex instanceof SocketTimeoutException) {
-                    Main.logger.log(Level.INFO, String.format("Failed to establish connection to '%s:%s' due to timeout", ipv4, this.port));
+                    Main.logger.log(Level.INFO, String.format("Failed to establish connection to '%s' due to timeout", Resolver.format(this.host, this.port)));
                     this.callback.onConnectionTimeout();
                     if (isConnected()) teardown(); // todo(nschultz): Perhaps we connected but were unable to obtain the streams? Is that even possible?
                     return; // note(nschultz): Prevent going into the read loop
                 } else {
-                    Main.logger.log(Level.INFO, String.format("Failed to establish connection to '%s:%s'", ipv4, this.port));
+                    Main.logger.log(Level.INFO, String.format("Failed to establish connection to '%s'", Resolver.format(this.host, this.port)));
                     this.callback.onConnectionFailure(ex.getMessage());
                     if (isConnected()) teardown(); // todo(nschultz): Perhaps we connected but were unable to obtain the streams? Is that even possible?
                     return; // note(nschultz): Prevent going into the read loop
@@ -79,83 +117,251 @@ public final class ClientConHandler implements Runnable {
         }
 
         read_loop: {
-            for (;;) {
-                try {
-                    final InputStream in = this.clientSocket.getInputStream();
-                    final byte[] buf = new byte[Settings.bufSize];
-                    final int readBytes = in.read(buf);
-                    if (readBytes == -1) {
-                        Main.logger.log(Level.INFO, String.format("Connection has been closed from '%s:%s'", ipv4, this.port));
+            final BusyPoll.Poller poller = this.receive == BusyPoll.Mode.BLOCKING ? null : this.busyPoll.poller(this.receive);
+            final BufferPool.Adaptive buffer = BufferPool.heap().adaptive(this.settings);
+            this.readBuffer = buffer;
+            try {
+                for (;;) {
+                    try {
+                        final long mark = AllocationProfile.begin();
+                        final Transport transport = this.transport;
+                        if (transport == null) throw new AsynchronousCloseException(); // note(nschultz): teardown() got in between
+                        final ByteBuffer into = buffer.buffer();
+                        final byte[] buf = into.array(); // note(nschultz): Reused, everything below copies what it keeps
+                        final int readBytes = poller == null ? transport.read(into) : poll(transport, into, poller);
+                        final long arrival = System.nanoTime();
+                        if (readBytes == -1) {
+                            Main.logger.log(Level.INFO, String.format("Connection has been closed from '%s'", Resolver.format(this.host, this.port)));
+                            teardown();
+                            return; // note(nschultz): User has to call 'start()' again
+                        } else {
+                            final DuplexLoad duplex = this.duplex;
+                            if (duplex != null) {
+                                duplex.received(readBytes);
+                            } else {
+                                this.transcript.append(0, Transcript.IN, buf, 0, readBytes);
+                            }
+                            final Payload.Verifier verifier = this.verifier;
+                            if (verifier != null) verifier.feed(buf, 0, readBytes);
+                            final Heartbeat.Monitor monitor = this.monitor;
+                            if (monitor != null) monitor.received(buf, 0, readBytes);
+                            final Impairment.Pipe inPipe = this.inPipe;
+                            if (duplex != null) {
+                                // note(nschultz): Counted, nothing else
+                            } else if (inPipe != null) {
+                                inPipe.throttle(readBytes);
+                                inPipe.submit(ByteBuffer.wrap(java.util.Arrays.copyOf(buf, readBytes))); // note(nschultz): The pipe holds on to it
+                            } else {
+                                this.arrivalNanos = arrival;
+                                this.callback.onIncomingData(new String(buf, 0, readBytes, StandardCharsets.UTF_8)); // todo(nschultz): encoding
+                            }
+                            this.profile.received.end(mark, 1);
+                            buffer.adapt(readBytes);
+                            continue;
+                        }
+                    } catch (final IOException ex) {
+                        if (!isConnected()) return; // note(nschultz): We closed it ourselves, teardown() already reported it
+                        Main.logger.log(Level.INFO, String.format("Failed to read data to '%s'", Resolver.format(this.host, this.port)));
+                        this.callback.onConnectionFailure(ex.getMessage());
                         teardown();
                         return; // note(nschultz): User has to call 'start()' again
-                    } else {
-                        this.callback.onIncomingData(new String(buf, 0, readBytes, StandardCharsets.UTF_8)); // todo(nschultz): encoding
-                        continue;
                     }
-                } catch (final IOException ex) {
-                    Main.logger.log(Level.INFO, String.format("Failed to read data to '%s:%s'", ipv4, this.port));
-                    this.callback.onConnectionFailure(ex.getMessage());
-                    teardown();
-                    return; // note(nschultz): User has to call 'start()' again
+
                 }
+            } finally {
+                if (poller != null) poller.close();
+                buffer.release();
+            }
+        }
+    }
+
+    // note(nschultz): Same contract as a blocking read, but we never park. A teardown() closes the channel,
+    // which makes the next read throw like it would wake up a blocked one.
+    private static int poll(final Transport transport, final ByteBuffer buf, final BusyPoll.Poller poller) throws IOException {
+        for (;;) {
+            final int readBytes = transport.read(buf);
+            final long now = System.nanoTime();
+            poller.polled(now, readBytes != 0);
+            if (readBytes != 0) return readBytes;
+            poller.idle(now);
+        }
+    }
 
+    // note(nschultz): Everything we send and receive goes through a pipe if the settings ask for it.
+    // Received segments are decoded one by one, a multi byte character cut in half shows up broken
+    // in the output, which is exactly what a badly written peer would see too.
+    private void impair(final Transport transport) {
+        Impairment impairment = null;
+        try {
+            impairment = Impairment.fromSettings(this.settings, this.impairment);
+        } catch (final IllegalArgumentException ex) {
+            Main.logger.log(Level.WARNING, "Ignoring invalid impairment: " + ex.getMessage());
+        }
+
+        this.impairment = impairment;
+        this.inPipe     = null;
+        this.outPipe    = null;
+        if (impairment == null) return;
+
+        impairment.prepare(transport.channel());
+        this.outPipe = impairment.newPipe(Impairment.OUT, 0, new Impairment.Sink() {
+            @Override public void accept(final ByteBuffer segment) throws IOException {
+                transport.write(segment);
+            }
+            @Override public void failed(final IOException ex) {
+                if (!transport.isOpen()) return;
+                Main.logger.log(Level.INFO, String.format("Failed to write data to '%s'", Resolver.format(host, port)));
+                callback.onConnectionFailure(ex.getMessage());
+                teardown();
+            }
+        });
+        this.inPipe = impairment.newPipe(Impairment.IN, 0, new Impairment.Sink() {
+            @Override public void accept(final ByteBuffer segment) {
+                arrivalNanos = System.nanoTime(); // note(nschultz): The reader does not deliver anything while the pipe is in place
+                callback.onIncomingData(StandardCharsets.UTF_8.decode(segment).toString()); // todo(nschultz): encoding
+            }
+            @Override public void failed(final IOException ex) {
+                assert false : "Delivering to the callback does not fail";
             }
+        });
+    }
+
+    // note(nschultz): null unless the current connection is impaired
+    public Impairment impairment() {
+        return this.impairment;
+    }
+
+    // note(nschultz): Heartbeats go through 'send' like everything else, so they are impaired and
+    // recorded as well. Both callbacks make sure they still talk about the current connection.
+    private void watch(final Transport transport) {
+        Heartbeat heartbeat = null;
+        try {
+            heartbeat = Heartbeat.fromSettings(this.settings);
+        } catch (final IllegalArgumentException ex) {
+            Main.logger.log(Level.WARNING, "Ignoring invalid heartbeat: " + ex.getMessage());
         }
+
+        this.heartbeat = heartbeat;
+        this.monitor   = null;
+        if (heartbeat == null) return;
+
+        this.monitor = heartbeat.monitor(Resolver.format(this.host, this.port), new Heartbeat.Peer() {
+            @Override public void send(final String data) {
+                if (ClientConHandler.this.transport == transport && isConnected()) ClientConHandler.this.send(data);
+            }
+            @Override public void stale(final String reason, final boolean close) {
+                if (ClientConHandler.this.transport != transport) return;
+                callback.onConnectionFailure(String.format("connection is stale, %s%s", reason, close ? "" : " (flagged only)"));
+                if (close) teardown();
+            }
+        });
     }
 
-    public void start(final String ipv4, final int port) {
-        assert ipv4 != null;
-        assert port >= 1 && port <= 65535;
+    // note(nschultz): null unless the current connection runs with heartbeats or an idle timeout
+    public Heartbeat heartbeat() {
+        return this.heartbeat;
+    }
+
+    // note(nschultz): 'host' is a name, an IPv4 or an IPv6 literal (brackets optional) or 'unix:<path>'
+    // for a unix domain socket, the port is ignored then
+    public void start(final String host, final int port) {
+        assert host != null;
+        assert Resolver.isUnix(host) || (port >= 1 && port <= 65535);
         assert !isConnected();
 
-        this.ipv4 = ipv4;
-        this.port = port;
+        this.host     = host;
+        this.port     = port;
+        this.settings = Settings.snapshot();
+
+        Network.execute("ClientConHandlerThread", this);
+    }
+
+    // note(nschultz): When the data currently handed to 'onIncomingData' was received (or came out of the impairment),
+    // only meaningful inside that callback. Busy polling makes this the moment it landed in the socket.
+    public long arrivalNanos() {
+        return this.arrivalNanos;
+    }
+
+    // note(nschultz): The current (or last) connection's read buffer, null before the first connect
+    public BufferPool.Adaptive readBuffer() {
+        return this.readBuffer;
+    }
+
+    // note(nschultz): How the current (or last) connection receives
+    public BusyPoll.Mode receive() {
+        return this.receive;
+    }
+
+    // note(nschultz): Which address the current (or last) connect ended up with and how long it took, null before that
+    public Resolver.Connection connection() {
+        return this.connection;
+    }
 
-        final Thread thread = new Thread(this);
-        thread.setName("ClientConHandlerThread");
-        thread.setDaemon(true);
-        thread.start();
+    // note(nschultz): What the current (or last) connection runs with
+    public Settings.Snapshot settings() {
+        return this.settings;
     }
 
     public boolean isConnected() {
-        if (this.clientSocket != null) {
-            try {
-                this.clientSocket.getInputStream();
-                this.clientSocket.getOutputStream();
-                return true;
-            } catch (final IOException ex) {
-                return false;
-            }
-        } else {
-            return false;
-        }
+        final Transport transport = this.transport;
+        return transport != null && transport.isOpen();
+    }
+
+    // note(nschultz): 'plain' or the TLS protocol, cipher suite and handshake details
+    public String describeTransport() {
+        final Transport transport = this.transport;
+        return transport == null ? "not connected" : transport.describe();
     }
 
     public void send(final String data) {
-        assert isConnected();
+        final long mark = AllocationProfile.begin();
+        send(data.getBytes(StandardCharsets.UTF_8), mark); // todo(nschultz): encoding
+    }
+
+    // note(nschultz): The array is not copied, it must not change after this call (the impairment may still hold it).
+    // false if the connection is gone (or just went away because of this write).
+    public boolean send(final byte[] data) {
+        return send(data, AllocationProfile.begin());
+    }
+
+    // note(nschultz): Any thread. The generators, the heartbeat and the UI all send, any of them may
+    // find the connection torn down in between, that is not an error, the data is simply not sent.
+    private boolean send(final byte[] bytes, final long mark) {
+        final Transport transport = this.transport;
+        if (transport == null) return false;
 
         try {
-            final OutputStream out = this.clientSocket.getOutputStream();
-            out.write(data.getBytes(StandardCharsets.UTF_8)); // todo(nschultz): encoding
-            out.flush();
+            if (this.duplex == null) this.transcript.append(0, Transcript.OUT, bytes, 0, bytes.length);
+            final Impairment.Pipe outPipe = this.outPipe;
+            if (outPipe != null) {
+                outPipe.submit(ByteBuffer.wrap(bytes)); // note(nschultz): Errors are reported by the pipe's sink
+            } else {
+                transport.write(ByteBuffer.wrap(bytes));
+            }
+            this.profile.sent.end(mark, 1);
+            return true;
         } catch (final IOException ex) {
-            Main.logger.log(Level.INFO, String.format("Failed to write data to '%s:%s'", this.clientSocket.getInetAddress(), this.clientSocket.getPort()));
+            if (!transport.isOpen()) return false; // note(nschultz): teardown() got in between, it already reported it
+            Main.logger.log(Level.INFO, String.format("Failed to write data to '%s'", Resolver.format(this.host, this.port)));
             this.callback.onConnectionFailure(ex.getMessage());
             teardown();
+            return false;
         }
     }
 
     public void teardown() {
-        if (!isConnected()) {
-            this.clientSocket = null;
+        final Heartbeat.Monitor monitor = this.monitor;
+        if (monitor != null) monitor.stop();
+
+        final Transport transport = this.transport;
+        if (transport == null || !transport.isOpen()) {
+            this.transport = null;
             return;
         }
 
         try {
-            this.clientSocket.close();
-            this.clientSocket = null;
-            Runtime.getRuntime().gc();
-            Runtime.getRuntime().runFinalization();
+            this.transport = null;
+            transport.close();
             this.callback.onConnectionReleased();
         } catch (final IOException ex) {
             Main.logger.log(Level.SEVERE, "Failed to cleanup client connection!");
@@ -0,0 +1,113 @@
+//
+// Copyright (c) 2022 Niklas Schultz
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+// documentation files (the "Software"), to deal in the Software without restriction,
+// including without limitation the rights to use, copy, modify, merge, publish, distribute,
+// sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so,
+// subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED
+// TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+// IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+// WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+// SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+//
+
+// note(nschultz): Plugin interface for protocol decoders. A dissector gets one message (one transcript
+// frame, i.e. one read or one send, as a slice of a byte array it must not modify) and returns a
+// tree of fields. Values and children are evaluated lazily, the view only asks for what it shows.
+//
+// Plugins are found with java.util.ServiceLoader, see Dissectors. A plugin jar in the 'plugins' directory
+// contains its classes plus 'META-INF/services/Dissector' naming them. This program lives in the
+// unnamed package, so the plugin classes have to be in the unnamed package as well.
+//
+//     public final class MyDissector implements Dissector {
+//         public String name() { return "My protocol"; }
+//         public boolean accepts(final byte[] data, final int off, final int len) {
+//             return len >= 4 && data[off] == (byte) 0xA5;
+//         }
+//         public Dissector.Field dissect(final byte[] data, final int off, final int len) {
+//             return Dissector.Field.node("My message", 0, len, () -> "type " + data[off + 1], () -> java.util.List.of(
+//                 Dissector.Field.leaf("magic",  0, 1, "0xA5"),
+//                 Dissector.Field.leaf("type",   1, 1, String.valueOf(data[off + 1])),
+//                 Dissector.Field.leaf("length", 2, 2, String.valueOf(((data[off + 2] & 0xFF) << 8) | (data[off + 3] & 0xFF)))));
+//         }
+//     }
+//
+// The lambdas may run later and on another thread, dissect() should copy what they need if that matters
+// (the transcript never changes bytes it handed out, so capturing 'data' as above is fine).
+public interface Dissector {
+
+    public String name();
+
+    // note(nschultz): Cheap look at a message, the first dissector that says yes gets to dissect it
+    public boolean accepts(final byte[] data, final int off, final int len);
+
+    // note(nschultz): Offsets in the returned tree are relative to 'off'
+    public Field dissect(final byte[] data, final int off, final int len);
+
+    public static final class Field {
+
+        public final String name;
+        public final int offset;
+        public final int length;
+
+        private final Lambdas.Nullary<String> valueThunk;
+        private final Lambdas.Nullary<java.util.List<Field>> childrenThunk;
+        private volatile String value = null;
+        private volatile java.util.List<Field> children = null;
+
+        private Field(final String name, final int offset, final int length,
+                      final Lambdas.Nullary<String> value, final Lambdas.Nullary<java.util.List<Field>> children) {
+            assert name != null;
+            assert offset >= 0 && length >= 0;
+
+            this.name          = name;
+            this.offset        = offset;
+            this.length        = length;
+            this.valueThunk    = value;
+            this.childrenThunk = children;
+        }
+
+        public static Field leaf(final String name, final int offset, final int length, final String value) {
+            final Field field = new Field(name, offset, length, null, null);
+            field.value    = value == null ? "" : value;
+            field.children = java.util.List.of();
+            return field;
+        }
+
+        // note(nschultz): Either lambda may be null (no value, no children)
+        public static Field node(final String name, final int offset, final int length,
+                                 final Lambdas.Nullary<String> value, final Lambdas.Nullary<java.util.List<Field>> children) {
+            return new Field(name, offset, length, value, children);
+        }
+
+        // note(nschultz): Evaluated on first use, a racing second evaluation is harmless
+        public String value() {
+            String value = this.value;
+            if (value == null) {
+                value = this.valueThunk == null ? "" : String.valueOf(this.valueThunk.call());
+                this.value = value;
+            }
+            return value;
+        }
+
+        public java.util.List<Field> children() {
+            java.util.List<Field> children = this.children;
+            if (children == null) {
+                children = this.childrenThunk == null ? java.util.List.of() : java.util.List.copyOf(this.childrenThunk.call());
+                this.children = children;
+            }
+            return children;
+        }
+
+        @Override
+        public String toString() {
+            final String value = value();
+            return value.isEmpty() ? this.name : this.name + ": " + value;
+        }
+    }
+}
@@ -0,0 +1,340 @@
+//
+// Copyright (c) 2022 Niklas Schultz
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+// documentation files (the "Software"), to deal in the Software without restriction,
+// including without limitation the rights to use, copy, modify, merge, publish, distribute,
+// sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so,
+// subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED
+// TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+// IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+// WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+// SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+//
+
+import java.awt.*;
+import java.awt.event.*;
+import java.time.*;
+import java.time.format.*;
+import java.util.*;
+import java.util.concurrent.atomic.*;
+import javax.swing.*;
+import javax.swing.table.*;
+import javax.swing.tree.*;
+
+// note(nschultz): Transcript frames (one read or one write each) in a table, the selected one taken apart
+// by a dissector below it. Like the hex view the table is virtual: only rows that are actually painted
+// get dissected, on the dissector thread, and only their one line summary is kept (in a small cache),
+// never the field tree. The tree exists for the selected frame only.
+//
+// While the view is not showing its timer is stopped, so incoming traffic costs it nothing.
+@SuppressWarnings("serial")
+public final class DissectorView extends JPanel {
+
+    private static final int MAX_ROWS   = 1_000_000; // note(nschultz): Older frames are still in the transcript, just not listed
+    private static final int CACHE_ROWS = 4096;
+    private static final int MAX_NODES  = 5000;
+    private static final int HEX_MAX    = 64;
+
+    private static final DateTimeFormatter TIME = DateTimeFormatter.ofPattern("HH:mm:ss.SSS").withZone(ZoneId.systemDefault());
+    private static final String[] COLUMNS = {"Frame", "Time", "Connection", "Dir", "Length", "Dissector", "Summary"};
+
+    private final Transcript transcript;
+    private final javax.swing.Timer refreshTimer;
+    private final Rows rows = new Rows();
+    private final JTable table = new JTable(this.rows);
+    private final JTree tree = new JTree(new DefaultTreeModel(null));
+    private final JLabel detail = new JLabel(" ");
+
+    // note(nschultz): Event thread only
+    private final LinkedHashMap<Long, Row> cache = new LinkedHashMap<>(CACHE_ROWS, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(final Map.Entry<Long, Row> eldest) {
+            return size() > CACHE_ROWS;
+        }
+    };
+    private final HashSet<Long> pending = new HashSet<>();
+    private long knownFirst = 0;
+    private long knownEnd   = 0;
+    private byte[] selected = null; // note(nschultz): Bytes of the frame the tree shows
+    private boolean restoring = false;
+
+    // note(nschultz): Read by the dissector thread to drop requests for rows that were scrolled away
+    private volatile long visibleFirst = 0;
+    private volatile long visibleEnd   = 0;
+    private final AtomicLong treeGeneration = new AtomicLong();
+
+    public DissectorView(final Transcript transcript) {
+        super(new BorderLayout());
+        assert transcript != null;
+
+        this.transcript = transcript;
+
+        this.table.setFont(new Font(Font.MONOSPACED, Font.PLAIN, 13));
+        this.table.setRowHeight(this.table.getFontMetrics(this.table.getFont()).getHeight() + 2);
+        this.table.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
+        this.table.setAutoResizeMode(JTable.AUTO_RESIZE_LAST_COLUMN);
+        final int[] widths = {90, 100, 160, 40, 70, 90, 500};
+        for (int i = 0; i < widths.length; ++i) {
+            this.table.getColumnModel().getColumn(i).setPreferredWidth(widths[i]);
+        }
+        this.table.getSelectionModel().addListSelectionListener(e -> {
+            if (!e.getValueIsAdjusting() && !this.restoring) showSelected();
+        });
+
+        this.tree.setFont(new Font(Font.MONOSPACED, Font.PLAIN, 13));
+        this.tree.setRootVisible(true);
+        this.tree.addTreeSelectionListener(e -> showField());
+        this.detail.setFont(new Font(Font.MONOSPACED, Font.PLAIN, 13));
+
+        final JScrollPane tableScroll = new JScrollPane(this.table);
+        tableScroll.getViewport().addChangeListener(e -> updateVisible());
+
+        final JPanel fields = new JPanel(new BorderLayout());
+        fields.add(new JScrollPane(this.tree), BorderLayout.CENTER);
+        fields.add(this.detail, BorderLayout.SOUTH);
+
+        final JSplitPane split = new JSplitPane(JSplitPane.VERTICAL_SPLIT, tableScroll, fields);
+        split.setResizeWeight(0.6);
+        add(split, BorderLayout.CENTER);
+
+        this.refreshTimer = new javax.swing.Timer(250, e -> refresh());
+        addHierarchyListener(e -> {
+            if ((e.getChangeFlags() & HierarchyEvent.SHOWING_CHANGED) != 0) {
+                if (isShowing()) {
+                    refresh();
+                    this.refreshTimer.start();
+                } else {
+                    this.refreshTimer.stop();
+                }
+            }
+        });
+    }
+
+    // note(nschultz): Only adjusts the row count, rows are dissected when painted
+    public void refresh() {
+        assert EventQueue.isDispatchThread();
+
+        final long end   = this.transcript.endFrame();
+        final long first = Math.max(this.transcript.firstFrame(), end - MAX_ROWS);
+        if (end == this.knownEnd && first == this.knownFirst) return;
+
+        final JViewport viewport = (JViewport) SwingUtilities.getAncestorOfClass(JViewport.class, this.table);
+        final boolean atBottom = viewport == null
+                                 || viewport.getViewPosition().y + viewport.getExtentSize().height >= this.table.getHeight() - this.table.getRowHeight();
+        final long selectedFrame = selectedFrame();
+
+        final long oldFirst = this.knownFirst;
+        final long oldEnd   = this.knownEnd;
+        this.knownFirst = first;
+        this.knownEnd   = end;
+        if (first == oldFirst && end > oldEnd) {
+            this.rows.fireTableRowsInserted((int) (oldEnd - first), (int) (end - first) - 1);
+        } else {
+            // note(nschultz): The transcript trimmed, every row index shifts. Keep the selection (and the tree) on the same frame.
+            this.restoring = true;
+            try {
+                this.rows.fireTableDataChanged();
+                if (selectedFrame >= first && selectedFrame < end) {
+                    final int row = (int) (selectedFrame - first);
+                    this.table.setRowSelectionInterval(row, row);
+                }
+            } finally {
+                this.restoring = false;
+            }
+            if (selectedFrame != selectedFrame()) showSelected();
+        }
+
+        if (atBottom && viewport != null && end > first) {
+            // note(nschultz): Follow the tail like the text view does, unless the user scrolled up
+            EventQueue.invokeLater(() -> this.table.scrollRectToVisible(this.table.getCellRect(this.rows.getRowCount() - 1, 0, true)));
+        }
+        updateVisible();
+    }
+
+    private long selectedFrame() {
+        final int row = this.table.getSelectedRow();
+        return row < 0 ? -1 : this.knownFirst + row;
+    }
+
+    private void updateVisible() {
+        final Rectangle visible = this.table.getVisibleRect();
+        final int rowHeight = Math.max(1, this.table.getRowHeight());
+        this.visibleFirst = this.knownFirst + visible.y / rowHeight;
+        this.visibleEnd   = this.knownFirst + (visible.y + visible.height) / rowHeight + 1;
+    }
+
+    private Row row(final long index) {
+        assert EventQueue.isDispatchThread();
+
+        final Row row = this.cache.get(index);
+        if (row != null || !this.pending.add(index)) return row;
+
+        updateVisible(); // note(nschultz): Called while painting, so the visible rect is current
+
+        Dissectors.execute(() -> {
+            final Row computed = index >= this.visibleFirst && index < this.visibleEnd ? dissectRow(index) : null;
+            EventQueue.invokeLater(() -> {
+                this.pending.remove(index);
+                if (computed == null) return; // note(nschultz): Scrolled away, asked for again when painted
+                this.cache.put(index, computed);
+                if (index >= this.knownFirst && index < this.knownEnd) {
+                    final int r = (int) (index - this.knownFirst);
+                    this.rows.fireTableRowsUpdated(r, r);
+                }
+            });
+        });
+        return null;
+    }
+
+    // note(nschultz): Dissector thread
+    private Row dissectRow(final long index) {
+        final Transcript.Frame frame = this.transcript.frame(index);
+        if (frame == null) return new Row("", "", "", "", "", "(trimmed)");
+
+        final byte[] data = frame.bytes();
+        final Dissector dissector = Dissectors.choose(data, 0, data.length);
+        final Dissector.Field root = Dissectors.dissect(dissector, data, 0, data.length);
+        String summary;
+        try {
+            summary = root.value();
+        } catch (final RuntimeException ex) {
+            summary = "dissector failed: " + ex;
+        }
+        return new Row(TIME.format(Instant.ofEpochMilli(frame.wallMillis())),
+                       this.transcript.connectionName(frame.conn),
+                       frame.dir == Transcript.IN ? "in" : "out",
+                       String.valueOf(frame.length),
+                       dissector.name(),
+                       summary);
+    }
+
+    private void showSelected() {
+        assert EventQueue.isDispatchThread();
+
+        final long index = selectedFrame();
+        final long generation = this.treeGeneration.incrementAndGet();
+        if (index < 0) {
+            this.selected = null;
+            ((DefaultTreeModel) this.tree.getModel()).setRoot(null);
+            this.detail.setText(" ");
+            return;
+        }
+
+        Dissectors.execute(() -> {
+            if (this.treeGeneration.get() != generation) return; // note(nschultz): Already selected something else
+            final Transcript.Frame frame = this.transcript.frame(index);
+            final byte[] data = frame == null ? new byte[0] : frame.bytes();
+            final Dissector.Field root = frame == null
+                                         ? Dissector.Field.leaf("frame " + index, 0, 0, "trimmed")
+                                         : Dissectors.dissect(Dissectors.choose(data, 0, data.length), data, 0, data.length);
+            final int[] budget = {MAX_NODES};
+            final DefaultMutableTreeNode node = treeNode(root, budget);
+            EventQueue.invokeLater(() -> {
+                if (this.treeGeneration.get() != generation) return;
+                this.selected = data;
+                ((DefaultTreeModel) this.tree.getModel()).setRoot(node);
+                this.tree.expandRow(0);
+                this.detail.setText(" ");
+            });
+        });
+    }
+
+    // note(nschultz): Dissector thread. Forces the lazy values so the event thread never runs plugin code.
+    private static DefaultMutableTreeNode treeNode(final Dissector.Field field, final int[] budget) {
+        --budget[0];
+        final DefaultMutableTreeNode node = new DefaultMutableTreeNode(new Node(field, describe(field)));
+        final java.util.List<Dissector.Field> children;
+        try {
+            children = field.children();
+        } catch (final RuntimeException ex) {
+            node.add(new DefaultMutableTreeNode(new Node(null, "dissector failed: " + ex)));
+            return node;
+        }
+        for (final Dissector.Field child : children) {
+            if (budget[0] <= 0) {
+                node.add(new DefaultMutableTreeNode(new Node(null, "... (more fields not shown)")));
+                break;
+            }
+            node.add(treeNode(child, budget));
+        }
+        return node;
+    }
+
+    private static String describe(final Dissector.Field field) {
+        try {
+            return field.toString();
+        } catch (final RuntimeException ex) {
+            return field.name + ": dissector failed: " + ex;
+        }
+    }
+
+    private void showField() {
+        final TreePath path = this.tree.getSelectionPath();
+        final byte[] data = this.selected;
+        if (path == null || data == null) {
+            this.detail.setText(" ");
+            return;
+        }
+        final Node node = (Node) ((DefaultMutableTreeNode) path.getLastPathComponent()).getUserObject();
+        if (node.field == null) {
+            this.detail.setText(" ");
+            return;
+        }
+
+        final int from = Math.max(0, Math.min(data.length, node.field.offset));
+        final int to   = Math.max(from, Math.min(data.length, node.field.offset + node.field.length));
+        final StringBuilder sb = new StringBuilder(String.format("offset %d, length %d:", node.field.offset, node.field.length));
+        for (int i = from; i < Math.min(to, from + HEX_MAX); ++i) {
+            sb.append(String.format(" %02X", data[i] & 0xFF));
+        }
+        if (to - from > HEX_MAX) sb.append(" ...");
+        this.detail.setText(sb.toString());
+    }
+
+    private static final class Row {
+
+        final String[] cells;
+
+        Row(final String time, final String conn, final String dir, final String length, final String dissector, final String summary) {
+            this.cells = new String[] {time, conn, dir, length, dissector, summary};
+        }
+    }
+
+    private static final class Node {
+
+        final Dissector.Field field; // note(nschultz): null for the placeholders we add ourselves
+        final String text;
+
+        Node(final Dissector.Field field, final String text) {
+            this.field = field;
+            this.text  = text;
+        }
+
+        @Override
+        public String toString() {
+            return this.text;
+        }
+    }
+
+    private final class Rows extends AbstractTableModel {
+
+        @Override public int getRowCount()                    { return (int) (knownEnd - knownFirst); }
+        @Override public int getColumnCount()                 { return COLUMNS.length; }
+        @Override public String getColumnName(final int col)  { return COLUMNS[col]; }
+
+        @Override
+        public Object getValueAt(final int r, final int col) {
+            final long index = knownFirst + r;
+            if (col == 0) return index;
+
+            final Row row = row(index);
+            if (row == null) return col == COLUMNS.length - 1 ? "..." : "";
+            return row.cells[col - 1];
+        }
+    }
+}
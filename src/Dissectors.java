@@ -0,0 +1,229 @@
+//
+// Copyright (c) 2022 Niklas Schultz
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+// documentation files (the "Software"), to deal in the Software without restriction,
+// including without limitation the rights to use, copy, modify, merge, publish, distribute,
+// sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so,
+// subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED
+// TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+// IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+// WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+// SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+//
+
+import java.io.*;
+import java.net.*;
+import java.nio.charset.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.logging.*;
+
+// note(nschultz): The installed dissectors, plugins first (in the order ServiceLoader finds them) and the
+// built-in STX/ETX and text dissectors last, the text one takes anything. Plugin jars are picked up from
+// the 'plugins' directory (or -Ddissector.plugins=<dir>) and from the class path. Loading happens once,
+// the first time a message is dissected.
+//
+// All dissecting is done on one background thread, never on the event thread. A plugin that throws only
+// costs the message it was looking at, it shows up as a 'dissector failed' field.
+public final class Dissectors {
+
+    private static final int MAX_LINES   = 1000; // note(nschultz): A tree with more nodes than that helps nobody
+    private static final int PREVIEW_MAX = 80;
+
+    private static final ExecutorService executor = Executors.newSingleThreadExecutor(r -> {
+        final Thread thread = new Thread(r);
+        thread.setName("DissectorThread");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private static java.util.List<Dissector> installed = null; // note(nschultz): Guarded by Dissectors.class
+
+    private Dissectors() {
+        assert false;
+    }
+
+    public static synchronized java.util.List<Dissector> installed() {
+        if (installed == null) installed = load();
+        return installed;
+    }
+
+    // note(nschultz): Runs 'task' on the dissector thread
+    public static void execute(final Runnable task) {
+        executor.execute(task);
+    }
+
+    public static Dissector choose(final byte[] data, final int off, final int len) {
+        for (final Dissector dissector : installed()) {
+            try {
+                if (dissector.accepts(data, off, len)) return dissector;
+            } catch (final RuntimeException ex) {
+                Main.logger.log(Level.WARNING, String.format("Dissector '%s' failed to look at a message", dissector.name()), ex);
+            }
+        }
+        assert false : "The text dissector accepts everything";
+        return null;
+    }
+
+    // note(nschultz): Never throws because of a broken plugin, the failure becomes the field
+    public static Dissector.Field dissect(final Dissector dissector, final byte[] data, final int off, final int len) {
+        try {
+            final Dissector.Field root = dissector.dissect(data, off, len);
+            if (root != null) return root;
+            return Dissector.Field.leaf(dissector.name(), 0, len, "dissector returned nothing");
+        } catch (final RuntimeException ex) {
+            Main.logger.log(Level.WARNING, String.format("Dissector '%s' failed", dissector.name()), ex);
+            return Dissector.Field.leaf(dissector.name(), 0, len, "dissector failed: " + ex);
+        }
+    }
+
+    private static java.util.List<Dissector> load() {
+        final ArrayList<Dissector> dissectors = new ArrayList<>();
+        final Iterator<Dissector> plugins = ServiceLoader.load(Dissector.class, pluginLoader()).iterator();
+        for (;;) {
+            try {
+                if (!plugins.hasNext()) break;
+                final Dissector plugin = plugins.next();
+                dissectors.add(plugin);
+                Main.logger.log(Level.INFO, String.format("Loaded dissector '%s' (%s)", plugin.name(), plugin.getClass().getName()));
+            } catch (final ServiceConfigurationError ex) {
+                Main.logger.log(Level.WARNING, "Skipping a dissector plugin that failed to load", ex);
+            }
+        }
+        dissectors.add(new StxEtx());
+        dissectors.add(new Text());
+        return java.util.List.copyOf(dissectors);
+    }
+
+    private static ClassLoader pluginLoader() {
+        final ClassLoader parent = Dissectors.class.getClassLoader();
+        final File[] jars = new File(System.getProperty("dissector.plugins", "plugins")).listFiles((dir, name) -> name.endsWith(".jar"));
+        if (jars == null || jars.length == 0) return parent;
+
+        Arrays.sort(jars); // note(nschultz): listFiles has no defined order, plugins are tried in this order
+        final ArrayList<URL> urls = new ArrayList<>();
+        for (final File jar : jars) {
+            try {
+                urls.add(jar.toURI().toURL());
+            } catch (final MalformedURLException ex) {
+                Main.logger.log(Level.WARNING, "Skipping dissector plugin " + jar, ex);
+            }
+        }
+        return new URLClassLoader(urls.toArray(new URL[0]), parent);
+    }
+
+    // note(nschultz): Up to 'max' characters of UTF-8 text, control characters escaped
+    static String preview(final byte[] data, final int off, final int len, final int max) {
+        final String text = new String(data, off, len, StandardCharsets.UTF_8);
+        final StringBuilder sb = new StringBuilder(Math.min(text.length(), max) + 8);
+        for (int i = 0; i < text.length() && sb.length() < max; ++i) {
+            final char c = text.charAt(i);
+            switch (c) {
+                case '\n' -> sb.append("\\n");
+                case '\r' -> sb.append("\\r");
+                case '\t' -> sb.append("\\t");
+                default   -> {
+                    if (c < 0x20 || c == 0x7F) sb.append(String.format("\\x%02X", (int) c));
+                    else                       sb.append(c);
+                }
+            }
+        }
+        if (sb.length() >= max) sb.append("...");
+        return sb.toString();
+    }
+
+    // note(nschultz): What 'Wrap STX-ETX' sends, one or more STX ... ETX messages per read
+    private static final class StxEtx implements Dissector {
+
+        private static final byte STX = 0x02;
+        private static final byte ETX = 0x03;
+
+        @Override
+        public String name() {
+            return "STX/ETX";
+        }
+
+        @Override
+        public boolean accepts(final byte[] data, final int off, final int len) {
+            for (int i = off; i < off + len; ++i) {
+                if (data[i] == STX) return true;
+            }
+            return false;
+        }
+
+        @Override
+        public Field dissect(final byte[] data, final int off, final int len) {
+            final ArrayList<Field> messages = new ArrayList<>();
+            int i = 0;
+            int unframedFrom = 0;
+            while (i < len) {
+                if (data[off + i] != STX) {
+                    ++i;
+                    continue;
+                }
+                int end = i + 1;
+                while (end < len && data[off + end] != ETX) ++end;
+
+                if (i > unframedFrom) messages.add(Field.leaf("unframed", unframedFrom, i - unframedFrom, preview(data, off + unframedFrom, i - unframedFrom, PREVIEW_MAX)));
+                final int start    = i;
+                final boolean done = end < len;
+                final int payload  = end - start - 1;
+                final int length   = done ? payload + 2 : payload + 1;
+                messages.add(Field.node(done ? "message" : "message (no ETX)", start, length,
+                                        () -> preview(data, off + start + 1, payload, PREVIEW_MAX),
+                                        () -> {
+                                            final ArrayList<Field> parts = new ArrayList<>();
+                                            parts.add(Field.leaf("STX", start, 1, "0x02"));
+                                            parts.add(Field.leaf("payload", start + 1, payload, preview(data, off + start + 1, payload, Integer.MAX_VALUE)));
+                                            if (done) parts.add(Field.leaf("ETX", start + 1 + payload, 1, "0x03"));
+                                            return parts;
+                                        }));
+                i = start + length;
+                unframedFrom = i;
+            }
+            if (len > unframedFrom) messages.add(Field.leaf("unframed", unframedFrom, len - unframedFrom, preview(data, off + unframedFrom, len - unframedFrom, PREVIEW_MAX)));
+
+            final long framed = messages.stream().filter(m -> m.name.startsWith("message")).count();
+            return Field.node("STX/ETX", 0, len, () -> String.format("%d message(s)", framed), () -> messages);
+        }
+    }
+
+    // note(nschultz): Fallback for anything else, one field per line
+    private static final class Text implements Dissector {
+
+        @Override
+        public String name() {
+            return "Text";
+        }
+
+        @Override
+        public boolean accepts(final byte[] data, final int off, final int len) {
+            return true;
+        }
+
+        @Override
+        public Field dissect(final byte[] data, final int off, final int len) {
+            return Field.node("Text", 0, len, () -> preview(data, off, len, PREVIEW_MAX), () -> {
+                final ArrayList<Field> lines = new ArrayList<>();
+                int start = 0;
+                while (start < len) {
+                    if (lines.size() == MAX_LINES) {
+                        lines.add(Field.leaf("...", start, len - start, "more lines not shown"));
+                        break;
+                    }
+                    int end = start;
+                    while (end < len && data[off + end] != '\n') ++end;
+                    final int lineLen = Math.min(len, end + 1) - start; // note(nschultz): Including the new line
+                    lines.add(Field.leaf("line " + (lines.size() + 1), start, lineLen, preview(data, off + start, lineLen, Integer.MAX_VALUE)));
+                    start += lineLen;
+                }
+                return lines;
+            });
+        }
+    }
+}
@@ -0,0 +1,249 @@
+//
+// Copyright (c) 2022 Niklas Schultz
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+// documentation files (the "Software"), to deal in the Software without restriction,
+// including without limitation the rights to use, copy, modify, merge, publish, distribute,
+// sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so,
+// subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED
+// TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+// IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+// WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+// SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+//
+
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.logging.*;
+
+// note(nschultz): Full duplex saturation of one connection. A writer thread sends the payload back to back
+// as fast as the connection takes it, while the connection's own reader counts whatever arrives, at the same
+// time and independent of each other. Half duplex tests (send, wait, read) never have both windows full at
+// once, so they miss the protocols that only work as long as somebody keeps reading.
+//
+// Head of line blocking shows up on both sides:
+//
+//     write time   a blocking write only returns once the kernel took all of it, a write that takes longer
+//                  than STALL_NANOS waited for the peer's window, which means the peer's reader fell behind
+//     read gap     time between two reads while we were saturating, our reader falling behind (or the peer's writer)
+//
+// If neither direction moved for STUCK_NANOS while a write was pending, both ends are most likely blocked in
+// a write with nobody reading (the classic duplex deadlock). That is counted and logged, never resolved by us.
+public final class DuplexLoad {
+
+    public static final long STALL_NANOS = 1_000_000;
+    private static final long STUCK_NANOS = 2_000_000_000L;
+    private static final long WATCH_NANOS = 250_000_000L;
+
+    public final Stats stats = new Stats();
+    public final Histogram writeTime = new Histogram();
+    public final Histogram readGap   = new Histogram();
+    public final AtomicLong stalls       = new AtomicLong(0);
+    public final AtomicLong stalledNanos = new AtomicLong(0);
+    public final AtomicLong stuck        = new AtomicLong(0); // note(nschultz): Times we saw no progress for STUCK_NANOS
+    public volatile long longestStuckNanos = 0;
+
+    private final String name;
+    private final long durationNanos;
+    private final Payload.Generator payload;
+    private final Lambdas.Unary<Boolean, byte[]> sender;
+    private final ConcurrentLinkedQueue<Lambdas.Nullary<Void>> onFinished = new ConcurrentLinkedQueue<>();
+
+    private volatile boolean running  = false;
+    private volatile boolean finished = false;
+    private volatile long startNanos    = 0;
+    private volatile long endNanos      = 0;
+    private volatile long writingSince  = 0; // note(nschultz): 0 unless the writer is inside a write
+    private volatile long progressNanos = 0; // note(nschultz): Last time bytes moved in either direction
+    private long lastReadNanos = 0;           // note(nschultz): Reader thread only
+    private long stuckSince    = 0;           // note(nschultz): Timer wheel only
+    private boolean started = false;
+
+    // note(nschultz): 'durationSeconds' <= 0 runs until stopped. 'sender' writes one message and blocks until it is out,
+    // false means the connection is gone. 'payload' is used by the writer thread alone (see Payload.Generator.copy).
+    public DuplexLoad(final String name, final double durationSeconds, final Payload.Generator payload, final Lambdas.Unary<Boolean, byte[]> sender) {
+        assert name    != null;
+        assert payload != null;
+        assert sender  != null;
+
+        this.name          = name;
+        this.durationNanos = durationSeconds > 0 ? (long) (durationSeconds * 1_000_000_000.0) : Long.MAX_VALUE;
+        this.payload       = payload;
+        this.sender        = sender;
+    }
+
+    public synchronized void start() {
+        assert !this.started : "A load runs once";
+
+        this.started = true;
+        this.running = true;
+        this.startNanos    = System.nanoTime();
+        this.progressNanos = this.startNanos;
+        Network.execute("DuplexWriterThread", this::run);
+        TimerWheel.shared().schedule(WATCH_NANOS, this::watch);
+    }
+
+    // note(nschultz): The writer notices after its current write, which may be never if the peer stopped reading.
+    // Closing the connection is what gets it out of there.
+    public void stop() {
+        this.running = false;
+    }
+
+    public boolean isRunning() {
+        return this.running && !this.finished;
+    }
+
+    public void onFinished(final Lambdas.Nullary<Void> listener) {
+        this.onFinished.add(listener);
+        if (this.finished) callListeners();
+    }
+
+    // note(nschultz): The connection's reader, for every read while the load runs
+    public void received(final int bytes) {
+        final long now = System.nanoTime();
+        if (this.lastReadNanos != 0) this.readGap.record(now - this.lastReadNanos);
+        this.lastReadNanos = now;
+        this.progressNanos = now;
+        this.stats.bytesIn.add(bytes);
+        this.stats.reads.increment();
+    }
+
+    private void run() {
+        try {
+            byte[] data = null;
+            while (this.running && System.nanoTime() - this.startNanos < this.durationNanos) {
+                data = this.payload.next(data);
+                final long before = System.nanoTime();
+                this.writingSince = before;
+                final boolean sent = this.sender.call(data);
+                final long after = System.nanoTime();
+                this.writingSince = 0;
+
+                // note(nschultz): A write that only ended because the connection got closed under it counts as well, it may be the longest
+                final long took = after - before;
+                this.writeTime.record(took);
+                if (took > STALL_NANOS) {
+                    this.stalls.incrementAndGet();
+                    this.stalledNanos.addAndGet(took);
+                }
+                if (!sent) break;
+                this.progressNanos = after;
+                this.stats.bytesOut.add(data.length);
+                this.stats.writes.increment();
+            }
+        } catch (final RuntimeException ex) {
+            Main.logger.log(Level.INFO, "Duplex load write failed", ex);
+        } finally {
+            this.writingSince = 0;
+            this.running  = false;
+            this.endNanos = System.nanoTime();
+            this.finished = true;
+            callListeners();
+        }
+    }
+
+    // note(nschultz): Timer wheel thread, reschedules itself until the writer is done
+    private void watch() {
+        if (this.finished) return;
+
+        final long now = System.nanoTime();
+        final long idle = now - this.progressNanos;
+        if (this.writingSince != 0 && idle > STUCK_NANOS) {
+            if (this.stuckSince == 0) {
+                this.stuckSince = this.progressNanos;
+                this.stuck.incrementAndGet();
+                Main.logger.log(Level.WARNING, String.format("%s: no progress in either direction for %s with a write pending, both ends may be blocked writing",
+                                                             this.name, Histogram.formatNanos(idle)));
+            }
+            this.longestStuckNanos = Math.max(this.longestStuckNanos, now - this.stuckSince);
+        } else {
+            this.stuckSince = 0;
+        }
+        TimerWheel.shared().schedule(WATCH_NANOS, this::watch);
+    }
+
+    private void callListeners() {
+        Lambdas.Nullary<Void> listener;
+        while ((listener = this.onFinished.poll()) != null) {
+            listener.call();
+        }
+    }
+
+    // note(nschultz): One line, for a connection that just went away
+    public String summary() {
+        final double secs = Math.max(1, (this.finished ? this.endNanos : System.nanoTime()) - this.startNanos) / 1_000_000_000.0;
+        return String.format("out %s/s, in %s/s, %d stalled writes, %d stuck",
+                             Stats.formatBytes((long) (this.stats.bytesOut.sum() / secs)), Stats.formatBytes((long) (this.stats.bytesIn.sum() / secs)),
+                             this.stalls.get(), this.stuck.get());
+    }
+
+    public String report() {
+        return report(java.util.List.of(this));
+    }
+
+    // note(nschultz): One report over several loads running side by side (one per connection)
+    public static String report(final java.util.List<DuplexLoad> loads) {
+        assert !loads.isEmpty();
+
+        final Totals totals = new Totals();
+        for (final DuplexLoad load : loads) {
+            totals.add(load);
+        }
+        return totals.report();
+    }
+
+    // note(nschultz): What any number of loads add up to, so a server does not have to keep every connection's
+    // histograms around. A load that is still running is added as far as it got.
+    public static final class Totals {
+
+        private final Histogram writeTime = new Histogram();
+        private final Histogram readGap   = new Histogram();
+        private long connections = 0, bytesOut = 0, bytesIn = 0, writes = 0, reads = 0;
+        private long stalls = 0, stalledNanos = 0, stuck = 0, longestStuck = 0;
+        private long start = Long.MAX_VALUE, end = Long.MIN_VALUE;
+        private String payload = null;
+
+        public synchronized void add(final DuplexLoad load) {
+            this.writeTime.add(load.writeTime);
+            this.readGap.add(load.readGap);
+            this.connections  += 1;
+            this.bytesOut     += load.stats.bytesOut.sum();
+            this.bytesIn      += load.stats.bytesIn.sum();
+            this.writes       += load.stats.writes.sum();
+            this.reads        += load.stats.reads.sum();
+            this.stalls       += load.stalls.get();
+            this.stalledNanos += load.stalledNanos.get();
+            this.stuck        += load.stuck.get();
+            this.longestStuck  = Math.max(this.longestStuck, load.longestStuckNanos);
+            this.start = Math.min(this.start, load.startNanos);
+            this.end   = Math.max(this.end, load.finished ? load.endNanos : System.nanoTime());
+            if (this.payload == null) this.payload = load.payload.describe();
+        }
+
+        public synchronized boolean isEmpty() {
+            return this.connections == 0;
+        }
+
+        public synchronized String report() {
+            final long elapsed = Math.max(1, this.end - this.start);
+            final double secs  = elapsed / 1_000_000_000.0;
+            final StringBuilder sb = new StringBuilder();
+            sb.append(String.format("Full duplex load: %d connection(s), %s, %s%n", this.connections, Histogram.formatNanos(elapsed), this.payload));
+            sb.append(String.format("  out:        %s in %d writes (%s/s)%n", Stats.formatBytes(this.bytesOut), this.writes, Stats.formatBytes((long) (this.bytesOut / secs))));
+            sb.append(String.format("  in:         %s in %d reads (%s/s)%n", Stats.formatBytes(this.bytesIn), this.reads, Stats.formatBytes((long) (this.bytesIn / secs))));
+            sb.append(String.format("  write time: %s%n", this.writeTime.summary()));
+            sb.append(String.format("  stalls:     %d writes over %s, %.1f%% of the time stalled per connection (the peer's reader fell behind)%n",
+                                    this.stalls, Histogram.formatNanos(STALL_NANOS), 100.0 * this.stalledNanos / Math.max(1, this.connections) / elapsed));
+            sb.append(String.format("  read gap:   %s%n", this.readGap.summary()));
+            if (this.stuck > 0) {
+                sb.append(String.format("  STUCK:      %d time(s) no progress either way with a write pending, longest %s (duplex deadlock?)%n",
+                                        this.stuck, Histogram.formatNanos(this.longestStuck)));
+            }
+            return sb.toString();
+        }
+    }
+}
@@ -0,0 +1,282 @@
+//
+// Copyright (c) 2022 Niklas Schultz
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+// documentation files (the "Software"), to deal in the Software without restriction,
+// including without limitation the rights to use, copy, modify, merge, publish, distribute,
+// sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so,
+// subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED
+// TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+// IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+// WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+// SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+//
+
+import java.nio.charset.*;
+import java.util.concurrent.atomic.*;
+import java.util.logging.*;
+import java.util.regex.*;
+
+// note(nschultz): Application level heartbeats and read idle timeouts. Configured with one line,
+// e.g. 'send=PING\n every=5s expect=PONG within=1s idle=30s action=close':
+//
+//     send=<text>          heartbeat payload, escapes as in scenarios (\n \r \t \xHH, \x20 for a space)
+//     every=<ms|s>         how often to send it
+//     expect=<regex>       has to show up in the received data within 'within' of every heartbeat
+//     within=<ms|s>        default 'every'
+//     idle=<ms|s>          nothing at all received for this long makes the connection stale as well
+//     action=close|flag    close stale connections (default) or only report them
+//
+// Each connection gets a Monitor. All of them run off the one shared TimerWheel, a monitor has at most
+// one timer pending which covers whatever comes next (beat, reply deadline or idle deadline), so ten
+// thousand idle connections cost ten thousand wheel entries and no threads. Reads only store a timestamp,
+// an idle timer that finds a newer one simply moves itself. Sending and closing happen on the network
+// pool, never on the wheel thread.
+public final class Heartbeat {
+
+    private static final int MAX_RECEIVE_BUFFER = 64 * 1024;
+
+    public final String spec;
+    public final String send;          // note(nschultz): null if we only watch for idleness
+    public final long everyNanos;
+    public final Pattern expect;       // note(nschultz): null if any reply (or none) is fine
+    public final long withinNanos;
+    public final long idleNanos;       // note(nschultz): 0 means no idle timeout
+    public final boolean close;
+
+    public final LongAdder beats   = new LongAdder();
+    public final LongAdder replies = new LongAdder();
+    public final LongAdder stale   = new LongAdder();
+    public final Histogram replyLatency = new Histogram();
+
+    private static Heartbeat current = null; // note(nschultz): Guarded by Heartbeat.class
+
+    private Heartbeat(final String spec, final String send, final long everyNanos, final Pattern expect,
+                      final long withinNanos, final long idleNanos, final boolean close) {
+        this.spec        = spec;
+        this.send        = send;
+        this.everyNanos  = everyNanos;
+        this.expect      = expect;
+        this.withinNanos = withinNanos;
+        this.idleNanos   = idleNanos;
+        this.close       = close;
+    }
+
+    // note(nschultz): Returns null for an empty spec, throws IllegalArgumentException with a readable message otherwise
+    public static Heartbeat parse(final String spec) {
+        assert spec != null;
+
+        if (spec.isBlank()) return null;
+
+        String send = null, expect = null;
+        long every = 0, within = 0, idle = 0;
+        boolean close = true;
+
+        for (final String option : spec.strip().split("\\s+")) {
+            final int eq = option.indexOf('=');
+            if (eq == -1) throw new IllegalArgumentException("Expected key=value, got '" + option + "'");
+            final String key   = option.substring(0, eq).toLowerCase();
+            final String value = option.substring(eq + 1);
+            try {
+                switch (key) {
+                    case "send"   -> send   = Scenario.unescape(value);
+                    case "expect" -> expect = Scenario.unescape(value);
+                    case "every"  -> every  = parseDuration(value);
+                    case "within" -> within = parseDuration(value);
+                    case "idle"   -> idle   = parseDuration(value);
+                    case "action" -> close  = switch (value.toLowerCase()) {
+                        case "close" -> true;
+                        case "flag"  -> false;
+                        default      -> throw new IllegalArgumentException("Expected action=close|flag");
+                    };
+                    default       -> throw new IllegalArgumentException("Unknown heartbeat option '" + key + "'");
+                }
+            } catch (final NumberFormatException ex) {
+                throw new IllegalArgumentException("Not a duration in '" + option + "'");
+            }
+        }
+
+        if (every < 0 || within < 0 || idle < 0)     throw new IllegalArgumentException("Durations must not be negative");
+        if (send == null && idle == 0)               throw new IllegalArgumentException("Expected at least send=<text> every=<ms> or idle=<ms>");
+        if (send != null && send.isEmpty())          throw new IllegalArgumentException("send=<text> must not be empty");
+        if (send != null && every == 0)              throw new IllegalArgumentException("send=<text> needs every=<ms>");
+        if (send == null && (expect != null || every != 0)) throw new IllegalArgumentException("expect=/every= need send=<text>");
+
+        Pattern pattern = null;
+        if (expect != null) {
+            try {
+                pattern = Pattern.compile(expect);
+            } catch (final PatternSyntaxException ex) {
+                throw new IllegalArgumentException("Bad expect pattern '" + expect + "'");
+            }
+        }
+        return new Heartbeat(spec.strip(), send, every, pattern, within == 0 ? every : within, idle, close);
+    }
+
+    // note(nschultz): Parsed heartbeat of a session's settings. The instance (and its counters) is shared by every
+    // connection for as long as the setting does not change.
+    public static synchronized Heartbeat fromSettings(final Settings.Snapshot settings) {
+        final String spec = settings.heartbeat;
+        if (current != null && current.spec.equals(spec.strip())) return current;
+        current = parse(spec);
+        return current;
+    }
+
+    private static long parseDuration(final String value) {
+        final String v = value.toLowerCase();
+        if (v.endsWith("ms")) return (long) (Double.parseDouble(v.substring(0, v.length() - 2)) * 1_000_000.0);
+        if (v.endsWith("s"))  return (long) (Double.parseDouble(v.substring(0, v.length() - 1)) * 1_000_000_000.0);
+        return (long) (Double.parseDouble(v) * 1_000_000.0);
+    }
+
+    // note(nschultz): Starts watching right away, the connection counts as just having received something
+    public Monitor monitor(final String name, final Peer peer) {
+        assert name != null;
+        assert peer != null;
+
+        final Monitor monitor = new Monitor(name, peer);
+        monitor.start();
+        return monitor;
+    }
+
+    public String report() {
+        return String.format("Heartbeat: %s%n  %d beat(s), %d reply(s), %d stale, reply latency %s%n",
+                             this.spec, this.beats.sum(), this.replies.sum(), this.stale.sum(), this.replyLatency.summary());
+    }
+
+    @Override
+    public String toString() {
+        return this.spec;
+    }
+
+    public interface Peer {
+
+        // note(nschultz): Both are called on the network pool and may block
+        public void send(final String data);
+        // note(nschultz): 'close' is what the spec asks for, with 'false' the connection is only flagged.
+        // Called once per stale period, a flagged connection that receives something again is fine again.
+        public void stale(final String reason, final boolean close);
+    }
+
+    public final class Monitor {
+
+        private final String name;
+        private final Peer peer;
+        private final StringBuilder received = new StringBuilder(); // note(nschultz): Guarded by 'this'
+
+        private volatile long lastReadNanos = System.nanoTime();
+        private volatile boolean expecting  = false;
+        private volatile boolean stale      = false;
+        private volatile boolean stopped    = false;
+
+        // note(nschultz): Guarded by 'this'
+        private long nextBeatNanos  = 0;
+        private long replyDeadline  = 0;
+        private long beatSentNanos  = 0;
+        private TimerWheel.Timeout timeout = null;
+
+        private Monitor(final String name, final Peer peer) {
+            this.name = name;
+            this.peer = peer;
+        }
+
+        private synchronized void start() {
+            this.nextBeatNanos = this.lastReadNanos + Heartbeat.this.everyNanos;
+            arm();
+        }
+
+        // note(nschultz): Reading thread, after every successful read. Cheap unless a reply is awaited.
+        public void received(final byte[] buf, final int off, final int len) {
+            this.lastReadNanos = System.nanoTime();
+            if (!this.expecting && !this.stale) return;
+
+            synchronized (this) {
+                if (this.stopped) return;
+                if (this.stale) {
+                    this.stale = false;
+                    Main.logger.log(Level.INFO, String.format("Connection '%s' is alive again", this.name));
+                    arm(); // note(nschultz): The idle timer was not running while we were flagged
+                }
+                if (this.expecting) {
+                    this.received.append(new String(buf, off, len, StandardCharsets.ISO_8859_1));
+                    if (Heartbeat.this.expect.matcher(this.received).find()) {
+                        this.expecting = false;
+                        this.received.setLength(0);
+                        Heartbeat.this.replies.increment();
+                        Heartbeat.this.replyLatency.record(this.lastReadNanos - this.beatSentNanos);
+                        arm();
+                    } else if (this.received.length() > MAX_RECEIVE_BUFFER) {
+                        this.received.delete(0, this.received.length() - MAX_RECEIVE_BUFFER);
+                    }
+                }
+            }
+        }
+
+        public boolean isStale() {
+            return this.stale;
+        }
+
+        public synchronized void stop() {
+            this.stopped = true;
+            if (this.timeout != null) this.timeout.cancel();
+            this.timeout = null;
+        }
+
+        // note(nschultz): Guarded by 'this'. One timer for whatever is due first.
+        private void arm() {
+            if (this.timeout != null) this.timeout.cancel();
+            this.timeout = null;
+            if (this.stopped) return;
+
+            long deadline = Long.MAX_VALUE;
+            if (Heartbeat.this.send != null)                 deadline = this.nextBeatNanos;
+            if (this.expecting)                              deadline = Math.min(deadline, this.replyDeadline);
+            if (Heartbeat.this.idleNanos > 0 && !this.stale) deadline = Math.min(deadline, this.lastReadNanos + Heartbeat.this.idleNanos);
+            if (deadline != Long.MAX_VALUE) this.timeout = TimerWheel.shared().scheduleAt(deadline, this::tick);
+        }
+
+        // note(nschultz): Wheel thread
+        private synchronized void tick() {
+            if (this.stopped) return;
+
+            final long now = System.nanoTime();
+            if (this.expecting && now - this.replyDeadline >= 0) {
+                this.expecting = false;
+                this.received.setLength(0);
+                markStale(String.format("no heartbeat reply within %s", Histogram.formatNanos(Heartbeat.this.withinNanos)));
+            }
+            if (!this.stopped && !this.stale && Heartbeat.this.idleNanos > 0 && now - this.lastReadNanos >= Heartbeat.this.idleNanos) {
+                markStale(String.format("nothing received for %s", Histogram.formatNanos(now - this.lastReadNanos)));
+            }
+            if (!this.stopped && Heartbeat.this.send != null && now - this.nextBeatNanos >= 0) {
+                // note(nschultz): Expect before we send, the reply may well be back before the send task returns
+                if (Heartbeat.this.expect != null && !this.expecting) {
+                    this.expecting     = true;
+                    this.beatSentNanos = now;
+                    this.replyDeadline = now + Heartbeat.this.withinNanos;
+                }
+                final String data = Heartbeat.this.send;
+                Network.execute("HeartbeatThread", () -> this.peer.send(data));
+                Heartbeat.this.beats.increment();
+                // note(nschultz): A late tick does not cause a burst of beats, the schedule just moves
+                this.nextBeatNanos = Math.max(this.nextBeatNanos + Heartbeat.this.everyNanos, now + 1);
+            }
+            this.timeout = null;
+            arm();
+        }
+
+        private void markStale(final String reason) {
+            this.stale = true;
+            Heartbeat.this.stale.increment();
+            Main.logger.log(Level.INFO, String.format("Connection '%s' is stale: %s", this.name, reason));
+
+            final boolean close = Heartbeat.this.close;
+            if (close) this.stopped = true;
+            Network.execute("HeartbeatThread", () -> this.peer.stale(reason, close));
+        }
+    }
+}
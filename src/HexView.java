@@ -0,0 +1,186 @@
+//
+// Copyright (c) 2022 Niklas Schultz
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+// documentation files (the "Software"), to deal in the Software without restriction,
+// including without limitation the rights to use, copy, modify, merge, publish, distribute,
+// sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so,
+// subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED
+// TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+// IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+// WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+// SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+//
+
+import java.awt.*;
+import java.awt.event.*;
+import javax.swing.*;
+
+// note(nschultz): Classic hex dump (offset | 16 hex bytes | ASCII) straight from the raw transcript.
+// Nothing is rendered ahead of time, paintComponent reads and draws only the rows inside the clip.
+// Rows are 16 bytes of the global transcript byte offset, so there is no per row or per frame
+// bookkeeping on our side at all. Colours come from the frame direction, a small tick marks where
+// a frame (one read or one write) starts.
+//
+// While the view is not showing (other tab selected, window minimized) its timer is stopped,
+// so incoming traffic costs it nothing. Once it becomes visible again it catches up in one go.
+@SuppressWarnings("serial")
+public final class HexView extends JComponent implements Scrollable {
+
+    private static final int BYTES_PER_ROW = 16;
+    private static final int OFFSET_CHARS  = 10;
+    // note(nschultz): offset, gap, 16 * "XX ", extra gap in the middle, gap, 16 ascii chars
+    private static final int ROW_CHARS     = OFFSET_CHARS + 2 + BYTES_PER_ROW * 3 + 1 + 1 + BYTES_PER_ROW;
+
+    private static final char[] hexDigits = "0123456789ABCDEF".toCharArray();
+
+    private final Transcript transcript;
+    private final javax.swing.Timer refreshTimer;
+
+    private final byte[]    rowBytes  = new byte[BYTES_PER_ROW];
+    private final byte[]    rowDirs   = new byte[BYTES_PER_ROW];
+    private final boolean[] rowStarts = new boolean[BYTES_PER_ROW];
+    private final char[]    chars     = new char[ROW_CHARS];
+
+    private long knownEnd   = -1;
+    private long knownFirst = -1;
+
+    public HexView(final Transcript transcript) {
+        assert transcript != null;
+
+        this.transcript = transcript;
+        setFont(new Font(Font.MONOSPACED, Font.PLAIN, 14));
+        setOpaque(true);
+        setBackground(Color.WHITE);
+
+        this.refreshTimer = new javax.swing.Timer(250, e -> refresh());
+        addHierarchyListener(e -> {
+            if ((e.getChangeFlags() & HierarchyEvent.SHOWING_CHANGED) != 0) {
+                if (isShowing()) {
+                    refresh();
+                    this.refreshTimer.start();
+                } else {
+                    this.refreshTimer.stop();
+                }
+            }
+        });
+    }
+
+    // note(nschultz): Only grows the scrollable area, the bytes are read when painted
+    public void refresh() {
+        assert EventQueue.isDispatchThread();
+
+        final long end   = this.transcript.endByte();
+        final long first = this.transcript.firstByte();
+        if (end == this.knownEnd && first == this.knownFirst) return;
+
+        final JViewport viewport = (JViewport) SwingUtilities.getAncestorOfClass(JViewport.class, this);
+        final boolean atBottom = viewport == null
+                                 || viewport.getViewPosition().y + viewport.getExtentSize().height >= getHeight() - rowHeight();
+
+        this.knownEnd   = end;
+        this.knownFirst = first;
+        revalidate();
+        repaint();
+
+        if (atBottom && viewport != null) {
+            // note(nschultz): Follow the tail like the text view does, unless the user scrolled up
+            EventQueue.invokeLater(() -> scrollRectToVisible(new Rectangle(0, getPreferredSize().height - rowHeight(), 1, rowHeight())));
+        }
+    }
+
+    private int rowHeight() {
+        return getFontMetrics(getFont()).getHeight();
+    }
+
+    private long firstRow() {
+        final long first = this.transcript.firstByte() / BYTES_PER_ROW;
+        final long end   = lastRowExclusive();
+        // note(nschultz): Swing works with int pixels, so very long transcripts only show their tail
+        final long maxRows = (Integer.MAX_VALUE / 2) / rowHeight();
+        return Math.max(first, end - maxRows);
+    }
+
+    private long lastRowExclusive() {
+        return (this.transcript.endByte() + BYTES_PER_ROW - 1) / BYTES_PER_ROW;
+    }
+
+    @Override
+    public Dimension getPreferredSize() {
+        final FontMetrics fm = getFontMetrics(getFont());
+        final long rows = lastRowExclusive() - firstRow();
+        return new Dimension(fm.charWidth('0') * (ROW_CHARS + 2), (int) (rows * fm.getHeight()));
+    }
+
+    @Override
+    protected void paintComponent(final Graphics g) {
+        final Rectangle clip = g.getClipBounds();
+        g.setColor(getBackground());
+        g.fillRect(clip.x, clip.y, clip.width, clip.height);
+
+        final FontMetrics fm  = getFontMetrics(getFont());
+        final int rowHeight   = fm.getHeight();
+        final int charWidth   = fm.charWidth('0');
+        final long firstRow   = firstRow();
+        final long endRow     = lastRowExclusive();
+        final long fromRow    = firstRow + clip.y / rowHeight;
+        final long toRow      = Math.min(endRow, firstRow + (clip.y + clip.height) / rowHeight + 1);
+
+        g.setFont(getFont());
+        for (long row = fromRow; row < toRow; ++row) {
+            final int n = this.transcript.read(row * BYTES_PER_ROW, BYTES_PER_ROW, this.rowBytes, this.rowDirs, this.rowStarts);
+            final int baseline = (int) (row - firstRow) * rowHeight + fm.getAscent();
+            paintRow(g, row * BYTES_PER_ROW, n, baseline, charWidth, rowHeight);
+        }
+    }
+
+    private void paintRow(final Graphics g, final long offset, final int n, final int baseline, final int charWidth, final int rowHeight) {
+        final char[] chars = this.chars;
+
+        offset: {
+            for (int i = OFFSET_CHARS - 1, shift = 0; i >= 0; --i, shift += 4) {
+                chars[i] = hexDigits[(int) ((offset >>> shift) & 0xF)];
+            }
+            g.setColor(Color.GRAY);
+            g.drawChars(chars, 0, OFFSET_CHARS, charWidth, baseline);
+        }
+
+        final int hexX   = charWidth * (1 + OFFSET_CHARS + 2);
+        final int asciiX = hexX + charWidth * (BYTES_PER_ROW * 3 + 2);
+        for (int i = 0; i < n; ++i) {
+            final int b = this.rowBytes[i] & 0xFF;
+            final int x = hexX + charWidth * (i * 3 + (i >= BYTES_PER_ROW / 2 ? 1 : 0));
+
+            if (this.rowStarts[i]) {
+                g.setColor(Color.LIGHT_GRAY);
+                g.drawLine(x - charWidth / 2, baseline - rowHeight + 4, x - charWidth / 2, baseline + 2);
+            }
+
+            g.setColor(this.rowDirs[i] == Transcript.IN ? Color.BLUE : Color.BLACK);
+            chars[0] = hexDigits[b >>> 4];
+            chars[1] = hexDigits[b & 0xF];
+            g.drawChars(chars, 0, 2, x, baseline);
+
+            chars[0] = b >= 0x20 && b < 0x7F ? (char) b : '.';
+            g.drawChars(chars, 0, 1, asciiX + charWidth * i, baseline);
+        }
+    }
+
+    @Override public Dimension getPreferredScrollableViewportSize() { return getPreferredSize(); }
+    @Override public boolean getScrollableTracksViewportWidth()     { return getParent() instanceof JViewport && getParent().getWidth() > getPreferredSize().width; }
+    @Override public boolean getScrollableTracksViewportHeight()    { return getParent() instanceof JViewport && getParent().getHeight() > getPreferredSize().height; }
+
+    @Override
+    public int getScrollableUnitIncrement(final Rectangle visible, final int orientation, final int direction) {
+        return orientation == SwingConstants.VERTICAL ? rowHeight() : getFontMetrics(getFont()).charWidth('0');
+    }
+
+    @Override
+    public int getScrollableBlockIncrement(final Rectangle visible, final int orientation, final int direction) {
+        return orientation == SwingConstants.VERTICAL ? Math.max(rowHeight(), visible.height - rowHeight()) : visible.width;
+    }
+}
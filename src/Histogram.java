@@ -0,0 +1,126 @@
+//
+// Copyright (c) 2022 Niklas Schultz
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+// documentation files (the "Software"), to deal in the Software without restriction,
+// including without limitation the rights to use, copy, modify, merge, publish, distribute,
+// sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so,
+// subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED
+// TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+// IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+// WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+// SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+//
+
+import java.util.concurrent.atomic.*;
+
+// note(nschultz): Log-linear latency histogram, roughly what HdrHistogram does but without the dependency.
+// Values below 128 get their own bucket, above that every power of two is split into 64 buckets,
+// which keeps the relative error under ~1.6% for any value up to Long.MAX_VALUE
+// in a fixed 30 KiB array. Recording is lock free, so many threads can share one instance.
+public final class Histogram {
+
+    private static final int SUB_BITS    = 6;
+    private static final int SUB_COUNT   = 1 << SUB_BITS;
+    private static final int LINEAR_MAX  = SUB_COUNT * 2;
+    private static final int BUCKETS     = (64 - SUB_BITS) * SUB_COUNT + LINEAR_MAX;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final LongAdder total        = new LongAdder();
+    private final LongAdder sum          = new LongAdder();
+    private final AtomicLong max         = new AtomicLong(0);
+
+    public void record(final long value) {
+        final long v = Math.max(0, value);
+        this.counts.incrementAndGet(indexOf(v));
+        this.total.increment();
+        this.sum.add(v);
+        this.max.accumulateAndGet(v, Math::max);
+    }
+
+    public void add(final Histogram other) {
+        for (int i = 0; i < BUCKETS; ++i) {
+            final long c = other.counts.get(i);
+            if (c != 0) this.counts.addAndGet(i, c);
+        }
+        this.total.add(other.total.sum());
+        this.sum.add(other.sum.sum());
+        this.max.accumulateAndGet(other.max.get(), Math::max);
+    }
+
+    public void reset() {
+        for (int i = 0; i < BUCKETS; ++i) {
+            this.counts.set(i, 0);
+        }
+        this.total.reset();
+        this.sum.reset();
+        this.max.set(0);
+    }
+
+    public long count() {
+        return this.total.sum();
+    }
+
+    public long max() {
+        return this.max.get();
+    }
+
+    public double mean() {
+        final long n = this.total.sum();
+        return n == 0 ? 0 : (double) this.sum.sum() / n;
+    }
+
+    // note(nschultz): Returns the highest value that falls into the bucket holding the requested rank,
+    // so the answer is never better than reality. 'percentile' is 0..100.
+    public long percentile(final double percentile) {
+        assert percentile >= 0 && percentile <= 100;
+
+        final long n = this.total.sum();
+        if (n == 0) return 0;
+
+        final long rank = Math.max(1, (long) Math.ceil(percentile / 100.0 * n));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; ++i) {
+            seen += this.counts.get(i);
+            if (seen >= rank) {
+                return Math.min(highestValueOf(i), this.max.get());
+            }
+        }
+        return this.max.get();
+    }
+
+    // note(nschultz): Values are expected in nanoseconds, this just picks a readable unit
+    public String summary() {
+        return String.format("n=%d mean=%s p50=%s p90=%s p99=%s p99.9=%s max=%s",
+                             count(), formatNanos((long) mean()),
+                             formatNanos(percentile(50)), formatNanos(percentile(90)),
+                             formatNanos(percentile(99)), formatNanos(percentile(99.9)),
+                             formatNanos(max()));
+    }
+
+    public static String formatNanos(final long nanos) {
+        if (nanos < 1_000)         return nanos + " ns";
+        if (nanos < 1_000_000)     return String.format("%.1f us", nanos / 1_000.0);
+        if (nanos < 1_000_000_000) return String.format("%.3f ms", nanos / 1_000_000.0);
+        return String.format("%.3f s", nanos / 1_000_000_000.0);
+    }
+
+    private static int indexOf(final long v) {
+        if (v < LINEAR_MAX) return (int) v;
+
+        final int shift = (63 - Long.numberOfLeadingZeros(v)) - SUB_BITS;
+        return shift * SUB_COUNT + (int) (v >>> shift);
+    }
+
+    private static long highestValueOf(final int index) {
+        if (index < LINEAR_MAX) return index;
+
+        final int shift = index / SUB_COUNT - 1;
+        final long mantissa = index - (long) shift * SUB_COUNT;
+        return ((mantissa + 1) << shift) - 1;
+    }
+}
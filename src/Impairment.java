@@ -0,0 +1,311 @@
+//
+// Copyright (c) 2022 Niklas Schultz
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+// documentation files (the "Software"), to deal in the Software without restriction,
+// including without limitation the rights to use, copy, modify, merge, publish, distribute,
+// sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so,
+// subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED
+// TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+// IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+// WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+// SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+//
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.concurrent.locks.*;
+import java.util.logging.*;
+
+// note(nschultz): Makes a perfectly fine loopback connection look like a bad link. Configured with one line,
+// e.g. 'delay=40ms jitter=20ms rate=64KiB split=1..16 stall=2%/500ms dir=both seed=42':
+//
+//     delay=<ms>            every write (or read) is held back this long
+//     jitter=<ms>           plus a random 0..jitter on top, order is still preserved like TCP would
+//     rate=<n>[B|KiB|MiB]   token bucket cap in bytes per second
+//     split=<n>             cut into segments of n bytes
+//     split=<a>..<b>        cut into segments of random length between a and b
+//     stall=<p>%/<ms>       with probability p a write stalls for ms (and everything behind it)
+//     dir=in|out|both       which paths to impair, default both
+//     seed=<n>              seed for the randomness, so a failing run can be repeated
+//
+// Each connection and direction gets its own Pipe. Segments are released through the shared TimerWheel,
+// never with a sleeping thread per packet, and handed to the sink in order on the Network pool.
+// Every session has its own instance (and counters), see 'fromSettings'.
+// On the receiving side the rate cap is applied by not reading, so the peer feels real back pressure.
+public final class Impairment {
+
+    public static final int IN  = 1;
+    public static final int OUT = 2;
+
+    public final String spec;
+    public final long delayNanos;
+    public final long jitterNanos;
+    public final long bytesPerSecond; // note(nschultz): 0 means uncapped
+    public final int splitMin;        // note(nschultz): 0 means no splitting
+    public final int splitMax;
+    public final double stallChance;
+    public final long stallNanos;
+    public final int directions;
+    public final long seed;
+
+    public final LongAdder segments = new LongAdder();
+    public final LongAdder stalls   = new LongAdder();
+    public final LongAdder inFlight = new LongAdder(); // note(nschultz): Segments submitted that no sink has seen yet
+
+    private Impairment(final String spec, final long delayNanos, final long jitterNanos, final long bytesPerSecond,
+                       final int splitMin, final int splitMax, final double stallChance, final long stallNanos,
+                       final int directions, final long seed) {
+        this.spec           = spec;
+        this.delayNanos     = delayNanos;
+        this.jitterNanos    = jitterNanos;
+        this.bytesPerSecond = bytesPerSecond;
+        this.splitMin       = splitMin;
+        this.splitMax       = splitMax;
+        this.stallChance    = stallChance;
+        this.stallNanos     = stallNanos;
+        this.directions     = directions;
+        this.seed           = seed;
+    }
+
+    // note(nschultz): Returns null for an empty spec, throws IllegalArgumentException with a readable message otherwise
+    public static Impairment parse(final String spec) {
+        assert spec != null;
+
+        if (spec.isBlank()) return null;
+
+        long delay = 0, jitter = 0, rate = 0, stallNanos = 0;
+        int splitMin = 0, splitMax = 0, directions = IN | OUT;
+        double stallChance = 0;
+        long seed = 0;
+
+        for (final String option : spec.strip().split("\\s+")) {
+            final int eq = option.indexOf('=');
+            if (eq == -1) throw new IllegalArgumentException("Expected key=value, got '" + option + "'");
+            final String key   = option.substring(0, eq).toLowerCase();
+            final String value = option.substring(eq + 1).toLowerCase();
+            try {
+                switch (key) {
+                    case "delay"  -> delay  = parseMillis(value);
+                    case "jitter" -> jitter = parseMillis(value);
+                    case "rate"   -> {
+                        if      (value.endsWith("mib")) rate = Long.parseLong(value.substring(0, value.length() - 3)) * 1024 * 1024;
+                        else if (value.endsWith("kib")) rate = Long.parseLong(value.substring(0, value.length() - 3)) * 1024;
+                        else if (value.endsWith("b"))   rate = Long.parseLong(value.substring(0, value.length() - 1));
+                        else                            rate = Long.parseLong(value);
+                    }
+                    case "split"  -> {
+                        final int dots = value.indexOf("..");
+                        splitMin = Integer.parseInt(dots == -1 ? value : value.substring(0, dots));
+                        splitMax = dots == -1 ? splitMin : Integer.parseInt(value.substring(dots + 2));
+                    }
+                    case "stall"  -> {
+                        final int slash = value.indexOf('/');
+                        if (slash == -1 || !value.substring(0, slash).endsWith("%")) throw new IllegalArgumentException("Expected stall=<p>%/<ms>");
+                        stallChance = Double.parseDouble(value.substring(0, slash - 1)) / 100.0;
+                        stallNanos  = parseMillis(value.substring(slash + 1));
+                    }
+                    case "dir"    -> directions = switch (value) {
+                        case "in"   -> IN;
+                        case "out"  -> OUT;
+                        case "both" -> IN | OUT;
+                        default     -> throw new IllegalArgumentException("Expected dir=in|out|both");
+                    };
+                    case "seed"   -> seed = Long.parseLong(value);
+                    default       -> throw new IllegalArgumentException("Unknown impairment '" + key + "'");
+                }
+            } catch (final NumberFormatException ex) {
+                throw new IllegalArgumentException("Not a number in '" + option + "'");
+            }
+        }
+
+        if (delay < 0 || jitter < 0 || rate < 0 || stallNanos < 0)        throw new IllegalArgumentException("Values must not be negative");
+        if (splitMin < 0 || splitMax < splitMin || (splitMax > 0 && splitMin == 0)) throw new IllegalArgumentException("Expected split=<n> or split=<a>..<b> with 1 <= a <= b");
+        if (stallChance < 0 || stallChance > 1)                            throw new IllegalArgumentException("Stall probability must be between 0% and 100%");
+
+        return new Impairment(spec.strip(), delay, jitter, rate, splitMin, splitMax, stallChance, stallNanos, directions, seed);
+    }
+
+    // note(nschultz): Parsed impairment of a session's settings. 'previous' is what the session used so far,
+    // it keeps it (and its counters) for as long as the setting does not change.
+    public static Impairment fromSettings(final Settings.Snapshot settings, final Impairment previous) {
+        final String spec = settings.impairment;
+        if (previous != null && previous.spec.equals(spec.strip())) return previous;
+        return parse(spec);
+    }
+
+    private static long parseMillis(final String value) {
+        final String millis = value.endsWith("ms") ? value.substring(0, value.length() - 2) : value;
+        return (long) (Double.parseDouble(millis) * 1_000_000.0);
+    }
+
+    // note(nschultz): With Nagle on, our carefully cut segments would just be glued back together by the kernel
+    // (and every one of them would wait for the peer's delayed ack, ~40 ms on linux).
+    public void prepare(final SocketChannel channel) {
+        if (this.splitMin == 0 || (this.directions & OUT) == 0) return;
+        try {
+            Resolver.noDelay(channel);
+        } catch (final IOException ex) {
+            Main.logger.log(Level.WARNING, "Failed to disable Nagle, segments may get coalesced");
+        }
+    }
+
+    // note(nschultz): null if this direction is not impaired, 'conn' only varies the random sequence per connection
+    public Pipe newPipe(final int direction, final int conn, final Sink sink) {
+        assert direction == IN || direction == OUT;
+        assert sink != null;
+
+        if ((this.directions & direction) == 0) return null;
+        return new Pipe(direction, new Random(this.seed * 31 + conn * 2 + direction), sink);
+    }
+
+    public String report() {
+        return report(java.util.List.of(this));
+    }
+
+    // note(nschultz): Several sessions with the same spec as one, e.g. every connection of a headless run
+    public static String report(final java.util.List<Impairment> impairments) {
+        assert !impairments.isEmpty();
+
+        long segments = 0;
+        long stalls   = 0;
+        for (final Impairment impairment : impairments) {
+            segments += impairment.segments.sum();
+            stalls   += impairment.stalls.sum();
+        }
+        return String.format("Impairment: %s%n  %d segment(s), %d stall(s), timer lateness %s%n",
+                             impairments.get(0).spec, segments, stalls, TimerWheel.shared().lateness.summary());
+    }
+
+    public static long inFlight(final java.util.List<Impairment> impairments) {
+        long inFlight = 0;
+        for (final Impairment impairment : impairments) {
+            inFlight += impairment.inFlight.sum();
+        }
+        return inFlight;
+    }
+
+    @Override
+    public String toString() {
+        return this.spec;
+    }
+
+    public interface Sink {
+
+        // note(nschultz): Called in order, never concurrently for the same pipe
+        public void accept(final ByteBuffer segment) throws IOException;
+        // note(nschultz): Called once, after that the pipe swallows everything
+        public void failed(final IOException ex);
+    }
+
+    public final class Pipe {
+
+        private final int direction;
+        private final Random random;
+        private final Sink sink;
+
+        private long lastReleaseNanos = Long.MIN_VALUE; // note(nschultz): Guarded by 'this', nanoTime may well be negative
+        private long bucketFreeNanos  = Long.MIN_VALUE;
+
+        private final ConcurrentLinkedQueue<ByteBuffer> released = new ConcurrentLinkedQueue<>();
+        private final AtomicBoolean draining = new AtomicBoolean(false);
+        private volatile boolean failed = false;
+
+        private Pipe(final int direction, final Random random, final Sink sink) {
+            this.direction = direction;
+            this.random    = random;
+            this.sink      = sink;
+        }
+
+        // note(nschultz): Receiving side only. Blocks the reading thread until the bucket has room
+        // for 'bytes', which stops us from reading and lets the TCP window fill up on the peer.
+        public void throttle(final int bytes) {
+            assert this.direction == IN;
+
+            if (bytesPerSecond == 0) return;
+            final long until;
+            synchronized (this) {
+                final long now = System.nanoTime();
+                until = Math.max(now, this.bucketFreeNanos);
+                this.bucketFreeNanos = until + bytes * 1_000_000_000L / bytesPerSecond;
+            }
+            long now;
+            while ((now = System.nanoTime()) < until) {
+                LockSupport.parkNanos(until - now);
+            }
+        }
+
+        // note(nschultz): Takes ownership of 'data'. Returns right away, the sink sees the segments later.
+        public void submit(final ByteBuffer data) {
+            final TimerWheel wheel = TimerWheel.shared();
+            synchronized (this) {
+                final long now = System.nanoTime();
+                long release = now + delayNanos + (jitterNanos > 0 ? this.random.nextLong(jitterNanos + 1) : 0);
+                if (stallChance > 0 && this.random.nextDouble() < stallChance) {
+                    release += stallNanos;
+                    stalls.increment();
+                }
+
+                while (data.hasRemaining()) {
+                    final int len = splitMin == 0 ? data.remaining()
+                                  : Math.min(data.remaining(), splitMin + this.random.nextInt(splitMax - splitMin + 1));
+                    final ByteBuffer segment = data.slice(data.position(), len);
+                    data.position(data.position() + len);
+
+                    long segmentRelease = release;
+                    if (bytesPerSecond > 0 && this.direction == OUT) {
+                        this.bucketFreeNanos = Math.max(release, this.bucketFreeNanos) + len * 1_000_000_000L / bytesPerSecond;
+                        segmentRelease = this.bucketFreeNanos;
+                    }
+                    segmentRelease = Math.max(segmentRelease, this.lastReleaseNanos); // note(nschultz): TCP does not reorder
+                    this.lastReleaseNanos = segmentRelease;
+
+                    segments.increment();
+                    inFlight.increment();
+                    wheel.scheduleAt(segmentRelease, () -> release(segment));
+                }
+            }
+        }
+
+        // note(nschultz): Wheel thread, so no blocking in here
+        private void release(final ByteBuffer segment) {
+            if (this.failed) {
+                inFlight.decrement();
+                return;
+            }
+            this.released.add(segment);
+            if (this.draining.compareAndSet(false, true)) {
+                Network.execute("ImpairmentDeliveryThread", this::drain);
+            }
+        }
+
+        private void drain() {
+            ByteBuffer segment;
+            while ((segment = this.released.poll()) != null) {
+                try {
+                    if (!this.failed) this.sink.accept(segment);
+                } catch (final IOException ex) {
+                    this.failed = true;
+                    this.sink.failed(ex);
+                } catch (final RuntimeException ex) {
+                    Main.logger.log(Level.SEVERE, "Impairment sink failed", ex);
+                } finally {
+                    inFlight.decrement(); // note(nschultz): Only once the sink is done with it, a drain waits on this
+                }
+            }
+
+            this.draining.set(false);
+            // note(nschultz): Someone may have released after our last poll but before we released the flag
+            if (!this.released.isEmpty() && this.draining.compareAndSet(false, true)) {
+                Network.execute("ImpairmentDeliveryThread", this::drain);
+            }
+        }
+    }
+}
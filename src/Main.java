@@ -17,74 +17,35 @@
 //
 
 import java.io.*;
-import java.lang.management.*;
-import java.nio.*;
 import java.nio.file.*;
-import java.text.*;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
 import java.util.logging.*;
-import java.util.stream.*;
 
 public final class Main {
 
-    public static final boolean DEBUG_MODE = ManagementFactory.getRuntimeMXBean().getInputArguments().contains("-ea");
+    // note(nschultz): Same answer as scanning the jvm input arguments for '-ea', but without
+    // dragging the whole management (JMX) machinery into every startup.
+    public static final boolean DEBUG_MODE = Main.class.desiredAssertionStatus();
     public static final Logger logger = allocateLogger();
 
+    private static final long mainEnteredMillis = System.currentTimeMillis();
+    private static final long mainEnteredNanos  = System.nanoTime();
+    private static volatile String startupReport = "Startup has not finished yet";
+    private static volatile boolean printStartupReport = false;
+
     private static Logger allocateLogger() {
         LogManager.getLogManager().reset();
         final Logger logger = Logger.getLogger(Logger.GLOBAL_LOGGER_NAME);
         logger.setLevel(Main.DEBUG_MODE ? Level.ALL : Level.SEVERE);
-        final ConsoleHandler consoleHandler = new ConsoleHandler();
-        consoleHandler.setFormatter(new SimpleFormatter() {
-            @Override
-            public synchronized String format(final LogRecord log) {
-                return String.format("[%s] [%s] [%s.%s]: %s\n",
-                                    log.getLevel().getLocalizedName(),
-                                    new SimpleDateFormat("dd.MM.YYYY HH:mm:ss:SSS").format(new Date(log.getMillis())),
-                                    log.getSourceClassName(),
-                                    log.getSourceMethodName(),
-                                    log.getMessage()
-                );
-            }
-        });
-        consoleHandler.setLevel(Main.DEBUG_MODE ? Level.ALL : Level.SEVERE);
-        logger.addHandler(consoleHandler);
+        final AsyncLogHandler handler = AsyncLogHandler.fromProperties();
+        handler.setLevel(Main.DEBUG_MODE ? Level.ALL : Level.SEVERE);
+        logger.addHandler(handler);
 
         return logger;
     }
 
-    private static void loadAllClassesIntoMemory() {
-        final String root = new File(Main.class.getProtectionDomain().getCodeSource().getLocation().getPath()).getAbsolutePath();
-        final ArrayList<String> files = new ArrayList<>();
-        try (final Stream<Path> stream = Files.walk(Paths.get(root), Integer.MAX_VALUE)) {
-            files.addAll(stream.map(String::valueOf).sorted().collect(Collectors.toList()));
-        } catch (final IOException ex) {
-            Main.logger.log(Level.SEVERE, "Failed to find all class files to load.", ex);
-            return;
-        }
-
-        for (int i = 0, l = files.size(); i < l; ++i) {
-            final String file = files.get(i);
-            if (Files.isDirectory(Paths.get(file)) || !file.endsWith(".class")) {
-                continue;
-            }
-
-            final String classDef = file.replace(root + File.separator, "").replaceAll("\\" + File.separator, "\\.").replace(".class", "");
-            try {
-                final Class<?> c = Class.forName(classDef);
-                if (c != null) {
-                    Main.logger.log(Level.INFO, String.format("Loaded '%s' into memory!", c.getName()));
-                } else {
-                    Main.logger.log(Level.SEVERE, "Failed to load all classes into memory beforehand!");
-                    return;
-                }
-            } catch (final Exception ex) {
-                Main.logger.log(Level.SEVERE, "Failed to load all classes into memory beforehand!", ex);
-                return;
-            }
-        }
-    }
-
     private static void initUncaughtExceptionHandler() {
         // note(nschultz): We only want to apply this exception handler in dev mode so
         // we do not waste CPU time checking whether the exception is an
@@ -96,6 +57,11 @@ public final class Main {
                     System.err.println();
                     ex.printStackTrace(System.err);
 
+                    // note(nschultz): halt() skips the shutdown hooks, the log would lose what is still queued
+                    for (final Handler handler : Main.logger.getHandlers()) {
+                        handler.close();
+                    }
+
                     // note(nschultz): Kill the JVM immediately.
                     // I have no clue why this is not the default behaviour
                     // when triggering assert statements.
@@ -115,6 +81,725 @@ public final class Main {
         }
     }
 
+    // note(nschultz): Called once the program is usable, i.e. the window is on screen or the headless
+    // run is about to start. 'java.vm.info' says 'sharing' if classes came out of a CDS archive
+    // (the one build.sh generates or at least the default JDK one).
+    public static void markStartupFinished(final String what) {
+        final long jvmStartMillis = ProcessHandle.current().info().startInstant().map(i -> i.toEpochMilli()).orElse(mainEnteredMillis);
+        final long jvmToMain      = Math.max(0, mainEnteredMillis - jvmStartMillis);
+        final long mainToReady    = (System.nanoTime() - mainEnteredNanos) / 1_000_000;
+        final String sharing      = String.valueOf(System.getProperty("java.vm.info")).contains("sharing") ? "on" : "off";
+
+        startupReport = String.format("Startup (%s): jvm -> main %d ms, main -> ready %d ms, total %d ms, class data sharing %s",
+                                      what, jvmToMain, mainToReady, jvmToMain + mainToReady, sharing);
+        Main.logger.log(Level.INFO, startupReport);
+        if (printStartupReport) {
+            System.err.println(startupReport);
+        }
+    }
+
+    public static String startupReport() {
+        return startupReport;
+    }
+
+    // note(nschultz): Run by build.sh/build.bat with -XX:ArchiveClassesAtExit to record which classes
+    // a normal start loads. We go through the same code paths as a real start, but never show
+    // anything and never open a socket.
+    private static void runCdsTraining() {
+        Scenario.parse("training", "set a 1\nloop 1\nsend x${a}\\n\nexpect 1 x\ndelay 0\nend\nassert p99 < 1 ms\n").newRun().report();
+        new Transcript().search(Transcript.Query.text("training", true), 1);
+        new Histogram().summary();
+        new ClientConHandler();
+        new ServerConHandler();
+
+        if (!java.awt.GraphicsEnvironment.isHeadless()) {
+            try {
+                new MainWindow();
+                java.awt.EventQueue.invokeAndWait(() -> {}); // note(nschultz): Waits for MainWindow.init() which is queued before us
+            } catch (final Exception ex) {
+                Main.logger.log(Level.SEVERE, "CDS training run failed to build the window", ex);
+            }
+        }
+    }
+
+    // note(nschultz): Headless scenario runs, no window is ever created.
+    //
+    //     --scenario <file> --connect <host:port> [--instances <n>] [--timeout <seconds>]
+    //     --scenario <file> --listen <port>       [--instances <n>] [--timeout <seconds>]
+    //
+    // With --connect we open <n> client connections and run one instance on each.
+    // With --listen we run one instance on each accepted client until <n> of them are done.
+    // Both <host:port> and <port> may be 'unix:<path>' for a unix domain socket instead, --listen also takes
+    // a list of ports and ranges (e.g. 5000-5099,6000), clients on all of them count towards <n>.
+    // The report goes to stdout, the exit code is 0 if the run passed and 1 otherwise.
+    // --alloc-profile adds the bytes allocated per message and the gc time of the run to the report.
+    // --tls speaks TLS, --keystore/--keystore-pass and --truststore/--truststore-pass name the stores.
+    // --impair '<spec>' runs every connection over an impaired link, see Impairment for the spec.
+    // --heartbeat '<spec>' adds heartbeats and idle timeouts to every connection, see Heartbeat for the spec.
+    // --acceptors <n> accepts with <n> threads on SO_REUSEPORT copies of every port, for reconnect storms.
+    // --read-buffer <bytes> reads with a fixed size, <min>..<max> lets every connection adapt within the bounds.
+    // With --listen the report also has the accept rate, how long accepted connections waited and the hand off.
+    private static int runScenarioHeadless(final Map<String, String> opts) {
+        final Scenario scenario;
+        try {
+            scenario = Scenario.load(Paths.get(opts.get("--scenario")));
+        } catch (final IOException | IllegalArgumentException ex) {
+            System.err.println("Failed to load scenario: " + ex.getMessage());
+            return 2;
+        }
+
+        final int instances = instancesOption(opts);
+        if (instances == -1) return 2;
+        final long timeoutS;
+        try {
+            timeoutS = Long.parseLong(opts.getOrDefault("--timeout", "60"));
+        } catch (final NumberFormatException ex) {
+            System.err.println("Invalid --timeout: expected seconds");
+            return 2;
+        }
+        if (timeoutS < 1) {
+            System.err.println("Invalid --timeout: expected at least 1 second");
+            return 2;
+        }
+        final Scenario.Run run = scenario.newRun();
+        final CountDownLatch done = new CountDownLatch(1);
+        run.onFinished(() -> {
+            done.countDown();
+            return (Void) null;
+        });
+        run.expect(instances);
+
+        final AllocationProfile profile = new AllocationProfile(); // note(nschultz): Shared by every connection of this run
+        final TlsTransport.Handshakes handshakes = new TlsTransport.Handshakes();
+        final BusyPoll busyPoll = new BusyPoll();
+        if (!applyConnectionOptions(opts)) return 2;
+
+        final ArrayList<ClientConHandler> clients = new ArrayList<>();
+        ServerConHandler server = null;
+
+        markStartupFinished("headless");
+
+        if (opts.containsKey("--connect")) {
+            final String target = opts.get("--connect");
+            if (targetPort(target) == -1) {
+                System.err.println("Expected --connect <host:port> (IPv6 as [addr]:port) or --connect unix:<path>");
+                return 2;
+            }
+            final String host = targetHost(target);
+            final int port    = targetPort(target);
+
+            for (int i = 0; i < instances; ++i) {
+                final ClientConHandler client = new ClientConHandler();
+                client.profile = profile;
+                client.handshakes = handshakes;
+                client.busyPoll = busyPoll;
+                final Scenario.Instance instance = run.newInstance(data -> {
+                    client.send(data);
+                    return (Void) null;
+                });
+                client.callback = new ClientConHandler.Callback() {
+                    @Override public void onConnectionEstablished()                { instance.start(); }
+                    @Override public void onIncomingData(final String data)       { instance.feed(data); }
+                    @Override public void onConnectionFailure(final String reason) { instance.abort("connection failure: " + reason); }
+                    @Override public void onConnectionTimeout()                    { instance.abort("connection timeout"); }
+                    @Override public void onConnectionReleased()                   { instance.abort("connection released"); }
+                };
+                clients.add(client);
+                client.start(host, port);
+            }
+        } else if (opts.containsKey("--listen")) {
+            final ConcurrentHashMap<ServerConHandler.Client, Scenario.Instance> running = new ConcurrentHashMap<>();
+            final ServerConHandler handler = new ServerConHandler();
+            handler.profile = profile;
+            handler.handshakes = handshakes;
+            handler.callback = new ServerConHandler.Callback() {
+                @Override public void onOpen() {}
+                @Override public void onNewClient(final ServerConHandler.Client client) {
+                    final Scenario.Instance instance = run.newInstance(data -> {
+                        handler.send(List.of(client), data);
+                        return (Void) null;
+                    });
+                    running.put(client, instance);
+                    instance.start();
+                }
+                @Override public void onClientLost(final ServerConHandler.Client client) {
+                    final Scenario.Instance instance = running.remove(client);
+                    if (instance != null) instance.abort("client lost");
+                }
+                @Override public void onIncomingData(final ServerConHandler.Client client, final String data) {
+                    final Scenario.Instance instance = running.get(client);
+                    if (instance != null) instance.feed(data);
+                }
+                @Override public void onConnectionFailure(final String reason) {
+                    System.err.println("Server failure: " + reason);
+                }
+                @Override public void onClose() {}
+            };
+            server = handler;
+            handler.start(opts.get("--listen"));
+        } else {
+            System.err.println("Expected --connect <host:port> or --listen <port> (either may be unix:<path>)");
+            return 2;
+        }
+
+        try {
+            if (!done.await(timeoutS, TimeUnit.SECONDS)) {
+                System.err.printf("Scenario did not finish within %d seconds%n", timeoutS);
+            }
+        } catch (final InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+
+        // note(nschultz): Impaired writes may still be on their way, let the link drain before we hang up
+        final ArrayList<Impairment> impairments = impairments(server, clients);
+        final Heartbeat heartbeat = server != null ? server.heartbeat() : clients.isEmpty() ? null : clients.get(0).heartbeat();
+        final long drainDeadline = System.nanoTime() + 5_000_000_000L;
+        while (Impairment.inFlight(impairments) > 0 && System.nanoTime() < drainDeadline) {
+            try {
+                Thread.sleep(10);
+            } catch (final InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+
+        System.out.print(run.report());
+        if (!clients.isEmpty())           System.out.print(Resolver.shared().report());
+        if (!busyPoll.isEmpty())          System.out.print(busyPoll.report());
+        if (server != null && server.listeners().size() > 1) System.out.print(server.listenerReport());
+        if (server != null)               System.out.print(server.acceptReport());
+        if (!impairments.isEmpty())       System.out.print(Impairment.report(impairments));
+        if (heartbeat != null)            System.out.print(heartbeat.report());
+        if (handshakes.count() > 0)       System.out.print(handshakes.report());
+        System.out.print(BufferPool.report());
+        if (Settings.allocationProfiling) System.out.print(profile.report());
+
+        for (final ClientConHandler client : clients) {
+            if (client.isConnected()) client.teardown();
+        }
+        if (server != null) server.teardown();
+
+        return run.isFinished() && run.passed() ? 0 : 1;
+    }
+
+    // note(nschultz): --alloc-profile, --impair, --heartbeat, --acceptors, --busy-poll, --tls and the stores, shared by the headless modes that connect or listen.
+    // Returns false (after saying why) if an option is invalid.
+    private static boolean applyConnectionOptions(final Map<String, String> opts) {
+        if (opts.containsKey("--alloc-profile")) Settings.allocationProfiling = true;
+        if (opts.containsKey("--impair")) {
+            try {
+                Impairment.parse(opts.get("--impair"));
+            } catch (final IllegalArgumentException ex) {
+                System.err.println("Invalid --impair: " + ex.getMessage());
+                return false;
+            }
+            Settings.impairment = opts.get("--impair");
+        }
+        if (opts.containsKey("--heartbeat")) {
+            try {
+                Heartbeat.parse(opts.get("--heartbeat"));
+            } catch (final IllegalArgumentException ex) {
+                System.err.println("Invalid --heartbeat: " + ex.getMessage());
+                return false;
+            }
+            Settings.heartbeat = opts.get("--heartbeat");
+        }
+        if (opts.containsKey("--acceptors")) {
+            final int acceptors;
+            try {
+                acceptors = Integer.parseInt(opts.get("--acceptors"));
+            } catch (final NumberFormatException ex) {
+                System.err.println("Invalid --acceptors: " + opts.get("--acceptors"));
+                return false;
+            }
+            if (acceptors < 1 || acceptors > ServerConHandler.MAX_ACCEPTORS) {
+                System.err.printf("Invalid --acceptors: expected 1 to %d%n", ServerConHandler.MAX_ACCEPTORS);
+                return false;
+            }
+            Settings.serverAcceptors = acceptors;
+        }
+        if (opts.containsKey("--busy-poll")) {
+            final String receive = opts.get("--busy-poll").isEmpty() ? "spin" : opts.get("--busy-poll");
+            try {
+                Settings.clientReceive = BusyPoll.Mode.valueOf(receive.toUpperCase());
+            } catch (final IllegalArgumentException ex) {
+                System.err.println("Invalid --busy-poll: expected spin or yield");
+                return false;
+            }
+        }
+        if (opts.containsKey("--read-buffer")) {
+            final String[] bounds = opts.get("--read-buffer").split("\\.\\.", 2);
+            final int min;
+            final int max;
+            try {
+                min = Integer.parseInt(bounds[0].trim());
+                max = bounds.length == 1 ? min : Integer.parseInt(bounds[1].trim());
+            } catch (final NumberFormatException ex) {
+                System.err.println("Invalid --read-buffer: expected <bytes> or <min>..<max>");
+                return false;
+            }
+            if (min < BufferPool.MIN_SIZE || max > BufferPool.MAX_SIZE || min > max) {
+                System.err.printf("Invalid --read-buffer: expected %d to %d bytes, min first%n", BufferPool.MIN_SIZE, BufferPool.MAX_SIZE);
+                return false;
+            }
+            Settings.bufSizeMin = min;
+            Settings.bufSizeMax = max;
+            if (bounds.length == 1) Settings.bufSize = min;
+        }
+        if (opts.containsKey("--tls")) {
+            Settings.clientTls = true;
+            Settings.serverTls = true;
+        }
+        Settings.tlsKeyStore           = opts.getOrDefault("--keystore",        Settings.tlsKeyStore);
+        Settings.tlsKeyStorePassword   = opts.getOrDefault("--keystore-pass",   Settings.tlsKeyStorePassword);
+        Settings.tlsTrustStore         = opts.getOrDefault("--truststore",      Settings.tlsTrustStore);
+        Settings.tlsTrustStorePassword = opts.getOrDefault("--truststore-pass", Settings.tlsTrustStorePassword);
+        return true;
+    }
+
+    // note(nschultz): Headless fixed rate load, see RateGenerator.
+    //
+    //     --rate <msg/s> --connect <host:port> [--instances <n>] [--duration <seconds>]
+    //                    [--payload <text> | --generate <kind>:<size>[:<seed>]] [--verify]
+    //                    [--reply <regex>] [--spin] [--busy-poll [spin|yield]]
+    //
+    // Every one of the <n> connections sends <payload> (escapes as in scenarios, default the macro plus a new line)
+    // at <msg/s> for <duration> seconds (default 10). With --reply every match of <regex> in the received data
+    // answers the oldest outstanding message and the latency is measured from the time each message was due.
+    // --spin busy waits between messages, for rates where parking is too coarse. --busy-poll [spin|yield] does the same
+    // on the receiving side (see BusyPoll), replies are timestamped the moment they land.
+    // --generate sends framed Payload records instead of the text (pattern, prng or counter) and --verify checks
+    // what comes back on every connection (against an echo server) for loss, duplicates, reordering and corruption.
+    // Exit code 0 if every connection was established, every tracked message got its reply and everything verified.
+    private static int runRateHeadless(final Map<String, String> opts) {
+        final String target = opts.getOrDefault("--connect", "");
+        if (targetPort(target) == -1) {
+            System.err.println("Expected --connect <host:port> (IPv6 as [addr]:port) or --connect unix:<path>");
+            return 2;
+        }
+        final String host = targetHost(target);
+        final int port    = targetPort(target);
+
+        final int instances = instancesOption(opts);
+        if (instances == -1) return 2;
+        final double rate;
+        try {
+            rate = Double.parseDouble(opts.get("--rate"));
+        } catch (final NumberFormatException ex) {
+            System.err.println("Expected --rate <msg/s>");
+            return 2;
+        }
+        final double durationS = secondsOption(opts.getOrDefault("--duration", "10"));
+        if (Double.isNaN(durationS)) {
+            System.err.println("Invalid --duration: expected seconds above 0");
+            return 2;
+        }
+        final String reply     = opts.get("--reply");
+        final Payload.Generator payload;
+        try {
+            payload = opts.containsKey("--generate") ? Payload.Generator.parse(opts.get("--generate"))
+                    : Payload.Generator.text(opts.containsKey("--payload") ? Scenario.unescape(opts.get("--payload")) : Settings.macro + "\n");
+        } catch (final IllegalArgumentException ex) {
+            System.err.println("Invalid payload: " + ex.getMessage());
+            return 2;
+        }
+        if (opts.containsKey("--verify") && !payload.isFramed()) {
+            System.err.println("--verify needs a framed payload, add --generate <kind>:<size>[:<seed>]");
+            return 2;
+        }
+
+        final AllocationProfile profile = new AllocationProfile();
+        final TlsTransport.Handshakes handshakes = new TlsTransport.Handshakes();
+        final BusyPoll busyPoll = new BusyPoll();
+        if (!applyConnectionOptions(opts)) return 2;
+
+        final ArrayList<ClientConHandler> clients = new ArrayList<>();
+        final ArrayList<RateGenerator> generators = new ArrayList<>();
+        final ArrayList<Payload.Verifier> verifiers = new ArrayList<>();
+        final CountDownLatch done = new CountDownLatch(instances);
+        final AtomicInteger failedConnections = new AtomicInteger(0);
+
+        markStartupFinished("headless");
+
+        for (int i = 0; i < instances; ++i) {
+            final ClientConHandler client = new ClientConHandler();
+            client.profile = profile;
+            client.handshakes = handshakes;
+            client.busyPoll = busyPoll;
+            if (opts.containsKey("--verify")) {
+                client.verifier = new Payload.Verifier();
+                verifiers.add(client.verifier);
+            }
+            final RateGenerator generator;
+            try {
+                generator = new RateGenerator(rate, durationS, opts.containsKey("--spin"), payload.copy(), reply, data -> {
+                    client.send(data);
+                    return (Void) null;
+                });
+            } catch (final IllegalArgumentException ex) {
+                System.err.println("Invalid rate generator: " + ex.getMessage());
+                return 2;
+            }
+            generator.onFinished(() -> {
+                done.countDown();
+                return (Void) null;
+            });
+            client.callback = new ClientConHandler.Callback() {
+                @Override public void onConnectionEstablished()                { generator.start(); }
+                @Override public void onIncomingData(final String data)       { generator.feed(data, client.arrivalNanos()); }
+                @Override public void onConnectionFailure(final String reason) { fail(reason); }
+                @Override public void onConnectionTimeout()                    { fail("connection timeout"); }
+                @Override public void onConnectionReleased()                   { generator.stop(); }
+
+                private void fail(final String reason) {
+                    System.err.println("Connection failure: " + reason);
+                    if (generator.isRunning()) {
+                        generator.stop();
+                    } else if (!client.isConnected()) {
+                        failedConnections.incrementAndGet();
+                        done.countDown(); // note(nschultz): Never got to start
+                    }
+                }
+            };
+            clients.add(client);
+            generators.add(generator);
+            client.start(host, port);
+        }
+
+        try {
+            // note(nschultz): Give the replies to the last messages a moment after the schedule ends
+            done.await((long) (durationS * 1000) + 5_000, TimeUnit.MILLISECONDS);
+        } catch (final InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        for (final RateGenerator generator : generators) {
+            generator.stop();
+        }
+        // note(nschultz): Same for the echoed records, whatever is not back by then counts as missing
+        for (int i = 0; i < verifiers.size(); ++i) {
+            verifiers.get(i).expect(generators.get(i).sent.get());
+        }
+        final long verifyDeadline = System.nanoTime() + 2_000_000_000L;
+        while (!complete(verifiers) && System.nanoTime() < verifyDeadline) {
+            try {
+                Thread.sleep(10);
+            } catch (final InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+
+        System.out.print(RateGenerator.report(generators));
+        if (!verifiers.isEmpty())         System.out.print(Payload.report(verifiers));
+        final ArrayList<Impairment> impairments = impairments(null, clients);
+        final Heartbeat heartbeat = clients.get(0).heartbeat();
+        System.out.print(Resolver.shared().report());
+        if (!busyPoll.isEmpty())          System.out.print(busyPoll.report());
+        if (!impairments.isEmpty())       System.out.print(Impairment.report(impairments));
+        if (heartbeat != null)            System.out.print(heartbeat.report());
+        if (handshakes.count() > 0)       System.out.print(handshakes.report());
+        System.out.print(BufferPool.report());
+        if (Settings.allocationProfiling) System.out.print(profile.report());
+
+        for (final ClientConHandler client : clients) {
+            if (client.isConnected()) client.teardown();
+        }
+
+        long unanswered = 0;
+        for (final RateGenerator generator : generators) {
+            unanswered += generator.unanswered.get();
+        }
+        boolean verified = true;
+        for (final Payload.Verifier verifier : verifiers) {
+            verified &= verifier.passed() && verifier.isComplete();
+        }
+        return failedConnections.get() == 0 && unanswered == 0 && verified ? 0 : 1;
+    }
+
+    private static boolean complete(final java.util.List<Payload.Verifier> verifiers) {
+        for (final Payload.Verifier verifier : verifiers) {
+            if (!verifier.isComplete()) return false;
+        }
+        return true;
+    }
+
+    // note(nschultz): Headless full duplex saturation, see DuplexLoad.
+    //
+    //     --saturate <seconds> --connect <host:port> [--instances <n>] [--generate <kind>:<size>[:<seed>] | --payload <text>] [--verify]
+    //     --saturate <seconds> --listen <port>
+    //
+    // With --connect every connection writes as fast as it can for <seconds> (default 16 KiB pattern records) while
+    // its reader takes whatever the peer sends. Against a server in duplex mode both directions are saturated, against an
+    // echo server the echo is the way back. --verify checks what comes back as Payload records (the echo, or the
+    // counter records of a duplex server). With --listen we are that duplex server for <seconds>.
+    // Exit code 0 if every connection was established, nothing got stuck and everything verified.
+    private static int runSaturateHeadless(final Map<String, String> opts) {
+        final double durationS = secondsOption(opts.get("--saturate"));
+        if (Double.isNaN(durationS)) {
+            System.err.println("Expected --saturate <seconds> with seconds above 0");
+            return 2;
+        }
+        if (!applyConnectionOptions(opts)) return 2;
+
+        if (opts.containsKey("--listen")) {
+            Settings.serverMode = ServerConHandler.Mode.DUPLEX;
+            final ServerConHandler server = new ServerConHandler();
+            final AtomicBoolean opened = new AtomicBoolean(false);
+            server.callback = new ServerConHandler.Callback() {
+                @Override public void onOpen()                                          { opened.set(true); System.out.println("Listening"); }
+                @Override public void onNewClient(final ServerConHandler.Client client)  {}
+                @Override public void onClientLost(final ServerConHandler.Client client) {
+                    if (client.duplex() != null) System.out.printf("Client %s: %s, read buffer %s%n", client, client.duplex().summary(), client.readBuffer().describe());
+                }
+                @Override public void onIncomingData(final ServerConHandler.Client client, final String data) {}
+                @Override public void onConnectionFailure(final String reason) {
+                    System.err.println("Server failure: " + reason); // note(nschultz): Clients resetting when they are done is business as usual
+                }
+                @Override public void onClose() {}
+            };
+            server.start(opts.get("--listen"));
+            markStartupFinished("headless");
+            try {
+                Thread.sleep((long) (durationS * 1000));
+            } catch (final InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+            server.teardown();
+
+            if (!server.duplexTotals().isEmpty()) System.out.print(server.duplexTotals().report());
+            System.out.print(BufferPool.report());
+            System.out.print(server.acceptReport());
+            return opened.get() ? 0 : 1;
+        }
+
+        final String target = opts.getOrDefault("--connect", "");
+        if (targetPort(target) == -1) {
+            System.err.println("Expected --connect <host:port> (IPv6 as [addr]:port), --connect unix:<path> or --listen <port>");
+            return 2;
+        }
+        if (opts.containsKey("--impair")) {
+            System.err.println("--impair queues every write without back pressure, it cannot be combined with --saturate");
+            return 2;
+        }
+        final String host = targetHost(target);
+        final int port    = targetPort(target);
+        final int instances = instancesOption(opts);
+        if (instances == -1) return 2;
+        final Payload.Generator payload;
+        try {
+            payload = opts.containsKey("--payload") ? Payload.Generator.text(Scenario.unescape(opts.get("--payload")))
+                    : Payload.Generator.parse(opts.getOrDefault("--generate", String.format("pattern:%d", 16 * 1024 - Payload.HEADER - Payload.TRAILER)));
+        } catch (final IllegalArgumentException ex) {
+            System.err.println("Invalid payload: " + ex.getMessage());
+            return 2;
+        }
+
+        final AllocationProfile profile = new AllocationProfile();
+        final TlsTransport.Handshakes handshakes = new TlsTransport.Handshakes();
+        final BusyPoll busyPoll = new BusyPoll();
+        final ArrayList<ClientConHandler> clients = new ArrayList<>();
+        final ArrayList<DuplexLoad> loads = new ArrayList<>();
+        final ArrayList<Payload.Verifier> verifiers = new ArrayList<>();
+        final CountDownLatch done = new CountDownLatch(instances);
+        final AtomicInteger failedConnections = new AtomicInteger(0);
+
+        markStartupFinished("headless");
+
+        for (int i = 0; i < instances; ++i) {
+            final ClientConHandler client = new ClientConHandler();
+            client.profile = profile;
+            client.handshakes = handshakes;
+            client.busyPoll = busyPoll;
+            if (opts.containsKey("--verify")) {
+                client.verifier = new Payload.Verifier();
+                verifiers.add(client.verifier);
+            }
+            final DuplexLoad load = new DuplexLoad(String.format("connection %d", i + 1), durationS, payload.copy(), data -> {
+                return client.send(data) && client.isConnected();
+            });
+            load.onFinished(() -> {
+                done.countDown();
+                return (Void) null;
+            });
+            client.duplex = load;
+            client.callback = new ClientConHandler.Callback() {
+                @Override public void onConnectionEstablished()                { load.start(); }
+                @Override public void onIncomingData(final String data)       {}
+                @Override public void onConnectionFailure(final String reason) { fail(reason); }
+                @Override public void onConnectionTimeout()                    { fail("connection timeout"); }
+                @Override public void onConnectionReleased()                   { load.stop(); }
+
+                private void fail(final String reason) {
+                    System.err.println("Connection failure: " + reason);
+                    if (load.isRunning()) {
+                        load.stop();
+                    } else if (!client.isConnected()) {
+                        failedConnections.incrementAndGet();
+                        done.countDown(); // note(nschultz): Never got to start
+                    }
+                }
+            };
+            clients.add(client);
+            loads.add(load);
+            client.start(host, port);
+        }
+
+        try {
+            // note(nschultz): A writer stuck on a full window never finishes by itself, closing the connection gets it out
+            if (!done.await((long) (durationS * 1000) + 5_000, TimeUnit.MILLISECONDS)) {
+                System.err.println("Some writers are still blocked, closing their connections");
+            }
+            Thread.sleep(200); // note(nschultz): Whatever is still on its way back
+        } catch (final InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        for (final ClientConHandler client : clients) {
+            if (client.isConnected()) client.teardown();
+        }
+
+        System.out.print(DuplexLoad.report(loads));
+        if (!verifiers.isEmpty())         System.out.print(Payload.report(verifiers));
+        System.out.print(Resolver.shared().report());
+        if (!busyPoll.isEmpty())          System.out.print(busyPoll.report());
+        if (handshakes.count() > 0)       System.out.print(handshakes.report());
+        System.out.print(BufferPool.report());
+        if (Settings.allocationProfiling) System.out.print(profile.report());
+
+        boolean passed = failedConnections.get() == 0;
+        for (final DuplexLoad load : loads) {
+            passed &= load.stuck.get() == 0;
+        }
+        for (final Payload.Verifier verifier : verifiers) {
+            passed &= verifier.passed(); // note(nschultz): Not complete, we cut the stream wherever it was when we closed
+        }
+        return passed ? 0 : 1;
+    }
+
+    // note(nschultz): Every session has its own, the report sums them up
+    private static ArrayList<Impairment> impairments(final ServerConHandler server, final java.util.List<ClientConHandler> clients) {
+        final ArrayList<Impairment> impairments = new ArrayList<>();
+        if (server != null && server.impairment() != null) impairments.add(server.impairment());
+        for (final ClientConHandler client : clients) {
+            if (client.impairment() != null) impairments.add(client.impairment());
+        }
+        return impairments;
+    }
+
+    // note(nschultz): A duration in seconds that is above 0 and still fits into a long of nanoseconds. NaN if it is not.
+    private static double secondsOption(final String value) {
+        try {
+            final double seconds = Double.parseDouble(value);
+            if (seconds > 0 && seconds <= Long.MAX_VALUE / 1_000_000_000L) return seconds; // note(nschultz): NaN fails both
+        } catch (final NumberFormatException ex) {
+            // note(nschultz): Same as out of range
+        }
+        return Double.NaN;
+    }
+
+    // note(nschultz): --instances of every headless mode, at least 1. -1 (after saying why) if it is anything else.
+    private static int instancesOption(final Map<String, String> opts) {
+        int instances = -1;
+        try {
+            instances = Integer.parseInt(opts.getOrDefault("--instances", "1"));
+        } catch (final NumberFormatException ex) {
+            // note(nschultz): Same message as a number below 1
+        }
+        if (instances < 1) {
+            System.err.println("Invalid --instances: expected a number of at least 1");
+            return -1;
+        }
+        return instances;
+    }
+
+    // note(nschultz): '<host>:<port>' ('[<ipv6>]:<port>' works because of lastIndexOf) or 'unix:<path>',
+    // which has no port (0). -1 if the target is neither.
+    private static int targetPort(final String target) {
+        if (Resolver.isUnix(target)) return 0;
+
+        final int colon = target.lastIndexOf(':');
+        if (colon <= 0) return -1;
+        try {
+            final int port = Integer.parseInt(target.substring(colon + 1));
+            return port >= 1 && port <= 65535 ? port : -1;
+        } catch (final NumberFormatException ex) {
+            return -1;
+        }
+    }
+
+    private static String targetHost(final String target) {
+        return Resolver.isUnix(target) ? target : target.substring(0, target.lastIndexOf(':'));
+    }
+
+    // note(nschultz): Headless relay, for sitting between a real client and server.
+    //
+    //     --relay <port> --upstream <host:port> [--timeout <seconds>]
+    //
+    // Either side may be a unix domain socket, '--relay unix:<path>' and '--upstream unix:<path>'.
+    //
+    // Session events go to stdout. The report is printed once the timeout is up, or on ctrl+c.
+    private static int runRelayHeadless(final Map<String, String> opts) {
+        final String target = opts.getOrDefault("--upstream", "");
+        if (targetPort(target) == -1) {
+            System.err.println("Expected --upstream <host:port> or --upstream unix:<path>");
+            return 2;
+        }
+        final long timeoutS;
+        try {
+            timeoutS = Long.parseLong(opts.getOrDefault("--timeout", String.valueOf(Long.MAX_VALUE / 1_000_000_000L)));
+        } catch (final NumberFormatException ex) {
+            System.err.println("Invalid --timeout: expected seconds");
+            return 2;
+        }
+        if (timeoutS < 1) {
+            System.err.println("Invalid --timeout: expected at least 1 second");
+            return 2;
+        }
+
+        final RelayHandler relay = new RelayHandler();
+        final CountDownLatch closed = new CountDownLatch(1);
+        final AtomicBoolean opened = new AtomicBoolean(false);
+        relay.callback = new RelayHandler.Callback() {
+            @Override public void onOpen()                                          { opened.set(true); System.out.println("Relay open"); }
+            @Override public void onSessionStarted(final RelayHandler.Session session) { System.out.println("Session started: " + session); }
+            @Override public void onSessionEnded(final RelayHandler.Session session)   { System.out.println("Session ended:   " + session); }
+            @Override public void onConnectionFailure(final String reason) {
+                System.err.println("Relay failure: " + reason);
+                if (!opened.get()) closed.countDown(); // note(nschultz): Could not even bind
+            }
+            @Override public void onClose()                                         { closed.countDown(); }
+        };
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            if (relay.isOpen()) {
+                relay.teardown();
+                System.out.print(relay.report());
+            }
+        }));
+
+        relay.start(opts.get("--relay"), targetHost(target), targetPort(target));
+        markStartupFinished("headless");
+
+        try {
+            if (!closed.await(timeoutS, TimeUnit.SECONDS) && relay.isOpen()) {
+                relay.teardown();
+                System.out.print(relay.report());
+            }
+        } catch (final InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        return opened.get() ? 0 : 1;
+    }
+
+    private static Map<String, String> parseArgs(final String[] args) {
+        final HashMap<String, String> opts = new HashMap<>();
+        for (int i = 0; i < args.length; ++i) {
+            if (args[i].startsWith("--")) {
+                final boolean hasValue = i + 1 < args.length && !args[i + 1].startsWith("--");
+                opts.put(args[i], hasValue ? args[++i] : "");
+            }
+        }
+        return opts;
+    }
+
     public static void main(final String[] args) {
         if (Main.DEBUG_MODE) {
             Main.logger.log(Level.INFO, "Running with assertions enabled!");
@@ -122,15 +807,38 @@ public final class Main {
 
         initUncaughtExceptionHandler();
 
-        loadAllClassesIntoMemory();
+        final Map<String, String> opts = parseArgs(args);
+        printStartupReport = opts.containsKey("--startup-report");
 
-        // note(nschultz): Let's try to collect some of the garbage we have made so far
-        Runtime.getRuntime().gc();
-        Runtime.getRuntime().runFinalization();
+        if (opts.containsKey("--cds-training")) {
+            runCdsTraining();
+            System.exit(0);
+            return;
+        }
 
-        // note(nschultz): Yield to other threads before we really go
-        Thread.yield();
+        if (opts.containsKey("--scenario")) {
+            System.exit(runScenarioHeadless(opts));
+            return;
+        }
+
+        if (opts.containsKey("--rate")) {
+            System.exit(runRateHeadless(opts));
+            return;
+        }
+
+        if (opts.containsKey("--saturate")) {
+            System.exit(runSaturateHeadless(opts));
+            return;
+        }
+
+        if (opts.containsKey("--relay")) {
+            System.exit(runRelayHeadless(opts));
+            return;
+        }
 
+        // note(nschultz): We used to load every class file on the classpath and run the gc here.
+        // Class loading is now served from the CDS archive build.sh generates, and the gc
+        // would only throw away the little we have allocated so far.
         new MainWindow().show();
     }
 }
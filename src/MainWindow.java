@@ -21,17 +21,15 @@ import java.awt.datatransfer.*;
 import java.awt.dnd.*;
 import java.awt.event.*;
 import java.io.*;
-import java.math.*;
 import java.net.*;
 import java.util.concurrent.atomic.*;
 import java.util.logging.*;
 import javax.swing.*;
 import javax.swing.event.*;
 import javax.swing.table.*;
-import javax.swing.text.*;
 
 // todo(nschultz): Watch file for changes and then send its content (setting), and/or watch entire directory for incoming files
-// todo(nschultz): Ping button next to ipv4 field (isReachable())
+// todo(nschultz): Ping button next to host field (isReachable())
 // todo(nschultz): Check port button next to port field:
 //                 On Windows : netstat -nao | find /I ":1234" -> If this returns non empty string, port is not free
 //                 On Unix    : netstat -nao | grep -i ":1234" -> If this returns non empty string, port is not free
@@ -49,6 +47,13 @@ public final class MainWindow {
 
     private String lastMessage = "";
 
+    // note(nschultz): One entry per tab. Changed on the event thread only, the shutdown hook reads it as well.
+    private final java.util.List<Session> sessions = new java.util.concurrent.CopyOnWriteArrayList<>();
+    private JTabbedPane tabPane;
+    private int clientSessions = 0;
+    private int serverSessions = 0;
+    private int relaySessions  = 0;
+
     public MainWindow() {
         assert !EventQueue.isDispatchThread();
 
@@ -102,23 +107,13 @@ public final class MainWindow {
             UIManager.put("Tree.font", defaultFont);
         }
 
-        final ServerConHandler serverConHandler = new ServerConHandler();
-        final ClientConHandler clientConHandler = new ClientConHandler();
-
         final Lambdas.Nullary<Void> cleanup = () -> {
             // note(nschultz): We don't really need to do this cleanup, since the OS
             // will cleanup after the process terminates, I just want to be sure...
-            if (serverConHandler.isOpen()) {
-                serverConHandler.teardown();
-            }
-
-            if (clientConHandler.isConnected()) {
-                clientConHandler.teardown();
+            for (final Session session : this.sessions) {
+                session.teardown.call();
             }
 
-            Runtime.getRuntime().gc();
-            Runtime.getRuntime().runFinalization();
-
             return (Void) null; // note(nschultz): unreachable
         };
 
@@ -135,9 +130,13 @@ public final class MainWindow {
             this.frame.setLocationRelativeTo(null);
         }
 
-        // todo(nschultz): Refactor this mess (scope handling)
-        final JMenuItem fileMenuClearClientItem = new JMenuItem("Clear client output");
-        final JMenuItem fileMenuClearServerItem = new JMenuItem("Clear server output");
+        // note(nschultz): These act on the selected session, see 'updateSessionMenu'
+        final JMenuItem fileMenuClearItem    = new JMenuItem("Clear output");
+        final JMenuItem fileMenuScenarioItem = new JMenuItem("Run scenario...");
+        final JMenuItem fileMenuRateItem     = new JMenuItem("Run rate generator...");
+        final JMenuItem fileMenuSaturateItem = new JMenuItem("Run full duplex saturation...");
+        final JMenuItem fileMenuSearchItem   = new JMenuItem("Search transcript...");
+        final JMenuItem fileMenuCloseItem    = new JMenuItem("Close session");
         menu_bar: {
             final JMenuBar menubar = new JMenuBar();
             final JMenu fileMenu = new JMenu("File");
@@ -147,14 +146,31 @@ public final class MainWindow {
             fileMenuSettingsItem.addActionListener(e -> {
                 new SettingsWindow(this).show();
             });
+            final AtomicReference<JDialog> allocProfileDialog = new AtomicReference<>(null);
+            final JMenuItem fileMenuAllocProfileItem = new JMenuItem("Allocation profile");
+            fileMenuAllocProfileItem.addActionListener(e -> {
+                if (allocProfileDialog.get() == null) {
+                    allocProfileDialog.set(createAllocationProfileDialog());
+                }
+                allocProfileDialog.get().setLocationRelativeTo(this.frame);
+                allocProfileDialog.get().setVisible(true);
+            });
             final JMenuItem fileMenuExitItem = new JMenuItem("Exit");
             fileMenuExitItem.addActionListener(e -> {
                 cleanup.call();
                 System.exit(0);
             });
+            // note(nschultz): Dialogs are built the first time they are asked for and kept around afterwards
+            final AtomicReference<JDialog> commonPortsDialog = new AtomicReference<>(null);
             final JMenuItem helpMenuCommonPortsItem = new JMenuItem("Common ports");
             helpMenuCommonPortsItem.addActionListener(e -> {
+                if (commonPortsDialog.get() != null) {
+                    commonPortsDialog.get().setLocationRelativeTo(this.frame);
+                    commonPortsDialog.get().setVisible(true);
+                    return;
+                }
                 final JDialog dialog = new JDialog();
+                commonPortsDialog.set(dialog);
                 dialog.setTitle("Common ports");
                 final JPanel panel = new JPanel(new BorderLayout());
                 final DefaultTableModel model = new DefaultTableModel(new String[] {"Name", "Value"}, 0) {
@@ -164,6 +180,7 @@ public final class MainWindow {
                 };
                 model.addRow(new Object[]{"Echo", "7"});
                 model.addRow(new Object[]{"Discard", "9"});
+                model.addRow(new Object[]{"Chargen", "19"});
                 model.addRow(new Object[]{"FTP (data port)", "20"});
                 model.addRow(new Object[]{"FTP (control port)", "21"});
                 model.addRow(new Object[]{"SSH", "22"});
@@ -180,9 +197,16 @@ public final class MainWindow {
                 dialog.setLocationRelativeTo(this.frame);
                 dialog.setVisible(true);
             });
+            final AtomicReference<JDialog> aboutDialog = new AtomicReference<>(null);
             final JMenuItem helpMenuAboutItem = new JMenuItem("About");
             helpMenuAboutItem.addActionListener(e -> {
+                if (aboutDialog.get() != null) {
+                    aboutDialog.get().setLocationRelativeTo(this.frame);
+                    aboutDialog.get().setVisible(true);
+                    return;
+                }
                 final JDialog dialog = new JDialog();
+                aboutDialog.set(dialog);
                 dialog.setTitle("About");
                 dialog.setSize(800, 500);
                 dialog.setLocationRelativeTo(this.frame);
@@ -213,16 +237,66 @@ public final class MainWindow {
                             WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
                             SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
                             """);
+                area.append("\n" + Main.startupReport() + "\n");
                 area.setEditable(false);
                 area.setCaretPosition(0);
                 panel.add(new JScrollPane(area), BorderLayout.CENTER);
                 dialog.add(panel);
                 dialog.setVisible(true);
             });
-            fileMenu.add(fileMenuClearClientItem);
-            fileMenu.add(fileMenuClearServerItem);
+            final JMenuItem fileMenuNewClientItem = new JMenuItem("New client session");
+            fileMenuNewClientItem.addActionListener(e -> {
+                this.tabPane.setSelectedComponent(addClientSession().panel);
+            });
+            final JMenuItem fileMenuNewServerItem = new JMenuItem("New server session");
+            fileMenuNewServerItem.addActionListener(e -> {
+                this.tabPane.setSelectedComponent(addServerSession().panel);
+            });
+            final JMenuItem fileMenuNewRelayItem = new JMenuItem("New relay session");
+            fileMenuNewRelayItem.addActionListener(e -> {
+                this.tabPane.setSelectedComponent(addRelaySession().panel);
+            });
+            fileMenuClearItem.addActionListener(e -> {
+                final Session session = selectedSession();
+                if (session != null && session.clear != null) session.clear.call();
+            });
+            fileMenuScenarioItem.addActionListener(e -> {
+                final Session session = selectedSession();
+                if (session != null && session.scenario != null) session.scenario.call();
+            });
+            fileMenuRateItem.addActionListener(e -> {
+                final Session session = selectedSession();
+                if (session != null && session.rate != null) session.rate.call();
+            });
+            fileMenuSaturateItem.addActionListener(e -> {
+                final Session session = selectedSession();
+                if (session != null && session.saturate != null) session.saturate.call();
+            });
+            fileMenuSearchItem.setAccelerator(KeyStroke.getKeyStroke(KeyEvent.VK_F, InputEvent.CTRL_DOWN_MASK));
+            fileMenuSearchItem.addActionListener(e -> {
+                final Session session = selectedSession();
+                if (session != null && session.search != null) session.search.call();
+            });
+            fileMenuCloseItem.addActionListener(e -> {
+                final Session session = selectedSession();
+                if (session != null) closeSession(session);
+            });
+            fileMenu.add(fileMenuNewClientItem);
+            fileMenu.add(fileMenuNewServerItem);
+            fileMenu.add(fileMenuNewRelayItem);
+            fileMenu.add(fileMenuCloseItem);
+            fileMenu.addSeparator();
+            fileMenu.add(fileMenuClearItem);
             fileMenu.add(fileMenuSettingsItem);
             fileMenu.addSeparator();
+            fileMenu.add(fileMenuScenarioItem);
+            fileMenu.add(fileMenuRateItem);
+            fileMenu.add(fileMenuSaturateItem);
+            fileMenu.addSeparator();
+            fileMenu.add(fileMenuSearchItem);
+            fileMenu.addSeparator();
+            fileMenu.add(fileMenuAllocProfileItem);
+            fileMenu.addSeparator();
             fileMenu.add(fileMenuExitItem);
             helpMenu.add(helpMenuCommonPortsItem);
             helpMenu.add(helpMenuAboutItem);
@@ -231,66 +305,168 @@ public final class MainWindow {
             this.frame.setJMenuBar(menubar);
         }
 
-        final JTabbedPane tabPane = new JTabbedPane();
+        this.tabPane = new JTabbedPane();
         final JPanel root = new JPanel(new BorderLayout());
         root.setBorder(BorderFactory.createEmptyBorder(4, 4, 4, 4));
-        root.add(tabPane, BorderLayout.CENTER);
-        final JPanel clientPanel = new JPanel(new BorderLayout(4, 4));
-        final JPanel serverPanel = new JPanel(new BorderLayout(4, 4));
-        tabPane.addTab("Client", clientPanel);
-        tabPane.addTab("Server", serverPanel);
+        root.add(this.tabPane, BorderLayout.CENTER);
+
+        // note(nschultz): A tab is only built once somebody actually looks at it, most sessions never
+        // look at the server or relay tab. The session menu items follow the selected tab.
+        addClientSession();
+        addServerSession();
+        addRelaySession();
+        final Lambdas.Nullary<Void> onSelect = () -> {
+            final Session session = selectedSession();
+            if (session != null && session.build != null) {
+                final Lambdas.Nullary<Void> build = session.build;
+                session.build = null;
+                build.call();
+                session.panel.revalidate();
+            }
+            fileMenuClearItem.setEnabled(session != null && session.clear != null);
+            fileMenuScenarioItem.setEnabled(session != null && session.scenario != null);
+            fileMenuRateItem.setEnabled(session != null && session.rate != null);
+            fileMenuSaturateItem.setEnabled(session != null && session.saturate != null);
+            fileMenuSearchItem.setEnabled(session != null && session.search != null);
+            fileMenuCloseItem.setEnabled(session != null);
+            return (Void) null;
+        };
+        this.tabPane.addChangeListener(e -> onSelect.call());
+        onSelect.call();
+
+        // note(nschultz): finally add all the content to our frame
+        this.frame.setContentPane(root);
+    }
+
+    private Session selectedSession() {
+        assert EventQueue.isDispatchThread();
+
+        final Component selected = this.tabPane.getSelectedComponent();
+        for (final Session session : this.sessions) {
+            if (session.panel == selected) return session;
+        }
+        return null;
+    }
+
+    private Session addClientSession() {
+        assert EventQueue.isDispatchThread();
+
+        final ClientConHandler handler = new ClientConHandler();
+        final String title = ++this.clientSessions == 1 ? "Client" : "Client " + this.clientSessions;
+        final Session session = new Session(title, handler.profile, () -> {
+            if (handler.isConnected()) handler.teardown();
+            return (Void) null;
+        });
+        session.build = () -> {
+            initClientTab(session, handler);
+            return (Void) null;
+        };
+        return addSession(session);
+    }
+
+    private Session addServerSession() {
+        assert EventQueue.isDispatchThread();
+
+        final ServerConHandler handler = new ServerConHandler();
+        final String title = ++this.serverSessions == 1 ? "Server" : "Server " + this.serverSessions;
+        final Session session = new Session(title, handler.profile, () -> {
+            if (handler.isOpen()) handler.teardown();
+            return (Void) null;
+        });
+        session.build = () -> {
+            initServerTab(session, handler);
+            return (Void) null;
+        };
+        return addSession(session);
+    }
+
+    private Session addRelaySession() {
+        assert EventQueue.isDispatchThread();
+
+        final RelayHandler handler = new RelayHandler();
+        final String title = ++this.relaySessions == 1 ? "Relay" : "Relay " + this.relaySessions;
+        final Session session = new Session(title, null, () -> {
+            if (handler.isOpen()) handler.teardown();
+            return (Void) null;
+        });
+        session.build = () -> {
+            initRelayTab(session, handler);
+            return (Void) null;
+        };
+        return addSession(session);
+    }
+
+    private Session addSession(final Session session) {
+        this.sessions.add(session);
+        this.tabPane.addTab(session.title, session.panel);
+        return session;
+    }
 
+    // note(nschultz): Tears the handler down, which also stops the session's refreshers through its onClose/onConnectionReleased
+    private void closeSession(final Session session) {
+        assert EventQueue.isDispatchThread();
+
+        session.teardown.call();
+        this.sessions.remove(session);
+        this.tabPane.remove(session.panel);
+    }
+
+    private void initClientTab(final Session session, final ClientConHandler clientConHandler) {
+        assert EventQueue.isDispatchThread();
+
+        final JPanel clientPanel = session.panel;
         client_tab: {
             final JButton connectButton = new JButton("Connect");
 
             // note(nschultz): 'must be effect final' *sigh*
-            final AtomicBoolean ipv4Valid = new AtomicBoolean(true);
+            final AtomicBoolean hostValid = new AtomicBoolean(true);
             final AtomicBoolean portValid = new AtomicBoolean(true);
 
-            final JLabel ipv4Label = new JLabel("IPv4: ");
-            final JTextField ipv4Field = new JTextField("127.0.0.1");
-            ipv4Field.setBorder(BorderFactory.createLineBorder(Color.BLACK, 1));
-            ipv4Field.getDocument().addDocumentListener(new DocumentListener() {
+            final JLabel hostLabel = new JLabel("Host: ");
+            final JTextField hostField = new JTextField("127.0.0.1");
+            hostField.setToolTipText("Host name, IPv4 or IPv6 address, or unix:<path> for a unix domain socket (the port is ignored then)");
+            hostField.setBorder(BorderFactory.createLineBorder(Color.BLACK, 1));
+            hostField.getDocument().addDocumentListener(new DocumentListener() {
                 @Override public void changedUpdate(final DocumentEvent evt) {
-                    if (checkIpv4Input(ipv4Field.getText())) {
-                        ipv4Field.setBorder(BorderFactory.createLineBorder(Color.BLACK, 1));
-                        ipv4Valid.set(true);;
+                    if (checkHostInput(hostField.getText())) {
+                        hostField.setBorder(BorderFactory.createLineBorder(Color.BLACK, 1));
+                        hostValid.set(true);;
                     } else {
-                        ipv4Field.setBorder(BorderFactory.createLineBorder(Color.RED, 2));
-                        ipv4Valid.set(false);;
+                        hostField.setBorder(BorderFactory.createLineBorder(Color.RED, 2));
+                        hostValid.set(false);;
                     }
 
-                    if (ipv4Valid.get() && portValid.get()) {
+                    if (hostValid.get() && portValid.get()) {
                         connectButton.setEnabled(true);
                     } else {
                         connectButton.setEnabled(false);
                     }
                 }
                 @Override public void removeUpdate(final DocumentEvent evt)  {
-                    if (checkIpv4Input(ipv4Field.getText())) {
-                        ipv4Field.setBorder(BorderFactory.createLineBorder(Color.BLACK, 1));
-                        ipv4Valid.set(true);;
+                    if (checkHostInput(hostField.getText())) {
+                        hostField.setBorder(BorderFactory.createLineBorder(Color.BLACK, 1));
+                        hostValid.set(true);;
                     } else {
-                        ipv4Field.setBorder(BorderFactory.createLineBorder(Color.RED, 2));
-                        ipv4Valid.set(false);;
+                        hostField.setBorder(BorderFactory.createLineBorder(Color.RED, 2));
+                        hostValid.set(false);;
                     }
 
-                    if (ipv4Valid.get() && portValid.get()) {
+                    if (hostValid.get() && portValid.get()) {
                         connectButton.setEnabled(true);
                     } else {
                         connectButton.setEnabled(false);
                     }
                 }
                 @Override public void insertUpdate(final DocumentEvent evt)  {
-                    if (checkIpv4Input(ipv4Field.getText())) {
-                        ipv4Field.setBorder(BorderFactory.createLineBorder(Color.BLACK, 1));
-                        ipv4Valid.set(true);;
+                    if (checkHostInput(hostField.getText())) {
+                        hostField.setBorder(BorderFactory.createLineBorder(Color.BLACK, 1));
+                        hostValid.set(true);;
                     } else {
-                        ipv4Field.setBorder(BorderFactory.createLineBorder(Color.RED, 2));
-                        ipv4Valid.set(false);;
+                        hostField.setBorder(BorderFactory.createLineBorder(Color.RED, 2));
+                        hostValid.set(false);;
                     }
 
-                    if (ipv4Valid.get() && portValid.get()) {
+                    if (hostValid.get() && portValid.get()) {
                         connectButton.setEnabled(true);
                     } else {
                         connectButton.setEnabled(false);
@@ -310,7 +486,7 @@ public final class MainWindow {
                         portValid.set(false);;
                     }
 
-                    if (ipv4Valid.get() && portValid.get()) {
+                    if (hostValid.get() && portValid.get()) {
                         connectButton.setEnabled(true);
                     } else {
                         connectButton.setEnabled(false);
@@ -325,7 +501,7 @@ public final class MainWindow {
                         portValid.set(false);;
                     }
 
-                    if (ipv4Valid.get() && portValid.get()) {
+                    if (hostValid.get() && portValid.get()) {
                         connectButton.setEnabled(true);
                     } else {
                         connectButton.setEnabled(false);
@@ -340,7 +516,7 @@ public final class MainWindow {
                         portValid.set(false);;
                     }
 
-                    if (ipv4Valid.get() && portValid.get()) {
+                    if (hostValid.get() && portValid.get()) {
                         connectButton.setEnabled(true);
                     } else {
                         connectButton.setEnabled(false);
@@ -354,55 +530,60 @@ public final class MainWindow {
             outputArea.setEditable(false);
             outputArea.setBorder(BorderFactory.createLineBorder(Color.BLACK, 1));
 
-            final JTextPane hexOutputArea = new JTextPane();
-            hexOutputArea.setEditable(false);
-            hexOutputArea.setBorder(BorderFactory.createLineBorder(Color.BLACK, 1));
+            final AtomicReference<Scenario.Instance> scenario = new AtomicReference<>(null);
+            final AtomicReference<RateGenerator> generator = new AtomicReference<>(null);
+            final AtomicReference<DuplexLoad> saturation = new AtomicReference<>(null);
 
             clientConHandler.callback = new ClientConHandler.Callback() {
                 @Override public void onConnectionEstablished() {
+                    final Settings.Snapshot settings = clientConHandler.settings();
+                    clientConHandler.profile.reset();
                     connectButton.setText("Disconnect");
                     statusLabel.setText("Status: online");
-                    ipv4Field.setEditable(false);
+                    hostField.setEditable(false);
                     portField.setEditable(false);
 
                     outputArea.setBorder(BorderFactory.createLineBorder(new Color(20, 200, 20), 1));
-                    appendToPane(outputArea, "**CONNECTION ESTABLISHED**\n", Color.BLACK, true);
-
-                    hexOutputArea.setBorder(BorderFactory.createLineBorder(new Color(20, 200, 20), 1));
-                    appendToPane(hexOutputArea, "**CONNECTION ESTABLISHED**\n", Color.BLACK, true);
+                    if (settings.clientTls) {
+                        appendToPane(outputArea, String.format("**CONNECTION ESTABLISHED (%s; so far %s)**\n",
+                                     clientConHandler.describeTransport(), clientConHandler.handshakes.summary()), Color.BLACK, true);
+                    } else {
+                        appendToPane(outputArea, "**CONNECTION ESTABLISHED**\n", Color.BLACK, true);
+                    }
+                    final Resolver.Connection connection = clientConHandler.connection();
+                    if (connection != null && (connection.candidates > 1 || !Resolver.isLiteral(hostField.getText()))) {
+                        appendToPane(outputArea, String.format("**ADDRESS: %s**\n", connection), Color.BLACK, true);
+                    }
+                    if (clientConHandler.impairment() != null) {
+                        appendToPane(outputArea, String.format("**IMPAIRED: %s**\n", clientConHandler.impairment()), Color.BLACK, true);
+                    }
+                    if (clientConHandler.heartbeat() != null) {
+                        appendToPane(outputArea, String.format("**HEARTBEAT: %s**\n", clientConHandler.heartbeat()), Color.BLACK, true);
+                    }
+                    if (clientConHandler.receive() != BusyPoll.Mode.BLOCKING) {
+                        appendToPane(outputArea, String.format("**BUSY POLL: %s (burns a core while connected)**\n", clientConHandler.receive().name().toLowerCase()), Color.BLACK, true);
+                    }
 
-                    if (!Settings.msgOnConEst.isEmpty()) {
-                        final String msgOnConEstMod = Settings.msgOnConEst.replaceAll("\\\\n", "\n");
+                    if (!settings.msgOnConEst.isEmpty()) {
+                        final String msgOnConEstMod = settings.msgOnConEst.replaceAll("\\\\n", "\n");
 
                         clientConHandler.send(msgOnConEstMod);
                         appendToPane(outputArea, msgOnConEstMod, Color.BLACK, false);
-
-                        for (final char c : msgOnConEstMod.toCharArray()) {
-                            final String hex = String.format("%02X ", new BigInteger(1, new byte[]{(byte) c}));
-                            appendToPane(hexOutputArea, hex, Color.BLACK, false);
-
-                            if (hex.strip().equals("0A")) { // note(nschultz): new line
-                                appendToPane(hexOutputArea, "\n", Color.BLACK, false);
-                            }
-                        }
                     }
                 }
                 @Override public void onIncomingData(final String data) {
-                    appendToPane(outputArea, data, Color.BLUE, false);
+                    appendToPane(outputArea, data, Color.BLUE, false, clientConHandler.profile.ui);
 
-                    for (final char c : data.toCharArray()) {
-                        final String hex = String.format("%02X ", new BigInteger(1, new byte[]{(byte) c}));
-                        appendToPane(hexOutputArea, hex, Color.BLUE, false);
-
-                        if (hex.strip().equals("0A")) { // note(nschultz): new line
-                            appendToPane(hexOutputArea, "\n", Color.BLACK, false);
-                        }
-                    }
+                    final Scenario.Instance running = scenario.get();
+                    if (running != null) running.feed(data);
+                    final RateGenerator generating = generator.get();
+                    if (generating != null) generating.feed(data, clientConHandler.arrivalNanos());
 
                     // note(nschultz): Format has already been validated
-                    if (!Settings.conditionalAnswer.isEmpty()) {
-                        String ifMessage   = Settings.conditionalAnswer.split("@")[0];
-                        String thenMessage = Settings.conditionalAnswer.split("@")[1];
+                    final Settings.Snapshot settings = clientConHandler.settings();
+                    if (!settings.conditionalAnswer.isEmpty()) {
+                        String ifMessage   = settings.conditionalAnswer.split("@")[0];
+                        String thenMessage = settings.conditionalAnswer.split("@")[1];
 
                         ifMessage   = ifMessage.replaceAll("\\\\n", "\n");
                         thenMessage = thenMessage.replaceAll("\\\\n", "\n");
@@ -411,50 +592,53 @@ public final class MainWindow {
                             clientConHandler.send(thenMessage);
 
                             appendToPane(outputArea, thenMessage, Color.BLACK, false);
-
-                            for (final char c : thenMessage.toCharArray()) {
-                                final String hex = String.format("%02X ", new BigInteger(1, new byte[]{(byte) c}));
-                                appendToPane(hexOutputArea, hex, Color.BLACK, false);
-
-                                if (hex.strip().equals("0A")) { // note(nschultz): new line
-                                    appendToPane(hexOutputArea, "\n", Color.BLACK, false);
-                                }
-                            }
                         }
                     }
                 }
                 @Override public void onConnectionFailure(final String reason) {
                     appendToPane(outputArea, String.format("**ERROR: %s**\n", reason), Color.BLACK, true);
-                    appendToPane(hexOutputArea, String.format("**ERROR: %s**\n", reason), Color.BLACK, true);
                 }
                 @Override public void onConnectionTimeout() {
                     appendToPane(outputArea, "**CONNECTION ESTABLISHMENT TIMEOUT**\n", Color.BLACK, true);
-                    appendToPane(hexOutputArea, "**CONNECTION ESTABLISHMENT TIMEOUT**\n", Color.BLACK, true);
                 }
                 @Override public void onConnectionReleased() {
+                    final Scenario.Instance running = scenario.getAndSet(null);
+                    if (running != null) running.abort("connection released");
+                    final RateGenerator generating = generator.get();
+                    if (generating != null) generating.stop(); // note(nschultz): Reports what it got so far
+                    final DuplexLoad saturating = saturation.get();
+                    if (saturating != null) saturating.stop();
+
                     connectButton.setText("Connect");
                     statusLabel.setText("Status: offline");
-                    ipv4Field.setEditable(true);
+                    hostField.setEditable(true);
                     portField.setEditable(true);
                     outputArea.setBorder(BorderFactory.createLineBorder(Color.BLACK, 1));
                     appendToPane(outputArea, "**CONNECTION RELEASED**\n", Color.BLACK, true);
-                    hexOutputArea.setBorder(BorderFactory.createLineBorder(Color.BLACK, 1));
-                    appendToPane(hexOutputArea, "**CONNECTION RELEASED**\n", Color.BLACK, true);
+                    if (clientConHandler.receive() != BusyPoll.Mode.BLOCKING) {
+                        appendToPane(outputArea, String.format("**%s (so far)**\n", clientConHandler.busyPoll.report().strip()), Color.BLACK, true);
+                    }
+                    final BufferPool.Adaptive readBuffer = clientConHandler.readBuffer();
+                    if (readBuffer != null && readBuffer.grows + readBuffer.shrinks > 0) {
+                        appendToPane(outputArea, String.format("**READ BUFFER: %s**\n", readBuffer.describe()), Color.BLACK, true);
+                    }
                 }
             };
 
             connectButton.addActionListener(e -> {
                 if (clientConHandler.isConnected()) {
+                    final RateGenerator generating = generator.get();
+                    if (generating != null) generating.stop(); // note(nschultz): Before its connection goes away under it
                     clientConHandler.teardown();
                     return;
                 }
 
-                clientConHandler.start(ipv4Field.getText(), Integer.parseInt(portField.getText()));
+                clientConHandler.start(hostField.getText(), Integer.parseInt(portField.getText()));
             });
 
             final JPanel headerPanel = new JPanel(new GridLayout(3, 3, 4, 4));
-            headerPanel.add(ipv4Label);
-            headerPanel.add(ipv4Field);
+            headerPanel.add(hostLabel);
+            headerPanel.add(hostField);
             headerPanel.add(portLabel);
             headerPanel.add(portField);
             headerPanel.add(statusLabel);
@@ -492,32 +676,25 @@ public final class MainWindow {
                     } else if (evt.getKeyCode() == KeyEvent.VK_F5) {
                         // todo(nschultz): This might be a bit hacky
                         // todo(nschultz): replace \n with actual new line character!
-                        inputField.setText(Settings.macro);
+                        inputField.setText(clientConHandler.isConnected() ? clientConHandler.settings().macro : Settings.macro);
                         inputField.getActionListeners()[0].actionPerformed(new ActionEvent(this, ActionEvent.ACTION_PERFORMED, null));
                     }
                 }
             });
             inputField.addActionListener(e -> {
                 if (clientConHandler.isConnected()) {
+                    final Settings.Snapshot settings = clientConHandler.settings();
                     String input = inputField.getText();
                     this.lastMessage = input;
-                    if (Settings.wrapInStxEtx) {
+                    if (settings.wrapInStxEtx) {
                         input = (char) 0x02 + input + (char) 0x03;
                     }
-                    if (Settings.insertNewLine) {
+                    if (settings.insertNewLine) {
                         input = input + (char) 0xA;
                     }
 
                     appendToPane(outputArea, input, Color.BLACK, false);
 
-                    for (final char c : input.toCharArray()) {
-                        final String hex = String.format("%02X ", new BigInteger(1, new byte[]{(byte) c}));
-                        appendToPane(hexOutputArea, hex, Color.BLACK, false);
-                        if (hex.strip().equals("0A")) { // note(nschultz): new line
-                            appendToPane(hexOutputArea, "\n", Color.BLACK, false);
-                        }
-                    }
-
                     clientConHandler.send(input);
                 }
                 inputField.setText("");
@@ -525,7 +702,9 @@ public final class MainWindow {
 
             final JTabbedPane viewTab = new JTabbedPane(JTabbedPane.BOTTOM);
             viewTab.addTab("String", new JScrollPane(outputArea));
-            viewTab.addTab("Hex", new JScrollPane(hexOutputArea));
+            viewTab.addTab("Hex", new JScrollPane(new HexView(clientConHandler.transcript)));
+            viewTab.addTab("Fields", new DissectorView(clientConHandler.transcript));
+            viewTab.addTab("Timeline", new TimelineView(clientConHandler.transcript));
 
             clientPanel.add(viewTab, BorderLayout.CENTER);
 
@@ -533,94 +712,229 @@ public final class MainWindow {
             inputPanel.add(inputField, BorderLayout.CENTER);
             // todo(nschultz): copy paster (make custom button)
             final JButton controlCharsButton = new JButton("ASCII");
+            final AtomicReference<JDialog> asciiDialog = new AtomicReference<>(null);
             controlCharsButton.addActionListener(e -> {
-                final JDialog dialog = new JDialog();
-                dialog.setTitle("ASCII Table");
-                final JPanel panel = new JPanel(new BorderLayout());
-                final DefaultTableModel model = new DefaultTableModel(new String[] {"Chr", "Dec", "Hex"}, 0) {
-                    @Override public boolean isCellEditable(final int row, final int col) {
-                        return false;
-                    }
-                };
-                for (int i = 0; i < 128; ++i) {
-                    switch (i) {
-                        case 0   -> model.addRow(new String[] {"<NUL>", String.valueOf(i), String.format("%02X", i)});
-                        case 1   -> model.addRow(new String[] {"<SOH>", String.valueOf(i), String.format("%02X", i)});
-                        case 2   -> model.addRow(new String[] {"<STX>", String.valueOf(i), String.format("%02X", i)});
-                        case 3   -> model.addRow(new String[] {"<ETX>", String.valueOf(i), String.format("%02X", i)});
-                        case 4   -> model.addRow(new String[] {"<EOT>", String.valueOf(i), String.format("%02X", i)});
-                        case 5   -> model.addRow(new String[] {"<ENQ>", String.valueOf(i), String.format("%02X", i)});
-                        case 6   -> model.addRow(new String[] {"<ACK>", String.valueOf(i), String.format("%02X", i)});
-                        case 7   -> model.addRow(new String[] {"<BEL>", String.valueOf(i), String.format("%02X", i)});
-                        case 8   -> model.addRow(new String[] {"<BS>",  String.valueOf(i), String.format("%02X", i)});
-                        case 9   -> model.addRow(new String[] {"<TAB>", String.valueOf(i), String.format("%02X", i)});
-                        case 10  -> model.addRow(new String[] {"<LF>",  String.valueOf(i), String.format("%02X", i)});
-                        case 11  -> model.addRow(new String[] {"<VT>",  String.valueOf(i), String.format("%02X", i)});
-                        case 12  -> model.addRow(new String[] {"<FF>",  String.valueOf(i), String.format("%02X", i)});
-                        case 13  -> model.addRow(new String[] {"<CR>",  String.valueOf(i), String.format("%02X", i)});
-                        case 14  -> model.addRow(new String[] {"<SO>",  String.valueOf(i), String.format("%02X", i)});
-                        case 15  -> model.addRow(new String[] {"<SI>",  String.valueOf(i), String.format("%02X", i)});
-                        case 16  -> model.addRow(new String[] {"<DLE>", String.valueOf(i), String.format("%02X", i)});
-                        case 17  -> model.addRow(new String[] {"<DC1>", String.valueOf(i), String.format("%02X", i)});
-                        case 18  -> model.addRow(new String[] {"<DC2>", String.valueOf(i), String.format("%02X", i)});
-                        case 19  -> model.addRow(new String[] {"<DC3>", String.valueOf(i), String.format("%02X", i)});
-                        case 20  -> model.addRow(new String[] {"<DC4>", String.valueOf(i), String.format("%02X", i)});
-                        case 21  -> model.addRow(new String[] {"<NAK>", String.valueOf(i), String.format("%02X", i)});
-                        case 22  -> model.addRow(new String[] {"<SYN>", String.valueOf(i), String.format("%02X", i)});
-                        case 23  -> model.addRow(new String[] {"<ETB>", String.valueOf(i), String.format("%02X", i)});
-                        case 24  -> model.addRow(new String[] {"<CAN>", String.valueOf(i), String.format("%02X", i)});
-                        case 25  -> model.addRow(new String[] {"<EM>",  String.valueOf(i), String.format("%02X", i)});
-                        case 26  -> model.addRow(new String[] {"<SUB>", String.valueOf(i), String.format("%02X", i)});
-                        case 27  -> model.addRow(new String[] {"<Esc>", String.valueOf(i), String.format("%02X", i)});
-                        case 28  -> model.addRow(new String[] {"<FS>",  String.valueOf(i), String.format("%02X", i)});
-                        case 29  -> model.addRow(new String[] {"<GS>",  String.valueOf(i), String.format("%02X", i)});
-                        case 30  -> model.addRow(new String[] {"<RS>",  String.valueOf(i), String.format("%02X", i)});
-                        case 31  -> model.addRow(new String[] {"<US>",  String.valueOf(i), String.format("%02X", i)});
-                        case 32  -> model.addRow(new String[] {"<SP>",  String.valueOf(i), String.format("%02X", i)});
-                        case 127 -> model.addRow(new String[] {"<DEL>",  String.valueOf(i), String.format("%02X", i)});
-                        default  -> model.addRow(new String[] {String.valueOf((char) i), String.valueOf(i), String.format("%02X", i)});
-                    }
-                }
-                final JTable table = new JTable(model);
-                table.getTableHeader().setReorderingAllowed(false);
-                table.addMouseListener(new MouseAdapter() {
-                    @Override public void mousePressed(final MouseEvent evt) {
-                        if (evt.getClickCount() == 2 && table.getSelectedRow() != -1) {
-                            final int decVal = Integer.parseInt(((String) table.getValueAt(table.getSelectedRow(), 1)));
-                            final char c = (char) decVal;
-                            try {
-                                inputField.getDocument().insertString(inputField.getCaretPosition(), String.valueOf(c), null);
-                            } catch (final Exception ex) {
-                                assert false;
-                            }
-                        }
-                    }
-                });
-                panel.add(new JScrollPane(table), BorderLayout.CENTER);
-                dialog.add(panel);
-                dialog.pack();
-                dialog.setLocationRelativeTo(this.frame);
-                dialog.setVisible(true);
+                if (asciiDialog.get() == null) asciiDialog.set(createAsciiDialog(inputField));
+                asciiDialog.get().setLocationRelativeTo(this.frame);
+                asciiDialog.get().setVisible(true);
             });
             inputPanel.add(controlCharsButton, BorderLayout.EAST);
             clientPanel.add(inputPanel, BorderLayout.SOUTH);
 
-            // todo(nschultz): We have to refactor this mess
-            fileMenuClearClientItem.addActionListener(e -> {
+            session.clear = () -> {
                 outputArea.setText("");
-                hexOutputArea.setText("");
-            });
+                clientConHandler.transcript.clear();
+                return (Void) null;
+            };
+
+            session.search = () -> {
+                new SearchWindow(this, String.format("Search %s transcript", session.title.toLowerCase()), clientConHandler.transcript).show();
+                return (Void) null;
+            };
+
+            session.scenario = () -> {
+                if (!clientConHandler.isConnected()) {
+                    JOptionPane.showMessageDialog(this.frame, "The client has to be connected first.", "Scenario", JOptionPane.WARNING_MESSAGE);
+                    return (Void) null;
+                }
+
+                final Scenario loaded = chooseScenario();
+                if (loaded == null) return (Void) null;
+
+                final Scenario.Run run = loaded.newRun();
+                final Scenario.Instance instance = run.newInstance(data -> {
+                    clientConHandler.send(data);
+                    appendToPane(outputArea, data, Color.BLACK, false);
+                    return (Void) null;
+                });
+                run.onFinished(() -> {
+                    scenario.compareAndSet(instance, null);
+                    appendToPane(outputArea, String.format("**%s**\n", scenarioReport(run, clientConHandler.profile, clientConHandler.handshakes, clientConHandler.impairment(), clientConHandler.heartbeat())), Color.BLACK, true);
+                    return (Void) null;
+                });
+                run.expect(1);
+
+                final Scenario.Instance previous = scenario.getAndSet(instance);
+                if (previous != null) previous.abort("replaced by another scenario");
+                appendToPane(outputArea, String.format("**SCENARIO STARTED: %s**\n", loaded.name), Color.BLACK, true);
+                instance.start();
+                return (Void) null;
+            };
+
+            // note(nschultz): The fields are kept, so the next run starts from what was entered last time
+            final JTextField rateField     = new JTextField("1000");
+            final JTextField durationField = new JTextField("10");
+            final JTextField payloadField  = new JTextField(Settings.macro);
+            final JTextField generateField = new JTextField("");
+            final JTextField replyField    = new JTextField("\\n");
+            final JCheckBox spinBox        = new JCheckBox("Busy spin (sub millisecond intervals, burns a core)");
+            final JCheckBox verifyBox      = new JCheckBox("Verify the echoed records");
+            session.rate = () -> {
+                final RateGenerator running = generator.get();
+                if (running != null && running.isRunning()) {
+                    final int answer = JOptionPane.showConfirmDialog(this.frame, "A rate generator is running. Stop it?", "Rate generator", JOptionPane.YES_NO_OPTION);
+                    if (answer == JOptionPane.YES_OPTION) running.stop();
+                    return (Void) null;
+                }
+                if (!clientConHandler.isConnected()) {
+                    JOptionPane.showMessageDialog(this.frame, "The client has to be connected first.", "Rate generator", JOptionPane.WARNING_MESSAGE);
+                    return (Void) null;
+                }
+
+                final JPanel form = new JPanel(new GridLayout(7, 2, 4, 4));
+                form.add(new JLabel("Rate (msg/s): "));
+                form.add(rateField);
+                form.add(new JLabel("Duration (s, 0 = until stopped): "));
+                form.add(durationField);
+                form.add(new JLabel("Payload: "));
+                form.add(payloadField);
+                form.add(new JLabel("Generate <kind>:<size>[:<seed>] (empty = payload): "));
+                form.add(generateField);
+                form.add(new JLabel("Reply regex (empty = none): "));
+                form.add(replyField);
+                form.add(new JLabel(""));
+                form.add(spinBox);
+                form.add(new JLabel(""));
+                form.add(verifyBox);
+                if (JOptionPane.showConfirmDialog(this.frame, form, "Rate generator", JOptionPane.OK_CANCEL_OPTION) != JOptionPane.OK_OPTION) {
+                    return (Void) null;
+                }
+
+                // note(nschultz): Same treatment as a line typed into the input field
+                final Settings.Snapshot settings = clientConHandler.settings();
+                String payload = Scenario.unescape(payloadField.getText());
+                if (settings.wrapInStxEtx)  payload = (char) 0x02 + payload + (char) 0x03;
+                if (settings.insertNewLine) payload = payload + (char) 0xA;
+
+                final RateGenerator started;
+                try {
+                    final Payload.Generator generated = generateField.getText().isBlank() ? Payload.Generator.text(payload) : Payload.Generator.parse(generateField.getText());
+                    if (verifyBox.isSelected() && !generated.isFramed()) throw new IllegalArgumentException("Verifying needs a generated payload");
+                    started = new RateGenerator(Double.parseDouble(rateField.getText().strip()), Double.parseDouble(durationField.getText().strip()),
+                                                spinBox.isSelected(), generated, Scenario.unescape(replyField.getText()), data -> {
+                        clientConHandler.send(data);
+                        return (Void) null;
+                    });
+                } catch (final IllegalArgumentException ex) {
+                    JOptionPane.showMessageDialog(this.frame, ex.getMessage(), "Rate generator", JOptionPane.ERROR_MESSAGE);
+                    return (Void) null;
+                }
+                final Payload.Verifier verifier = verifyBox.isSelected() ? new Payload.Verifier() : null;
+                clientConHandler.verifier = verifier;
+                started.onFinished(() -> {
+                    generator.compareAndSet(started, null);
+                    appendToPane(outputArea, String.format("**%s**\n", started.report().strip()), Color.BLACK, true);
+                    if (verifier != null) {
+                        // note(nschultz): The last records are still on their way back
+                        verifier.expect(started.sent.get());
+                        TimerWheel.shared().schedule(1_000_000_000L, () -> {
+                            if (clientConHandler.verifier == verifier) clientConHandler.verifier = null;
+                            appendToPane(outputArea, String.format("**%s**\n", Payload.report(java.util.List.of(verifier)).strip()), Color.BLACK, true);
+                        });
+                    }
+                    return (Void) null;
+                });
+                generator.set(started);
+                // note(nschultz): Sends are not echoed into the output, at these rates that would be all the window does
+                appendToPane(outputArea, String.format("**RATE GENERATOR STARTED: %s msg/s**\n", rateField.getText().strip()), Color.BLACK, true);
+                started.start();
+                return (Void) null;
+            };
+
+            final JTextField saturateDurationField = new JTextField("10");
+            final JTextField saturateGenerateField = new JTextField(String.format("pattern:%d", 16 * 1024 - Payload.HEADER - Payload.TRAILER));
+            final JCheckBox saturateVerifyBox      = new JCheckBox("Verify what comes back (echo or duplex server)");
+            session.saturate = () -> {
+                final DuplexLoad running = saturation.get();
+                if (running != null && running.isRunning()) {
+                    final int answer = JOptionPane.showConfirmDialog(this.frame, "A full duplex saturation is running. Stop it?", "Full duplex saturation", JOptionPane.YES_NO_OPTION);
+                    if (answer == JOptionPane.YES_OPTION) running.stop();
+                    return (Void) null;
+                }
+                if (!clientConHandler.isConnected()) {
+                    JOptionPane.showMessageDialog(this.frame, "The client has to be connected first.", "Full duplex saturation", JOptionPane.WARNING_MESSAGE);
+                    return (Void) null;
+                }
+                if (clientConHandler.impairment() != null) {
+                    // note(nschultz): The pipe queues every write without back pressure, we would only fill the heap
+                    JOptionPane.showMessageDialog(this.frame, "Not over an impaired connection.", "Full duplex saturation", JOptionPane.WARNING_MESSAGE);
+                    return (Void) null;
+                }
+
+                final JPanel form = new JPanel(new GridLayout(3, 2, 4, 4));
+                form.add(new JLabel("Duration (s, 0 = until stopped): "));
+                form.add(saturateDurationField);
+                form.add(new JLabel("Generate <kind>:<size>[:<seed>]: "));
+                form.add(saturateGenerateField);
+                form.add(new JLabel(""));
+                form.add(saturateVerifyBox);
+                if (JOptionPane.showConfirmDialog(this.frame, form, "Full duplex saturation", JOptionPane.OK_CANCEL_OPTION) != JOptionPane.OK_OPTION) {
+                    return (Void) null;
+                }
+
+                final Payload.Generator payload;
+                final DuplexLoad started;
+                try {
+                    payload = Payload.Generator.parse(saturateGenerateField.getText());
+                    started = new DuplexLoad(clientConHandler.connection() != null ? clientConHandler.connection().toString() : "client",
+                                             Double.parseDouble(saturateDurationField.getText().strip()), payload, data -> {
+                        return clientConHandler.send(data) && clientConHandler.isConnected();
+                    });
+                } catch (final IllegalArgumentException ex) {
+                    JOptionPane.showMessageDialog(this.frame, ex.getMessage(), "Full duplex saturation", JOptionPane.ERROR_MESSAGE);
+                    return (Void) null;
+                }
+                final Payload.Verifier verifier = saturateVerifyBox.isSelected() ? new Payload.Verifier() : null;
+                started.onFinished(() -> {
+                    // note(nschultz): A duplex server keeps sending, without closing that would all go into the output
+                    if (clientConHandler.duplex == started) {
+                        if (clientConHandler.isConnected()) clientConHandler.teardown();
+                        clientConHandler.duplex   = null;
+                        clientConHandler.verifier = null;
+                    }
+                    saturation.compareAndSet(started, null);
+                    appendToPane(outputArea, String.format("**%s**\n", started.report().strip()), Color.BLACK, true);
+                    if (verifier != null) appendToPane(outputArea, String.format("**%s**\n", Payload.report(java.util.List.of(verifier)).strip()), Color.BLACK, true);
+                    return (Void) null;
+                });
+                clientConHandler.verifier = verifier;
+                clientConHandler.duplex   = started;
+                saturation.set(started);
+                appendToPane(outputArea, String.format("**FULL DUPLEX SATURATION STARTED: %s, the transcript is paused, the connection is closed at the end**\n",
+                                                       payload.describe()), Color.BLACK, true);
+                started.start();
+                return (Void) null;
+            };
         }
+    }
+
+    public void show() {
+        assert !EventQueue.isDispatchThread();
+
+        EventQueue.invokeLater(() -> {
+            this.frame.addWindowListener(new WindowAdapter() {
+                @Override public void windowOpened(final WindowEvent evt) {
+                    Main.markStartupFinished("gui");
+                }
+            });
+            this.frame.setVisible(true);
+        });
+    }
+
+    private void initServerTab(final Session session, final ServerConHandler serverConHandler) {
+        assert EventQueue.isDispatchThread();
 
+        final JPanel serverPanel = session.panel;
         server_tab: {
             final JButton openButton = new JButton("Open");
 
-            final JLabel portLabel = new JLabel("Port: ");
+            final JLabel portLabel = new JLabel("Port(s): ");
             final JTextField portField = new JTextField("1234");
             portField.setBorder(BorderFactory.createLineBorder(Color.BLACK, 1));
+            portField.setToolTipText("Ports and port ranges (e.g. 5000-5099,6000), or unix:<path> for a unix domain socket");
             portField.getDocument().addDocumentListener(new DocumentListener() {
                 @Override public void changedUpdate(final DocumentEvent evt) {
-                    if (checkPortInput(portField.getText())) {
+                    if (checkListenListInput(portField.getText())) {
                         portField.setBorder(BorderFactory.createLineBorder(Color.BLACK, 1));
                         openButton.setEnabled(true);
                     } else {
@@ -629,7 +943,7 @@ public final class MainWindow {
                     }
                 }
                 @Override public void removeUpdate(final DocumentEvent evt)  {
-                    if (checkPortInput(portField.getText())) {
+                    if (checkListenListInput(portField.getText())) {
                         portField.setBorder(BorderFactory.createLineBorder(Color.BLACK, 1));
                         openButton.setEnabled(true);
                     } else {
@@ -638,7 +952,7 @@ public final class MainWindow {
                     }
                 }
                 @Override public void insertUpdate(final DocumentEvent evt)  {
-                    if (checkPortInput(portField.getText())) {
+                    if (checkListenListInput(portField.getText())) {
                         portField.setBorder(BorderFactory.createLineBorder(Color.BLACK, 1));
                         openButton.setEnabled(true);
                     } else {
@@ -650,96 +964,134 @@ public final class MainWindow {
             final JLabel statusLabel = new JLabel("Status: offline");
             statusLabel.setBackground(Color.RED);
 
+            final JLabel modeLabel  = new JLabel("Mode: " + Settings.serverMode.name().toLowerCase());
+            final JLabel statsLabel = new JLabel("");
+
+            // note(nschultz): Everything we send goes to the selected clients, or to all of them if nothing is selected
+            final ClientTableModel clientsModel = new ClientTableModel();
+            final JTable clientsTable = new JTable(clientsModel);
+            clientsTable.getTableHeader().setReorderingAllowed(false);
+            clientsTable.setSelectionMode(ListSelectionModel.MULTIPLE_INTERVAL_SELECTION);
+            final JLabel targetLabel = new JLabel("Target: all clients");
+            clientsTable.getSelectionModel().addListSelectionListener(e -> {
+                final int selected = clientsTable.getSelectedRowCount();
+                targetLabel.setText(selected == 0 ? "Target: all clients" : String.format("Target: %d selected client(s)", selected));
+            });
+
+            final PortTableModel portsModel = new PortTableModel();
+            final JTable portsTable = new JTable(portsModel);
+            portsTable.getTableHeader().setReorderingAllowed(false);
+
+            // note(nschultz): The built-in modes never hit the callback, the counters are all we get to see.
+            // Sampling them twice a second (on the shared UI loop) is plenty and costs the network thread nothing.
+            // The client and port tables are refreshed on the same tick.
+            final Runnable refresh = () -> {
+                statsLabel.setText(serverConHandler.stats.sample());
+                modeLabel.setText(String.format("Mode: %s | %s", serverConHandler.settings().serverMode.name().toLowerCase(), serverConHandler.acceptSample()));
+                clientsModel.refresh(clientsTable, serverConHandler.clients());
+                portsModel.refresh(serverConHandler.listeners());
+            };
+
             final JTextPane outputArea = new JTextPane();
             outputArea.setEditable(false);
             outputArea.setBorder(BorderFactory.createLineBorder(Color.BLACK, 1));
 
-            final JTextPane hexOutputArea = new JTextPane();
-            hexOutputArea.setEditable(false);
-            hexOutputArea.setBorder(BorderFactory.createLineBorder(Color.BLACK, 1));
+            final java.util.concurrent.ConcurrentHashMap<ServerConHandler.Client, Scenario.Instance> scenarios = new java.util.concurrent.ConcurrentHashMap<>();
 
             serverConHandler.callback = new ServerConHandler.Callback() {
                 @Override public void onOpen() {
                     openButton.setText("Close");
                     statusLabel.setText("Status: online");
                     portField.setEditable(false);
+                    modeLabel.setText("Mode: " + serverConHandler.settings().serverMode.name().toLowerCase());
+                    serverConHandler.profile.reset();
+                    UiLoop.shared().addRefresher(refresh);
                     outputArea.setBorder(BorderFactory.createLineBorder(new Color(20, 200, 20), 1));
-                    appendToPane(outputArea, "**SERVER OPEN**\n", Color.BLACK, true);
-                    hexOutputArea.setBorder(BorderFactory.createLineBorder(new Color(20, 200, 20), 1));
-                    appendToPane(hexOutputArea, "**SERVER OPEN**\n", Color.BLACK, true);
+                    final java.util.List<ServerConHandler.Listener> listeners = serverConHandler.listeners();
+                    if (listeners.size() == 1) {
+                        appendToPane(outputArea, "**SERVER OPEN**\n", Color.BLACK, true);
+                    } else {
+                        appendToPane(outputArea, String.format("**SERVER OPEN ON %d PORTS (%s)**\n", listeners.size(), portField.getText()), Color.BLACK, true);
+                    }
+                    if (serverConHandler.acceptors().size() > 1) {
+                        appendToPane(outputArea, String.format("**ACCEPTORS: %d (SO_REUSEPORT)**\n", serverConHandler.acceptors().size()), Color.BLACK, true);
+                    }
+                    if (serverConHandler.impairment() != null) {
+                        appendToPane(outputArea, String.format("**IMPAIRED: %s**\n", serverConHandler.impairment()), Color.BLACK, true);
+                    }
+                    if (serverConHandler.heartbeat() != null) {
+                        appendToPane(outputArea, String.format("**HEARTBEAT: %s**\n", serverConHandler.heartbeat()), Color.BLACK, true);
+                    }
                 }
-                @Override public void onNewClient(final Socket client) {
-                    appendToPane(outputArea, String.format("**NEW CLIENT: %s**\n", client.getInetAddress()), Color.BLACK, true);
-                    appendToPane(hexOutputArea, String.format("**NEW CLIENT: %s**\n", client.getInetAddress()), Color.BLACK, true);
+                @Override public void onNewClient(final ServerConHandler.Client client) {
+                    appendToPane(outputArea, String.format("**NEW CLIENT: %s (%s)**\n", client, client.describeTransport()), Color.BLACK, true);
 
-                    if (!Settings.msgOnConEst.isEmpty()) {
-                        final String msgOnConEstMod = Settings.msgOnConEst.replaceAll("\\\\n", "\n");
+                    final Settings.Snapshot settings = serverConHandler.settings();
+                    if (!settings.msgOnConEst.isEmpty()) {
+                        final String msgOnConEstMod = settings.msgOnConEst.replaceAll("\\\\n", "\n");
 
-                        serverConHandler.send(msgOnConEstMod);
+                        serverConHandler.send(java.util.List.of(client), msgOnConEstMod);
                         appendToPane(outputArea, msgOnConEstMod, Color.BLACK, false);
-
-                        for (final char c : msgOnConEstMod.toCharArray()) {
-                            final String hex = String.format("%02X ", new BigInteger(1, new byte[]{(byte) c}));
-                            appendToPane(hexOutputArea, hex, Color.BLACK, false);
-
-                            if (hex.strip().equals("0A")) { // note(nschultz): new line
-                                appendToPane(hexOutputArea, "\n", Color.BLACK, false);
-                            }
-                        }
                     }
                 }
-                @Override public void onClientLost(final Socket client) {
-                    appendToPane(outputArea, String.format("**LOST CLIENT: %s**\n", client.getInetAddress()), Color.BLACK, true);
-                    appendToPane(hexOutputArea, String.format("**LOST CLIENT: %s**\n", client.getInetAddress()), Color.BLACK, true);
-                }
-                @Override public void onIncomingData(final String data) {
-                    appendToPane(outputArea, data, Color.BLUE, false);
+                @Override public void onClientLost(final ServerConHandler.Client client) {
+                    final Scenario.Instance running = scenarios.remove(client);
+                    if (running != null) running.abort("client lost");
 
-                    for (final char c : data.toCharArray()) {
-                        final String hex = String.format("%02X ", new BigInteger(1, new byte[]{(byte) c}));
-                        appendToPane(hexOutputArea, hex, Color.BLUE, false);
-                        if (hex.strip().equals("0A")) { // note(nschultz): new line
-                            appendToPane(hexOutputArea, "\n", Color.BLACK, false);
-                        }
+                    appendToPane(outputArea, String.format("**LOST CLIENT: %s**\n", client), Color.BLACK, true);
+                    if (client.verifier() != null) {
+                        appendToPane(outputArea, String.format("**VERIFIED %s: %s**\n", client, client.verifier().summary()), Color.BLACK, true);
                     }
+                    if (client.duplex() != null) {
+                        appendToPane(outputArea, String.format("**FULL DUPLEX %s: %s**\n", client, client.duplex().summary()), Color.BLACK, true);
+                    }
+                }
+                @Override public void onIncomingData(final ServerConHandler.Client client, final String data) {
+                    appendToPane(outputArea, data, Color.BLUE, false, serverConHandler.profile.ui);
+
+                    final Scenario.Instance running = scenarios.get(client);
+                    if (running != null) running.feed(data);
 
                     // note(nschultz): Format has already been validated
                     // todo(nschultz): Perhaps we should make two separate settings for client and server
-                    if (!Settings.conditionalAnswer.isEmpty()) {
-                        String ifMessage   = Settings.conditionalAnswer.split("@")[0];
-                        String thenMessage = Settings.conditionalAnswer.split("@")[1];
+                    final Settings.Snapshot settings = serverConHandler.settings();
+                    if (!settings.conditionalAnswer.isEmpty()) {
+                        String ifMessage   = settings.conditionalAnswer.split("@")[0];
+                        String thenMessage = settings.conditionalAnswer.split("@")[1];
 
                         ifMessage   = ifMessage.replaceAll("\\\\n", "\n");
                         thenMessage = thenMessage.replaceAll("\\\\n", "\n");
 
                         if (data.equals(ifMessage)) {
-                            serverConHandler.send(thenMessage);
+                            serverConHandler.send(java.util.List.of(client), thenMessage);
 
                             appendToPane(outputArea, thenMessage, Color.BLACK, false);
-
-                            for (final char c : thenMessage.toCharArray()) {
-                                final String hex = String.format("%02X ", new BigInteger(1, new byte[]{(byte) c}));
-                                appendToPane(hexOutputArea, hex, Color.BLACK, false);
-
-                                if (hex.strip().equals("0A")) { // note(nschultz): new line
-                                    appendToPane(hexOutputArea, "\n", Color.BLACK, false);
-                                }
-                            }
                         }
                     }
                 }
                 @Override public void onConnectionFailure(final String reason) {
                     appendToPane(outputArea, String.format("**ERROR: %s**\n", reason), Color.BLACK, true);
-                    appendToPane(hexOutputArea, String.format("**ERROR: %s**\n", reason), Color.BLACK, true);
                 }
                 @Override public void onClose() {
                     openButton.setText("Open");
                     statusLabel.setText("Status: offline");
                     portField.setEditable(true);
+                    UiLoop.shared().removeRefresher(refresh);
+                    refresh.run();
                     outputArea.setBorder(BorderFactory.createLineBorder(Color.BLACK, 1));
                     appendToPane(outputArea, "**SERVER CLOSED**\n", Color.BLACK, true);
-                    hexOutputArea.setBorder(BorderFactory.createLineBorder(Color.BLACK, 1));
-                    appendToPane(hexOutputArea, "**SERVER CLOSED**\n", Color.BLACK, true);
+                    if (serverConHandler.accepts.sum() > 0) {
+                        appendToPane(outputArea, String.format("**%s**\n", serverConHandler.acceptReport().strip()), Color.BLACK, true);
+                    }
+                    if (serverConHandler.handshakes.count() > 0) {
+                        appendToPane(outputArea, String.format("**%s**\n", serverConHandler.handshakes.report().strip()), Color.BLACK, true);
+                    }
+                    if (!serverConHandler.duplexTotals().isEmpty()) {
+                        appendToPane(outputArea, String.format("**%s**\n", serverConHandler.duplexTotals().report().strip()), Color.BLACK, true);
+                    }
+                    if (!serverConHandler.verifiers().isEmpty()) {
+                        appendToPane(outputArea, String.format("**%s**\n", Payload.report(serverConHandler.verifiers()).strip()), Color.BLACK, true);
+                    }
                 }
             };
 
@@ -749,16 +1101,24 @@ public final class MainWindow {
                     return;
                 }
 
-                serverConHandler.start(Integer.parseInt(portField.getText()));
+                serverConHandler.start(portField.getText());
             });
 
-            final JPanel headerPanel = new JPanel(new GridLayout(2, 2, 4, 4));
+            final JPanel headerPanel = new JPanel(new GridLayout(3, 2, 4, 4));
             headerPanel.add(portLabel);
             headerPanel.add(portField);
             headerPanel.add(statusLabel);
             headerPanel.add(openButton);
+            headerPanel.add(modeLabel);
+            headerPanel.add(statsLabel);
             serverPanel.add(headerPanel, BorderLayout.NORTH);
 
+            final JPanel clientsPanel = new JPanel(new BorderLayout(4, 4));
+            clientsPanel.add(targetLabel, BorderLayout.NORTH);
+            clientsPanel.add(new JScrollPane(clientsTable), BorderLayout.CENTER);
+            clientsPanel.setPreferredSize(new Dimension(360, 0));
+            serverPanel.add(clientsPanel, BorderLayout.EAST);
+
             final JTextField inputField = new JTextField();
             inputField.setDropTarget(new DropTarget() {
                 @Override public synchronized void drop(final DropTargetDropEvent evt) {
@@ -788,133 +1148,328 @@ public final class MainWindow {
                         inputField.setText(MainWindow.this.lastMessage);
                     } else if (evt.getKeyCode() == KeyEvent.VK_F5) {
                         // todo(nschultz): This might be a bit hacky
-                        inputField.setText(Settings.macro);
+                        inputField.setText(serverConHandler.isOpen() ? serverConHandler.settings().macro : Settings.macro);
                         inputField.getActionListeners()[0].actionPerformed(new ActionEvent(this, ActionEvent.ACTION_PERFORMED, null));
                     }
                 }
             });
             inputField.addActionListener(e -> {
                 if (serverConHandler.isOpen() && serverConHandler.hasClient()) {
+                    final Settings.Snapshot settings = serverConHandler.settings();
                     String input = inputField.getText();
                     this.lastMessage = input;
-                    if (Settings.wrapInStxEtx) {
+                    if (settings.wrapInStxEtx) {
                         input = (char) 0x02 + input + (char) 0x03;
                     }
-                    if (Settings.insertNewLine) {
+                    if (settings.insertNewLine) {
                         input = input + (char) 0xA;
                     }
 
                     appendToPane(outputArea, input, Color.BLACK, false);
-
-                    for (final char c : input.toCharArray()) {
-                        final String hex = String.format("%02X ", new BigInteger(1, new byte[]{(byte) c}));
-                        appendToPane(hexOutputArea, hex, Color.BLACK, false);
-                        if (hex.strip().equals("0A")) { // note(nschultz): new line
-                            appendToPane(hexOutputArea, "\n", Color.BLACK, false);
-                        }
+                    final java.util.List<ServerConHandler.Client> targets = clientsModel.selected(clientsTable);
+                    if (targets.isEmpty()) {
+                        serverConHandler.send(input);
+                    } else {
+                        serverConHandler.send(targets, input);
                     }
-                    serverConHandler.send(input);
                 }
                 inputField.setText("");
             });
 
             final JTabbedPane viewTab = new JTabbedPane(JTabbedPane.BOTTOM);
             viewTab.addTab("String", new JScrollPane(outputArea));
-            viewTab.addTab("Hex", new JScrollPane(hexOutputArea));
+            viewTab.addTab("Hex", new JScrollPane(new HexView(serverConHandler.transcript)));
+            viewTab.addTab("Fields", new DissectorView(serverConHandler.transcript));
+            viewTab.addTab("Timeline", new TimelineView(serverConHandler.transcript));
+            viewTab.addTab("Ports", new JScrollPane(portsTable));
 
             serverPanel.add(viewTab, BorderLayout.CENTER);
             final JPanel inputPanel = new JPanel(new BorderLayout(8, 8));
             inputPanel.add(inputField, BorderLayout.CENTER);
             final JButton controlCharsButton = new JButton("ASCII");
+            final AtomicReference<JDialog> asciiDialog = new AtomicReference<>(null);
             controlCharsButton.addActionListener(e -> {
-                final JDialog dialog = new JDialog();
-                dialog.setTitle("ASCII Table");
-                final JPanel panel = new JPanel(new BorderLayout());
-                final DefaultTableModel model = new DefaultTableModel(new String[] {"Chr", "Dec", "Hex"}, 0) {
-                    @Override public boolean isCellEditable(final int row, final int col) {
-                        return false;
-                    }
-                };
-                for (int i = 0; i < 128; ++i) {
-                    switch (i) {
-                        case 0   -> model.addRow(new String[] {"<NUL>", String.valueOf(i), String.format("%02X", i)});
-                        case 1   -> model.addRow(new String[] {"<SOH>", String.valueOf(i), String.format("%02X", i)});
-                        case 2   -> model.addRow(new String[] {"<STX>", String.valueOf(i), String.format("%02X", i)});
-                        case 3   -> model.addRow(new String[] {"<ETX>", String.valueOf(i), String.format("%02X", i)});
-                        case 4   -> model.addRow(new String[] {"<EOT>", String.valueOf(i), String.format("%02X", i)});
-                        case 5   -> model.addRow(new String[] {"<ENQ>", String.valueOf(i), String.format("%02X", i)});
-                        case 6   -> model.addRow(new String[] {"<ACK>", String.valueOf(i), String.format("%02X", i)});
-                        case 7   -> model.addRow(new String[] {"<BEL>", String.valueOf(i), String.format("%02X", i)});
-                        case 8   -> model.addRow(new String[] {"<BS>",  String.valueOf(i), String.format("%02X", i)});
-                        case 9   -> model.addRow(new String[] {"<TAB>", String.valueOf(i), String.format("%02X", i)});
-                        case 10  -> model.addRow(new String[] {"<LF>",  String.valueOf(i), String.format("%02X", i)});
-                        case 11  -> model.addRow(new String[] {"<VT>",  String.valueOf(i), String.format("%02X", i)});
-                        case 12  -> model.addRow(new String[] {"<FF>",  String.valueOf(i), String.format("%02X", i)});
-                        case 13  -> model.addRow(new String[] {"<CR>",  String.valueOf(i), String.format("%02X", i)});
-                        case 14  -> model.addRow(new String[] {"<SO>",  String.valueOf(i), String.format("%02X", i)});
-                        case 15  -> model.addRow(new String[] {"<SI>",  String.valueOf(i), String.format("%02X", i)});
-                        case 16  -> model.addRow(new String[] {"<DLE>", String.valueOf(i), String.format("%02X", i)});
-                        case 17  -> model.addRow(new String[] {"<DC1>", String.valueOf(i), String.format("%02X", i)});
-                        case 18  -> model.addRow(new String[] {"<DC2>", String.valueOf(i), String.format("%02X", i)});
-                        case 19  -> model.addRow(new String[] {"<DC3>", String.valueOf(i), String.format("%02X", i)});
-                        case 20  -> model.addRow(new String[] {"<DC4>", String.valueOf(i), String.format("%02X", i)});
-                        case 21  -> model.addRow(new String[] {"<NAK>", String.valueOf(i), String.format("%02X", i)});
-                        case 22  -> model.addRow(new String[] {"<SYN>", String.valueOf(i), String.format("%02X", i)});
-                        case 23  -> model.addRow(new String[] {"<ETB>", String.valueOf(i), String.format("%02X", i)});
-                        case 24  -> model.addRow(new String[] {"<CAN>", String.valueOf(i), String.format("%02X", i)});
-                        case 25  -> model.addRow(new String[] {"<EM>",  String.valueOf(i), String.format("%02X", i)});
-                        case 26  -> model.addRow(new String[] {"<SUB>", String.valueOf(i), String.format("%02X", i)});
-                        case 27  -> model.addRow(new String[] {"<Esc>", String.valueOf(i), String.format("%02X", i)});
-                        case 28  -> model.addRow(new String[] {"<FS>",  String.valueOf(i), String.format("%02X", i)});
-                        case 29  -> model.addRow(new String[] {"<GS>",  String.valueOf(i), String.format("%02X", i)});
-                        case 30  -> model.addRow(new String[] {"<RS>",  String.valueOf(i), String.format("%02X", i)});
-                        case 31  -> model.addRow(new String[] {"<US>",  String.valueOf(i), String.format("%02X", i)});
-                        case 32  -> model.addRow(new String[] {"<SP>",  String.valueOf(i), String.format("%02X", i)});
-                        case 127 -> model.addRow(new String[] {"<DEL>",  String.valueOf(i), String.format("%02X", i)});
-                        default  -> model.addRow(new String[] {String.valueOf((char) i), String.valueOf(i), String.format("%02X", i)});
-                    }
-                }
-                final JTable table = new JTable(model);
-                table.getTableHeader().setReorderingAllowed(false);
-                table.addMouseListener(new MouseAdapter() {
-                    @Override public void mousePressed(final MouseEvent evt) {
-                        if (evt.getClickCount() == 2 && table.getSelectedRow() != -1) {
-                            final int decVal = Integer.parseInt(((String) table.getValueAt(table.getSelectedRow(), 1)));
-                            final char c = (char) decVal;
-                            try {
-                                inputField.getDocument().insertString(inputField.getCaretPosition(), String.valueOf(c), null);
-                            } catch (final Exception ex) {
-                                assert false;
-                            }
-                        }
-                    }
-                });
-                panel.add(new JScrollPane(table), BorderLayout.CENTER);
-                dialog.add(panel);
-                dialog.pack();
-                dialog.setLocationRelativeTo(this.frame);
-                dialog.setVisible(true);
+                if (asciiDialog.get() == null) asciiDialog.set(createAsciiDialog(inputField));
+                asciiDialog.get().setLocationRelativeTo(this.frame);
+                asciiDialog.get().setVisible(true);
             });
             inputPanel.add(controlCharsButton, BorderLayout.EAST);
             serverPanel.add(inputPanel, BorderLayout.SOUTH);
 
-            // todo(nschultz): We have to refactor this mess
-            fileMenuClearServerItem.addActionListener(e -> {
+            session.clear = () -> {
                 outputArea.setText("");
-                hexOutputArea.setText("");
-            });
+                serverConHandler.transcript.clear();
+                return (Void) null;
+            };
+
+            session.search = () -> {
+                new SearchWindow(this, String.format("Search %s transcript", session.title.toLowerCase()), serverConHandler.transcript).show();
+                return (Void) null;
+            };
+
+            // note(nschultz): One instance per client that is connected right now. Clients connecting
+            // later are not part of the run.
+            session.scenario = () -> {
+                final java.util.List<ServerConHandler.Client> clients = java.util.List.copyOf(serverConHandler.clients());
+                if (!serverConHandler.isOpen() || clients.isEmpty()) {
+                    JOptionPane.showMessageDialog(this.frame, "The server needs at least one connected client first.", "Scenario", JOptionPane.WARNING_MESSAGE);
+                    return (Void) null;
+                }
+
+                final Scenario loaded = chooseScenario();
+                if (loaded == null) return (Void) null;
+
+                final Scenario.Run run = loaded.newRun();
+                run.onFinished(() -> {
+                    appendToPane(outputArea, String.format("**%s**\n", scenarioReport(run, serverConHandler.profile, serverConHandler.handshakes, serverConHandler.impairment(), serverConHandler.heartbeat())), Color.BLACK, true);
+                    return (Void) null;
+                });
+
+                final java.util.ArrayList<Scenario.Instance> instances = new java.util.ArrayList<>();
+                for (final ServerConHandler.Client client : clients) {
+                    final Scenario.Instance instance = run.newInstance(data -> {
+                        serverConHandler.send(java.util.List.of(client), data);
+                        appendToPane(outputArea, data, Color.BLACK, false);
+                        return (Void) null;
+                    });
+                    final Scenario.Instance previous = scenarios.put(client, instance);
+                    if (previous != null) previous.abort("replaced by another scenario");
+                    instances.add(instance);
+                }
+                run.expect(instances.size());
+
+                appendToPane(outputArea, String.format("**SCENARIO STARTED: %s on %d client(s)**\n", loaded.name, instances.size()), Color.BLACK, true);
+                for (final Scenario.Instance instance : instances) {
+                    instance.start();
+                }
+                return (Void) null;
+            };
         }
+    }
 
-        // note(nschultz): finally add all the content to our frame
-        this.frame.setContentPane(root);
+    private void initRelayTab(final Session session, final RelayHandler relayHandler) {
+        assert EventQueue.isDispatchThread();
+
+        final JPanel relayPanel = session.panel;
+        relay_tab: {
+            final JButton openButton = new JButton("Open");
+
+            final JLabel portLabel = new JLabel("Listen port: ");
+            final JTextField portField = new JTextField("1235");
+            final JLabel upstreamLabel = new JLabel("Upstream (host:port): ");
+            final JTextField upstreamHostField = new JTextField("127.0.0.1");
+            final JTextField upstreamPortField = new JTextField("1234");
+            portField.setToolTipText("Port, or unix:<path> for a unix domain socket");
+            upstreamHostField.setToolTipText("Host name, IPv4 or IPv6 address, or unix:<path> for a unix domain socket (the port is ignored then)");
+
+            final Lambdas.Nullary<Void> validate = () -> {
+                final boolean portOk = checkListenInput(portField.getText());
+                final boolean hostOk = checkHostInput(upstreamHostField.getText());
+                final boolean upPortOk = checkPortInput(upstreamPortField.getText());
+                portField.setBorder(portOk ? BorderFactory.createLineBorder(Color.BLACK, 1) : BorderFactory.createLineBorder(Color.RED, 2));
+                upstreamHostField.setBorder(hostOk ? BorderFactory.createLineBorder(Color.BLACK, 1) : BorderFactory.createLineBorder(Color.RED, 2));
+                upstreamPortField.setBorder(upPortOk ? BorderFactory.createLineBorder(Color.BLACK, 1) : BorderFactory.createLineBorder(Color.RED, 2));
+                openButton.setEnabled(portOk && hostOk && upPortOk);
+                return (Void) null;
+            };
+            final DocumentListener validator = new DocumentListener() {
+                @Override public void changedUpdate(final DocumentEvent evt) { validate.call(); }
+                @Override public void removeUpdate(final DocumentEvent evt)  { validate.call(); }
+                @Override public void insertUpdate(final DocumentEvent evt)  { validate.call(); }
+            };
+            portField.getDocument().addDocumentListener(validator);
+            upstreamHostField.getDocument().addDocumentListener(validator);
+            upstreamPortField.getDocument().addDocumentListener(validator);
+            validate.call();
+
+            final JPanel upstreamPanel = new JPanel(new BorderLayout(4, 4));
+            upstreamPanel.add(upstreamHostField, BorderLayout.CENTER);
+            upstreamPanel.add(upstreamPortField, BorderLayout.EAST);
+            upstreamPortField.setColumns(6);
+
+            final JLabel statusLabel  = new JLabel("Status: offline");
+            final JLabel statsLabel   = new JLabel("");
+            final JLabel latencyLabel = new JLabel("");
+
+            // note(nschultz): Same idea as on the server tab, the pumps only count, we look twice a second
+            final Runnable refresh = () -> {
+                statsLabel.setText(relayHandler.stats.sample());
+                latencyLabel.setText(String.format("Forwarding p50/p99: to upstream %s / %s, to clients %s / %s, %d session(s)",
+                                     Histogram.formatNanos(relayHandler.upstreamLatency.percentile(50)),
+                                     Histogram.formatNanos(relayHandler.upstreamLatency.percentile(99)),
+                                     Histogram.formatNanos(relayHandler.downstreamLatency.percentile(50)),
+                                     Histogram.formatNanos(relayHandler.downstreamLatency.percentile(99)),
+                                     relayHandler.sessions().size()));
+            };
+
+            final JTextPane outputArea = new JTextPane();
+            outputArea.setEditable(false);
+            outputArea.setBorder(BorderFactory.createLineBorder(Color.BLACK, 1));
+
+            relayHandler.callback = new RelayHandler.Callback() {
+                @Override public void onOpen() {
+                    openButton.setText("Close");
+                    statusLabel.setText("Status: online");
+                    portField.setEditable(false);
+                    upstreamHostField.setEditable(false);
+                    upstreamPortField.setEditable(false);
+                    UiLoop.shared().addRefresher(refresh);
+                    outputArea.setBorder(BorderFactory.createLineBorder(new Color(20, 200, 20), 1));
+                    appendToPane(outputArea, "**RELAY OPEN**\n", Color.BLACK, true);
+                }
+                @Override public void onSessionStarted(final RelayHandler.Session session) {
+                    appendToPane(outputArea, String.format("**SESSION STARTED: %s**\n", session), Color.BLACK, true);
+                }
+                @Override public void onSessionEnded(final RelayHandler.Session session) {
+                    appendToPane(outputArea, String.format("**SESSION ENDED: %s**\n", session), Color.BLACK, true);
+                }
+                @Override public void onConnectionFailure(final String reason) {
+                    appendToPane(outputArea, String.format("**ERROR: %s**\n", reason), Color.BLACK, true);
+                }
+                @Override public void onClose() {
+                    openButton.setText("Open");
+                    statusLabel.setText("Status: offline");
+                    portField.setEditable(true);
+                    upstreamHostField.setEditable(true);
+                    upstreamPortField.setEditable(true);
+                    UiLoop.shared().removeRefresher(refresh);
+                    outputArea.setBorder(BorderFactory.createLineBorder(Color.BLACK, 1));
+                    appendToPane(outputArea, "**RELAY CLOSED**\n", Color.BLACK, true);
+                    appendToPane(outputArea, String.format("**%s**\n", relayHandler.report().strip()), Color.BLACK, true);
+                }
+            };
+
+            openButton.addActionListener(e -> {
+                if (relayHandler.isOpen()) {
+                    relayHandler.teardown();
+                    return;
+                }
+
+                relayHandler.start(portField.getText(), upstreamHostField.getText(), Integer.parseInt(upstreamPortField.getText()));
+            });
+
+            final JPanel headerPanel = new JPanel(new GridLayout(4, 2, 4, 4));
+            headerPanel.add(portLabel);
+            headerPanel.add(portField);
+            headerPanel.add(upstreamLabel);
+            headerPanel.add(upstreamPanel);
+            headerPanel.add(statusLabel);
+            headerPanel.add(openButton);
+            headerPanel.add(statsLabel);
+            headerPanel.add(latencyLabel);
+            relayPanel.add(headerPanel, BorderLayout.NORTH);
+
+            // note(nschultz): No string view, the relay never decodes anything. OUT is what the clients sent.
+            final JTabbedPane viewTab = new JTabbedPane(JTabbedPane.BOTTOM);
+            viewTab.addTab("Events", new JScrollPane(outputArea));
+            viewTab.addTab("Hex", new JScrollPane(new HexView(relayHandler.transcript)));
+            viewTab.addTab("Fields", new DissectorView(relayHandler.transcript));
+            viewTab.addTab("Timeline", new TimelineView(relayHandler.transcript));
+            relayPanel.add(viewTab, BorderLayout.CENTER);
+
+            session.search = () -> {
+                new SearchWindow(this, String.format("Search %s transcript", session.title.toLowerCase()), relayHandler.transcript).show();
+                return (Void) null;
+            };
+        }
     }
 
-    public void show() {
-        assert !EventQueue.isDispatchThread();
+    private JDialog createAsciiDialog(final JTextField inputField) {
+        assert EventQueue.isDispatchThread();
 
-        EventQueue.invokeLater(() -> {
-            this.frame.setVisible(true);
+        final JDialog dialog = new JDialog();
+        dialog.setTitle("ASCII Table");
+        final JPanel panel = new JPanel(new BorderLayout());
+        final DefaultTableModel model = new DefaultTableModel(new String[] {"Chr", "Dec", "Hex"}, 0) {
+            @Override public boolean isCellEditable(final int row, final int col) {
+                return false;
+            }
+        };
+        for (int i = 0; i < 128; ++i) {
+            switch (i) {
+                case 0   -> model.addRow(new String[] {"<NUL>", String.valueOf(i), String.format("%02X", i)});
+                case 1   -> model.addRow(new String[] {"<SOH>", String.valueOf(i), String.format("%02X", i)});
+                case 2   -> model.addRow(new String[] {"<STX>", String.valueOf(i), String.format("%02X", i)});
+                case 3   -> model.addRow(new String[] {"<ETX>", String.valueOf(i), String.format("%02X", i)});
+                case 4   -> model.addRow(new String[] {"<EOT>", String.valueOf(i), String.format("%02X", i)});
+                case 5   -> model.addRow(new String[] {"<ENQ>", String.valueOf(i), String.format("%02X", i)});
+                case 6   -> model.addRow(new String[] {"<ACK>", String.valueOf(i), String.format("%02X", i)});
+                case 7   -> model.addRow(new String[] {"<BEL>", String.valueOf(i), String.format("%02X", i)});
+                case 8   -> model.addRow(new String[] {"<BS>",  String.valueOf(i), String.format("%02X", i)});
+                case 9   -> model.addRow(new String[] {"<TAB>", String.valueOf(i), String.format("%02X", i)});
+                case 10  -> model.addRow(new String[] {"<LF>",  String.valueOf(i), String.format("%02X", i)});
+                case 11  -> model.addRow(new String[] {"<VT>",  String.valueOf(i), String.format("%02X", i)});
+                case 12  -> model.addRow(new String[] {"<FF>",  String.valueOf(i), String.format("%02X", i)});
+                case 13  -> model.addRow(new String[] {"<CR>",  String.valueOf(i), String.format("%02X", i)});
+                case 14  -> model.addRow(new String[] {"<SO>",  String.valueOf(i), String.format("%02X", i)});
+                case 15  -> model.addRow(new String[] {"<SI>",  String.valueOf(i), String.format("%02X", i)});
+                case 16  -> model.addRow(new String[] {"<DLE>", String.valueOf(i), String.format("%02X", i)});
+                case 17  -> model.addRow(new String[] {"<DC1>", String.valueOf(i), String.format("%02X", i)});
+                case 18  -> model.addRow(new String[] {"<DC2>", String.valueOf(i), String.format("%02X", i)});
+                case 19  -> model.addRow(new String[] {"<DC3>", String.valueOf(i), String.format("%02X", i)});
+                case 20  -> model.addRow(new String[] {"<DC4>", String.valueOf(i), String.format("%02X", i)});
+                case 21  -> model.addRow(new String[] {"<NAK>", String.valueOf(i), String.format("%02X", i)});
+                case 22  -> model.addRow(new String[] {"<SYN>", String.valueOf(i), String.format("%02X", i)});
+                case 23  -> model.addRow(new String[] {"<ETB>", String.valueOf(i), String.format("%02X", i)});
+                case 24  -> model.addRow(new String[] {"<CAN>", String.valueOf(i), String.format("%02X", i)});
+                case 25  -> model.addRow(new String[] {"<EM>",  String.valueOf(i), String.format("%02X", i)});
+                case 26  -> model.addRow(new String[] {"<SUB>", String.valueOf(i), String.format("%02X", i)});
+                case 27  -> model.addRow(new String[] {"<Esc>", String.valueOf(i), String.format("%02X", i)});
+                case 28  -> model.addRow(new String[] {"<FS>",  String.valueOf(i), String.format("%02X", i)});
+                case 29  -> model.addRow(new String[] {"<GS>",  String.valueOf(i), String.format("%02X", i)});
+                case 30  -> model.addRow(new String[] {"<RS>",  String.valueOf(i), String.format("%02X", i)});
+                case 31  -> model.addRow(new String[] {"<US>",  String.valueOf(i), String.format("%02X", i)});
+                case 32  -> model.addRow(new String[] {"<SP>",  String.valueOf(i), String.format("%02X", i)});
+                case 127 -> model.addRow(new String[] {"<DEL>",  String.valueOf(i), String.format("%02X", i)});
+                default  -> model.addRow(new String[] {String.valueOf((char) i), String.valueOf(i), String.format("%02X", i)});
+            }
+        }
+        final JTable table = new JTable(model);
+        table.getTableHeader().setReorderingAllowed(false);
+        table.addMouseListener(new MouseAdapter() {
+            @Override public void mousePressed(final MouseEvent evt) {
+                if (evt.getClickCount() == 2 && table.getSelectedRow() != -1) {
+                    final int decVal = Integer.parseInt(((String) table.getValueAt(table.getSelectedRow(), 1)));
+                    final char c = (char) decVal;
+                    try {
+                        inputField.getDocument().insertString(inputField.getCaretPosition(), String.valueOf(c), null);
+                    } catch (final Exception ex) {
+                        assert false;
+                    }
+                }
+            }
         });
+        panel.add(new JScrollPane(table), BorderLayout.CENTER);
+        dialog.add(panel);
+        dialog.pack();
+        return dialog;
+    }
+
+    private Scenario chooseScenario() {
+        assert EventQueue.isDispatchThread();
+
+        final JFileChooser chooser = new JFileChooser();
+        chooser.setDialogTitle("Run scenario");
+        if (chooser.showOpenDialog(this.frame) != JFileChooser.APPROVE_OPTION) return null;
+
+        try {
+            return Scenario.load(chooser.getSelectedFile().toPath());
+        } catch (final IOException | IllegalArgumentException ex) {
+            JOptionPane.showMessageDialog(this.frame, ex.getMessage(), "Failed to load scenario", JOptionPane.ERROR_MESSAGE);
+            return null;
+        }
+    }
+
+    // note(nschultz): A host name, an IPv4 or an IPv6 literal or unix:<path>. Only the syntax is checked, nothing is resolved here.
+    private static boolean checkHostInput(final String text) {
+        assert text != null;
+
+        if (text.isBlank()) return false;
+
+        if (Resolver.isUnix(text))    return true; // note(nschultz): Whether the socket exists is found out when connecting
+        if (text.matches("[0-9.]+"))  return checkIpv4Input(text); // note(nschultz): Otherwise 999.1.1.1 would pass as a host name
+        if (text.indexOf(':') >= 0)   return Resolver.isIpv6Literal(text);
+        return Resolver.isHostname(text);
     }
 
     private static boolean checkIpv4Input(final String text) {
@@ -939,6 +1494,24 @@ public final class MainWindow {
         return true;
     }
 
+    // note(nschultz): What a relay can listen on, a port or unix:<path>
+    private static boolean checkListenInput(final String text) {
+        assert text != null;
+
+        return Resolver.isUnix(text) || checkPortInput(text);
+    }
+
+    // note(nschultz): Servers take a list of those, see Resolver.expandListen
+    private static boolean checkListenListInput(final String text) {
+        assert text != null;
+
+        try {
+            return !Resolver.expandListen(text).isEmpty();
+        } catch (final IllegalArgumentException ex) {
+            return false;
+        }
+    }
+
     private static boolean checkPortInput(final String text) {
         assert text != null;
 
@@ -955,36 +1528,194 @@ public final class MainWindow {
         return true;
     }
 
-    private static void appendToPane(final JTextPane pane, final String string, final Color color, final boolean bold) {
-        assert string != null;
-        assert pane   != null;
-        assert color  != null;
+    @SuppressWarnings("serial")
+    private static final class ClientTableModel extends AbstractTableModel {
 
-        if (EventQueue.isDispatchThread()) {
-            try {
-                final SimpleAttributeSet attr = new SimpleAttributeSet();
-                StyleConstants.setForeground(attr, color);
-                StyleConstants.setBold(attr, bold);
+        private static final String[] columns = {"Client", "Port", "In", "Out", "Read buffer", "Pending", "Last lag", "Max lag"};
 
-                final StyledDocument doc = pane.getStyledDocument();
-                doc.insertString(doc.getLength(), string, attr);
-            } catch (final Exception ex) {
-                Main.logger.log(Level.SEVERE, ex.toString());
+        private java.util.List<ServerConHandler.Client> rows = java.util.List.of();
+
+        // note(nschultz): Called from the stats timer. Selection is remembered by client and not by row,
+        // otherwise a client connecting or leaving would silently change who we send to.
+        public void refresh(final JTable table, final java.util.List<ServerConHandler.Client> clients) {
+            assert EventQueue.isDispatchThread();
+
+            final java.util.List<ServerConHandler.Client> selected = selected(table);
+            final java.util.List<ServerConHandler.Client> snapshot = java.util.List.copyOf(clients);
+            if (snapshot.equals(this.rows)) {
+                if (!this.rows.isEmpty()) fireTableRowsUpdated(0, this.rows.size() - 1);
+                return;
             }
-        } else {
-            EventQueue.invokeLater(() -> {
-                try {
-                    final SimpleAttributeSet attr = new SimpleAttributeSet();
-                    StyleConstants.setForeground(attr, color);
-                    StyleConstants.setBold(attr, bold);
 
-                    final StyledDocument doc = pane.getStyledDocument();
-                    doc.insertString(doc.getLength(), string, attr);
-                } catch (final Exception ex) {
-                    Main.logger.log(Level.SEVERE, ex.toString());
+            this.rows = snapshot;
+            fireTableDataChanged();
+            for (int i = 0; i < this.rows.size(); ++i) {
+                if (selected.contains(this.rows.get(i))) {
+                    table.getSelectionModel().addSelectionInterval(i, i);
                 }
-            });
+            }
         }
 
+        public java.util.List<ServerConHandler.Client> selected(final JTable table) {
+            final java.util.ArrayList<ServerConHandler.Client> selected = new java.util.ArrayList<>();
+            for (final int row : table.getSelectedRows()) {
+                if (row < this.rows.size()) selected.add(this.rows.get(row));
+            }
+            return selected;
+        }
+
+        @Override public int getRowCount()                  { return this.rows.size(); }
+        @Override public int getColumnCount()               { return columns.length; }
+        @Override public String getColumnName(final int col) { return columns[col]; }
+
+        @Override
+        public Object getValueAt(final int row, final int col) {
+            final ServerConHandler.Client client = this.rows.get(row);
+            return switch (col) {
+                case 0  -> client.isStale() ? client + " (stale)" : client.toString();
+                case 1  -> client.listener.endpoint;
+                case 2  -> Stats.formatBytes(client.stats.bytesIn.sum());
+                case 3  -> Stats.formatBytes(client.stats.bytesOut.sum());
+                case 4  -> Stats.formatBytes(client.readBuffer().size);
+                case 5  -> String.valueOf(client.pendingWrites.get());
+                case 6  -> String.format("%.3f ms", client.lastWriteLagNanos / 1_000_000.0);
+                case 7  -> String.format("%.3f ms", client.maxWriteLagNanos  / 1_000_000.0);
+                default -> "";
+            };
+        }
+    }
+
+    // note(nschultz): Accepts, connections and traffic per port of a server session
+    @SuppressWarnings("serial")
+    private static final class PortTableModel extends AbstractTableModel {
+
+        private static final String[] columns = {"Port", "Accepted", "Connected", "In", "Out", "Reads", "Writes"};
+
+        private java.util.List<ServerConHandler.Listener> rows = java.util.List.of();
+
+        public void refresh(final java.util.List<ServerConHandler.Listener> listeners) {
+            assert EventQueue.isDispatchThread();
+
+            if (listeners.equals(this.rows)) {
+                if (!this.rows.isEmpty()) fireTableRowsUpdated(0, this.rows.size() - 1);
+                return;
+            }
+            this.rows = listeners;
+            fireTableDataChanged();
+        }
+
+        @Override public int getRowCount()                  { return this.rows.size(); }
+        @Override public int getColumnCount()               { return columns.length; }
+        @Override public String getColumnName(final int col) { return columns[col]; }
+
+        @Override
+        public Object getValueAt(final int row, final int col) {
+            final ServerConHandler.Listener listener = this.rows.get(row);
+            return switch (col) {
+                case 0  -> listener.endpoint;
+                case 1  -> String.valueOf(listener.accepted.sum());
+                case 2  -> String.valueOf(listener.connected.get());
+                case 3  -> Stats.formatBytes(listener.stats.bytesIn.sum());
+                case 4  -> Stats.formatBytes(listener.stats.bytesOut.sum());
+                case 5  -> String.valueOf(listener.stats.reads.sum());
+                case 6  -> String.valueOf(listener.stats.writes.sum());
+                default -> "";
+            };
+        }
+    }
+
+    private static String scenarioReport(final Scenario.Run run, final AllocationProfile profile, final TlsTransport.Handshakes handshakes,
+                                         final Impairment impairment, final Heartbeat heartbeat) {
+        String report = run.report();
+        if (impairment != null)           report += impairment.report();
+        if (heartbeat != null)            report += heartbeat.report();
+        if (handshakes.count() > 0)       report += handshakes.report();
+        if (Settings.allocationProfiling) report += profile.report();
+        return report.strip();
+    }
+
+    // note(nschultz): Shows the allocation profile of every session, refreshed while the dialog is visible
+    private JDialog createAllocationProfileDialog() {
+        assert EventQueue.isDispatchThread();
+
+        final JDialog dialog = new JDialog(this.frame, "Allocation profile");
+        final JPanel panel = new JPanel(new BorderLayout(4, 4));
+        panel.setBorder(BorderFactory.createEmptyBorder(4, 4, 4, 4));
+        final JTextArea area = new JTextArea(14, 80);
+        area.setEditable(false);
+        area.setFont(new Font(Font.MONOSPACED, Font.PLAIN, area.getFont().getSize()));
+
+        final Lambdas.Nullary<Void> refresh = () -> {
+            if (!AllocationProfile.isSupported()) {
+                area.setText("Per thread allocation counters are not supported by this JVM.");
+                return (Void) null;
+            }
+            final StringBuilder text = new StringBuilder();
+            if (!Settings.allocationProfiling) text.append("Profiling is off, enable 'Allocation profiling' in the settings.\n\n");
+            for (final Session session : this.sessions) {
+                if (session.profile != null) text.append(session.title).append('\n').append(session.profile.report()).append('\n');
+            }
+            area.setText(text.toString());
+            return (Void) null;
+        };
+        final Runnable refresher = () -> refresh.call();
+        dialog.addComponentListener(new ComponentAdapter() {
+            @Override public void componentShown(final ComponentEvent evt) {
+                refresh.call();
+                UiLoop.shared().addRefresher(refresher);
+            }
+            @Override public void componentHidden(final ComponentEvent evt) {
+                UiLoop.shared().removeRefresher(refresher);
+            }
+        });
+
+        final JButton resetButton = new JButton("Reset");
+        resetButton.addActionListener(e -> {
+            for (final Session session : this.sessions) {
+                if (session.profile != null) session.profile.reset();
+            }
+            refresh.call();
+        });
+
+        panel.add(new JScrollPane(area), BorderLayout.CENTER);
+        panel.add(resetButton, BorderLayout.SOUTH);
+        dialog.add(panel);
+        dialog.pack();
+        return dialog;
+    }
+
+    private static void appendToPane(final JTextPane pane, final String string, final Color color, final boolean bold) {
+        appendToPane(pane, string, color, bold, null);
+    }
+
+    // note(nschultz): 'slot' may be null, otherwise the allocations of the insert are attributed to it
+    private static void appendToPane(final JTextPane pane, final String string, final Color color, final boolean bold, final AllocationProfile.Slot slot) {
+        assert string != null;
+        assert pane   != null;
+        assert color  != null;
+
+        UiLoop.shared().append(pane, string, color, bold, slot); // note(nschultz): Batched, see UiLoop
+    }
+
+    // note(nschultz): One tab with its own handler, and with it its own transcript, counters, profile and
+    // settings snapshot. The File menu works on whichever session is selected.
+    private static final class Session {
+
+        final String title;
+        final JPanel panel = new JPanel(new BorderLayout(4, 4));
+        final AllocationProfile profile;       // note(nschultz): null for the relay
+        final Lambdas.Nullary<Void> teardown;
+        Lambdas.Nullary<Void> build    = null; // note(nschultz): Builds the tab, null once that happened
+        Lambdas.Nullary<Void> clear    = null;
+        Lambdas.Nullary<Void> search   = null;
+        Lambdas.Nullary<Void> scenario = null;
+        Lambdas.Nullary<Void> rate     = null;
+        Lambdas.Nullary<Void> saturate = null;
+
+        Session(final String title, final AllocationProfile profile, final Lambdas.Nullary<Void> teardown) {
+            this.title    = title;
+            this.profile  = profile;
+            this.teardown = teardown;
+        }
     }
 }
@@ -0,0 +1,74 @@
+//
+// Copyright (c) 2022 Niklas Schultz
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+// documentation files (the "Software"), to deal in the Software without restriction,
+// including without limitation the rights to use, copy, modify, merge, publish, distribute,
+// sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so,
+// subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED
+// TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+// IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+// WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+// SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+//
+
+import java.util.concurrent.*;
+
+// note(nschultz): The one pool every session runs its network work on: accept loops, per connection readers,
+// server writers and relay pumps. The IO is blocking, so the pool has to grow with the number of
+// connections, but threads are reused when sessions come and go instead of being created
+// for every connect.
+//
+// While a task runs its thread carries the task's name, so thread dumps still say who is who.
+public final class Network {
+
+    private static final String IDLE_NAME = "NetworkThread";
+
+    private static final ThreadPoolExecutor pool = allocatePool();
+
+    private Network() {
+        assert false;
+    }
+
+    private static ThreadPoolExecutor allocatePool() {
+        return new ThreadPoolExecutor(0, Integer.MAX_VALUE, 30, TimeUnit.SECONDS, new SynchronousQueue<>(), r -> {
+            final Thread thread = new Thread(r);
+            thread.setName(IDLE_NAME);
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    // note(nschultz): Cancelling the returned future with 'true' interrupts the task, nothing else ever does
+    public static Future<?> execute(final String name, final Runnable task) {
+        assert name != null;
+        assert task != null;
+
+        final FutureTask<Void> future = new FutureTask<>(() -> run(name, task), null);
+        pool.execute(future);
+        return future;
+    }
+
+    private static void run(final String name, final Runnable task) {
+        final Thread thread = Thread.currentThread();
+        thread.setName(name);
+        try {
+            task.run();
+        } catch (final Throwable ex) {
+            // note(nschultz): The future would swallow it, but asserts have to keep killing the JVM in dev mode
+            final Thread.UncaughtExceptionHandler handler = Thread.getDefaultUncaughtExceptionHandler();
+            if (handler != null) {
+                handler.uncaughtException(thread, ex);
+            } else {
+                thread.getThreadGroup().uncaughtException(thread, ex);
+            }
+        } finally {
+            thread.setName(IDLE_NAME);
+            Thread.interrupted(); // note(nschultz): A late cancel must not leak into the next task
+        }
+    }
+}
@@ -0,0 +1,503 @@
+//
+// Copyright (c) 2022 Niklas Schultz
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+// documentation files (the "Software"), to deal in the Software without restriction,
+// including without limitation the rights to use, copy, modify, merge, publish, distribute,
+// sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so,
+// subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED
+// TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+// IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+// WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+// SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+//
+
+import java.nio.charset.*;
+import java.util.*;
+import java.util.zip.*;
+
+// note(nschultz): Payloads that can be checked on the other end. A framed generator sends one record per message
+//
+//     'PYLD' | kind (1) | 0 0 0 | seq (8) | seed (8) | body length (4) | crc32c of the 28 bytes before (4)
+//     body (length bytes)
+//     crc32c of the body (4)
+//
+// all big endian, the sequence number counts from 0 on every connection. The body only depends on
+// (kind, seed, seq, length), so the receiving side needs no configuration and can regenerate any part of it:
+//
+//     pattern   the printable chargen characters, shifted by one per record
+//     prng      splitmix64 over (seed, seq, word), 8 bytes at a time
+//     counter   64 bit counters that keep counting across records (seq * words + word)
+//
+// A spec is '<kind>:<size>[:<seed>]' with the body size in bytes, e.g. 'prng:1024:42'. Plain text payloads
+// (what the rate generator used to send) are not framed and cannot be verified.
+//
+// The Verifier is fed whatever was received, in any cut, and keeps nothing but the 32 byte header of the
+// current record. The body is compared in place against a regenerated chunk while the CRC runs over it, so it
+// keeps up with loopback line rate. Sequence numbers below the next expected one are told apart by the gaps
+// they fill: a number we skipped earlier arrived reordered, one we never skipped is a duplicate. A header that
+// does not check out means the framing is lost, we then scan for the next magic that starts a valid header.
+public final class Payload {
+
+    public static final int HEADER   = 32;
+    public static final int TRAILER  = 4;
+    public static final int MAX_BODY = 16 * 1024 * 1024;
+
+    private static final byte[] MAGIC = {'P', 'Y', 'L', 'D'};
+    private static final int MAX_MISSING_RANGES = 4096; // note(nschultz): Older gaps are forgotten, their records still count as missing
+    private static final long GOLDEN = 0x9E3779B97F4A7C15L;
+    private static final int PRINTABLE = 95;
+    private static final byte[] CYCLE = cycle(); // note(nschultz): The printable characters over and over, copied from instead of computed
+    private static final ThreadLocal<byte[]> SCRATCH = ThreadLocal.withInitial(() -> new byte[8 * 1024]); // note(nschultz): A server may keep thousands of verifiers
+
+    private Payload() {
+        assert false;
+    }
+
+    // note(nschultz): The ordinal is what goes on the wire, TEXT never does
+    public enum Kind {
+        TEXT,
+        PATTERN,
+        PRNG,
+        COUNTER;
+    }
+
+    // note(nschultz): Not thread safe, one per connection. 'next' hands out a new array every time
+    // (the text payload excepted, nobody writes into what was sent).
+    public static final class Generator {
+
+        public final Kind kind;
+        public final int size;
+        public final long seed;
+        private final byte[] text;
+        private final CRC32C crc = new CRC32C();
+        private long seq = 0;
+
+        private Generator(final Kind kind, final int size, final long seed, final byte[] text) {
+            this.kind = kind;
+            this.size = size;
+            this.seed = seed;
+            this.text = text;
+        }
+
+        public static Generator text(final String text) {
+            assert text != null;
+
+            if (text.isEmpty()) throw new IllegalArgumentException("payload must not be empty");
+            final byte[] bytes = text.getBytes(StandardCharsets.UTF_8); // todo(nschultz): encoding
+            return new Generator(Kind.TEXT, bytes.length, 0, bytes);
+        }
+
+        // note(nschultz): '<kind>:<size>[:<seed>]', see the top of this file
+        public static Generator parse(final String spec) {
+            assert spec != null;
+
+            final String[] parts = spec.strip().split(":");
+            if (parts.length < 2 || parts.length > 3) throw new IllegalArgumentException(String.format("expected <kind>:<size>[:<seed>], got '%s'", spec));
+            final Kind kind;
+            try {
+                kind = Kind.valueOf(parts[0].strip().toUpperCase());
+            } catch (final IllegalArgumentException ex) {
+                throw new IllegalArgumentException(String.format("unknown kind '%s', expected pattern, prng or counter", parts[0].strip()));
+            }
+            if (kind == Kind.TEXT) throw new IllegalArgumentException("text payloads are not framed, use the payload itself");
+            final int size;
+            final long seed;
+            try {
+                size = Integer.parseInt(parts[1].strip());
+                seed = parts.length == 3 ? Long.parseLong(parts[2].strip()) : 0;
+            } catch (final NumberFormatException ex) {
+                throw new IllegalArgumentException(String.format("bad number in '%s'", spec));
+            }
+            if (size < 0 || size > MAX_BODY) throw new IllegalArgumentException(String.format("size must be between 0 and %d", MAX_BODY));
+            return new Generator(kind, size, seed, null);
+        }
+
+        // note(nschultz): Same spec, counting from 0 again, for the next connection
+        public Generator copy() {
+            return new Generator(this.kind, this.size, this.seed, this.text);
+        }
+
+        public boolean isFramed() {
+            return this.kind != Kind.TEXT;
+        }
+
+        // note(nschultz): Records handed out so far
+        public long sequence() {
+            return this.seq;
+        }
+
+        public byte[] next() {
+            return next(null);
+        }
+
+        // note(nschultz): Writes the next record over 'reuse' if it has the right size (it must not be in use anymore),
+        // allocates otherwise. For senders that block until a write is out, see DuplexLoad.
+        public byte[] next(final byte[] reuse) {
+            if (this.kind == Kind.TEXT) return this.text;
+
+            final long seq = this.seq++;
+            final byte[] record = reuse != null && reuse.length == HEADER + this.size + TRAILER ? reuse : new byte[HEADER + this.size + TRAILER];
+            System.arraycopy(MAGIC, 0, record, 0, MAGIC.length);
+            record[4] = (byte) this.kind.ordinal();
+            putLong(record, 8, seq);
+            putLong(record, 16, this.seed);
+            putInt(record, 24, this.size);
+            this.crc.reset();
+            this.crc.update(record, 0, HEADER - 4);
+            putInt(record, HEADER - 4, (int) this.crc.getValue());
+
+            fill(this.kind, this.seed, seq, this.size, 0, record, HEADER, this.size);
+            this.crc.reset();
+            this.crc.update(record, HEADER, this.size);
+            putInt(record, HEADER + this.size, (int) this.crc.getValue());
+            return record;
+        }
+
+        public String describe() {
+            if (this.kind == Kind.TEXT) return String.format("text (%d B)", this.size);
+            return String.format("%s:%d:%d (%d B framed)", this.kind.name().toLowerCase(), this.size, this.seed, HEADER + this.size + TRAILER);
+        }
+    }
+
+    // note(nschultz): Fed by the one thread that reads the connection, the counters may be read from any thread
+    public static final class Verifier {
+
+        private static final int IN_HEADER  = 0;
+        private static final int IN_BODY    = 1;
+        private static final int IN_TRAILER = 2;
+
+        private final byte[] header  = new byte[HEADER];
+        private final byte[] trailer = new byte[TRAILER];
+        private final CRC32C crc = new CRC32C();
+        private final TreeMap<Long, Long> missingRanges = new TreeMap<>(); // note(nschultz): first -> last + 1
+
+        private int state = IN_HEADER;
+        private int headerFill  = 0;
+        private int trailerFill = 0;
+        private boolean synced  = true;
+
+        // note(nschultz): The record we are in
+        private Kind kind  = null;
+        private long seed  = 0;
+        private long seq   = 0;
+        private int length = 0;
+        private int bodyPos = 0;
+        private boolean corrupt = false;
+
+        private long offset = 0; // note(nschultz): Stream bytes fed so far
+        private long next   = 0; // note(nschultz): The sequence number we expect if nothing goes wrong
+        private Kind lastKind = null;
+
+        private long intact = 0, corrupted = 0, bodyBytes = 0;
+        private long gaps = 0, missing = 0, duplicates = 0, reordered = 0, forgotten = 0;
+        private long corruptBytes = 0, crcFailures = 0, firstCorruptOffset = -1, firstCorruptSeq = -1;
+        private long syncLosses = 0, skipped = 0;
+        private long expected = -1;
+
+        public synchronized void feed(final byte[] buf, final int off, final int len) {
+            assert off >= 0 && len >= 0 && off + len <= buf.length;
+
+            final byte[] scratch = SCRATCH.get();
+            int pos = off;
+            final int end = off + len;
+            while (pos < end) {
+                switch (this.state) {
+                    case IN_HEADER -> {
+                        final int n = Math.min(HEADER - this.headerFill, end - pos);
+                        System.arraycopy(buf, pos, this.header, this.headerFill, n);
+                        this.headerFill += n;
+                        pos         += n;
+                        this.offset += n;
+                        if (this.headerFill == HEADER) header();
+                    }
+                    case IN_BODY -> {
+                        final int n = Math.min(Math.min(this.length - this.bodyPos, end - pos), scratch.length);
+                        fill(this.kind, this.seed, this.seq, this.length, this.bodyPos, scratch, 0, n);
+                        int at = Arrays.mismatch(buf, pos, pos + n, scratch, 0, n);
+                        while (at != -1) {
+                            corruptAt(this.offset + at);
+                            this.corruptBytes += 1;
+                            if (at + 1 == n) break;
+                            final int rest = Arrays.mismatch(buf, pos + at + 1, pos + n, scratch, at + 1, n);
+                            at = rest == -1 ? -1 : at + 1 + rest;
+                        }
+                        this.crc.update(buf, pos, n);
+                        this.bodyPos   += n;
+                        this.bodyBytes += n;
+                        pos         += n;
+                        this.offset += n;
+                        if (this.bodyPos == this.length) this.state = IN_TRAILER;
+                    }
+                    case IN_TRAILER -> {
+                        final int n = Math.min(TRAILER - this.trailerFill, end - pos);
+                        System.arraycopy(buf, pos, this.trailer, this.trailerFill, n);
+                        this.trailerFill += n;
+                        pos         += n;
+                        this.offset += n;
+                        if (this.trailerFill == TRAILER) trailer();
+                    }
+                    default -> {
+                        assert false : this.state;
+                    }
+                }
+            }
+        }
+
+        // note(nschultz): How many records the sender says it sent, the ones that never showed up count as missing at the end
+        public synchronized void expect(final long records) {
+            this.expected = records;
+        }
+
+        public synchronized long records() {
+            return this.intact + this.corrupted;
+        }
+
+        // note(nschultz): Everything 'expect'ed arrived and no record is cut off
+        public synchronized boolean isComplete() {
+            return missingAtEnd() == 0 && cutOff() == 0;
+        }
+
+        // note(nschultz): Nothing wrong with what arrived, a record cut off at the end is not held against it (see isComplete)
+        public synchronized boolean passed() {
+            return this.corrupted == 0 && this.missing == 0 && this.duplicates == 0 && this.reordered == 0
+                && this.skipped == 0 && missingAtEnd() == 0;
+        }
+
+        // note(nschultz): One line, for a connection that just went away
+        public synchronized String summary() {
+            if (passed()) return String.format("%d records intact, in order", this.intact);
+            return String.format("%d intact, %d corrupted, %d missing (+%d at the end), %d duplicates, %d reordered, %d bytes skipped%s",
+                                 this.intact, this.corrupted, this.missing, missingAtEnd(), this.duplicates, this.reordered, this.skipped,
+                                 this.firstCorruptOffset == -1 ? "" : ", first corruption at " + firstCorruption());
+        }
+
+        private void header() {
+            final byte[] h = this.header;
+            this.crc.reset();
+            this.crc.update(h, 0, HEADER - 4);
+            final boolean valid = Arrays.equals(h, 0, MAGIC.length, MAGIC, 0, MAGIC.length)
+                               && getInt(h, HEADER - 4) == (int) this.crc.getValue()
+                               && h[4] > 0 && h[4] < Kind.values().length
+                               && getInt(h, 24) >= 0 && getInt(h, 24) <= MAX_BODY;
+            if (!valid) {
+                resync();
+                return;
+            }
+
+            this.synced  = true;
+            this.kind    = Kind.values()[h[4]];
+            this.seq     = getLong(h, 8);
+            this.seed    = getLong(h, 16);
+            this.length  = getInt(h, 24);
+            this.bodyPos = 0;
+            this.corrupt = false;
+            this.headerFill  = 0;
+            this.trailerFill = 0;
+            this.lastKind = this.kind;
+            this.crc.reset();
+            this.state = this.length == 0 ? IN_TRAILER : IN_BODY;
+            sequence(this.seq);
+        }
+
+        // note(nschultz): Drop bytes until the header buffer starts with (a prefix of) the magic again
+        private void resync() {
+            if (this.synced) {
+                this.synced = false;
+                this.syncLosses += 1;
+                this.seq = -1;
+                corruptAt(this.offset - this.headerFill);
+            }
+            int drop = 1;
+            scan: for (; drop < this.headerFill; ++drop) {
+                for (int i = drop; i < Math.min(drop + MAGIC.length, this.headerFill); ++i) {
+                    if (this.header[i] != MAGIC[i - drop]) continue scan;
+                }
+                break;
+            }
+            System.arraycopy(this.header, drop, this.header, 0, this.headerFill - drop);
+            this.headerFill -= drop;
+            this.skipped    += drop;
+        }
+
+        private void trailer() {
+            if (getInt(this.trailer, 0) != (int) this.crc.getValue()) {
+                this.crcFailures += 1;
+                if (!this.corrupt) corruptAt(this.offset - TRAILER); // note(nschultz): The body was fine, the CRC itself got hit
+            }
+            if (this.corrupt) {
+                this.corrupted += 1;
+            } else {
+                this.intact += 1;
+            }
+            this.state = IN_HEADER;
+            this.headerFill  = 0;
+            this.trailerFill = 0;
+        }
+
+        private void corruptAt(final long offset) {
+            if (this.firstCorruptOffset == -1) {
+                this.firstCorruptOffset = offset;
+                this.firstCorruptSeq    = this.seq;
+            }
+            this.corrupt = true;
+        }
+
+        private void sequence(final long seq) {
+            if (seq == this.next) {
+                this.next += 1;
+            } else if (seq > this.next) {
+                this.gaps    += 1;
+                this.missing += seq - this.next;
+                this.missingRanges.put(this.next, seq);
+                if (this.missingRanges.size() > MAX_MISSING_RANGES) {
+                    final Map.Entry<Long, Long> oldest = this.missingRanges.pollFirstEntry();
+                    this.forgotten += oldest.getValue() - oldest.getKey();
+                }
+                this.next = seq + 1;
+            } else {
+                final Map.Entry<Long, Long> range = this.missingRanges.floorEntry(seq);
+                if (range != null && seq < range.getValue()) {
+                    this.missingRanges.remove(range.getKey());
+                    if (range.getKey() < seq)       this.missingRanges.put(range.getKey(), seq);
+                    if (seq + 1 < range.getValue()) this.missingRanges.put(seq + 1, range.getValue());
+                    this.reordered += 1;
+                    this.missing   -= 1;
+                } else {
+                    this.duplicates += 1;
+                }
+            }
+        }
+
+        private String firstCorruption() {
+            return String.format("offset %d (%s)", this.firstCorruptOffset, this.firstCorruptSeq == -1 ? "a header" : "seq " + this.firstCorruptSeq);
+        }
+
+        private long missingAtEnd() {
+            return Math.max(0, this.expected - this.next);
+        }
+
+        // note(nschultz): Bytes of a record that never got finished
+        private long cutOff() {
+            return switch (this.state) {
+                case IN_BODY    -> HEADER + this.bodyPos;
+                case IN_TRAILER -> HEADER + this.length + this.trailerFill;
+                default         -> this.synced ? this.headerFill : 0;
+            };
+        }
+    }
+
+    // note(nschultz): One report over several verifiers (one per connection)
+    public static String report(final java.util.List<Verifier> verifiers) {
+        assert !verifiers.isEmpty();
+
+        long intact = 0, corrupted = 0, bodyBytes = 0, fed = 0;
+        long gaps = 0, missing = 0, missingAtEnd = 0, duplicates = 0, reordered = 0, forgotten = 0;
+        long corruptBytes = 0, crcFailures = 0, syncLosses = 0, skipped = 0, cutOff = 0;
+        int failed = 0;
+        String first = "-";
+        final EnumSet<Kind> kinds = EnumSet.noneOf(Kind.class);
+        for (final Verifier verifier : verifiers) {
+            synchronized (verifier) {
+                intact       += verifier.intact;
+                corrupted    += verifier.corrupted;
+                bodyBytes    += verifier.bodyBytes;
+                fed          += verifier.offset;
+                gaps         += verifier.gaps;
+                missing      += verifier.missing;
+                missingAtEnd += verifier.missingAtEnd();
+                duplicates   += verifier.duplicates;
+                reordered    += verifier.reordered;
+                forgotten    += verifier.forgotten;
+                corruptBytes += verifier.corruptBytes;
+                crcFailures  += verifier.crcFailures;
+                syncLosses   += verifier.syncLosses;
+                skipped      += verifier.skipped;
+                cutOff       += verifier.cutOff();
+                if (!verifier.passed()) failed += 1;
+                if (verifier.lastKind != null) kinds.add(verifier.lastKind);
+                if (first.equals("-") && verifier.firstCorruptOffset != -1) {
+                    first = String.format("%s on connection %d", verifier.firstCorruption(), verifiers.indexOf(verifier) + 1);
+                }
+            }
+        }
+
+        final StringBuilder sb = new StringBuilder();
+        sb.append(String.format("Payload verification: %d connection(s), %d with problems, %s%n", verifiers.size(), failed,
+                                kinds.isEmpty() ? "no records" : kinds.toString().toLowerCase().replaceAll("[\\[\\]]", "")));
+        sb.append(String.format("  records:    %d intact, %d corrupted, %s of body in %s received%n", intact, corrupted,
+                                Stats.formatBytes(bodyBytes), Stats.formatBytes(fed)));
+        sb.append(String.format("  sequence:   %d gap(s) with %d missing, %d missing at the end, %d duplicates, %d reordered%s%n",
+                                gaps, missing, missingAtEnd, duplicates, reordered, forgotten > 0 ? String.format(" (%d forgotten)", forgotten) : ""));
+        sb.append(String.format("  corruption: %d bytes, %d CRC failures, first at %s%n", corruptBytes, crcFailures, first));
+        sb.append(String.format("  framing:    %d loss(es) of sync, %d bytes skipped, %d bytes of a cut off record%n", syncLosses, skipped, cutOff));
+        return sb.toString();
+    }
+
+    // note(nschultz): Expected body bytes [from, from + len) of record (kind, seed, seq, length) into dst
+    private static void fill(final Kind kind, final long seed, final long seq, final int length, final int from,
+                             final byte[] dst, final int off, final int len) {
+        if (kind == Kind.PATTERN) {
+            final int start = (int) Math.floorMod(seq + from, (long) PRINTABLE);
+            for (int done = 0; done < len; ) {
+                final int n = Math.min(len - done, CYCLE.length - PRINTABLE);
+                System.arraycopy(CYCLE, (start + done) % PRINTABLE, dst, off + done, n);
+                done += n;
+            }
+            return;
+        }
+
+        final long key   = mix(seed ^ mix(seq));
+        final long words = (length + 7L) >>> 3;
+        long w = from >>> 3;
+        int b  = from & 7;
+        long value = kind == Kind.PRNG ? mix(key + w * GOLDEN) : seq * words + w;
+        for (int i = 0; i < len; ++i) {
+            dst[off + i] = (byte) (value >>> (56 - 8 * b));
+            if (++b == 8) {
+                b = 0;
+                w += 1;
+                value = kind == Kind.PRNG ? mix(key + w * GOLDEN) : seq * words + w;
+            }
+        }
+    }
+
+    private static byte[] cycle() {
+        final byte[] cycle = new byte[PRINTABLE * 128];
+        for (int i = 0; i < cycle.length; ++i) {
+            cycle[i] = (byte) (' ' + i % PRINTABLE);
+        }
+        return cycle;
+    }
+
+    // note(nschultz): splitmix64 finalizer
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    private static void putLong(final byte[] dst, final int at, final long value) {
+        putInt(dst, at, (int) (value >>> 32));
+        putInt(dst, at + 4, (int) value);
+    }
+
+    private static void putInt(final byte[] dst, final int at, final int value) {
+        dst[at]     = (byte) (value >>> 24);
+        dst[at + 1] = (byte) (value >>> 16);
+        dst[at + 2] = (byte) (value >>> 8);
+        dst[at + 3] = (byte) value;
+    }
+
+    private static long getLong(final byte[] src, final int at) {
+        return ((long) getInt(src, at) << 32) | (getInt(src, at + 4) & 0xFFFFFFFFL);
+    }
+
+    private static int getInt(final byte[] src, final int at) {
+        return ((src[at] & 0xFF) << 24) | ((src[at + 1] & 0xFF) << 16) | ((src[at + 2] & 0xFF) << 8) | (src[at + 3] & 0xFF);
+    }
+}
@@ -0,0 +1,300 @@
+//
+// Copyright (c) 2022 Niklas Schultz
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+// documentation files (the "Software"), to deal in the Software without restriction,
+// including without limitation the rights to use, copy, modify, merge, publish, distribute,
+// sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so,
+// subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED
+// TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+// IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+// WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+// SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+//
+
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.concurrent.locks.*;
+import java.util.logging.*;
+import java.util.regex.*;
+
+// note(nschultz): Sends one payload at a fixed rate over one connection. Message k is due at
+// start + k * interval, no matter when message k - 1 actually went out. If a write blocks because the
+// peer stalls, the generator does not back off, it sends the backlog as fast as it can afterwards and
+// every one of those messages still counts from the time it was due. That is the coordinated omission
+// correction: a sender that waits for the peer before it sends again only ever measures the peer while
+// it is fast and the stall disappears from the percentiles.
+//
+// If a reply pattern is given, every match in the received data answers the oldest outstanding message
+// (request/response in order, which is what an echo or a line based protocol does). 'latency' is
+// reply - due, 'serviceTime' is reply - actual send (what the naive tool reports). Messages still
+// unanswered when the run ends are recorded with their age at that point, a server that stops
+// answering altogether must not produce a perfect histogram.
+//
+// The payload is fixed text or one of the framed Payload generators, every message then carries the next record
+// and the receiving side can check that nothing got lost, duplicated, reordered or corrupted on the way.
+//
+// Waiting is done by parking, which is good for about 50-100us, or by busy spinning one core for
+// intervals below that. Falling a little behind is harmless either way, the schedule catches up.
+public final class RateGenerator {
+
+    private static final int MAX_RECEIVE_BUFFER = 64 * 1024;
+    private static final int MAX_OUTSTANDING    = 1 << 20; // note(nschultz): 16 MiB of timestamps, beyond that we stop tracking
+    private static final long DRAIN_NANOS       = 2_000_000_000L; // note(nschultz): How long the last replies get after the schedule ends
+
+    public final Histogram latency     = new Histogram();
+    public final Histogram serviceTime = new Histogram();
+    public final Histogram sendLag     = new Histogram(); // note(nschultz): actual send - due, how well we kept up
+
+    public final AtomicLong sent       = new AtomicLong(0);
+    public final AtomicLong replies    = new AtomicLong(0);
+    public final AtomicLong unanswered = new AtomicLong(0);
+    public final AtomicLong untracked  = new AtomicLong(0); // note(nschultz): Sent while MAX_OUTSTANDING were pending
+
+    private final double rate;
+    private final long intervalNanos;
+    private final long durationNanos;
+    private final boolean spin;
+    private final Payload.Generator payload;
+    private final Pattern reply;
+    private final Lambdas.Unary<Void, byte[]> sender;
+    private final ConcurrentLinkedQueue<Lambdas.Nullary<Void>> onFinished = new ConcurrentLinkedQueue<>();
+
+    // note(nschultz): Ring of (due, sent) pairs for messages still waiting for their reply, guarded by 'this'
+    private long[] dueTimes  = new long[1024];
+    private long[] sendTimes = new long[1024];
+    private int head  = 0;
+    private int count = 0;
+    private final StringBuilder received = new StringBuilder();
+
+    private volatile boolean running  = false;
+    private volatile boolean finished = false;
+    private volatile long startNanos  = 0;
+    private volatile long endNanos    = 0;
+    private volatile Thread thread    = null;
+    private boolean started = false;
+
+    // note(nschultz): 'payload' is used by the generator's thread alone, every connection needs its own (see Payload.Generator.copy)
+    public RateGenerator(final double rate, final double durationSeconds, final boolean spin, final Payload.Generator payload,
+                         final String reply, final Lambdas.Unary<Void, byte[]> sender) {
+        assert payload != null;
+        assert sender  != null;
+
+        if (!(rate > 0) || rate > 10_000_000) throw new IllegalArgumentException("rate must be between 0 and 10000000 msg/s");
+
+        this.rate          = rate;
+        this.intervalNanos = Math.max(1, Math.round(1_000_000_000.0 / rate));
+        this.durationNanos = durationSeconds > 0 ? (long) (durationSeconds * 1_000_000_000.0) : Long.MAX_VALUE;
+        this.spin          = spin;
+        this.payload       = payload;
+        this.sender        = sender;
+        try {
+            this.reply = reply == null || reply.isEmpty() ? null : Pattern.compile(reply);
+        } catch (final PatternSyntaxException ex) {
+            throw new IllegalArgumentException(String.format("bad reply pattern '%s'", reply));
+        }
+    }
+
+    public synchronized void start() {
+        assert !this.started : "A generator runs once";
+
+        this.started = true;
+        this.running = true;
+        Network.execute("RateGeneratorThread", this::run);
+    }
+
+    // note(nschultz): Stops sending, the listeners are called once the generator thread is done.
+    // No interrupt, that would close the channel if it hits in the middle of a write.
+    public void stop() {
+        this.running = false;
+        final Thread thread = this.thread;
+        if (thread != null) LockSupport.unpark(thread);
+    }
+
+    public boolean isRunning() {
+        return this.running && !this.finished;
+    }
+
+    public void onFinished(final Lambdas.Nullary<Void> listener) {
+        this.onFinished.add(listener);
+        if (this.finished) callListeners();
+    }
+
+    // note(nschultz): Any thread, usually the connection's reader. Ignored without a reply pattern.
+    public void feed(final String data) {
+        feed(data, System.nanoTime());
+    }
+
+    // note(nschultz): 'now' is when the data was received, see ClientConHandler.arrivalNanos
+    public void feed(final String data, final long now) {
+        if (this.reply == null) return;
+
+        synchronized (this) {
+            this.received.append(data);
+            final Matcher matcher = this.reply.matcher(this.received);
+            int consumed = 0;
+            while (matcher.find()) {
+                consumed = matcher.end();
+                if (matcher.end() == matcher.start()) break; // note(nschultz): Empty matches would never end
+                answered(now);
+            }
+            this.received.delete(0, consumed);
+            if (this.received.length() > MAX_RECEIVE_BUFFER) {
+                this.received.delete(0, this.received.length() - MAX_RECEIVE_BUFFER);
+            }
+        }
+    }
+
+    private void run() {
+        this.thread = Thread.currentThread();
+        final long start = System.nanoTime();
+        this.startNanos = start;
+        try {
+            for (long k = 0; this.running; ++k) {
+                final long due = start + k * this.intervalNanos;
+                if (due - start >= this.durationNanos) break;
+                if (!waitUntil(due)) break;
+
+                final long now = System.nanoTime();
+                if (this.reply != null) track(due, now);
+                this.sendLag.record(now - due);
+                this.sender.call(this.payload.next());
+                this.sent.incrementAndGet();
+            }
+            drain();
+        } catch (final RuntimeException ex) {
+            Main.logger.log(Level.INFO, "Rate generator send failed", ex);
+        } finally {
+            this.running = false;
+            this.thread  = null;
+            finish();
+        }
+    }
+
+    // note(nschultz): Returns false if we got stopped while waiting
+    private boolean waitUntil(final long due) {
+        long now;
+        while ((now = System.nanoTime()) < due) {
+            if (!this.running) return false;
+            if (this.spin) {
+                Thread.onSpinWait();
+            } else {
+                LockSupport.parkNanos(this, due - now);
+            }
+        }
+        return this.running;
+    }
+
+    private void drain() {
+        final long deadline = System.nanoTime() + DRAIN_NANOS;
+        while (this.running && System.nanoTime() < deadline) {
+            synchronized (this) {
+                if (this.count == 0) return;
+            }
+            LockSupport.parkNanos(this, 1_000_000);
+        }
+    }
+
+    private synchronized void track(final long due, final long sent) {
+        if (this.count == MAX_OUTSTANDING) {
+            this.untracked.incrementAndGet();
+            return;
+        }
+        if (this.count == this.dueTimes.length) {
+            // note(nschultz): Unroll the ring into twice the space
+            final long[] dueTimes  = new long[this.count * 2];
+            final long[] sendTimes = new long[this.count * 2];
+            for (int i = 0; i < this.count; ++i) {
+                dueTimes[i]  = this.dueTimes[(this.head + i) % this.count];
+                sendTimes[i] = this.sendTimes[(this.head + i) % this.count];
+            }
+            this.dueTimes  = dueTimes;
+            this.sendTimes = sendTimes;
+            this.head      = 0;
+        }
+        final int tail = (this.head + this.count) % this.dueTimes.length;
+        this.dueTimes[tail]  = due;
+        this.sendTimes[tail] = sent;
+        this.count += 1;
+    }
+
+    // note(nschultz): Guarded by 'this'. A reply to a message we did not track (or before the first send) is only counted.
+    private void answered(final long now) {
+        this.replies.incrementAndGet();
+        if (this.count == 0) return;
+
+        this.latency.record(now - this.dueTimes[this.head]);
+        this.serviceTime.record(now - this.sendTimes[this.head]);
+        this.head   = (this.head + 1) % this.dueTimes.length;
+        this.count -= 1;
+    }
+
+    private void finish() {
+        final long now = System.nanoTime();
+        synchronized (this) {
+            // note(nschultz): Whatever is still outstanding waited at least this long, and that is what it costs
+            while (this.count > 0) {
+                this.latency.record(now - this.dueTimes[this.head]);
+                this.unanswered.incrementAndGet();
+                this.head   = (this.head + 1) % this.dueTimes.length;
+                this.count -= 1;
+            }
+        }
+        this.endNanos = now;
+        this.finished = true;
+        callListeners();
+    }
+
+    private void callListeners() {
+        Lambdas.Nullary<Void> listener;
+        while ((listener = this.onFinished.poll()) != null) {
+            listener.call();
+        }
+    }
+
+    public String report() {
+        return report(java.util.List.of(this));
+    }
+
+    // note(nschultz): One report over several generators running side by side (one per connection)
+    public static String report(final java.util.List<RateGenerator> generators) {
+        assert !generators.isEmpty();
+
+        final RateGenerator first = generators.get(0);
+        final Histogram latency     = new Histogram();
+        final Histogram serviceTime = new Histogram();
+        final Histogram sendLag     = new Histogram();
+        long sent = 0, replies = 0, unanswered = 0, untracked = 0;
+        long start = Long.MAX_VALUE, end = Long.MIN_VALUE;
+        for (final RateGenerator generator : generators) {
+            latency.add(generator.latency);
+            serviceTime.add(generator.serviceTime);
+            sendLag.add(generator.sendLag);
+            sent       += generator.sent.get();
+            replies    += generator.replies.get();
+            unanswered += generator.unanswered.get();
+            untracked  += generator.untracked.get();
+            start = Math.min(start, generator.startNanos);
+            end   = Math.max(end, generator.finished ? generator.endNanos : System.nanoTime());
+        }
+
+        final double secs = Math.max(1, end - start) / 1_000_000_000.0;
+        final StringBuilder sb = new StringBuilder();
+        sb.append(String.format("Rate generator: %.1f msg/s per connection, %d connection(s), %s%n",
+                                first.rate, generators.size(), first.spin ? "busy spin" : "parking"));
+        sb.append(String.format("  duration:  %s%n", Histogram.formatNanos(end - start)));
+        sb.append(String.format("  sent:      %d (%.1f msg/s achieved)%n", sent, sent / secs));
+        sb.append(String.format("  payload:   %s%n", first.payload.describe()));
+        sb.append(String.format("  send lag:  %s%n", sendLag.summary()));
+        if (first.reply != null) {
+            sb.append(String.format("  replies:   %d, %d unanswered, %d untracked%n", replies, unanswered, untracked));
+            sb.append(String.format("  latency:   %s (from the intended send time)%n", latency.summary()));
+            sb.append(String.format("  service:   %s (from the actual send time)%n", serviceTime.summary()));
+        }
+        return sb.toString();
+    }
+}
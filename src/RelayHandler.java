@@ -0,0 +1,317 @@
+//
+// Copyright (c) 2022 Niklas Schultz
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+// documentation files (the "Software"), to deal in the Software without restriction,
+// including without limitation the rights to use, copy, modify, merge, publish, distribute,
+// sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so,
+// subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED
+// TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+// IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+// WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+// SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+//
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.logging.*;
+
+// note(nschultz): Transparent relay. We listen like the server, and for every client that connects we
+// open our own connection to the upstream and pump bytes both ways until either side is done.
+//
+// The pumps never decode anything and use one direct buffer per direction, so the bytes go from
+// one socket to the other without being copied onto the java heap on the way. The transcript only gets
+// a copy after the write went out, into a buffer from the tap pool (no allocation once it is warm), and
+// that copy is appended by a separate tap thread. If the tap can not keep up we drop frames from the
+// transcript (and count them) rather than slowing down the traffic.
+//
+// In the transcript OUT is what the client sent towards the upstream and IN is what came back,
+// the same way round as in the client tab.
+//
+// Forwarding latency is measured per read, from the moment the read returned until the last byte
+// of it was handed to the kernel on the other side. It does not include time on the wire.
+public final class RelayHandler implements Runnable {
+
+    public Callback callback; // note(nschultz): Gets set after ctor, if not then default callback will be used
+
+    public final Stats stats = new Stats(); // note(nschultz): bytesOut/writes = towards the upstream, bytesIn/reads = towards the clients
+    public final Transcript transcript = new Transcript();
+    public final Histogram upstreamLatency   = new Histogram(); // note(nschultz): client -> upstream
+    public final Histogram downstreamLatency = new Histogram(); // note(nschultz): upstream -> client
+    public final LongAdder tapDropped = new LongAdder();
+
+    private final CopyOnWriteArrayList<Session> sessions = new CopyOnWriteArrayList<>();
+    private final AtomicInteger nextSessionId = new AtomicInteger(1);
+    private final ArrayBlockingQueue<TapChunk> tap = new ArrayBlockingQueue<>(4096);
+
+    private ServerSocketChannel serverSocket = null;
+    private volatile Settings.Snapshot settings = Settings.snapshot(); // note(nschultz): Retaken on every 'start()'
+    private volatile Future<?> tapTask = null;
+    private String listen; // note(nschultz): A port or 'unix:<path>'
+    private String upstreamHost;
+    private int upstreamPort;
+
+    public RelayHandler() {
+        // note(nschultz): To avoid potential NPE
+        this(new Callback() {
+            @Override public void onOpen() {}
+            @Override public void onSessionStarted(final Session session) {}
+            @Override public void onSessionEnded(final Session session) {}
+            @Override public void onConnectionFailure(final String reason) {}
+            @Override public void onClose() {}
+        });
+    }
+
+    public RelayHandler(final Callback callback) {
+        assert callback != null;
+
+        this.callback = callback;
+    }
+
+    @Override
+    public void run() {
+        try {
+            final int backlog = 64;
+            final ServerSocketChannel serverSocket = Resolver.bind(this.listen, backlog);
+            this.stats.reset();
+            this.upstreamLatency.reset();
+            this.downstreamLatency.reset();
+            this.tapDropped.reset();
+            // note(nschultz): Only once the bind worked and before we count as open, teardown() is what stops it
+            this.tapTask = Network.execute("RelayHandlerTapThread", this::drainTap);
+            this.serverSocket = serverSocket;
+            this.callback.onOpen();
+        } catch (final IOException | IllegalArgumentException ex) {
+            Main.logger.log(Level.INFO, String.format("Failed to open relay on '%s'", this.listen));
+            this.callback.onConnectionFailure(ex.getMessage());
+            this.serverSocket = null;
+            return; // note(nschultz): User has to call 'start()' again
+        }
+
+        accept_loop: {
+            while (isOpen()) {
+                final ServerSocketChannel serverSocket = this.serverSocket;
+                try {
+                    final SocketChannel client = serverSocket.accept();
+                    final int id = this.nextSessionId.getAndIncrement();
+
+                    // note(nschultz): Connecting upstream may take a while, do it off the accept loop
+                    Network.execute("RelayHandlerSessionThread-" + id, () -> connect(id, client));
+                } catch (final IOException ex) {
+                    if (!isOpen() || serverSocket != this.serverSocket) return; // note(nschultz): teardown() while we were waiting
+                    Main.logger.log(Level.INFO, String.format("Failed to wait for client on '%s'", this.listen));
+                    this.callback.onConnectionFailure(ex.getMessage());
+                    teardown();
+                    return; // note(nschultz): User has to call 'start()' again
+                }
+            }
+        }
+    }
+
+    private void connect(final int id, final SocketChannel client) {
+        final SocketChannel upstream;
+        try {
+            final int timeoutMillis = 4000; // todo(nschultz): Dynamic
+            upstream = Resolver.shared().connect(this.upstreamHost, this.upstreamPort, timeoutMillis).channel;
+            Resolver.noDelay(upstream);
+            Resolver.noDelay(client);
+        } catch (final IOException ex) {
+            Main.logger.log(Level.INFO, String.format("Failed to connect relay session #%d to '%s'", id, Resolver.format(this.upstreamHost, this.upstreamPort)));
+            this.callback.onConnectionFailure(String.format("Upstream '%s' for session #%d: %s", Resolver.format(this.upstreamHost, this.upstreamPort), id, ex.getMessage()));
+            closeQuietly(client);
+            return;
+        }
+
+        final Session session = new Session(id, client, upstream);
+        this.transcript.nameConnection(id, session.toString());
+        this.sessions.add(session);
+        if (!isOpen()) session.close(); // note(nschultz): teardown() while we were connecting, the pumps stop right away
+        this.callback.onSessionStarted(session);
+
+        Network.execute("RelayHandlerDownstreamThread-" + id, () -> pump(session, upstream, client, Transcript.IN, this.downstreamLatency));
+
+        pump(session, client, upstream, Transcript.OUT, this.upstreamLatency);
+    }
+
+    private void pump(final Session session, final SocketChannel from, final SocketChannel to, final byte dir, final Histogram latency) {
+        final BufferPool.Adaptive buffer = BufferPool.direct().adaptive(this.settings);
+        final LongAdder bytes  = dir == Transcript.OUT ? this.stats.bytesOut : this.stats.bytesIn;
+        final LongAdder chunks = dir == Transcript.OUT ? this.stats.writes   : this.stats.reads;
+        try {
+            for (;;) {
+                final ByteBuffer buf = buffer.buffer();
+                final int readBytes = from.read(buf);
+                if (readBytes == -1) break;
+                final long readNanos = System.nanoTime();
+
+                buf.flip();
+                final ByteBuffer copy = buf.duplicate(); // note(nschultz): Same bytes, for the tap after the write
+                while (buf.hasRemaining()) {
+                    to.write(buf);
+                }
+                latency.record(System.nanoTime() - readNanos);
+                bytes.add(readBytes);
+                chunks.increment();
+
+                final ByteBuffer tapped = BufferPool.tap().borrow(readBytes);
+                tapped.put(copy);
+                if (!this.tap.offer(new TapChunk(session.id, dir, tapped))) {
+                    BufferPool.tap().giveBack(tapped);
+                    this.tapDropped.increment();
+                }
+                buffer.adapt(readBytes);
+            }
+
+            // note(nschultz): Half close, the other direction may still have something to say
+            to.shutdownOutput();
+        } catch (final IOException ex) {
+            if (from.isOpen() && to.isOpen()) {
+                Main.logger.log(Level.INFO, String.format("Relay session #%d failed", session.id));
+                this.callback.onConnectionFailure(String.format("Session #%d: %s", session.id, ex.getMessage()));
+            }
+            session.close();
+        }
+        buffer.release();
+
+        if (session.pumpsRunning.decrementAndGet() == 0) {
+            session.close();
+            if (this.sessions.remove(session)) {
+                this.callback.onSessionEnded(session);
+            }
+        }
+    }
+
+    private void drainTap() {
+        for (;;) {
+            try {
+                final TapChunk chunk = this.tap.take();
+                this.transcript.append(chunk.conn, chunk.dir, chunk.bytes.array(), 0, chunk.bytes.position()); // note(nschultz): Copies it
+                BufferPool.tap().giveBack(chunk.bytes);
+            } catch (final InterruptedException ex) {
+                TapChunk chunk;
+                while ((chunk = this.tap.poll()) != null) {
+                    BufferPool.tap().giveBack(chunk.bytes); // note(nschultz): Not going into the transcript anymore
+                }
+                return;
+            }
+        }
+    }
+
+    public void start(final int port, final String upstreamHost, final int upstreamPort) {
+        assert port >= 1 && port <= 65535;
+
+        start(String.valueOf(port), upstreamHost, upstreamPort);
+    }
+
+    // note(nschultz): Either side may be a unix domain socket, 'listen' as 'unix:<path>' instead of a port
+    // and 'upstreamHost' as 'unix:<path>' (the upstream port is ignored then)
+    public void start(final String listen, final String upstreamHost, final int upstreamPort) {
+        assert listen != null;
+        assert upstreamHost != null;
+        assert Resolver.isUnix(upstreamHost) || (upstreamPort >= 1 && upstreamPort <= 65535);
+
+        this.listen       = listen;
+        this.upstreamHost = upstreamHost;
+        this.upstreamPort = upstreamPort;
+        this.settings     = Settings.snapshot();
+
+        Network.execute("RelayHandlerThread", this);
+    }
+
+    public boolean isOpen() {
+        return this.serverSocket != null;
+    }
+
+    public java.util.List<Session> sessions() {
+        return Collections.unmodifiableList(this.sessions);
+    }
+
+    public String report() {
+        return String.format("Relay: %s%n  to upstream: %s%n  to clients:  %s%n  transcript frames dropped: %d%n",
+                             this.stats.sample(), this.upstreamLatency.summary(), this.downstreamLatency.summary(), this.tapDropped.sum());
+    }
+
+    public void teardown() {
+        if (!isOpen()) return;
+
+        try {
+            final ServerSocketChannel serverSocket = this.serverSocket;
+            this.serverSocket = null;
+            Resolver.unbind(serverSocket);
+            for (final Session session : this.sessions) {
+                session.close(); // note(nschultz): The pumps will notice and call 'onSessionEnded'
+            }
+            if (this.tapTask != null) this.tapTask.cancel(true);
+            this.callback.onClose();
+        } catch (final IOException ex) {
+            Main.logger.log(Level.SEVERE, "Failed to cleanup relay!");
+            // todo(nschultz): panic?
+        }
+    }
+
+    private static void closeQuietly(final SocketChannel channel) {
+        try {
+            channel.close();
+        } catch (final IOException ex) {
+            Main.logger.log(Level.SEVERE, "Failed to cleanup relay connection!");
+        }
+    }
+
+    public static final class Session {
+
+        public final int id;
+        public final String clientAddress;
+        public final String upstreamAddress;
+
+        private final SocketChannel client;
+        private final SocketChannel upstream;
+        private final AtomicInteger pumpsRunning = new AtomicInteger(2);
+
+        private Session(final int id, final SocketChannel client, final SocketChannel upstream) {
+            this.id              = id;
+            this.client          = client;
+            this.upstream        = upstream;
+            this.clientAddress   = Resolver.remote(client);
+            this.upstreamAddress = Resolver.remote(upstream);
+        }
+
+        private void close() {
+            closeQuietly(this.client);
+            closeQuietly(this.upstream);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("#%d %s <-> %s", this.id, this.clientAddress, this.upstreamAddress);
+        }
+    }
+
+    private static final class TapChunk {
+
+        final int conn;
+        final byte dir;
+        final ByteBuffer bytes; // note(nschultz): From the tap pool, the data is in front of its position
+
+        TapChunk(final int conn, final byte dir, final ByteBuffer bytes) {
+            this.conn  = conn;
+            this.dir   = dir;
+            this.bytes = bytes;
+        }
+    }
+
+    public interface Callback {
+
+        public void onOpen();
+        public void onSessionStarted(final Session session);
+        public void onSessionEnded(final Session session);
+        public void onConnectionFailure(final String reason);
+        public void onClose();
+    }
+}
@@ -0,0 +1,540 @@
+//
+// Copyright (c) 2022 Niklas Schultz
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+// documentation files (the "Software"), to deal in the Software without restriction,
+// including without limitation the rights to use, copy, modify, merge, publish, distribute,
+// sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so,
+// subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED
+// TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+// IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+// WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+// SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+//
+
+import java.io.*;
+import java.net.*;
+import java.nio.channels.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+// note(nschultz): Host name resolution and connecting for everything that dials out (client tabs, headless
+// clients, the relay's upstream). Resolved names are cached for TTL_SECONDS, failures for NEGATIVE_TTL_SECONDS
+// (-Dresolver.ttl=<s> and -Dresolver.negative-ttl=<s>), and concurrent lookups of the same name wait for the one
+// already running instead of all blocking in getAllByName. A thousand reconnecting clients cost one lookup.
+// Literals (IPv4, IPv6 with or without brackets) never go through the cache.
+//
+// Hosts with several addresses are connected to Happy Eyeballs style (RFC 8305): the families are interleaved,
+// starting with whatever the system lists first (-Djava.net.preferIPv6Addresses=true puts IPv6 first), a new
+// attempt starts every ATTEMPT_DELAY_MILLIS or as soon as one fails, and the first one to connect wins.
+// All attempts run non blocking on the calling thread. Each attempt's connect latency is recorded per address.
+//
+// Wherever a host is expected 'unix:<path>' means a unix domain socket instead (the port is ignored then),
+// and wherever a port is expected to listen on, 'unix:<path>' binds one (see 'bind'). Servers take a list
+// of those as well (see 'expandListen').
+public final class Resolver {
+
+    private static final long TTL_NANOS          = TimeUnit.SECONDS.toNanos(Long.getLong("resolver.ttl", 30));
+    private static final long NEGATIVE_TTL_NANOS = TimeUnit.SECONDS.toNanos(Long.getLong("resolver.negative-ttl", 5));
+    private static final int  ATTEMPT_DELAY_MILLIS = 250; // note(nschultz): What RFC 8305 recommends
+    private static final int  MAX_ENTRIES          = 4096; // note(nschultz): Expired entries are dropped once there are more
+    private static final int  MAX_LISTEN           = 4096; // note(nschultz): Every one of them is a file descriptor
+
+    private static Resolver shared = null; // note(nschultz): Guarded by Resolver.class
+
+    public final Histogram lookups = new Histogram(); // note(nschultz): Only lookups that actually asked the system
+    public final LongAdder hits         = new LongAdder();
+    public final LongAdder negativeHits = new LongAdder();
+    public final LongAdder coalesced    = new LongAdder(); // note(nschultz): Waited for a lookup somebody else started
+    public final LongAdder failures     = new LongAdder();
+
+    private final ConcurrentHashMap<String, Entry> cache = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<SocketAddress, Attempts> attempts = new ConcurrentHashMap<>();
+
+    private Resolver() {
+    }
+
+    public static synchronized Resolver shared() {
+        if (shared == null) shared = new Resolver();
+        return shared;
+    }
+
+    // note(nschultz): Waits until 'deadlineNanos' (System.nanoTime) at most. A lookup that takes longer keeps running
+    // on the Network pool and still ends up in the cache, the system resolver has no timeout of its own.
+    public InetAddress[] resolve(final String host, final long deadlineNanos) throws IOException {
+        assert host != null;
+
+        assert !isUnix(host);
+
+        final String name = strip(host);
+        if (isLiteral(name)) return InetAddress.getAllByName(name);
+
+        final String key = name.toLowerCase(Locale.ROOT);
+        for (;;) {
+            final Entry entry = this.cache.get(key);
+            if (entry != null && (!entry.isDone() || System.nanoTime() < entry.expires)) {
+                if (!entry.isDone())          this.coalesced.increment();
+                else if (entry.failed())      this.negativeHits.increment();
+                else                          this.hits.increment();
+                return entry.await(name, deadlineNanos);
+            }
+
+            final Entry mine = new Entry();
+            if (entry == null ? this.cache.putIfAbsent(key, mine) != null : !this.cache.replace(key, entry, mine)) {
+                continue; // note(nschultz): Somebody else started a lookup in the meantime, wait for theirs
+            }
+            if (this.cache.size() > MAX_ENTRIES) evictExpired();
+
+            Network.execute("ResolverLookupThread", () -> lookup(name, key, mine));
+            return mine.await(name, deadlineNanos);
+        }
+    }
+
+    private void lookup(final String name, final String key, final Entry mine) {
+        final long start = System.nanoTime();
+        try {
+            final InetAddress[] addresses = InetAddress.getAllByName(name);
+            this.lookups.record(System.nanoTime() - start);
+            mine.complete(addresses, null, System.nanoTime() + TTL_NANOS);
+        } catch (final UnknownHostException ex) {
+            this.lookups.record(System.nanoTime() - start);
+            this.failures.increment();
+            mine.complete(null, ex.getMessage(), System.nanoTime() + NEGATIVE_TTL_NANOS);
+        } catch (final RuntimeException ex) {
+            this.cache.remove(key, mine); // note(nschultz): Not a real answer, the next caller tries again
+            mine.complete(null, ex.toString(), 0);
+        }
+    }
+
+    private void evictExpired() {
+        final long now = System.nanoTime();
+        this.cache.values().removeIf(entry -> entry.isDone() && now >= entry.expires);
+    }
+
+    // note(nschultz): Blocks for at most 'timeoutMillis' including the lookup. The returned channel is blocking.
+    public Connection connect(final String host, final int port, final int timeoutMillis) throws IOException {
+        assert host != null;
+        assert timeoutMillis > 0;
+
+        final long start    = System.nanoTime();
+        final long deadline = start + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        if (isUnix(host)) return connectUnix(host);
+
+        final InetAddress[] addresses = interleave(resolve(host, deadline));
+
+        final ArrayList<Attempt> running = new ArrayList<>();
+        Attempt winner = null;
+        int started = 0;
+        try (final Selector selector = Selector.open()) {
+            IOException last = null;
+            long nextStart = start;
+            for (;;) {
+                final long now = System.nanoTime();
+                if (started < addresses.length && (now >= nextStart || running.isEmpty())) {
+                    final Attempt attempt = new Attempt(new InetSocketAddress(addresses[started++], port));
+                    nextStart = now + TimeUnit.MILLISECONDS.toNanos(ATTEMPT_DELAY_MILLIS);
+                    try {
+                        attempt.channel = SocketChannel.open();
+                        attempt.channel.configureBlocking(false);
+                        attempt.start = System.nanoTime();
+                        if (attempt.channel.connect(attempt.address)) {
+                            winner = attempt; // note(nschultz): Loopback may connect right away
+                            break;
+                        }
+                        attempt.channel.register(selector, SelectionKey.OP_CONNECT, attempt);
+                        running.add(attempt);
+                    } catch (final IOException ex) {
+                        attempt.failed();
+                        last = ex;
+                    }
+                    continue;
+                }
+
+                if (running.isEmpty()) throw last != null ? last : new ConnectException("No address to connect to");
+                if (now >= deadline) throw new SocketTimeoutException("Connect timed out");
+                if (Thread.interrupted()) throw new InterruptedIOException("Interrupted while connecting");
+
+                long wait = deadline - now;
+                if (started < addresses.length) wait = Math.min(wait, nextStart - now);
+                selector.select(Math.max(1, TimeUnit.NANOSECONDS.toMillis(wait)));
+
+                for (final SelectionKey key : selector.selectedKeys()) {
+                    final Attempt attempt = (Attempt) key.attachment();
+                    try {
+                        if (attempt.channel.finishConnect()) {
+                            winner = attempt;
+                            break;
+                        }
+                    } catch (final IOException ex) {
+                        key.cancel();
+                        attempt.failed();
+                        running.remove(attempt);
+                        last = ex;
+                        nextStart = System.nanoTime(); // note(nschultz): No point in waiting for the delay
+                    }
+                }
+                selector.selectedKeys().clear();
+                if (winner != null) break;
+            }
+        } finally {
+            for (final Attempt attempt : running) {
+                if (attempt != winner) attempt.abandon();
+            }
+        }
+
+        // note(nschultz): The selector is closed now, so the channel is no longer registered and may block again
+        final long connected = System.nanoTime();
+        stats(winner.address).latency.record(connected - winner.start);
+        try {
+            winner.channel.configureBlocking(true);
+        } catch (final IOException ex) {
+            winner.channel.close();
+            throw ex;
+        }
+        return new Connection(winner.channel, winner.address, connected - start, started, addresses.length);
+    }
+
+    // note(nschultz): Nothing to race and nothing to time out, the connect either succeeds or fails right away
+    // (unless the listener's backlog is full, then it blocks like a TCP connect would)
+    private Connection connectUnix(final String target) throws IOException {
+        final UnixDomainSocketAddress address = unixAddress(target);
+        final SocketChannel channel = SocketChannel.open(StandardProtocolFamily.UNIX);
+        final long start = System.nanoTime();
+        try {
+            channel.connect(address);
+        } catch (final IOException ex) {
+            stats(address).failed.increment();
+            channel.close();
+            throw ex;
+        }
+        final long nanos = System.nanoTime() - start;
+        stats(address).latency.record(nanos);
+        return new Connection(channel, address, nanos, 1, 1);
+    }
+
+    // note(nschultz): 'listen' is a port or 'unix:<path>'. A socket file left behind by a previous run is
+    // replaced, anything else at that path (a regular file, a directory) makes the bind fail.
+    public static ServerSocketChannel bind(final String listen, final int backlog) throws IOException {
+        return bind(listen, backlog, false);
+    }
+
+    // note(nschultz): With 'reusePort' a TCP port can be bound by several channels at once and the kernel spreads
+    // incoming connections over them (SO_REUSEPORT, see canReusePort). Ignored for unix domain sockets.
+    public static ServerSocketChannel bind(final String listen, final int backlog, final boolean reusePort) throws IOException {
+        assert listen != null;
+
+        if (!isUnix(listen)) {
+            final ServerSocketChannel channel = ServerSocketChannel.open();
+            try {
+                if (reusePort) channel.setOption(StandardSocketOptions.SO_REUSEPORT, true);
+                channel.bind(new InetSocketAddress(Integer.parseInt(listen)), backlog);
+            } catch (final IOException | RuntimeException ex) {
+                channel.close();
+                throw ex;
+            }
+            return channel;
+        }
+
+        final UnixDomainSocketAddress address = unixAddress(listen);
+        final Path path = address.getPath();
+        if (Files.exists(path, LinkOption.NOFOLLOW_LINKS) && !Files.isRegularFile(path, LinkOption.NOFOLLOW_LINKS) && !Files.isDirectory(path, LinkOption.NOFOLLOW_LINKS)) {
+            Files.delete(path);
+        }
+        final ServerSocketChannel channel = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+        try {
+            channel.bind(address, backlog);
+        } catch (final IOException ex) {
+            channel.close();
+            throw ex;
+        }
+        return channel;
+    }
+
+    // note(nschultz): Linux and the BSDs have it, Windows does not
+    public static boolean canReusePort() {
+        try (final ServerSocketChannel probe = ServerSocketChannel.open()) {
+            return probe.supportedOptions().contains(StandardSocketOptions.SO_REUSEPORT);
+        } catch (final IOException ex) {
+            return false;
+        }
+    }
+
+    // note(nschultz): '5000-5099,6000,unix:/tmp/a.sock' -> one entry per port or path, in the given order.
+    // Throws IllegalArgumentException for anything that is not a port, a range of ports or unix:<path>.
+    public static java.util.List<String> expandListen(final String spec) {
+        assert spec != null;
+
+        final LinkedHashSet<String> endpoints = new LinkedHashSet<>();
+        for (final String item : spec.split(",")) {
+            final String part = item.trim();
+            if (isUnix(part)) {
+                endpoints.add(part);
+                continue;
+            }
+
+            final int dash = part.indexOf('-');
+            final int from = parsePort(dash == -1 ? part : part.substring(0, dash));
+            final int to   = dash == -1 ? from : parsePort(part.substring(dash + 1));
+            if (to < from) throw new IllegalArgumentException(String.format("Empty port range '%s'", part));
+            if (endpoints.size() + (to - from + 1) > MAX_LISTEN) {
+                throw new IllegalArgumentException(String.format("More than %d ports or paths to listen on", MAX_LISTEN));
+            }
+            for (int port = from; port <= to; ++port) {
+                endpoints.add(String.valueOf(port));
+            }
+        }
+        return java.util.List.copyOf(endpoints);
+    }
+
+    private static int parsePort(final String text) {
+        try {
+            final int port = Integer.parseInt(text.trim());
+            if (port >= 1 && port <= 65535) return port;
+        } catch (final NumberFormatException ex) {
+            // note(nschultz): Same message as out of range
+        }
+        throw new IllegalArgumentException(String.format("'%s' is not a port", text.trim()));
+    }
+
+    // note(nschultz): Closes the channel from 'bind' and removes the socket file, if it was one
+    public static void unbind(final ServerSocketChannel channel) throws IOException {
+        SocketAddress local = null;
+        try {
+            local = channel.getLocalAddress();
+        } catch (final ClosedChannelException ex) {
+            // note(nschultz): Already closed, nothing to find out anymore
+        }
+        channel.close();
+        if (local instanceof UnixDomainSocketAddress) Files.deleteIfExists(((UnixDomainSocketAddress) local).getPath());
+    }
+
+    // note(nschultz): Unix domain sockets have no Nagle to turn off
+    public static void noDelay(final SocketChannel channel) throws IOException {
+        if (channel.supportedOptions().contains(StandardSocketOptions.TCP_NODELAY)) {
+            channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+        }
+    }
+
+    // note(nschultz): For display, socket().getRemoteSocketAddress() throws for unix domain sockets
+    public static String remote(final SocketChannel channel) {
+        try {
+            final SocketAddress address = channel.getRemoteAddress();
+            return address == null ? "not connected" : format(address);
+        } catch (final IOException ex) {
+            return "closed";
+        }
+    }
+
+    private Attempts stats(final SocketAddress address) {
+        return this.attempts.computeIfAbsent(address, a -> new Attempts());
+    }
+
+    // note(nschultz): Alternates the families, keeping the system's order within each family
+    private static InetAddress[] interleave(final InetAddress[] addresses) {
+        if (addresses.length <= 1) return addresses;
+
+        final ArrayDeque<InetAddress> first  = new ArrayDeque<>();
+        final ArrayDeque<InetAddress> second = new ArrayDeque<>();
+        final Class<?> family = addresses[0].getClass();
+        for (final InetAddress address : addresses) {
+            (address.getClass() == family ? first : second).add(address);
+        }
+
+        final InetAddress[] ordered = new InetAddress[addresses.length];
+        for (int i = 0; i < ordered.length; ++i) {
+            final ArrayDeque<InetAddress> from = (i % 2 == 0 && !first.isEmpty()) || second.isEmpty() ? first : second;
+            ordered[i] = from.poll();
+        }
+        return ordered;
+    }
+
+    // note(nschultz): '[::1]' -> '::1', anything else as is
+    public static String strip(final String host) {
+        if (host.length() >= 2 && host.charAt(0) == '[' && host.charAt(host.length() - 1) == ']') {
+            return host.substring(1, host.length() - 1);
+        }
+        return host;
+    }
+
+    public static boolean isUnix(final String target) {
+        return target.startsWith("unix:") && target.length() > "unix:".length();
+    }
+
+    public static UnixDomainSocketAddress unixAddress(final String target) {
+        assert isUnix(target);
+        return UnixDomainSocketAddress.of(target.substring("unix:".length()));
+    }
+
+    // note(nschultz): host:port with brackets around IPv6 literals, unix:<path> as is
+    public static String format(final String host, final int port) {
+        if (isUnix(host)) return host;
+        final String name = strip(host);
+        return name.indexOf(':') >= 0 ? String.format("[%s]:%d", name, port) : String.format("%s:%d", name, port);
+    }
+
+    public static String format(final SocketAddress address) {
+        if (address instanceof UnixDomainSocketAddress) {
+            final String path = ((UnixDomainSocketAddress) address).getPath().toString();
+            return path.isEmpty() ? "unix:(unnamed)" : "unix:" + path; // note(nschultz): Connecting sockets usually have no name
+        }
+        if (address instanceof InetSocketAddress) {
+            final InetSocketAddress inet = (InetSocketAddress) address;
+            return inet.getAddress() == null ? inet.toString() : format(inet.getAddress().getHostAddress(), inet.getPort());
+        }
+        return String.valueOf(address);
+    }
+
+    public static boolean isLiteral(final String host) {
+        if (isUnix(host)) return true;
+        final String name = strip(host);
+        return name.indexOf(':') >= 0 || name.matches("[0-9.]+");
+    }
+
+    // note(nschultz): getAllByName never goes to DNS for something with a colon in it, it only parses
+    public static boolean isIpv6Literal(final String host) {
+        final String name = strip(host);
+        if (name.indexOf(':') < 0 || !name.matches("[0-9A-Za-z:.%]+")) return false;
+        try {
+            return InetAddress.getAllByName(name)[0] instanceof Inet6Address;
+        } catch (final UnknownHostException ex) {
+            return false;
+        }
+    }
+
+    // note(nschultz): RFC 1123 syntax only, whether it resolves is found out when connecting
+    public static boolean isHostname(final String host) {
+        final String name = host.endsWith(".") ? host.substring(0, host.length() - 1) : host;
+        if (name.isEmpty() || name.length() > 253) return false;
+
+        for (final String label : name.split("\\.", -1)) {
+            if (label.isEmpty() || label.length() > 63)              return false;
+            if (label.startsWith("-") || label.endsWith("-"))        return false;
+            if (!label.matches("[A-Za-z0-9-]+"))                     return false;
+        }
+        return true;
+    }
+
+    public String summary() {
+        return String.format("%d resolved, %d cached, %d negative cached, %d coalesced, %d failed",
+                             this.lookups.count() - this.failures.sum(), this.hits.sum(), this.negativeHits.sum(),
+                             this.coalesced.sum(), this.failures.sum());
+    }
+
+    public String report() {
+        final StringBuilder sb = new StringBuilder();
+        sb.append(String.format("Resolver: %s%n", summary()));
+        if (this.lookups.count() > 0) sb.append(String.format("  lookup: %s%n", this.lookups.summary()));
+
+        final ArrayList<SocketAddress> addresses = new ArrayList<>(this.attempts.keySet());
+        addresses.sort(Comparator.comparing(Resolver::format));
+        for (final SocketAddress address : addresses) {
+            final Attempts stats = this.attempts.get(address);
+            sb.append(String.format("  connect %s: %s (%d failed, %d abandoned)%n", format(address),
+                                    stats.latency.count() == 0 ? "never connected" : stats.latency.summary(),
+                                    stats.failed.sum(), stats.abandoned.sum()));
+        }
+        return sb.toString();
+    }
+
+    public static final class Connection {
+
+        public final SocketChannel channel;
+        public final SocketAddress address;
+        public final long nanos; // note(nschultz): Lookup included
+        public final int attempts;
+        public final int candidates;
+
+        private Connection(final SocketChannel channel, final SocketAddress address, final long nanos, final int attempts, final int candidates) {
+            this.channel    = channel;
+            this.address    = address;
+            this.nanos      = nanos;
+            this.attempts   = attempts;
+            this.candidates = candidates;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s in %s, %d of %d address(es) tried", format(this.address), Histogram.formatNanos(this.nanos), this.attempts, this.candidates);
+        }
+    }
+
+    private static final class Attempts {
+
+        final Histogram latency   = new Histogram();
+        final LongAdder failed    = new LongAdder();
+        final LongAdder abandoned = new LongAdder(); // note(nschultz): Still pending when another address won, or timed out
+    }
+
+    private final class Attempt {
+
+        final InetSocketAddress address;
+        SocketChannel channel = null;
+        long start = 0;
+
+        Attempt(final InetSocketAddress address) {
+            this.address = address;
+        }
+
+        void failed() {
+            stats(this.address).failed.increment();
+            close();
+        }
+
+        void abandon() {
+            stats(this.address).abandoned.increment();
+            close();
+        }
+
+        private void close() {
+            if (this.channel == null) return;
+            try {
+                this.channel.close();
+            } catch (final IOException ex) {
+                // note(nschultz): Nothing we could do about it
+            }
+        }
+    }
+
+    private static final class Entry {
+
+        private final CountDownLatch done = new CountDownLatch(1);
+        private volatile InetAddress[] addresses = null;
+        private volatile String failure = null;
+        volatile long expires = 0;
+
+        boolean isDone() {
+            return this.done.getCount() == 0;
+        }
+
+        boolean failed() {
+            return this.failure != null;
+        }
+
+        void complete(final InetAddress[] addresses, final String failure, final long expires) {
+            this.addresses = addresses;
+            this.failure   = failure;
+            this.expires   = expires;
+            this.done.countDown();
+        }
+
+        InetAddress[] await(final String host, final long deadlineNanos) throws IOException {
+            try {
+                final long remaining = deadlineNanos - System.nanoTime();
+                if (!this.done.await(Math.max(0, remaining), TimeUnit.NANOSECONDS)) {
+                    throw new SocketTimeoutException(String.format("Resolving '%s' took too long", host));
+                }
+            } catch (final InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while resolving " + host);
+            }
+            if (this.failure != null) throw new UnknownHostException(this.failure);
+            return this.addresses.clone();
+        }
+    }
+}
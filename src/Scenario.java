@@ -0,0 +1,667 @@
+//
+// Copyright (c) 2022 Niklas Schultz
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+// documentation files (the "Software"), to deal in the Software without restriction,
+// including without limitation the rights to use, copy, modify, merge, publish, distribute,
+// sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so,
+// subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED
+// TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+// IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+// WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+// SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+//
+
+import java.io.*;
+import java.nio.charset.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.logging.*;
+import java.util.regex.*;
+
+// note(nschultz): Scripted conversations. A scenario file is parsed once into a flat list of steps
+// (loops become jumps) and that list is shared by every instance running it. An instance is
+// only a program counter, a handful of variables and a receive buffer, it does not own a thread.
+// It is driven by incoming data (from whatever thread the connection reads on) and by a shared
+// scheduler for delays and expect timeouts, so thousands of them can run side by side.
+//
+// Example:
+//
+//     # comments start with a hash
+//     set    id   4711
+//     send   HELLO ${id}\n
+//     expect 2000 ^WELCOME
+//     loop   100
+//         send   POLL ${seq}\n
+//         expect 500 ACK
+//         delay  10
+//     end
+//     assert p99 < 5 ms
+//     assert timeouts == 0
+//
+// 'send' takes the rest of the line, escapes (\n \r \t \\ \xHH) and ${variables} are expanded.
+// 'expect' takes a timeout in milliseconds followed by a regular expression that has to show up
+// in the received data. The time between the last send and the match is recorded as reply latency.
+// Variables inside an expect match their value literally, e.g. a value 'a.b' does not match 'axb'.
+// Built-in variables are ${instance} (1..n) and ${seq} (number of sends so far).
+public final class Scenario {
+
+    private static final int MAX_RECEIVE_BUFFER = 64 * 1024;
+
+    private static final ScheduledThreadPoolExecutor scheduler = allocateScheduler();
+
+    public final String name;
+
+    private final Step[] steps;
+    private final java.util.List<Assertion> assertions;
+
+    private Scenario(final String name, final Step[] steps, final java.util.List<Assertion> assertions) {
+        this.name       = name;
+        this.steps      = steps;
+        this.assertions = assertions;
+    }
+
+    private static ScheduledThreadPoolExecutor allocateScheduler() {
+        final AtomicInteger counter = new AtomicInteger(0);
+        final ScheduledThreadPoolExecutor scheduler = new ScheduledThreadPoolExecutor(Math.max(2, Runtime.getRuntime().availableProcessors()), r -> {
+            final Thread thread = new Thread(r);
+            thread.setName("ScenarioThread-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.setRemoveOnCancelPolicy(true); // note(nschultz): Most expect timeouts get cancelled, don't let them pile up
+        return scheduler;
+    }
+
+    public static Scenario load(final Path file) throws IOException {
+        assert file != null;
+
+        return parse(file.getFileName().toString(), new String(Files.readAllBytes(file), StandardCharsets.UTF_8));
+    }
+
+    // note(nschultz): Throws IllegalArgumentException with the offending line number on bad input
+    public static Scenario parse(final String name, final String text) {
+        assert name != null;
+        assert text != null;
+
+        final ArrayList<Step> steps = new ArrayList<>();
+        final ArrayList<Assertion> assertions = new ArrayList<>();
+        final ArrayDeque<Integer> openLoops = new ArrayDeque<>();
+
+        final String[] lines = text.split("\r?\n");
+        for (int i = 0; i < lines.length; ++i) {
+            final int lineNo = i + 1;
+            final String line = lines[i].strip();
+            if (line.isEmpty() || line.startsWith("#")) continue;
+
+            final int space    = line.indexOf(' ');
+            final String op    = (space == -1 ? line : line.substring(0, space)).toLowerCase();
+            final String rest  = space == -1 ? "" : line.substring(space + 1).strip();
+
+            try {
+                switch (op) {
+                    case "send" -> {
+                        steps.add(Step.send(unescape(unquote(rest))));
+                    }
+                    case "expect" -> {
+                        final int split = rest.indexOf(' ');
+                        if (split == -1) throw new IllegalArgumentException("expected 'expect <timeout ms> <regex>'");
+                        final long timeout = Long.parseLong(rest.substring(0, split));
+                        steps.add(Step.expect(unescape(unquote(rest.substring(split + 1).strip())), timeout));
+                    }
+                    case "delay" -> {
+                        steps.add(Step.delay(Long.parseLong(rest)));
+                    }
+                    case "set" -> {
+                        final int split = rest.indexOf(' ');
+                        if (split == -1) throw new IllegalArgumentException("expected 'set <name> <value>'");
+                        steps.add(Step.set(rest.substring(0, split), unescape(unquote(rest.substring(split + 1).strip()))));
+                    }
+                    case "loop" -> {
+                        final int count = Integer.parseInt(rest);
+                        if (count < 0) throw new IllegalArgumentException("loop count must not be negative");
+                        openLoops.push(steps.size());
+                        steps.add(Step.loop(count));
+                    }
+                    case "end" -> {
+                        if (openLoops.isEmpty()) throw new IllegalArgumentException("'end' without 'loop'");
+                        final int loopPc = openLoops.pop();
+                        steps.add(Step.end(loopPc));
+                        steps.get(loopPc).jump = steps.size(); // note(nschultz): Where to go when the loop is done
+                    }
+                    case "assert" -> {
+                        assertions.add(Assertion.parse(rest));
+                    }
+                    default -> throw new IllegalArgumentException(String.format("unknown step '%s'", op));
+                }
+            } catch (final NumberFormatException ex) {
+                throw new IllegalArgumentException(String.format("%s:%d: not a number (%s)", name, lineNo, ex.getMessage()));
+            } catch (final IllegalArgumentException ex) {
+                throw new IllegalArgumentException(String.format("%s:%d: %s", name, lineNo, ex.getMessage()));
+            }
+        }
+
+        if (!openLoops.isEmpty()) {
+            throw new IllegalArgumentException(String.format("%s: %d 'loop' without 'end'", name, openLoops.size()));
+        }
+
+        return new Scenario(name, steps.toArray(new Step[0]), java.util.List.copyOf(assertions));
+    }
+
+    public Run newRun() {
+        return new Run();
+    }
+
+    private static String unquote(final String s) {
+        if (s.length() >= 2 && s.startsWith("\"") && s.endsWith("\"")) {
+            return s.substring(1, s.length() - 1);
+        }
+        return s;
+    }
+
+    // note(nschultz): Also used for payloads given on the command line
+    static String unescape(final String s) {
+        if (s.indexOf('\\') == -1) return s;
+
+        final StringBuilder sb = new StringBuilder(s.length());
+        for (int i = 0; i < s.length(); ++i) {
+            final char c = s.charAt(i);
+            if (c != '\\' || i + 1 == s.length()) {
+                sb.append(c);
+                continue;
+            }
+
+            final char next = s.charAt(++i);
+            switch (next) {
+                case 'n'  -> sb.append('\n');
+                case 'r'  -> sb.append('\r');
+                case 't'  -> sb.append('\t');
+                case '\\' -> sb.append('\\');
+                case 'x'  -> {
+                    if (i + 2 >= s.length()) throw new IllegalArgumentException("incomplete \\x escape");
+                    sb.append((char) Integer.parseInt(s.substring(i + 1, i + 3), 16));
+                    i += 2;
+                }
+                // note(nschultz): Keep unknown escapes as they are, they are most likely meant for the regex
+                default   -> sb.append('\\').append(next);
+            }
+        }
+        return sb.toString();
+    }
+
+    public final class Run {
+
+        public final Histogram replyLatency = new Histogram();
+
+        public final AtomicInteger started  = new AtomicInteger(0);
+        public final AtomicInteger passed   = new AtomicInteger(0);
+        public final AtomicInteger failed   = new AtomicInteger(0);
+        public final AtomicLong    timeouts = new AtomicLong(0);
+
+        private final long startNanos = System.nanoTime();
+        private final ConcurrentLinkedQueue<String> failures = new ConcurrentLinkedQueue<>();
+        private final ConcurrentLinkedQueue<Lambdas.Nullary<Void>> onFinished = new ConcurrentLinkedQueue<>();
+        private volatile int expectedInstances = -1;
+
+        private Run() {
+        }
+
+        public Instance newInstance(final Lambdas.Unary<Void, String> sender) {
+            assert sender != null;
+
+            return new Instance(this, this.started.incrementAndGet(), sender);
+        }
+
+        // note(nschultz): Once this many instances have finished, the 'onFinished' listeners are called
+        public void expect(final int instances) {
+            assert instances > 0;
+
+            this.expectedInstances = instances;
+            checkFinished();
+        }
+
+        public void onFinished(final Lambdas.Nullary<Void> listener) {
+            this.onFinished.add(listener);
+            checkFinished();
+        }
+
+        public boolean isFinished() {
+            final int expected = this.expectedInstances;
+            return expected > 0 && this.passed.get() + this.failed.get() >= expected;
+        }
+
+        private void instanceFinished(final Instance instance, final String failure) {
+            if (failure == null) {
+                this.passed.incrementAndGet();
+            } else {
+                this.failed.incrementAndGet();
+                // note(nschultz): A thousand identical timeouts are not more helpful than ten
+                if (this.failures.size() < 10) this.failures.add(String.format("instance %d: %s", instance.id, failure));
+            }
+            checkFinished();
+        }
+
+        private void checkFinished() {
+            if (!isFinished()) return;
+
+            Lambdas.Nullary<Void> listener;
+            while ((listener = this.onFinished.poll()) != null) {
+                listener.call();
+            }
+        }
+
+        public boolean passed() {
+            if (this.failed.get() > 0) return false;
+            for (final Assertion assertion : Scenario.this.assertions) {
+                if (!assertion.holds(this)) return false;
+            }
+            return true;
+        }
+
+        public String report() {
+            final StringBuilder sb = new StringBuilder();
+            sb.append(String.format("Scenario '%s': %s%n", Scenario.this.name, passed() ? "PASSED" : "FAILED"));
+            sb.append(String.format("  duration:  %s%n", Histogram.formatNanos(System.nanoTime() - this.startNanos)));
+            sb.append(String.format("  instances: %d started, %d passed, %d failed%n", this.started.get(), this.passed.get(), this.failed.get()));
+            sb.append(String.format("  replies:   %s%n", this.replyLatency.summary()));
+            sb.append(String.format("  timeouts:  %d%n", this.timeouts.get()));
+            for (final String failure : this.failures) {
+                sb.append(String.format("  failure:   %s%n", failure));
+            }
+            for (final Assertion assertion : Scenario.this.assertions) {
+                sb.append(String.format("  assert %s: %s (actual %s)%n", assertion.text, assertion.holds(this) ? "ok" : "VIOLATED", assertion.actual(this)));
+            }
+            return sb.toString();
+        }
+    }
+
+    public final class Instance {
+
+        public final int id;
+
+        private final Run run;
+        private final Lambdas.Unary<Void, String> sender;
+        private final HashMap<String, String> variables = new HashMap<>();
+        private final int[] loopCounters = new int[Scenario.this.steps.length];
+        private final StringBuilder received = new StringBuilder();
+
+        private int pc = 0;
+        private int seq = 0;
+        private long lastSendNanos = -1;
+        private boolean started = false;
+        private boolean finished = false;
+        private boolean waitingForExpect = false;
+        private ScheduledFuture<?> pending = null;
+        private String outgoing = null; // note(nschultz): Picked by 'advance' under the lock, sent by 'drive' outside of it
+        private int version = 0;        // note(nschultz): Bumped whenever a variable (or ${seq}) changes
+        private Step compiledFor = null; // note(nschultz): The expect with variables 'compiled' belongs to, at 'compiledVersion'
+        private int compiledVersion = 0;
+        private Pattern compiled = null;
+
+        private Instance(final Run run, final int id, final Lambdas.Unary<Void, String> sender) {
+            this.run    = run;
+            this.id     = id;
+            this.sender = sender;
+        }
+
+        public void start() {
+            synchronized (this) {
+                if (this.started) return;
+                this.started = true;
+                advance();
+            }
+            drive();
+        }
+
+        public void feed(final String data) {
+            synchronized (this) {
+                if (this.finished) return;
+
+                this.received.append(data);
+                if (this.received.length() > MAX_RECEIVE_BUFFER) {
+                    // note(nschultz): Nobody is expecting this much, only keep the tail around
+                    this.received.delete(0, this.received.length() - MAX_RECEIVE_BUFFER);
+                }
+
+                if (!this.waitingForExpect || !tryMatch(Scenario.this.steps[this.pc])) return;
+                this.waitingForExpect = false;
+                cancelPending();
+                this.pc += 1;
+                advance();
+            }
+            drive();
+        }
+
+        // note(nschultz): Must not hold the lock. A send may block on a full window, the reader has to be able to
+        // feed meanwhile or a peer that writes before it reads never gets to read. Only one thread ever drives an
+        // instance: while a send is out there is no expect waiting and no delay pending, so only 'feed' and 'abort' get in.
+        private void drive() {
+            assert !Thread.holdsLock(this);
+
+            for (;;) {
+                final String data;
+                synchronized (this) {
+                    data = this.outgoing;
+                    this.outgoing = null;
+                    if (data == null || this.finished) return;
+                }
+                try {
+                    this.sender.call(data);
+                } catch (final RuntimeException ex) {
+                    Main.logger.log(Level.INFO, "Scenario send failed", ex);
+                    synchronized (this) {
+                        if (!this.finished) finish(String.format("send failed: %s", ex));
+                    }
+                    return;
+                }
+                synchronized (this) {
+                    advance();
+                }
+            }
+        }
+
+        public synchronized void abort(final String reason) {
+            if (this.finished) return;
+            finish(reason);
+        }
+
+        public synchronized boolean isFinished() {
+            return this.finished;
+        }
+
+        private void advance() {
+            final Step[] steps = Scenario.this.steps;
+            while (!this.finished && this.pc < steps.length) {
+                final Step step = steps[this.pc];
+                switch (step.op) {
+                    case SEND -> {
+                        this.seq += 1;
+                        this.version += 1;
+                        this.outgoing = expand(step.text, false);
+                        this.lastSendNanos = System.nanoTime();
+                        this.pc += 1;
+                        return; // note(nschultz): 'drive' sends it and comes back here
+                    }
+                    case EXPECT -> {
+                        if (tryMatch(step)) {
+                            this.pc += 1;
+                            continue;
+                        }
+                        if (this.finished) return; // note(nschultz): The pattern did not compile
+                        this.waitingForExpect = true;
+                        this.pending = scheduler.schedule(() -> expectTimedOut(step), step.millis, TimeUnit.MILLISECONDS);
+                        return;
+                    }
+                    case DELAY -> {
+                        this.pc += 1;
+                        this.pending = scheduler.schedule(this::resume, step.millis, TimeUnit.MILLISECONDS);
+                        return;
+                    }
+                    case SET -> {
+                        this.variables.put(step.name, expand(step.text, false));
+                        this.version += 1;
+                        this.pc += 1;
+                    }
+                    case LOOP -> {
+                        this.loopCounters[this.pc] = step.count;
+                        this.pc = step.count == 0 ? step.jump : this.pc + 1;
+                    }
+                    case END -> {
+                        final int remaining = --this.loopCounters[step.jump];
+                        this.pc = remaining > 0 ? step.jump + 1 : this.pc + 1;
+                    }
+                }
+            }
+
+            if (!this.finished) finish(null);
+        }
+
+        private void resume() {
+            synchronized (this) {
+                this.pending = null;
+                advance();
+            }
+            drive();
+        }
+
+        private synchronized void expectTimedOut(final Step step) {
+            if (this.finished || !this.waitingForExpect || Scenario.this.steps[this.pc] != step) return;
+
+            this.pending = null;
+            this.run.timeouts.incrementAndGet();
+            finish(String.format("timed out after %d ms waiting for '%s'", step.millis, step.text));
+        }
+
+        private boolean tryMatch(final Step step) {
+            final Pattern pattern = step.pattern != null ? step.pattern : compile(step);
+            if (pattern == null) return false;
+            final Matcher matcher = pattern.matcher(this.received);
+            if (!matcher.find()) return false;
+
+            if (this.lastSendNanos != -1) {
+                this.run.replyLatency.record(System.nanoTime() - this.lastSendNanos);
+                this.lastSendNanos = -1; // note(nschultz): Two expects after one send only count once
+            }
+            this.received.delete(0, matcher.end());
+            return true;
+        }
+
+        // note(nschultz): Variables are matched literally. Compiled once per expect and value, not on every 'feed'.
+        private Pattern compile(final Step step) {
+            if (this.compiledFor != step || this.compiledVersion != this.version) {
+                final String regex = expand(step.text, true);
+                try {
+                    this.compiled = Pattern.compile(regex);
+                } catch (final PatternSyntaxException ex) {
+                    this.compiled = null;
+                    finish(String.format("bad expect pattern '%s': %s", regex, ex.getDescription()));
+                    return null;
+                }
+                this.compiledFor     = step;
+                this.compiledVersion = this.version;
+            }
+            return this.compiled;
+        }
+
+        private String expand(final String template, final boolean quote) {
+            if (template.indexOf("${") == -1) return template;
+
+            final StringBuilder sb = new StringBuilder(template.length() + 16);
+            int i = 0;
+            while (i < template.length()) {
+                final int start = template.indexOf("${", i);
+                final int end   = start == -1 ? -1 : template.indexOf('}', start);
+                if (start == -1 || end == -1) {
+                    sb.append(template, i, template.length());
+                    break;
+                }
+                sb.append(template, i, start);
+                final String var = template.substring(start + 2, end);
+                final String value = switch (var) {
+                    case "instance" -> String.valueOf(this.id);
+                    case "seq"      -> String.valueOf(this.seq);
+                    default         -> this.variables.getOrDefault(var, "");
+                };
+                sb.append(quote && !value.isEmpty() ? Pattern.quote(value) : value);
+                i = end + 1;
+            }
+            return sb.toString();
+        }
+
+        private void cancelPending() {
+            if (this.pending != null) {
+                this.pending.cancel(false);
+                this.pending = null;
+            }
+        }
+
+        private void finish(final String failure) {
+            assert !this.finished;
+
+            this.finished = true;
+            this.waitingForExpect = false;
+            cancelPending();
+            this.received.setLength(0);
+            this.run.instanceFinished(this, failure);
+        }
+    }
+
+    private enum Op {
+        SEND, EXPECT, DELAY, SET, LOOP, END
+    }
+
+    private static final class Step {
+
+        final Op op;
+        String  text    = null;
+        String  name    = null;
+        Pattern pattern = null; // note(nschultz): Only null if the expression contains variables
+        long    millis  = 0;
+        int     count   = 0;
+        int     jump    = 0;    // note(nschultz): LOOP: first step after the loop, END: the LOOP step
+
+        private Step(final Op op) {
+            this.op = op;
+        }
+
+        static Step send(final String text) {
+            final Step step = new Step(Op.SEND);
+            step.text = text;
+            return step;
+        }
+
+        static Step expect(final String regex, final long timeoutMillis) {
+            if (timeoutMillis <= 0) throw new IllegalArgumentException("timeout must be positive");
+            final Step step = new Step(Op.EXPECT);
+            step.text   = regex;
+            step.millis = timeoutMillis;
+            try {
+                step.pattern = regex.contains("${") ? null : Pattern.compile(regex);
+            } catch (final PatternSyntaxException ex) {
+                throw new IllegalArgumentException(String.format("bad regex '%s'", regex));
+            }
+            return step;
+        }
+
+        static Step delay(final long millis) {
+            if (millis < 0) throw new IllegalArgumentException("delay must not be negative");
+            final Step step = new Step(Op.DELAY);
+            step.millis = millis;
+            return step;
+        }
+
+        static Step set(final String name, final String value) {
+            final Step step = new Step(Op.SET);
+            step.name = name;
+            step.text = value;
+            return step;
+        }
+
+        static Step loop(final int count) {
+            final Step step = new Step(Op.LOOP);
+            step.count = count;
+            return step;
+        }
+
+        static Step end(final int loopPc) {
+            final Step step = new Step(Op.END);
+            step.jump = loopPc;
+            return step;
+        }
+    }
+
+    // note(nschultz): 'assert <metric> <op> <value> [unit]', e.g. 'assert p99 < 5 ms' or 'assert timeouts == 0'.
+    // Latency metrics are p50, p90, p99, p999, mean and max (unit ns, us, ms or s, default ms).
+    // Count metrics are timeouts and failed.
+    private static final class Assertion {
+
+        final String text;
+        final String metric;
+        final String op;
+        final double threshold; // note(nschultz): Nanoseconds for latency metrics
+
+        private Assertion(final String text, final String metric, final String op, final double threshold) {
+            this.text      = text;
+            this.metric    = metric;
+            this.op        = op;
+            this.threshold = threshold;
+        }
+
+        static Assertion parse(final String text) {
+            final String[] parts = text.split("\\s+");
+            if (parts.length < 3 || parts.length > 4) throw new IllegalArgumentException("expected 'assert <metric> <op> <value> [unit]'");
+
+            final String metric = parts[0].toLowerCase();
+            final String op     = parts[1];
+            if (!java.util.List.of("<", "<=", ">", ">=", "==").contains(op)) {
+                throw new IllegalArgumentException(String.format("unknown operator '%s'", op));
+            }
+
+            final double value = Double.parseDouble(parts[2]);
+            final boolean latency = switch (metric) {
+                case "p50", "p90", "p99", "p999", "mean", "max" -> true;
+                case "timeouts", "failed"                       -> false;
+                default -> throw new IllegalArgumentException(String.format("unknown metric '%s'", metric));
+            };
+
+            if (!latency) {
+                if (parts.length == 4) throw new IllegalArgumentException(String.format("'%s' has no unit", metric));
+                return new Assertion(text, metric, op, value);
+            }
+
+            final String unit = parts.length == 4 ? parts[3].toLowerCase() : "ms";
+            final double scale = switch (unit) {
+                case "ns" -> 1;
+                case "us" -> 1_000;
+                case "ms" -> 1_000_000;
+                case "s"  -> 1_000_000_000;
+                default -> throw new IllegalArgumentException(String.format("unknown unit '%s'", unit));
+            };
+            return new Assertion(text, metric, op, value * scale);
+        }
+
+        double measure(final Run run) {
+            return switch (this.metric) {
+                case "p50"      -> run.replyLatency.percentile(50);
+                case "p90"      -> run.replyLatency.percentile(90);
+                case "p99"      -> run.replyLatency.percentile(99);
+                case "p999"     -> run.replyLatency.percentile(99.9);
+                case "mean"     -> run.replyLatency.mean();
+                case "max"      -> run.replyLatency.max();
+                case "timeouts" -> run.timeouts.get();
+                case "failed"   -> run.failed.get();
+                default         -> Double.NaN;
+            };
+        }
+
+        private boolean isLatency() {
+            return !this.metric.equals("timeouts") && !this.metric.equals("failed");
+        }
+
+        String actual(final Run run) {
+            if (isLatency() && run.replyLatency.count() == 0) return "no replies";
+            final double value = measure(run);
+            return isLatency() ? Histogram.formatNanos((long) value) : String.valueOf((long) value);
+        }
+
+        // note(nschultz): A latency bound never holds without a single reply, the histogram would just say 0
+        boolean holds(final Run run) {
+            if (isLatency() && run.replyLatency.count() == 0) return false;
+            final double value = measure(run);
+            return switch (this.op) {
+                case "<"  -> value <  this.threshold;
+                case "<=" -> value <= this.threshold;
+                case ">"  -> value >  this.threshold;
+                case ">=" -> value >= this.threshold;
+                case "==" -> value == this.threshold;
+                default   -> false;
+            };
+        }
+    }
+}
@@ -0,0 +1,216 @@
+//
+// Copyright (c) 2022 Niklas Schultz
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+// documentation files (the "Software"), to deal in the Software without restriction,
+// including without limitation the rights to use, copy, modify, merge, publish, distribute,
+// sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so,
+// subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED
+// TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+// IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+// WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+// SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+//
+
+import java.awt.*;
+import java.awt.event.*;
+import java.text.*;
+import java.util.*;
+import java.util.logging.*;
+import javax.swing.*;
+import javax.swing.table.*;
+
+public final class SearchWindow {
+
+    private static final int MAX_HITS  = 10_000;
+    private static final int SEEK_ROWS = 500; // note(nschultz): Frames listed from a point in time on
+
+    private final MainWindow owner;
+    private final String title;
+    private final Transcript transcript;
+    private JFrame frame;
+
+    public SearchWindow(final MainWindow owner, final String title, final Transcript transcript) {
+        assert EventQueue.isDispatchThread();
+        assert transcript != null;
+
+        this.owner      = owner;
+        this.title      = title;
+        this.transcript = transcript;
+
+        init();
+    }
+
+    private void init() {
+        this.frame = new JFrame(this.title);
+        this.frame.setDefaultCloseOperation(JFrame.DISPOSE_ON_CLOSE);
+        this.frame.setSize(900, 500);
+
+        final JPanel root = new JPanel(new BorderLayout(4, 4));
+        root.setBorder(BorderFactory.createEmptyBorder(4, 4, 4, 4));
+
+        final JTextField queryField = new JTextField();
+        final JComboBox<String> kindBox = new JComboBox<>(new String[] {"Text", "Text (ignore case)", "Hex bytes", "Regex", "From time (HH:mm:ss)"});
+        final JButton searchButton = new JButton("Search");
+        final JLabel statusLabel = new JLabel(" ");
+
+        final JPanel queryPanel = new JPanel(new BorderLayout(4, 4));
+        queryPanel.add(kindBox, BorderLayout.WEST);
+        queryPanel.add(queryField, BorderLayout.CENTER);
+        queryPanel.add(searchButton, BorderLayout.EAST);
+        root.add(queryPanel, BorderLayout.NORTH);
+
+        final DefaultTableModel model = new DefaultTableModel(new String[] {"Time", "Connection", "Dir", "Frame", "Offset", "Length", "Preview"}, 0) {
+            @Override public boolean isCellEditable(final int row, final int col) {
+                return false;
+            }
+        };
+        final JTable table = new JTable(model);
+        table.getTableHeader().setReorderingAllowed(false);
+        table.getColumnModel().getColumn(6).setPreferredWidth(400);
+        root.add(new JScrollPane(table), BorderLayout.CENTER);
+        root.add(statusLabel, BorderLayout.SOUTH);
+
+        final ActionListener search = e -> {
+            if (kindBox.getSelectedIndex() == 4) {
+                seek(queryField.getText(), model, searchButton, statusLabel);
+                return;
+            }
+
+            final Transcript.Query query;
+            try {
+                query = switch (kindBox.getSelectedIndex()) {
+                    case 0  -> Transcript.Query.text(queryField.getText(), false);
+                    case 1  -> Transcript.Query.text(queryField.getText(), true);
+                    case 2  -> Transcript.Query.hex(queryField.getText());
+                    default -> Transcript.Query.regex(queryField.getText());
+                };
+            } catch (final IllegalArgumentException ex) {
+                statusLabel.setText("Invalid query: " + ex.getMessage());
+                return;
+            }
+
+            searchButton.setEnabled(false);
+            statusLabel.setText("Searching...");
+
+            // note(nschultz): The search itself fans out over the common fork join pool,
+            // the worker thread only waits for it so the EDT never does.
+            new SwingWorker<Transcript.Result, Void>() {
+                @Override protected Transcript.Result doInBackground() {
+                    return SearchWindow.this.transcript.search(query, MAX_HITS);
+                }
+                @Override protected void done() {
+                    searchButton.setEnabled(true);
+                    try {
+                        final Transcript.Result result = get();
+                        final SimpleDateFormat format = new SimpleDateFormat("HH:mm:ss.SSS");
+                        model.setRowCount(0);
+                        for (final Transcript.Hit hit : result.hits) {
+                            model.addRow(new Object[] {
+                                format.format(new Date(SearchWindow.this.transcript.wallMillis(hit.nanos))),
+                                SearchWindow.this.transcript.connectionName(hit.conn),
+                                hit.dir == Transcript.IN ? "in" : "out",
+                                String.valueOf(hit.frame),
+                                String.valueOf(hit.offsetInFrame),
+                                String.valueOf(hit.frameLength),
+                                hit.preview
+                            });
+                        }
+                        statusLabel.setText(String.format("%d hit(s)%s in %s, scanned %d of %d segment(s), %s in transcript (%s in memory)",
+                                                          result.hits.size(), result.hits.size() == MAX_HITS ? " (limit reached)" : "",
+                                                          Histogram.formatNanos(result.elapsedNanos),
+                                                          result.segmentsScanned, result.segments,
+                                                          Stats.formatBytes(SearchWindow.this.transcript.byteCount()),
+                                                          Stats.formatBytes(SearchWindow.this.transcript.footprint())));
+                    } catch (final Exception ex) {
+                        Main.logger.log(Level.SEVERE, "Transcript search failed", ex);
+                        statusLabel.setText("Search failed: " + ex.getMessage());
+                    }
+                }
+            }.execute();
+        };
+        searchButton.addActionListener(search);
+        queryField.addActionListener(search);
+
+        this.frame.setContentPane(root);
+        this.frame.setLocationRelativeTo(this.owner.frame);
+    }
+
+    // note(nschultz): Lists the frames recorded from the given time of day on. The transcript only inflates
+    // the one block the time falls into (and the ones after it that we list), not everything before it.
+    private void seek(final String text, final DefaultTableModel model, final JButton searchButton, final JLabel statusLabel) {
+        final long millis;
+        try {
+            final SimpleDateFormat parser = new SimpleDateFormat(text.trim().indexOf('.') >= 0 ? "HH:mm:ss.SSS" : "HH:mm:ss");
+            parser.setLenient(false);
+            final Calendar time = Calendar.getInstance();
+            time.setTime(parser.parse(text.trim()));
+            final Calendar day = Calendar.getInstance();
+            day.set(Calendar.HOUR_OF_DAY, time.get(Calendar.HOUR_OF_DAY));
+            day.set(Calendar.MINUTE,      time.get(Calendar.MINUTE));
+            day.set(Calendar.SECOND,      time.get(Calendar.SECOND));
+            day.set(Calendar.MILLISECOND, time.get(Calendar.MILLISECOND));
+            if (day.getTimeInMillis() > System.currentTimeMillis()) day.add(Calendar.DAY_OF_MONTH, -1); // note(nschultz): Recorded before midnight
+            millis = day.getTimeInMillis();
+        } catch (final ParseException ex) {
+            statusLabel.setText("Invalid time: expected HH:mm:ss or HH:mm:ss.SSS");
+            return;
+        }
+
+        searchButton.setEnabled(false);
+        statusLabel.setText("Seeking...");
+
+        new SwingWorker<java.util.List<Transcript.Frame>, Void>() {
+            @Override protected java.util.List<Transcript.Frame> doInBackground() {
+                final Transcript transcript = SearchWindow.this.transcript;
+                final ArrayList<Transcript.Frame> frames = new ArrayList<>();
+                final long end = transcript.endFrame();
+                for (long i = transcript.frameAtWallMillis(millis); i < end && frames.size() < SEEK_ROWS; ++i) {
+                    final Transcript.Frame frame = transcript.frame(i);
+                    if (frame != null) frames.add(frame);
+                }
+                return frames;
+            }
+            @Override protected void done() {
+                searchButton.setEnabled(true);
+                try {
+                    final java.util.List<Transcript.Frame> frames = get();
+                    final SimpleDateFormat format = new SimpleDateFormat("HH:mm:ss.SSS");
+                    model.setRowCount(0);
+                    for (final Transcript.Frame frame : frames) {
+                        final StringBuilder preview = new StringBuilder();
+                        for (int i = 0; i < Math.min(frame.length, 64); ++i) {
+                            final int b = frame.byteAt(i) & 0xFF;
+                            preview.append(b >= 0x20 && b < 0x7F ? (char) b : '.');
+                        }
+                        model.addRow(new Object[] {
+                            format.format(new Date(frame.wallMillis())),
+                            SearchWindow.this.transcript.connectionName(frame.conn),
+                            frame.dir == Transcript.IN ? "in" : "out",
+                            String.valueOf(frame.index),
+                            "0",
+                            String.valueOf(frame.length),
+                            preview.toString()
+                        });
+                    }
+                    statusLabel.setText(String.format("%d frame(s) from %s on%s, %s in transcript (%s in memory)",
+                                                      frames.size(), format.format(new Date(millis)),
+                                                      frames.size() == SEEK_ROWS ? " (limit reached)" : "",
+                                                      Stats.formatBytes(SearchWindow.this.transcript.byteCount()),
+                                                      Stats.formatBytes(SearchWindow.this.transcript.footprint())));
+                } catch (final Exception ex) {
+                    Main.logger.log(Level.SEVERE, "Transcript seek failed", ex);
+                    statusLabel.setText("Seek failed: " + ex.getMessage());
+                }
+            }
+        }.execute();
+    }
+
+    public void show() {
+        this.frame.setVisible(true);
+    }
+}
@@ -16,27 +16,63 @@
 // SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
 //
 
-import java.awt.*;
 import java.io.*;
 import java.net.*;
+import java.nio.*;
+import java.nio.channels.*;
 import java.nio.charset.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
 import java.util.logging.*;
 
 public final class ServerConHandler implements Runnable {
 
     public Callback callback; // note(nschultz): Gets set after ctor, if not then default callback will be used
 
-    private ServerSocket serverSocket = null;
-    private Socket theClient          = null;
-    private int port;
+    public final Stats stats = new Stats();
+    public final Transcript transcript = new Transcript(); // note(nschultz): The built-in modes do not record anything
+    public AllocationProfile profile = new AllocationProfile(); // note(nschultz): The built-in modes are not profiled either
+    public TlsTransport.Handshakes handshakes = new TlsTransport.Handshakes();
+
+    public static final int MAX_ACCEPTORS = 64;
+    private static final int BACKLOG = 1024; // note(nschultz): The kernel caps it at net.core.somaxconn
+    private static final int ACCEPT_BATCH = 64; // note(nschultz): Per port and wake up, the selector reports the rest again
+
+    // note(nschultz): Accept counters, reset on every 'start()'. The wait runs from the moment the selector
+    // reported a port as ready until accept() handed us the connection, that is the part of the time in the
+    // accept queue we can see from here (the time before we were woken up is the kernel's secret).
+    // The hand off runs from accept() until the worker thread starts serving the client.
+    public final LongAdder accepts    = new LongAdder();
+    public final Histogram acceptWait = new Histogram();
+    public final Histogram handoff    = new Histogram();
+
+    private final CopyOnWriteArrayList<Client> clients = new CopyOnWriteArrayList<>();
+    private final CopyOnWriteArrayList<Payload.Verifier> verifiers = new CopyOnWriteArrayList<>(); // note(nschultz): Every client since 'start()' in VERIFY mode
+    private volatile DuplexLoad.Totals duplexTotals = new DuplexLoad.Totals(); // note(nschultz): Every client since 'start()' in DUPLEX mode, added when it leaves
+    private final AtomicInteger nextClientId = new AtomicInteger(1);
+
+    private volatile java.util.List<Acceptor> acceptors = null; // note(nschultz): Non null while open
+    private volatile java.util.List<Acceptor> lastAcceptors = java.util.List.of(); // note(nschultz): For the report after a close
+    private volatile java.util.List<Listener> listeners = java.util.List.of();
+    private volatile long openedNanos = 0;
+    private volatile long closedNanos = 0;
+    private long lastSampleNanos = 0; // note(nschultz): Guarded by this, see 'acceptSample'
+    private long lastSampleAccepts = 0;
+    private volatile Settings.Snapshot settings = Settings.snapshot(); // note(nschultz): Retaken on every 'start()'
+    private String listen; // note(nschultz): Ports, port ranges and 'unix:<path>', see Resolver.expandListen
+    private Mode mode = Mode.NORMAL;
+    private boolean tls = false;
+    private volatile Impairment impairment = null;
+    private volatile Heartbeat heartbeat = null;
 
     public ServerConHandler()  {
         // note(nschultz): To avoid potential NPE
         this(new Callback() {
             public void onOpen() {}
-            public void onNewClient(final Socket client) {}
-            public void onClientLost(final Socket client) {}
-            public void onIncomingData(final String data) {}
+            public void onNewClient(final Client client) {}
+            public void onClientLost(final Client client) {}
+            public void onIncomingData(final Client client, final String data) {}
             public void onConnectionFailure(final String reason) {}
             public void onClose() {}
         });
@@ -48,47 +84,111 @@ public final class ServerConHandler implements Runnable {
         this.callback = callback;
     }
 
+    // note(nschultz): These are the acceptors, each with a thread and a selector of its own. With one acceptor
+    // (the default) every port we listen on is registered with the one selector. With more, every TCP port is
+    // bound once per acceptor with SO_REUSEPORT and the kernel spreads the incoming connections over the
+    // copies, so a reconnect storm is drained by several threads at once. Unix domain sockets can not be
+    // shared like that and always go to the first acceptor.
+    //
+    // Every client gets its own reading thread (which also does the TLS handshake, so a slow handshake
+    // can not hold up the accept loop), writes are handed to the shared network pool so a slow client
+    // can not hold up a broadcast.
     @Override
     public void run() {
+        final ArrayList<Acceptor> acceptors = new ArrayList<>();
+        final ArrayList<Listener> listeners = new ArrayList<>();
         try {
-            final int maxCons = 1;
-            this.serverSocket = new ServerSocket(this.port, maxCons);
-            this.callback.onOpen();
-
-            waitForClient();
-            if (this.theClient == null) {
-                return;
+            this.tls = this.settings.serverTls;
+            if (this.tls) TlsTransport.context(true); // note(nschultz): Refuse to open with unusable stores
+            this.impairment = Impairment.fromSettings(this.settings, this.impairment); // note(nschultz): Not applied to the built-in modes
+            this.heartbeat  = Heartbeat.fromSettings(this.settings);  // note(nschultz): Neither is this
+            int count = this.settings.serverAcceptors;
+            if (count > 1 && !Resolver.canReusePort()) {
+                Main.logger.log(Level.WARNING, String.format("SO_REUSEPORT is not supported here, using one acceptor instead of %d", count));
+                count = 1;
             }
-
-        } catch (final IOException ex) {
-            Main.logger.log(Level.INFO, String.format("Failed to open server on port '%s'", this.port));
-            this.callback.onConnectionFailure(ex.getMessage());
+            for (int i = 0; i < count; ++i) {
+                acceptors.add(new Acceptor(i, Selector.open()));
+            }
+            for (final String endpoint : Resolver.expandListen(this.listen)) {
+                final Listener listener = new Listener(endpoint);
+                listeners.add(listener); // note(nschultz): Before anything else can fail, so it gets closed below
+                final int copies = Resolver.isUnix(endpoint) ? 1 : count;
+                for (int i = 0; i < copies; ++i) {
+                    final ServerSocketChannel channel = Resolver.bind(endpoint, BACKLOG, copies > 1);
+                    listener.channels.add(channel);
+                    channel.configureBlocking(false);
+                    channel.register(acceptors.get(i).selector, SelectionKey.OP_ACCEPT, listener);
+                }
+            }
+            this.mode = this.settings.serverMode; // note(nschultz): Changing the setting requires a reopen
+            this.stats.reset();
+            this.handshakes.reset();
+            this.accepts.reset();
+            this.acceptWait.reset();
+            this.handoff.reset();
+            this.verifiers.clear();
+            this.duplexTotals = new DuplexLoad.Totals();
+            synchronized (this) {
+                this.lastSampleNanos   = System.nanoTime();
+                this.lastSampleAccepts = 0;
+            }
+            this.openedNanos   = System.nanoTime();
+            this.closedNanos   = 0;
+            this.listeners     = java.util.List.copyOf(listeners);
+            this.lastAcceptors = java.util.List.copyOf(acceptors);
+            this.acceptors     = this.lastAcceptors;
+            this.callback.onOpen();
+        } catch (final IOException | IllegalArgumentException ex) {
+            Main.logger.log(Level.INFO, String.format("Failed to open server on '%s'", this.listen));
+            final String where = listeners.isEmpty() ? "" : String.format(" (after binding %d of them)", listeners.size());
+            this.callback.onConnectionFailure(ex.getMessage() + where);
+            close(acceptors, listeners);
             return; // note(nschultz): User has to call 'start()' again
         }
 
-        read_loop: {
-            while (isOpen() && hasClient()) {
+        final java.util.List<Acceptor> open = this.lastAcceptors;
+        for (int i = 1; i < open.size(); ++i) {
+            final Acceptor acceptor = open.get(i);
+            Network.execute("ServerConHandlerAcceptorThread-" + i, () -> accept(acceptor, open));
+        }
+        accept(open.get(0), open);
+    }
+
+    // note(nschultz): Runs until the server is torn down. 'open' is what the acceptor belongs to, once
+    // 'this.acceptors' is something else (null or a newer start) we are done.
+    private void accept(final Acceptor acceptor, final java.util.List<Acceptor> open) {
+        final Selector selector = acceptor.selector;
+        accept_loop: {
+            while (this.acceptors == open) {
                 try {
-                    final InputStream in = this.theClient.getInputStream();
-                    final byte[] buf = new byte[Settings.bufSize];
-                    final int readBytes = in.read(buf);
-                    if (readBytes == -1) {
-                        Main.logger.log(Level.INFO, String.format("Connection has been closed from '%s:%s'", theClient.getInetAddress(), theClient.getPort()));
-                        this.callback.onClientLost(this.theClient);
-                        closeClient();
-                        waitForClient();
-                        if (this.theClient == null) {
-                            // note(nschultz): User has to call 'start()' again
-                            return;
-                        } else {
-                            continue;
+                    selector.select();
+                    final long ready = System.nanoTime();
+                    if (this.acceptors != open) return; // note(nschultz): teardown() while we were waiting
+                    for (final SelectionKey key : selector.selectedKeys()) {
+                        final Listener listener = (Listener) key.attachment();
+                        final ServerSocketChannel server = (ServerSocketChannel) key.channel();
+                        // note(nschultz): Without the cap a steady stream of connects keeps us in here and the wait
+                        // would measure how long ago we woke up instead of how long a connection was queued.
+                        SocketChannel channel;
+                        for (int i = 0; i < ACCEPT_BATCH && (channel = server.accept()) != null; ++i) { // note(nschultz): Always blocking, whatever the listener is
+                            final long accepted = System.nanoTime();
+                            final int id = this.nextClientId.getAndIncrement();
+                            final SocketChannel client = channel;
+                            this.acceptWait.record(accepted - ready);
+                            this.accepts.increment();
+                            acceptor.count(accepted);
+                            listener.accepted.increment();
+                            Network.execute("ServerConHandlerClientThread-" + id, () -> {
+                                this.handoff.record(System.nanoTime() - accepted);
+                                serve(id, client, listener);
+                            });
                         }
-                    } else {
-                        this.callback.onIncomingData(new String(buf, 0, readBytes, StandardCharsets.UTF_8)); // todo(nschultz): encoding
-                        continue;
                     }
-                } catch (final IOException ex) {
-                    Main.logger.log(Level.INFO, "Failed to read data from client");
+                    selector.selectedKeys().clear();
+                } catch (final IOException | ClosedSelectorException ex) {
+                    if (this.acceptors != open) return; // note(nschultz): teardown() while we were waiting
+                    Main.logger.log(Level.INFO, String.format("Failed to wait for client on '%s'", this.listen));
                     this.callback.onConnectionFailure(ex.getMessage());
                     teardown();
                     return; // note(nschultz): User has to call 'start()' again
@@ -97,74 +197,397 @@ public final class ServerConHandler implements Runnable {
         }
     }
 
-    private void waitForClient() {
-        assert isOpen();
-        assert !hasClient();
+    private static void close(final java.util.List<Acceptor> acceptors, final java.util.List<Listener> listeners) {
+        for (final Acceptor acceptor : acceptors) {
+            try {
+                acceptor.selector.close();
+            } catch (final IOException ex) {
+                Main.logger.log(Level.SEVERE, "Failed to close the accept selector!");
+            }
+        }
+        for (final Listener listener : listeners) {
+            for (final ServerSocketChannel channel : listener.channels) {
+                try {
+                    Resolver.unbind(channel);
+                } catch (final IOException ex) {
+                    Main.logger.log(Level.SEVERE, String.format("Failed to close listener '%s'!", listener.endpoint));
+                }
+            }
+        }
+    }
 
+    private void serve(final int id, final SocketChannel channel, final Listener listener) {
+        final Transport transport;
         try {
-            this.theClient = this.serverSocket.accept();
-            // note(nschultz): We do not store the return values because
-            // we will call them for each send we are doing. If they then fail at some point
-            // we know the connection has been lost.
-            this.theClient.getInputStream();
-            this.theClient.getOutputStream();
+            transport = this.tls ? TlsTransport.accept(channel, this.handshakes) : new Transport.Plain(channel);
+        } catch (final IOException ex) {
+            if (isOpen()) {
+                Main.logger.log(Level.INFO, String.format("TLS handshake with client #%d failed", id));
+                this.callback.onConnectionFailure(String.format("TLS handshake with client #%d failed: %s", id, ex.getMessage()));
+            }
+            try {
+                channel.close();
+            } catch (final IOException ex2) {
+                Main.logger.log(Level.SEVERE, "Failed to cleanup client connection from server site!");
+            }
+            return;
+        }
 
-            this.callback.onNewClient(this.theClient);
+        final Client client = new Client(id, transport, listener);
+        // note(nschultz): The verifier and the normal mode look at the bytes on the java heap, the rest never does
+        client.readBuffer = (this.mode == Mode.NORMAL || this.mode == Mode.VERIFY ? BufferPool.heap() : BufferPool.direct()).adaptive(this.settings);
+        if (this.mode == Mode.VERIFY) {
+            client.verifier = new Payload.Verifier();
+            this.verifiers.add(client.verifier);
+        }
+        if (this.impairment != null && this.mode == Mode.NORMAL) impair(client, this.impairment);
+        if (this.heartbeat  != null && this.mode == Mode.NORMAL) watch(client, this.heartbeat);
+        this.transcript.nameConnection(client.id, client.toString());
+        this.clients.add(client);
+        listener.connected.incrementAndGet();
+        if (!isOpen()) closeClient(client); // note(nschultz): teardown() during the handshake, the read below fails right away
+        this.callback.onNewClient(client);
 
+        try {
+            if (this.mode == Mode.NORMAL) {
+                serveNormal(client);
+            } else {
+                serveBuiltIn(client);
+            }
+            Main.logger.log(Level.INFO, String.format("Connection has been closed from '%s'", client.address));
         } catch (final IOException ex) {
-            Main.logger.log(Level.INFO, String.format("Failed to wait for client on port '%s'", this.port));
-            this.callback.onConnectionFailure(ex.getMessage());
+            if (!client.transport.isOpen()) {
+                // note(nschultz): We closed it ourselves (teardown() or closeClient()), nothing to report
+            } else {
+                Main.logger.log(Level.INFO, String.format("Failed to read data from client '%s'", client.address));
+                this.callback.onConnectionFailure(ex.getMessage());
+            }
+        }
+
+        if (client.monitor != null) client.monitor.stop();
+        client.readBuffer.release();
+        if (this.clients.remove(client)) {
+            client.listener.connected.decrementAndGet();
+            closeClient(client);
+            this.callback.onClientLost(client);
+        }
+    }
+
+    // note(nschultz): Returns once the client has closed its side
+    private void serveNormal(final Client client) throws IOException {
+        final BufferPool.Adaptive buffer = client.readBuffer;
+        for (;;) {
+            final long mark = AllocationProfile.begin();
+            final ByteBuffer buf = buffer.buffer();
+            final int readBytes = client.transport.read(buf);
+            if (readBytes == -1) return;
+
+            client.countRead(readBytes);
+            this.transcript.append(client.id, Transcript.IN, buf.array(), 0, readBytes);
+            if (client.monitor != null) client.monitor.received(buf.array(), 0, readBytes);
+            if (client.inPipe != null) {
+                client.inPipe.throttle(readBytes);
+                client.inPipe.submit(ByteBuffer.wrap(java.util.Arrays.copyOf(buf.array(), readBytes))); // note(nschultz): The pipe holds on to it
+            } else {
+                this.callback.onIncomingData(client, new String(buf.array(), 0, readBytes, StandardCharsets.UTF_8)); // todo(nschultz): encoding
+            }
+            this.profile.received.end(mark, 1);
+            buffer.adapt(readBytes);
+        }
+    }
+
+    // note(nschultz): Same as on the client side, outgoing bytes are only counted once the pipe actually wrote them
+    private void impair(final Client client, final Impairment impairment) {
+        impairment.prepare(client.transport.channel());
+        client.outPipe = impairment.newPipe(Impairment.OUT, client.id, new Impairment.Sink() {
+            @Override public void accept(final ByteBuffer segment) throws IOException {
+                final int written = client.transport.write(segment);
+                ServerConHandler.this.stats.bytesOut.add(written);
+                client.stats.bytesOut.add(written);
+                client.listener.stats.bytesOut.add(written);
+            }
+            @Override public void failed(final IOException ex) {
+                if (!client.transport.isOpen()) return;
+                Main.logger.log(Level.INFO, String.format("Failed to write data to '%s'", client.address));
+                ServerConHandler.this.callback.onConnectionFailure(ex.getMessage());
+                closeClient(client); // note(nschultz): The reading thread will notice and call 'onClientLost'
+            }
+        });
+        client.inPipe = impairment.newPipe(Impairment.IN, client.id, new Impairment.Sink() {
+            @Override public void accept(final ByteBuffer segment) {
+                ServerConHandler.this.callback.onIncomingData(client, StandardCharsets.UTF_8.decode(segment).toString()); // todo(nschultz): encoding
+            }
+            @Override public void failed(final IOException ex) {
+                assert false : "Delivering to the callback does not fail";
+            }
+        });
+    }
+
+    // note(nschultz): null unless the server is open with an impairment
+    public Impairment impairment() {
+        return this.impairment;
+    }
+
+    // note(nschultz): Beats are queued like any other send, a stale client is closed the same way
+    // a failed write closes it, the reading thread notices and reports 'onClientLost'.
+    private void watch(final Client client, final Heartbeat heartbeat) {
+        client.monitor = heartbeat.monitor(client.toString(), new Heartbeat.Peer() {
+            @Override public void send(final String data) {
+                if (isOpen() && client.transport.isOpen()) ServerConHandler.this.send(java.util.List.of(client), data);
+            }
+            @Override public void stale(final String reason, final boolean close) {
+                if (!client.transport.isOpen()) return;
+                ServerConHandler.this.callback.onConnectionFailure(String.format("client %s is stale, %s%s", client, reason, close ? "" : " (flagged only)"));
+                if (close) closeClient(client);
+            }
+        });
+    }
+
+    // note(nschultz): null unless the server is open with heartbeats or an idle timeout
+    public Heartbeat heartbeat() {
+        return this.heartbeat;
+    }
+
+    // note(nschultz): Fast path for the built-in server personalities. Runs until the client is gone.
+    // Nothing in here decodes a string or touches the callback, the only output are the counters
+    // (every read and write goes through 'countRead'/'countWrite'). The buffers are direct and come from the pool so the bytes never get copied
+    // onto the java heap (unless TLS is on, the engine has to see them anyway).
+    private void serveBuiltIn(final Client client) throws IOException {
+        final Transport transport = client.transport;
+        final BufferPool.Adaptive buffer = client.readBuffer;
+
+        switch (this.mode) {
+            case ECHO -> {
+                for (;;) {
+                    final ByteBuffer buf = buffer.buffer();
+                    final int readBytes = transport.read(buf);
+                    if (readBytes == -1) return;
+                    client.countRead(readBytes);
+
+                    buf.flip();
+                    final int written = transport.write(buf);
+                    client.countWrite(written);
+                    buffer.adapt(readBytes);
+                }
+            }
+            case DISCARD -> {
+                for (;;) {
+                    final ByteBuffer buf = buffer.buffer();
+                    final int readBytes = transport.read(buf);
+                    if (readBytes == -1) return;
+                    client.countRead(readBytes);
+                    buffer.adapt(readBytes);
+                }
+            }
+            case VERIFY -> {
+                final Payload.Verifier verifier = client.verifier;
+                for (;;) {
+                    final ByteBuffer buf = buffer.buffer();
+                    final int readBytes = transport.read(buf);
+                    if (readBytes == -1) return;
+                    client.countRead(readBytes);
+                    verifier.feed(buf.array(), 0, readBytes);
+                    buffer.adapt(readBytes);
+                }
+            }
+            case DUPLEX -> {
+                // note(nschultz): Our writer sends counter records on its own thread no matter what the client does,
+                // the reading half is DISCARD. Whatever the writer still manages after the client left is not in the totals.
+                final DuplexLoad load = new DuplexLoad(client.toString(), 0, Payload.Generator.parse("counter:" + Math.max(0, this.settings.bufSize - Payload.HEADER - Payload.TRAILER)), data -> {
+                    try {
+                        final int written = transport.write(ByteBuffer.wrap(data));
+                        client.countWrite(written);
+                        return true;
+                    } catch (final IOException ex) {
+                        return false; // note(nschultz): The client is gone, the reading half finds out as well
+                    }
+                });
+                client.duplex = load;
+                load.start();
+                try {
+                    for (;;) {
+                        final ByteBuffer buf = buffer.buffer();
+                        final int readBytes = transport.read(buf);
+                        if (readBytes == -1) return;
+                        client.countRead(readBytes);
+                        load.received(readBytes);
+                        buffer.adapt(readBytes);
+                    }
+                } finally {
+                    load.stop();
+                    this.duplexTotals.add(load);
+                }
+            }
+            case CHARGEN -> {
+                // note(nschultz): Input is ignored as described in RFC 864. We notice that the client is gone
+                // once the write fails, which surfaces as an IOException and is therefore not an error here.
+                final ByteBuffer pattern = chargenPattern();
+                try {
+                    for (;;) {
+                        pattern.rewind();
+                        final int written = transport.write(pattern);
+                        client.countWrite(written);
+                    }
+                } catch (final IOException ex) {
+                    return;
+                }
+            }
+            default -> {
+                assert false : this.mode;
+            }
+        }
+    }
+
+    // note(nschultz): The classic RFC 864 rotating pattern. 95 printable characters, lines of 72 of them
+    // each shifted by one, terminated with CR LF. After 95 lines the pattern repeats, so we
+    // build one full cycle up front and just keep writing it out.
+    private static ByteBuffer chargenPattern() {
+        final int printable = 95;
+        final int lineLen   = 72;
+        final ByteBuffer pattern = ByteBuffer.allocateDirect(printable * (lineLen + 2));
+        for (int line = 0; line < printable; ++line) {
+            for (int i = 0; i < lineLen; ++i) {
+                pattern.put((byte) (' ' + ((line + i) % printable)));
+            }
+            pattern.put((byte) '\r');
+            pattern.put((byte) '\n');
         }
+        pattern.flip();
+        return pattern;
     }
 
     public void start(final int port) {
         assert port >= 1 && port <= 65535;
 
-        this.port = port;
+        start(String.valueOf(port));
+    }
+
+    // note(nschultz): 'listen' is a port or 'unix:<path>' for a unix domain socket
+    public void start(final String listen) {
+        assert listen != null;
+
+        this.listen   = listen;
+        this.settings = Settings.snapshot();
+
+        Network.execute("ServerConHandlerThread", this);
+    }
 
-        final Thread thread = new Thread(this);
-        thread.setName("ServerConHandlerThread");
-        thread.setDaemon(true);
-        thread.start();
+    // note(nschultz): What the server runs (or last ran) with
+    public Settings.Snapshot settings() {
+        return this.settings;
     }
 
     public boolean isOpen() {
         // todo(nschultz): Check if port is in use, ideally by this very process
-        return this.serverSocket != null;
+        return this.acceptors != null;
     }
 
-    public boolean hasClient() {
-        if (this.theClient != null) {
-            try {
-                this.theClient.getInputStream();
-                this.theClient.getOutputStream();
-                return true;
-            } catch (final IOException ex) {
-                return false;
-            }
-        } else {
-            return false;
+    // note(nschultz): What the server accepts with (or last accepted with), one entry per thread
+    public java.util.List<Acceptor> acceptors() {
+        return this.lastAcceptors;
+    }
+
+    // note(nschultz): Same idea as Stats.sample, the rate is relative to the previous call
+    public synchronized String acceptSample() {
+        final long now     = System.nanoTime();
+        final long accepts = this.accepts.sum();
+        final double secs  = Math.max(1, now - this.lastSampleNanos) / 1_000_000_000.0;
+        final double rate  = (accepts - this.lastSampleAccepts) / secs;
+
+        this.lastSampleNanos   = now;
+        this.lastSampleAccepts = accepts;
+
+        return String.format("accepts %d (%.0f/s)", accepts, rate);
+    }
+
+    // note(nschultz): Empty unless the server runs (or last ran) in VERIFY mode and had clients
+    public java.util.List<Payload.Verifier> verifiers() {
+        return java.util.List.copyOf(this.verifiers);
+    }
+
+    // note(nschultz): Empty unless the server runs (or last ran) in DUPLEX mode and clients have left
+    public DuplexLoad.Totals duplexTotals() {
+        return this.duplexTotals;
+    }
+
+    public String acceptReport() {
+        final java.util.List<Acceptor> acceptors = this.lastAcceptors;
+        final long closed  = this.closedNanos;
+        final long elapsed = (closed != 0 ? closed : System.nanoTime()) - this.openedNanos;
+        final long accepts = this.accepts.sum();
+
+        final StringBuilder sb = new StringBuilder();
+        sb.append(String.format("Accepts: %d in %s (%.0f/s), %d acceptor(s)%n", accepts, Histogram.formatNanos(elapsed),
+                                accepts / Math.max(1e-9, elapsed / 1_000_000_000.0), acceptors.size()));
+        sb.append(String.format("  accept wait: %s%n", this.acceptWait.summary()));
+        sb.append(String.format("  hand off:    %s%n", this.handoff.summary()));
+        for (final Acceptor acceptor : acceptors) {
+            sb.append(String.format("  acceptor %d: %d accepted, peak %d/s%n", acceptor.index, acceptor.accepted.sum(), acceptor.peakPerSecond));
         }
+        return sb.toString();
+    }
+
+    // note(nschultz): Everything the server listens on (or last listened on), in the order of the spec
+    public java.util.List<Listener> listeners() {
+        return this.listeners;
+    }
+
+    // note(nschultz): One line per port, only worth printing with more than one
+    public String listenerReport() {
+        final StringBuilder sb = new StringBuilder();
+        sb.append(String.format("Listeners: %d%n", this.listeners.size()));
+        for (final Listener listener : this.listeners) {
+            sb.append(String.format("  %s: %d accepted, %d connected, in %s, out %s%n", listener.endpoint,
+                                    listener.accepted.sum(), listener.connected.get(),
+                                    Stats.formatBytes(listener.stats.bytesIn.sum()), Stats.formatBytes(listener.stats.bytesOut.sum())));
+        }
+        return sb.toString();
+    }
+
+    public boolean hasClient() {
+        return !this.clients.isEmpty();
+    }
+
+    public java.util.List<Client> clients() {
+        return Collections.unmodifiableList(this.clients);
     }
 
     public void send(final String data) {
-        assert isOpen() && hasClient();
+        send(this.clients, data);
+    }
 
-        try {
-            final OutputStream out = this.theClient.getOutputStream();
-            out.write(data.getBytes(StandardCharsets.UTF_8)); // todo(nschultz): encoding
-            out.flush();
-        } catch (final IOException ex) {
-            Main.logger.log(Level.INFO, String.format("Failed to write data to '%s:%s'", this.theClient.getInetAddress(), this.theClient.getPort()));
-            this.callback.onConnectionFailure(ex.getMessage());
-            teardown();
+    // note(nschultz): The payload is encoded exactly once. Every target gets its own read-only view
+    // (own position and limit) onto the same bytes, so fanning out to a thousand clients
+    // costs a thousand tiny ByteBuffer headers and not a thousand copies.
+    //
+    // A send to every client is one BROADCAST entry in the transcript, a send to some of them
+    // is one entry per client, so the transcript says who actually got it.
+    public void send(final Collection<Client> targets, final String data) {
+        assert isOpen();
+        assert targets != null;
+        assert data != null;
+
+        if (targets.isEmpty()) return;
+        final long mark = AllocationProfile.begin();
+        final byte[] bytes = data.getBytes(StandardCharsets.UTF_8); // todo(nschultz): encoding
+        final ByteBuffer payload = ByteBuffer.wrap(bytes).asReadOnlyBuffer();
+        final long enqueuedNanos = System.nanoTime();
+        if (targets == this.clients && targets.size() > 1) {
+            this.transcript.append(Transcript.BROADCAST, Transcript.OUT, bytes, 0, bytes.length);
+        } else {
+            for (final Client target : targets) {
+                this.transcript.append(target.id, Transcript.OUT, bytes, 0, bytes.length);
+            }
         }
+        for (final Client target : targets) {
+            target.enqueue(payload.duplicate(), enqueuedNanos);
+        }
+        this.profile.sent.end(mark, 1);
     }
 
-    private void closeClient() {
+    private void closeClient(final Client client) {
         try {
-            this.theClient.close();
-            this.theClient = null;
+            client.transport.close();
         } catch (final IOException ex) {
             Main.logger.log(Level.SEVERE, "Failed to cleanup client connection from server site!");
             // todo(nschultz): panic?
@@ -174,29 +597,219 @@ public final class ServerConHandler implements Runnable {
     public void teardown() {
         if (!isOpen()) return;
 
-        try {
-            this.serverSocket.close();
-            this.serverSocket = null;
-            if (hasClient()) {
-                closeClient();
-            }
-            Runtime.getRuntime().gc();
-            Runtime.getRuntime().runFinalization();
-            this.callback.onClose();
-        } catch (final IOException ex) {
-            Main.logger.log(Level.SEVERE, "Failed to cleanup server connection!");
-            // todo(nschultz): panic?
+        final java.util.List<Acceptor> acceptors = this.acceptors;
+        this.acceptors   = null;
+        this.closedNanos = System.nanoTime();
+        close(acceptors, this.listeners); // note(nschultz): Wakes up the acceptors, which then see that we are closed
+        for (final Client client : this.clients) {
+            closeClient(client); // note(nschultz): The reading threads will notice and call 'onClientLost'
+        }
+        this.callback.onClose();
+    }
+
+    // note(nschultz): One port (or socket path) of the server. Traffic is counted here as well as on the
+    // server and the client, accepted counts every client the port ever had.
+    public static final class Listener {
+
+        public final String endpoint;
+        public final Stats stats = new Stats();
+        public final LongAdder accepted = new LongAdder();
+        public final AtomicInteger connected = new AtomicInteger(0);
+
+        private final ArrayList<ServerSocketChannel> channels = new ArrayList<>(); // note(nschultz): One per acceptor for TCP, filled before publishing
+
+        private Listener(final String endpoint) {
+            this.endpoint = endpoint;
+        }
+
+        @Override
+        public String toString() {
+            return this.endpoint;
+        }
+    }
+
+    // note(nschultz): One accept thread of the server. The per second bookkeeping is only ever touched by
+    // that thread, 'peakPerSecond' is the busiest second so far.
+    public static final class Acceptor {
+
+        public final int index;
+        public final LongAdder accepted = new LongAdder();
+        public volatile long peakPerSecond = 0;
+
+        private final Selector selector;
+        private long second = 0;
+        private long inSecond = 0;
+
+        private Acceptor(final int index, final Selector selector) {
+            this.index    = index;
+            this.selector = selector;
+        }
+
+        private void count(final long nanos) {
+            this.accepted.increment();
+            final long now = nanos / 1_000_000_000L;
+            if (now != this.second) {
+                this.second   = now;
+                this.inSecond = 0;
+            }
+            if (++this.inSecond > this.peakPerSecond) this.peakPerSecond = this.inSecond;
         }
     }
 
+    public final class Client {
+
+        public final int id;
+        public final String address;
+        public final Listener listener; // note(nschultz): The port it connected to
+        public final Stats stats = new Stats();
+
+        // note(nschultz): Written by the writer pool, read by the UI. Lag is measured
+        // from the moment 'send' was called until the last byte was handed to the kernel.
+        public volatile long lastWriteLagNanos = 0;
+        public volatile long maxWriteLagNanos  = 0;
+        public final AtomicInteger pendingWrites = new AtomicInteger(0);
+
+        private final Transport transport;
+        private Impairment.Pipe inPipe  = null; // note(nschultz): Set before the client is published
+        private Impairment.Pipe outPipe = null;
+        private Heartbeat.Monitor monitor = null; // note(nschultz): Same
+        private Payload.Verifier verifier = null; // note(nschultz): Same, VERIFY mode only
+        private volatile DuplexLoad duplex = null; // note(nschultz): DUPLEX mode only, set once serving starts
+        private BufferPool.Adaptive readBuffer = null; // note(nschultz): Set before the client is published
+        private final ConcurrentLinkedQueue<PendingWrite> queue = new ConcurrentLinkedQueue<>();
+        private final AtomicBoolean draining = new AtomicBoolean(false);
+
+        private Client(final int id, final Transport transport, final Listener listener) {
+            assert transport != null;
+            assert listener  != null;
+
+            this.id        = id;
+            this.listener  = listener;
+            this.transport = transport;
+            this.address   = Resolver.remote(transport.channel());
+        }
+
+        // note(nschultz): 'plain' or the TLS protocol, cipher suite and handshake details
+        public String describeTransport() {
+            return this.transport.describe();
+        }
+
+        // note(nschultz): null unless the server runs in VERIFY mode
+        public Payload.Verifier verifier() {
+            return this.verifier;
+        }
+
+        // note(nschultz): null unless the server runs in DUPLEX mode
+        public DuplexLoad duplex() {
+            return this.duplex;
+        }
+
+        // note(nschultz): The size it reads with right now, how often it changed and how big it got
+        public BufferPool.Adaptive readBuffer() {
+            return this.readBuffer;
+        }
+
+        // note(nschultz): One read (write) counted for the server, the client and the port it came in on
+        private void countRead(final int bytes) {
+            ServerConHandler.this.stats.read(bytes);
+            this.stats.read(bytes);
+            this.listener.stats.read(bytes);
+        }
+
+        private void countWrite(final int bytes) {
+            ServerConHandler.this.stats.wrote(bytes);
+            this.stats.wrote(bytes);
+            this.listener.stats.wrote(bytes);
+        }
+
+        // note(nschultz): Only ever true with a heartbeat spec that flags instead of closing
+        public boolean isStale() {
+            return this.monitor != null && this.monitor.isStale();
+        }
+
+        // note(nschultz): Writes for one client have to go out in order, but the pool has many threads.
+        // So at most one drain task per client is scheduled at a time and it keeps going until the
+        // queue is empty. Different clients drain in parallel.
+        private void enqueue(final ByteBuffer buf, final long enqueuedNanos) {
+            this.pendingWrites.incrementAndGet();
+            this.queue.add(new PendingWrite(buf, enqueuedNanos));
+            scheduleDrain();
+        }
+
+        private void scheduleDrain() {
+            if (this.draining.compareAndSet(false, true)) {
+                Network.execute("ServerConHandlerWriterThread-" + this.id, this::drain); // note(nschultz): Writes after a teardown fail and clear the queue
+            }
+        }
+
+        private void drain() {
+            PendingWrite write;
+            while ((write = this.queue.poll()) != null) {
+                final long mark = AllocationProfile.begin();
+                try {
+                    if (this.outPipe != null) {
+                        this.outPipe.submit(write.buf); // note(nschultz): The sink counts the bytes, the lag only covers the hand off
+                        countWrite(0);
+                    } else {
+                        countWrite(this.transport.write(write.buf));
+                    }
+
+                    final long lag = System.nanoTime() - write.enqueuedNanos;
+                    this.lastWriteLagNanos = lag;
+                    if (lag > this.maxWriteLagNanos) this.maxWriteLagNanos = lag;
+                } catch (final IOException ex) {
+                    // note(nschultz): Dropped writes are not pending anymore either
+                    while (this.queue.poll() != null) {
+                        this.pendingWrites.decrementAndGet();
+                    }
+                    if (this.transport.isOpen()) {
+                        Main.logger.log(Level.INFO, String.format("Failed to write data to '%s'", this.address));
+                        ServerConHandler.this.callback.onConnectionFailure(ex.getMessage());
+                        closeClient(this); // note(nschultz): The reading thread will notice and call 'onClientLost'
+                    }
+                }
+                this.pendingWrites.decrementAndGet();
+                ServerConHandler.this.profile.sent.end(mark, 0); // note(nschultz): Counted once by 'send'
+            }
+
+            this.draining.set(false);
+            // note(nschultz): Someone may have enqueued after our last poll but before we released the flag
+            if (!this.queue.isEmpty()) scheduleDrain();
+        }
+
+        @Override
+        public String toString() {
+            return String.format("#%d %s", this.id, this.address);
+        }
+    }
+
+    private static final class PendingWrite {
+
+        final ByteBuffer buf;
+        final long enqueuedNanos;
+
+        PendingWrite(final ByteBuffer buf, final long enqueuedNanos) {
+            this.buf           = buf;
+            this.enqueuedNanos = enqueuedNanos;
+        }
+    }
+
+    public enum Mode {
+        NORMAL,  // note(nschultz): Everything goes through the callback, decoded as string
+        ECHO,    // note(nschultz): RFC 862, every read is written straight back
+        DISCARD, // note(nschultz): RFC 863, count and drop
+        CHARGEN, // note(nschultz): RFC 864, stream a character pattern as fast as the peer takes it
+        VERIFY,  // note(nschultz): Like DISCARD, but everything received is checked as Payload records
+        DUPLEX;  // note(nschultz): DISCARD plus a writer that sends as fast as it can at the same time, see DuplexLoad
+    }
+
     public interface Callback {
 
         public void onOpen();
-        public void onNewClient(final Socket client);
-        public void onClientLost(final Socket client);
-        public void onIncomingData(final String data);
+        public void onNewClient(final Client client);
+        public void onClientLost(final Client client);
+        public void onIncomingData(final Client client, final String data);
         public void onConnectionFailure(final String reason);
         public void onClose();
     }
 }
-
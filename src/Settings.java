@@ -20,12 +20,57 @@ public final class Settings {
 
     public static volatile boolean wrapInStxEtx       = false;
     public static volatile boolean insertNewLine      = true;
-    public static volatile int     bufSize            = 4096; // note(nschultz) a page I guess
+    public static volatile int     bufSize            = 4096; // note(nschultz) a page I guess, where every connection's read buffer starts
+    public static volatile int     bufSizeMin         = 512;  // note(nschultz): The bounds it adapts within, see BufferPool
+    public static volatile int     bufSizeMax         = 256 * 1024;
     public static volatile String  conditionalAnswer  = "";
     public static volatile String  macro              = "PING";
     public static volatile String  msgOnConEst        = "";
+    public static volatile ServerConHandler.Mode serverMode = ServerConHandler.Mode.NORMAL;
+    public static volatile int     transcriptLimitMiB = 512; // note(nschultz): Per session and counted packed, oldest segments are dropped first
+    public static volatile boolean allocationProfiling = false; // note(nschultz): See AllocationProfile
+    public static volatile boolean clientTls          = false;
+    public static volatile boolean serverTls          = false; // note(nschultz): Needs a keystore
+    public static volatile String  tlsKeyStore        = "";   // note(nschultz): PKCS12 or JKS file with our own key and certificate
+    public static volatile String  tlsKeyStorePassword = "";
+    public static volatile String  tlsTrustStore      = "";   // note(nschultz): Empty means the JDK default trust store
+    public static volatile String  tlsTrustStorePassword = "";
+    public static volatile String  impairment         = ""; // note(nschultz): See Impairment, e.g. 'delay=40ms jitter=10ms split=1..16'
+    public static volatile String  heartbeat          = ""; // note(nschultz): See Heartbeat, e.g. 'send=PING\n every=5s expect=PONG within=1s idle=30s'
+    public static volatile int     serverAcceptors    = 1;  // note(nschultz): More than one needs SO_REUSEPORT, see ServerConHandler
+    public static volatile BusyPoll.Mode clientReceive = BusyPoll.Mode.BLOCKING; // note(nschultz): See BusyPoll, plain connections only
 
     private Settings() {
         assert false;
     }
+
+    public static Snapshot snapshot() {
+        return new Snapshot();
+    }
+
+    // note(nschultz): Every session takes one of these when it connects or opens and sticks to it, so changing
+    // the settings only affects sessions started afterwards and two sessions can run side by side with
+    // different settings. The TLS stores, the transcript limit and the allocation profiling switch are
+    // not part of it, those are process wide.
+    public static final class Snapshot {
+
+        public final boolean wrapInStxEtx      = Settings.wrapInStxEtx;
+        public final boolean insertNewLine     = Settings.insertNewLine;
+        public final int     bufSize           = Settings.bufSize;
+        public final int     bufSizeMin        = Settings.bufSizeMin;
+        public final int     bufSizeMax        = Settings.bufSizeMax;
+        public final String  conditionalAnswer = Settings.conditionalAnswer;
+        public final String  macro             = Settings.macro;
+        public final String  msgOnConEst       = Settings.msgOnConEst;
+        public final ServerConHandler.Mode serverMode = Settings.serverMode;
+        public final boolean clientTls         = Settings.clientTls;
+        public final boolean serverTls         = Settings.serverTls;
+        public final String  impairment        = Settings.impairment;
+        public final String  heartbeat         = Settings.heartbeat;
+        public final int     serverAcceptors   = Settings.serverAcceptors;
+        public final BusyPoll.Mode clientReceive = Settings.clientReceive;
+
+        private Snapshot() {
+        }
+    }
 }
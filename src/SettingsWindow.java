@@ -50,6 +50,21 @@ public final class SettingsWindow {
             model.addRow(new Object[]{"If message X answer Y",    String.valueOf(Settings.conditionalAnswer)});
             model.addRow(new Object[]{"Macro F5",                 String.valueOf(Settings.macro)});
             model.addRow(new Object[]{"Message on establishment", String.valueOf(Settings.msgOnConEst)});
+            model.addRow(new Object[]{"Server mode",              Settings.serverMode.name().toLowerCase()});
+            model.addRow(new Object[]{"Transcript limit (MiB)",   String.valueOf(Settings.transcriptLimitMiB)});
+            model.addRow(new Object[]{"Allocation profiling",     String.valueOf(Settings.allocationProfiling)});
+            model.addRow(new Object[]{"Client TLS",               String.valueOf(Settings.clientTls)});
+            model.addRow(new Object[]{"Server TLS",               String.valueOf(Settings.serverTls)});
+            model.addRow(new Object[]{"TLS keystore",             Settings.tlsKeyStore});
+            model.addRow(new Object[]{"TLS keystore password",    Settings.tlsKeyStorePassword});
+            model.addRow(new Object[]{"TLS truststore",           Settings.tlsTrustStore});
+            model.addRow(new Object[]{"TLS truststore password",  Settings.tlsTrustStorePassword});
+            model.addRow(new Object[]{"Impairment",               Settings.impairment});
+            model.addRow(new Object[]{"Heartbeat / idle timeout", Settings.heartbeat});
+            model.addRow(new Object[]{"Server acceptor threads",  String.valueOf(Settings.serverAcceptors)});
+            model.addRow(new Object[]{"Client receive",           Settings.clientReceive.name().toLowerCase()});
+            model.addRow(new Object[]{"Reading buffer min",       String.valueOf(Settings.bufSizeMin)});
+            model.addRow(new Object[]{"Reading buffer max",       String.valueOf(Settings.bufSizeMax)});
         }
 
         final JTable table = new JTable(model);
@@ -66,6 +81,21 @@ public final class SettingsWindow {
             final String  cond    = (String) model.getValueAt(3, 1);
             final String  macro   = (String) model.getValueAt(4, 1);
             final String  onEst   = (String) model.getValueAt(5, 1);
+            final ServerConHandler.Mode serverMode = ServerConHandler.Mode.valueOf(((String) model.getValueAt(6, 1)).strip().toUpperCase());
+            final int     transcriptLimit = Integer.parseInt(((String) model.getValueAt(7, 1)).strip());
+            final boolean allocProfiling  = Boolean.parseBoolean(((String) model.getValueAt(8, 1)).strip());
+            final boolean clientTls       = Boolean.parseBoolean(((String) model.getValueAt(9, 1)).strip());
+            final boolean serverTls       = Boolean.parseBoolean(((String) model.getValueAt(10, 1)).strip());
+            final String  keyStore        = ((String) model.getValueAt(11, 1)).strip();
+            final String  keyStorePass    = (String) model.getValueAt(12, 1);
+            final String  trustStore      = ((String) model.getValueAt(13, 1)).strip();
+            final String  trustStorePass  = (String) model.getValueAt(14, 1);
+            final String  impairment      = ((String) model.getValueAt(15, 1)).strip();
+            final String  heartbeat       = ((String) model.getValueAt(16, 1)).strip();
+            final int     acceptors       = Integer.parseInt(((String) model.getValueAt(17, 1)).strip());
+            final BusyPoll.Mode receive   = BusyPoll.Mode.valueOf(((String) model.getValueAt(18, 1)).strip().toUpperCase());
+            final int     bufSizeMin      = Integer.parseInt(((String) model.getValueAt(19, 1)).strip());
+            final int     bufSizeMax      = Integer.parseInt(((String) model.getValueAt(20, 1)).strip());
 
             // note(nschultz): apply settings
             // todo(nschultz): save to file
@@ -75,6 +105,21 @@ public final class SettingsWindow {
             Settings.conditionalAnswer = cond;
             Settings.macro             = macro;
             Settings.msgOnConEst       = onEst;
+            Settings.serverMode        = serverMode;
+            Settings.transcriptLimitMiB = transcriptLimit;
+            Settings.allocationProfiling = allocProfiling;
+            Settings.clientTls         = clientTls;
+            Settings.serverTls         = serverTls;
+            Settings.tlsKeyStore       = keyStore;
+            Settings.tlsKeyStorePassword = keyStorePass;
+            Settings.tlsTrustStore     = trustStore;
+            Settings.tlsTrustStorePassword = trustStorePass;
+            Settings.impairment        = impairment;
+            Settings.heartbeat         = heartbeat;
+            Settings.serverAcceptors   = acceptors;
+            Settings.clientReceive     = receive;
+            Settings.bufSizeMin        = Math.min(bufSizeMin, bufSizeMax);
+            Settings.bufSizeMax        = Math.max(bufSizeMin, bufSizeMax);
 
             this.frame.dispose();
         });
@@ -166,6 +211,117 @@ public final class SettingsWindow {
                     // note(nschultz): we are good
                 }
             }
+
+            server_mode: {
+                // note(nschultz): normal, echo, discard, chargen, verify or duplex
+                final String serverMode = ((String) super.getValueAt(6, 1)).strip();
+                try {
+                    ServerConHandler.Mode.valueOf(serverMode.toUpperCase());
+                } catch (final IllegalArgumentException ex) {
+                    super.setValueAt("normal", 6, 1);
+                }
+            }
+
+            transcript_limit: {
+                final String limit = ((String) super.getValueAt(7, 1)).strip();
+                try {
+                    if (Integer.parseInt(limit) < 4) {
+                        super.setValueAt("4", 7, 1); // note(nschultz): At least one full segment
+                    }
+                } catch (final NumberFormatException ex) {
+                    super.setValueAt("512", 7, 1);
+                }
+            }
+
+            alloc_profiling: {
+                final String profiling = ((String) super.getValueAt(8, 1)).strip();
+                if (profiling.equalsIgnoreCase("true") || profiling.equalsIgnoreCase("false")) {
+                    // note(nschultz): we good
+                } else {
+                    super.setValueAt("false", 8, 1);
+                }
+            }
+
+            tls: {
+                for (int i = 9; i <= 10; ++i) {
+                    final String tls = ((String) super.getValueAt(i, 1)).strip();
+                    if (tls.equalsIgnoreCase("true") || tls.equalsIgnoreCase("false")) {
+                        // note(nschultz): we good
+                    } else {
+                        super.setValueAt("false", i, 1);
+                    }
+                }
+            }
+
+            tls_stores: {
+                // note(nschultz): Empty is fine, otherwise the file has to exist. Whether it is a valid store
+                // (and the password right) we only find out when the first connection is made.
+                for (final int i : new int[] {11, 13}) {
+                    final String path = ((String) super.getValueAt(i, 1)).strip();
+                    if (!path.isEmpty() && !new java.io.File(path).isFile()) {
+                        super.setValueAt("", i, 1);
+                    }
+                }
+            }
+
+            impairment: {
+                // note(nschultz): e.g. 'delay=40ms jitter=10ms rate=64KiB split=1..16 stall=1%/500ms dir=both'
+                try {
+                    Impairment.parse((String) super.getValueAt(15, 1));
+                } catch (final IllegalArgumentException ex) {
+                    super.setValueAt("", 15, 1);
+                }
+            }
+
+            heartbeat: {
+                // note(nschultz): e.g. 'send=PING\n every=5s expect=PONG within=1s idle=30s action=close'
+                try {
+                    Heartbeat.parse((String) super.getValueAt(16, 1));
+                } catch (final IllegalArgumentException ex) {
+                    super.setValueAt("", 16, 1);
+                }
+            }
+
+            acceptors: {
+                final String acceptors = ((String) super.getValueAt(17, 1)).strip();
+                try {
+                    final int acceptorsInt = Integer.parseInt(acceptors);
+                    if (acceptorsInt < 1) {
+                        super.setValueAt("1", 17, 1);
+                    } else if (acceptorsInt > ServerConHandler.MAX_ACCEPTORS) {
+                        super.setValueAt(String.valueOf(ServerConHandler.MAX_ACCEPTORS), 17, 1);
+                    }
+                } catch (final NumberFormatException ex) {
+                    super.setValueAt("1", 17, 1);
+                }
+            }
+
+            receive: {
+                // note(nschultz): blocking, spin or yield
+                final String receive = ((String) super.getValueAt(18, 1)).strip();
+                try {
+                    BusyPoll.Mode.valueOf(receive.toUpperCase());
+                } catch (final IllegalArgumentException ex) {
+                    super.setValueAt("blocking", 18, 1);
+                }
+            }
+
+            bufsize_bounds: {
+                // note(nschultz): Whichever is smaller is the minimum, see the save button
+                for (int i = 19; i <= 20; ++i) {
+                    final String bound = ((String) super.getValueAt(i, 1)).strip();
+                    try {
+                        final int boundInt = Integer.parseInt(bound);
+                        if (boundInt < BufferPool.MIN_SIZE) {
+                            super.setValueAt(String.valueOf(BufferPool.MIN_SIZE), i, 1);
+                        } else if (boundInt > BufferPool.MAX_SIZE) {
+                            super.setValueAt(String.valueOf(BufferPool.MAX_SIZE), i, 1);
+                        }
+                    } catch (final NumberFormatException ex) {
+                        super.setValueAt(i == 19 ? "512" : "262144", i, 1);
+                    }
+                }
+            }
         }
     }
 }
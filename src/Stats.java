@@ -0,0 +1,83 @@
+//
+// Copyright (c) 2022 Niklas Schultz
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+// documentation files (the "Software"), to deal in the Software without restriction,
+// including without limitation the rights to use, copy, modify, merge, publish, distribute,
+// sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so,
+// subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED
+// TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+// IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+// WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+// SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+//
+
+import java.util.concurrent.atomic.*;
+
+// note(nschultz): Plain traffic counters. Written by the network threads, read by whoever
+// wants to display them (usually a swing timer). LongAdder because the writers
+// should never have to fight over a cache line.
+public final class Stats {
+
+    public final LongAdder bytesIn  = new LongAdder();
+    public final LongAdder bytesOut = new LongAdder();
+    public final LongAdder reads    = new LongAdder();
+    public final LongAdder writes   = new LongAdder();
+
+    private long lastSampleNanos = System.nanoTime();
+    private long lastBytesIn     = 0;
+    private long lastBytesOut    = 0;
+
+    public void reset() {
+        this.bytesIn.reset();
+        this.bytesOut.reset();
+        this.reads.reset();
+        this.writes.reset();
+
+        synchronized (this) {
+            this.lastSampleNanos = System.nanoTime();
+            this.lastBytesIn     = 0;
+            this.lastBytesOut    = 0;
+        }
+    }
+
+    public void read(final int bytes) {
+        this.bytesIn.add(bytes);
+        this.reads.increment();
+    }
+
+    public void wrote(final int bytes) {
+        this.bytesOut.add(bytes);
+        this.writes.increment();
+    }
+
+    // note(nschultz): Rates are computed relative to the previous call, so only one
+    // consumer should be sampling a given Stats instance.
+    public synchronized String sample() {
+        final long now      = System.nanoTime();
+        final long in       = this.bytesIn.sum();
+        final long out      = this.bytesOut.sum();
+        final double secs   = Math.max(1, now - this.lastSampleNanos) / 1_000_000_000.0;
+        final double inRate  = (in  - this.lastBytesIn)  / secs;
+        final double outRate = (out - this.lastBytesOut) / secs;
+
+        this.lastSampleNanos = now;
+        this.lastBytesIn     = in;
+        this.lastBytesOut    = out;
+
+        return String.format("in %s (%s/s, %d reads) | out %s (%s/s, %d writes)",
+                             formatBytes(in),  formatBytes((long) inRate),  this.reads.sum(),
+                             formatBytes(out), formatBytes((long) outRate), this.writes.sum());
+    }
+
+    public static String formatBytes(final long bytes) {
+        if (bytes < 1024)               return bytes + " B";
+        if (bytes < 1024 * 1024)        return String.format("%.1f KiB", bytes / 1024.0);
+        if (bytes < 1024 * 1024 * 1024) return String.format("%.1f MiB", bytes / (1024.0 * 1024.0));
+        return String.format("%.2f GiB", bytes / (1024.0 * 1024.0 * 1024.0));
+    }
+}
@@ -0,0 +1,664 @@
+//
+// Copyright (c) 2022 Niklas Schultz
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+// documentation files (the "Software"), to deal in the Software without restriction,
+// including without limitation the rights to use, copy, modify, merge, publish, distribute,
+// sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so,
+// subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED
+// TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+// IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+// WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+// SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+//
+
+import java.awt.*;
+import java.awt.event.*;
+import java.text.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import javax.swing.*;
+
+// note(nschultz): Every read and write of the transcript on a time axis, drawn as a bar at the moment it was
+// recorded: received above the middle line, sent below. The dark bar is the largest single read in the
+// pixel column, the light one behind it everything the column took together, both on a log scale. So one
+// message that arrived in twelve reads shows up as twelve small bars once zoomed in. Green ticks on the
+// middle line mark message boundaries (new lines or ETX) inside a read, red spans are silences of at least
+// the chosen gap between two consecutive frames, that is where Nagle, delayed ACKs and bursty senders show.
+//
+// The indexer thread copies the frame metadata out of the transcript once (only the boundary scan looks at
+// the bytes) into chunks of CHUNK reads. Each chunk keeps summaries over 16, 256 and 4096 of its reads, so
+// painting only descends into a summary where it is wider than a pixel: a view over millions of reads costs
+// about as much as one over a few hundred. Chunks go when the transcript trims their frames or when there
+// are more than MAX_READS of them.
+//
+// While the view is not showing its timer is stopped and nothing is indexed.
+@SuppressWarnings("serial")
+public final class TimelineView extends JPanel {
+
+    private static final int CHUNK_BITS  = 12;
+    private static final int CHUNK       = 1 << CHUNK_BITS;
+    private static final int FANOUT_BITS = 4;
+    private static final int LEVELS      = CHUNK_BITS / FANOUT_BITS; // note(nschultz): Summaries over 16, 256 and 4096 reads
+    private static final int MAX_READS   = 4 * 1024 * 1024; // note(nschultz): ~15 bytes each, older reads are still in the transcript
+    private static final int BATCH       = 64 * 1024;       // note(nschultz): Frames per indexer round, the view repaints in between
+    private static final long MIN_SPAN   = 1_000;           // note(nschultz): Zooming in stops at 1 us over the whole width
+
+    private static final String[] GAP_NAMES = {"gaps >= 200 us", "gaps >= 1 ms", "gaps >= 10 ms", "gaps >= 40 ms", "gaps >= 200 ms"};
+    private static final long[]   GAP_NANOS = {200_000, 1_000_000, 10_000_000, 40_000_000, 200_000_000};
+
+    private static final Color IN_COLOR       = new Color(30, 60, 200);
+    private static final Color IN_TOTAL       = new Color(175, 190, 240);
+    private static final Color OUT_COLOR      = new Color(40, 40, 40);
+    private static final Color OUT_TOTAL      = new Color(195, 195, 195);
+    private static final Color GAP_COLOR      = new Color(255, 220, 220);
+    private static final Color GAP_MARK       = new Color(210, 40, 40);
+    private static final Color BOUNDARY_COLOR = new Color(20, 150, 40);
+
+    // note(nschultz): Shared by all timelines. Indexing is never urgent, the transcript keeps everything meanwhile.
+    private static final ExecutorService indexer = Executors.newSingleThreadExecutor(r -> {
+        final Thread thread = new Thread(r);
+        thread.setName("TimelineIndexerThread");
+        thread.setPriority(Thread.MIN_PRIORITY);
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final Transcript transcript;
+    private final javax.swing.Timer refreshTimer;
+    private final Plot plot = new Plot();
+    private final JComboBox<String> gapBox = new JComboBox<>(GAP_NAMES);
+    private final JComboBox<Boundary> boundaryBox = new JComboBox<>(Boundary.values());
+    private final JCheckBox followBox = new JCheckBox("Follow", true);
+    private final JLabel info = new JLabel(" ");
+    private final AtomicBoolean indexing = new AtomicBoolean(false);
+    private volatile Index index = new Index(Boundary.NEWLINE);
+
+    // note(nschultz): Event thread only. The visible range in transcript nanos, empty until there is something to show.
+    private long viewStart = 0;
+    private long viewEnd   = 0;
+    private boolean zoomed = false; // note(nschultz): Until the user zooms or pans we keep fitting everything in
+    private Render last = null; // note(nschultz): What was painted last, for the tooltips
+
+    public TimelineView(final Transcript transcript) {
+        super(new BorderLayout());
+        assert transcript != null;
+
+        this.transcript = transcript;
+
+        this.gapBox.setSelectedIndex(3); // note(nschultz): 40 ms, the classic delayed ACK timer
+        this.gapBox.addActionListener(e -> this.plot.repaint());
+        this.boundaryBox.addActionListener(e -> {
+            this.index = new Index((Boundary) this.boundaryBox.getSelectedItem()); // note(nschultz): Boundaries are counted while indexing
+            this.plot.repaint();
+            refresh();
+        });
+        this.followBox.addActionListener(e -> {
+            if (this.followBox.isSelected() && this.zoomed) follow();
+        });
+        final JButton fitButton = new JButton("Fit");
+        fitButton.addActionListener(e -> {
+            this.zoomed = false;
+            fit();
+        });
+
+        final JPanel tools = new JPanel(new FlowLayout(FlowLayout.LEFT, 6, 2));
+        tools.add(this.gapBox);
+        tools.add(this.boundaryBox);
+        tools.add(fitButton);
+        tools.add(this.followBox);
+        tools.add(this.info);
+        add(tools, BorderLayout.NORTH);
+        add(this.plot, BorderLayout.CENTER);
+
+        this.refreshTimer = new javax.swing.Timer(250, e -> refresh());
+        addHierarchyListener(e -> {
+            if ((e.getChangeFlags() & HierarchyEvent.SHOWING_CHANGED) != 0) {
+                if (isShowing()) {
+                    refresh();
+                    this.refreshTimer.start();
+                } else {
+                    this.refreshTimer.stop();
+                }
+            }
+        });
+    }
+
+    // note(nschultz): Starts the indexer if it is not running yet, it keeps going until it has caught up
+    public void refresh() {
+        assert EventQueue.isDispatchThread();
+
+        if (!this.indexing.compareAndSet(false, true)) return;
+        final Index index = this.index;
+        indexer.execute(() -> {
+            try {
+                while (index.catchUp(this.transcript, BATCH)) {
+                    EventQueue.invokeLater(this::indexed);
+                }
+            } catch (final RuntimeException ex) {
+                Main.logger.log(java.util.logging.Level.SEVERE, "Timeline indexing failed", ex);
+            } finally {
+                this.indexing.set(false);
+            }
+            EventQueue.invokeLater(this::indexed);
+        });
+    }
+
+    private void indexed() {
+        assert EventQueue.isDispatchThread();
+
+        final Index index = this.index;
+        this.info.setText(String.format("%,d reads/writes, %s per pixel", index.reads(), Histogram.formatNanos(nanosPerPixel())));
+        if (!this.zoomed || this.viewEnd <= this.viewStart) {
+            fit();
+        } else if (this.followBox.isSelected()) {
+            follow();
+        } else {
+            this.plot.repaint();
+        }
+    }
+
+    private long nanosPerPixel() {
+        return Math.max(1, (this.viewEnd - this.viewStart) / Math.max(1, this.plot.getWidth()));
+    }
+
+    private void fit() {
+        final Index index = this.index;
+        if (index.reads() == 0) return;
+        final long first = index.firstNanos();
+        final long last  = index.lastNanos();
+        final long pad   = Math.max(MIN_SPAN, (last - first) / 50);
+        setView(first - pad, last + pad);
+    }
+
+    // note(nschultz): Keeps the zoom and moves the right edge to the newest frame, only once the user zoomed in
+    private void follow() {
+        final Index index = this.index;
+        if (index.reads() == 0) return;
+        if (this.viewEnd <= this.viewStart) {
+            fit();
+            return;
+        }
+        final long span = this.viewEnd - this.viewStart;
+        final long end  = index.lastNanos() + span / 50;
+        setView(end - span, end);
+    }
+
+    private void setView(final long start, final long end) {
+        this.viewStart = start;
+        this.viewEnd   = Math.max(end, start + MIN_SPAN);
+        this.info.setText(String.format("%,d reads/writes, %s per pixel", this.index.reads(), Histogram.formatNanos(nanosPerPixel())));
+        this.plot.repaint();
+    }
+
+    public enum Boundary {
+        NEWLINE("boundaries: new line", '\n'),
+        ETX("boundaries: ETX", 0x03),
+        NONE("no boundaries", -1);
+
+        private final String label;
+        private final int terminator;
+
+        Boundary(final String label, final int terminator) {
+            this.label      = label;
+            this.terminator = terminator;
+        }
+
+        @Override
+        public String toString() {
+            return this.label;
+        }
+    }
+
+    // note(nschultz): One paint worth of pixel columns
+    private static final class Render {
+
+        final long start;
+        final double nanosPerColumn;
+        final int width;
+        final long gapNanos;
+        final long[] bytesIn;
+        final long[] bytesOut;
+        final int[]  readsIn;
+        final int[]  readsOut;
+        final int[]  maxIn;
+        final int[]  maxOut;
+        final int[]  boundaries;
+        final boolean[] gaps;
+        final IntList gapSpans = new IntList(); // note(nschultz): Pairs of first and last column
+        long prevMax = Long.MIN_VALUE;
+
+        Render(final long start, final long end, final int width, final long gapNanos) {
+            this.start          = start;
+            this.width          = width;
+            this.nanosPerColumn = (double) (end - start) / width;
+            this.gapNanos       = gapNanos;
+            this.bytesIn        = new long[width];
+            this.bytesOut       = new long[width];
+            this.readsIn        = new int[width];
+            this.readsOut       = new int[width];
+            this.maxIn          = new int[width];
+            this.maxOut         = new int[width];
+            this.boundaries     = new int[width];
+            this.gaps           = new boolean[width];
+        }
+
+        int column(final long nanos) {
+            final double x = (nanos - this.start) / this.nanosPerColumn;
+            return (int) Math.max(0, Math.min(this.width - 1, Math.floor(x)));
+        }
+
+        long nanos(final int column) {
+            return this.start + (long) (column * this.nanosPerColumn);
+        }
+
+        // note(nschultz): Nodes come in frame order, which is time order give or take the append lock
+        void gapTo(final long min, final long max, final long innerGap, final int column) {
+            if (this.prevMax != Long.MIN_VALUE && min - this.prevMax >= this.gapNanos) {
+                this.gapSpans.add(column(this.prevMax));
+                this.gapSpans.add(column);
+            }
+            if (innerGap >= this.gapNanos) this.gaps[column] = true;
+            this.prevMax = Math.max(this.prevMax, max);
+        }
+    }
+
+    private static final class IntList {
+
+        int[] values = new int[64];
+        int size = 0;
+
+        void add(final int value) {
+            if (this.size == this.values.length) this.values = Arrays.copyOf(this.values, this.size * 2);
+            this.values[this.size++] = value;
+        }
+    }
+
+    // note(nschultz): Written by the indexer thread only. Readers take 'chunks' and then each chunk's 'count',
+    // everything below that count has been written before it was published.
+    private static final class Index {
+
+        final Boundary boundary;
+        volatile Chunk[] chunks = new Chunk[0];
+        private long next = -1; // note(nschultz): Next transcript frame to index, indexer thread only
+
+        Index(final Boundary boundary) {
+            this.boundary = boundary;
+        }
+
+        long reads() {
+            final Chunk[] chunks = this.chunks;
+            long reads = 0;
+            for (final Chunk chunk : chunks) {
+                reads += chunk.count;
+            }
+            return reads;
+        }
+
+        long firstNanos() {
+            final Chunk[] chunks = this.chunks;
+            long min = Long.MAX_VALUE;
+            for (final Chunk chunk : chunks) {
+                if (chunk.count > 0) min = Math.min(min, chunk.levels[LEVELS - 1].min[0]);
+            }
+            return min;
+        }
+
+        long lastNanos() {
+            final Chunk[] chunks = this.chunks;
+            long max = Long.MIN_VALUE;
+            for (int i = chunks.length - 1; i >= 0 && i >= chunks.length - 2; --i) { // note(nschultz): Nearly sorted, the last two chunks do
+                if (chunks[i].count > 0) max = Math.max(max, chunks[i].levels[LEVELS - 1].max[0]);
+            }
+            return max;
+        }
+
+        // note(nschultz): Returns true if there is more to do
+        boolean catchUp(final Transcript transcript, final int budget) {
+            final long first = transcript.firstFrame();
+            final long end   = transcript.endFrame();
+            drop(first);
+            if (this.next < first) this.next = first;
+
+            for (int n = 0; n < budget && this.next < end; ++n) {
+                final Transcript.Frame frame = transcript.frame(this.next);
+                if (frame == null) {
+                    this.next = Math.max(this.next + 1, transcript.firstFrame()); // note(nschultz): Trimmed while we were at it
+                    continue;
+                }
+                add(frame);
+                this.next += 1;
+            }
+            return this.next < transcript.endFrame();
+        }
+
+        private void add(final Transcript.Frame frame) {
+            final Chunk[] chunks = this.chunks;
+            Chunk head = chunks.length == 0 ? null : chunks[chunks.length - 1];
+            if (head == null || head.count == CHUNK || head.firstFrame + head.count != frame.index) {
+                head = new Chunk(frame.index);
+                final Chunk[] grown = Arrays.copyOf(chunks, chunks.length + 1);
+                grown[chunks.length] = head;
+                this.chunks = grown;
+            }
+
+            int boundaries = 0;
+            if (this.boundary.terminator != -1) {
+                final byte terminator = (byte) this.boundary.terminator;
+                for (int i = 0; i < frame.length; ++i) {
+                    if (frame.byteAt(i) == terminator) boundaries += 1;
+                }
+            }
+            head.add(frame.nanos, frame.length, frame.dir, boundaries);
+
+            if ((long) (this.chunks.length - 1) * CHUNK > MAX_READS) {
+                this.chunks = Arrays.copyOfRange(this.chunks, 1, this.chunks.length);
+            }
+        }
+
+        private void drop(final long firstFrame) {
+            final Chunk[] chunks = this.chunks;
+            int keep = 0;
+            while (keep < chunks.length && chunks[keep].firstFrame + chunks[keep].count <= firstFrame) {
+                keep += 1;
+            }
+            if (keep > 0) this.chunks = Arrays.copyOfRange(chunks, keep, chunks.length);
+        }
+
+        // note(nschultz): Event thread. Fills the columns of 'render' from the summaries, chunks outside the
+        // range are skipped as a whole.
+        void render(final Render render, final long end) {
+            final Chunk[] chunks = this.chunks;
+            for (final Chunk chunk : chunks) {
+                final int count = chunk.count;
+                if (count == 0) continue;
+                final Level top = chunk.levels[LEVELS - 1];
+                if (top.max[0] < render.start) {
+                    render.prevMax = Math.max(render.prevMax, top.max[0]);
+                    continue;
+                }
+                if (top.min[0] > end) break;
+                visit(chunk, count, LEVELS - 1, 0, render, end);
+            }
+        }
+
+        // note(nschultz): 'level' -1 are the reads themselves
+        private static void visit(final Chunk chunk, final int count, final int level, final int node, final Render render, final long end) {
+            final long min = level < 0 ? chunk.nanos[node] : chunk.levels[level].min[node];
+            final long max = level < 0 ? chunk.nanos[node] : chunk.levels[level].max[node];
+            if (max < render.start) {
+                render.prevMax = Math.max(render.prevMax, max);
+                return;
+            }
+            if (min > end) return;
+
+            final int x = render.column(min);
+            if (level < 0) {
+                final int length = chunk.lengths[node];
+                if (chunk.dirs[node] == Transcript.IN) {
+                    render.bytesIn[x] += length;
+                    render.readsIn[x] += 1;
+                    render.maxIn[x]    = Math.max(render.maxIn[x], length);
+                } else {
+                    render.bytesOut[x] += length;
+                    render.readsOut[x] += 1;
+                    render.maxOut[x]    = Math.max(render.maxOut[x], length);
+                }
+                render.boundaries[x] += chunk.boundaries[node];
+                render.gapTo(min, max, 0, x);
+                return;
+            }
+
+            if (x == render.column(max)) {
+                final Level l = chunk.levels[level];
+                render.bytesIn[x]    += l.bytesIn[node];
+                render.bytesOut[x]   += l.bytesOut[node];
+                render.readsIn[x]    += l.readsIn[node];
+                render.readsOut[x]   += l.readsOut[node];
+                render.maxIn[x]       = Math.max(render.maxIn[x], l.maxIn[node]);
+                render.maxOut[x]      = Math.max(render.maxOut[x], l.maxOut[node]);
+                render.boundaries[x] += l.boundaries[node];
+                render.gapTo(min, max, l.maxGap[node], x);
+                return;
+            }
+
+            final int childBits = FANOUT_BITS * level; // note(nschultz): Reads per child node, log2
+            final int children  = level == 0 ? count : (count + (1 << childBits) - 1) >>> childBits;
+            final int from      = node << FANOUT_BITS;
+            final int to        = Math.min(children, from + (1 << FANOUT_BITS));
+            for (int child = from; child < to; ++child) {
+                visit(chunk, count, level - 1, child, render, end);
+            }
+        }
+    }
+
+    // note(nschultz): Up to CHUNK consecutive frames. 'levels[k]' node i summarizes reads i * 16^(k + 1) until (i + 1) * 16^(k + 1).
+    private static final class Chunk {
+
+        final long firstFrame;
+        final long[]  nanos      = new long[CHUNK];
+        final int[]   lengths    = new int[CHUNK];
+        final byte[]  dirs       = new byte[CHUNK];
+        final short[] boundaries = new short[CHUNK];
+        final Level[] levels     = new Level[LEVELS];
+        volatile int count = 0;
+
+        Chunk(final long firstFrame) {
+            this.firstFrame = firstFrame;
+            for (int k = 0; k < LEVELS; ++k) {
+                this.levels[k] = new Level(CHUNK >>> (FANOUT_BITS * (k + 1)));
+            }
+        }
+
+        void add(final long nanos, final int length, final byte dir, final int boundaries) {
+            final int i = this.count;
+            this.nanos[i]      = nanos;
+            this.lengths[i]    = length;
+            this.dirs[i]       = dir;
+            this.boundaries[i] = (short) Math.min(Short.MAX_VALUE, boundaries);
+
+            for (int k = 0; k < LEVELS; ++k) {
+                final int bits  = FANOUT_BITS * (k + 1);
+                final int node  = i >>> bits;
+                final Level l   = this.levels[k];
+                if ((i & ((1 << bits) - 1)) == 0) {
+                    l.min[node] = nanos;
+                    l.max[node] = nanos;
+                } else {
+                    l.min[node]    = Math.min(l.min[node], nanos);
+                    l.max[node]    = Math.max(l.max[node], nanos);
+                    l.maxGap[node] = Math.max(l.maxGap[node], nanos - this.nanos[i - 1]);
+                }
+                if (dir == Transcript.IN) {
+                    l.bytesIn[node] += length;
+                    l.readsIn[node] += 1;
+                    l.maxIn[node]    = Math.max(l.maxIn[node], length);
+                } else {
+                    l.bytesOut[node] += length;
+                    l.readsOut[node] += 1;
+                    l.maxOut[node]    = Math.max(l.maxOut[node], length);
+                }
+                l.boundaries[node] += boundaries;
+            }
+            this.count = i + 1;
+        }
+    }
+
+    private static final class Level {
+
+        final long[] min;
+        final long[] max;
+        final long[] maxGap; // note(nschultz): Largest silence between two consecutive reads inside the node
+        final long[] bytesIn;
+        final long[] bytesOut;
+        final int[]  readsIn;
+        final int[]  readsOut;
+        final int[]  maxIn;
+        final int[]  maxOut;
+        final int[]  boundaries;
+
+        Level(final int nodes) {
+            this.min        = new long[nodes];
+            this.max        = new long[nodes];
+            this.maxGap     = new long[nodes];
+            this.bytesIn    = new long[nodes];
+            this.bytesOut   = new long[nodes];
+            this.readsIn    = new int[nodes];
+            this.readsOut   = new int[nodes];
+            this.maxIn      = new int[nodes];
+            this.maxOut     = new int[nodes];
+            this.boundaries = new int[nodes];
+        }
+    }
+
+    private final class Plot extends JComponent {
+
+        private int dragX = -1;
+
+        Plot() {
+            setOpaque(true);
+            setBackground(Color.WHITE);
+            setFont(new Font(Font.MONOSPACED, Font.PLAIN, 12));
+            setPreferredSize(new Dimension(800, 300));
+            ToolTipManager.sharedInstance().registerComponent(this);
+
+            addMouseWheelListener(e -> {
+                if (viewEnd <= viewStart) return;
+                zoomed = true;
+                final double factor = Math.pow(1.25, e.getPreciseWheelRotation());
+                final long anchor = viewStart + (long) ((double) e.getX() / Math.max(1, getWidth()) * (viewEnd - viewStart));
+                final long span   = Math.max(MIN_SPAN, (long) ((viewEnd - viewStart) * factor));
+                final long start  = anchor - (long) ((double) e.getX() / Math.max(1, getWidth()) * span);
+                setView(start, start + span);
+            });
+            final MouseAdapter drag = new MouseAdapter() {
+                @Override public void mousePressed(final MouseEvent e) {
+                    dragX = e.getX();
+                }
+                @Override public void mouseDragged(final MouseEvent e) {
+                    if (dragX == -1 || viewEnd <= viewStart) return;
+                    zoomed = true;
+                    followBox.setSelected(false); // note(nschultz): Panning means looking at something, do not move it away
+                    final long shift = (long) ((double) (dragX - e.getX()) / Math.max(1, getWidth()) * (viewEnd - viewStart));
+                    dragX = e.getX();
+                    setView(viewStart + shift, viewEnd + shift);
+                }
+                @Override public void mouseReleased(final MouseEvent e) {
+                    dragX = -1;
+                }
+                @Override public void mouseClicked(final MouseEvent e) {
+                    if (e.getClickCount() == 2) {
+                        zoomed = false;
+                        fit();
+                    }
+                }
+            };
+            addMouseListener(drag);
+            addMouseMotionListener(drag);
+        }
+
+        @Override
+        protected void paintComponent(final Graphics g) {
+            final int width  = getWidth();
+            final int height = getHeight();
+            g.setColor(getBackground());
+            g.fillRect(0, 0, width, height);
+
+            final FontMetrics fm = g.getFontMetrics(getFont());
+            final int axis = fm.getHeight() + 4;
+            final int mid  = (height - axis) / 2;
+            final int half = Math.max(1, mid - 4);
+
+            if (viewEnd <= viewStart || width <= 0) {
+                last = null;
+                g.setColor(Color.GRAY);
+                g.drawString("Nothing recorded yet", 8, fm.getAscent() + 4);
+                return;
+            }
+
+            final Render render = new Render(viewStart, viewEnd, width, GAP_NANOS[gapBox.getSelectedIndex()]);
+            index.render(render, viewEnd);
+            last = render;
+
+            g.setColor(GAP_COLOR);
+            for (int i = 0; i < render.gapSpans.size; i += 2) {
+                final int x0 = render.gapSpans.values[i];
+                final int x1 = render.gapSpans.values[i + 1];
+                g.fillRect(x0 + 1, 0, Math.max(1, x1 - x0 - 1), height - axis);
+            }
+
+            for (int x = 0; x < width; ++x) {
+                if (render.bytesIn[x] > 0) {
+                    g.setColor(IN_TOTAL);
+                    final int total = barHeight(render.bytesIn[x], half);
+                    g.drawLine(x, mid - 1, x, mid - total);
+                    g.setColor(IN_COLOR);
+                    g.drawLine(x, mid - 1, x, mid - barHeight(render.maxIn[x], half));
+                }
+                if (render.bytesOut[x] > 0) {
+                    g.setColor(OUT_TOTAL);
+                    g.drawLine(x, mid + 1, x, mid + barHeight(render.bytesOut[x], half));
+                    g.setColor(OUT_COLOR);
+                    g.drawLine(x, mid + 1, x, mid + barHeight(render.maxOut[x], half));
+                }
+                if (render.boundaries[x] > 0) {
+                    g.setColor(BOUNDARY_COLOR);
+                    g.drawLine(x, mid - 3, x, mid + 3);
+                }
+                if (render.gaps[x]) {
+                    g.setColor(GAP_MARK);
+                    g.drawLine(x, height - axis - 5, x, height - axis - 1);
+                }
+            }
+
+            g.setColor(Color.LIGHT_GRAY);
+            g.drawLine(0, mid, width, mid);
+            g.drawLine(0, height - axis, width, height - axis);
+
+            // note(nschultz): Wall clock at both ends, offsets from the left edge in between
+            g.setColor(Color.DARK_GRAY);
+            final SimpleDateFormat format = new SimpleDateFormat("HH:mm:ss.SSS");
+            final int baseline = height - axis + fm.getAscent() + 2;
+            final String left  = format.format(new Date(transcript.wallMillis(viewStart)));
+            final String right = format.format(new Date(transcript.wallMillis(viewEnd)));
+            g.drawString(left, 2, baseline);
+            g.drawString(right, width - fm.stringWidth(right) - 2, baseline);
+            final int step = 160;
+            for (int x = step; x < width - step; x += step) {
+                g.drawLine(x, height - axis, x, height - axis + 3);
+                g.drawString("+" + Histogram.formatNanos(render.nanos(x) - viewStart), x + 2, baseline);
+            }
+            g.drawString("in", 2, fm.getAscent());
+            g.drawString("out", 2, height - axis - 4);
+        }
+
+        // note(nschultz): log2, 1 byte is a pixel and 1 MiB the full half
+        private int barHeight(final long bytes, final int half) {
+            final double log = Math.log(bytes + 1) / Math.log(1024 * 1024 + 1);
+            return Math.max(1, (int) Math.min(half, Math.round(log * half)));
+        }
+
+        @Override
+        public String getToolTipText(final MouseEvent e) {
+            final Render render = last;
+            if (render == null || e.getX() < 0 || e.getX() >= render.width) return null;
+            final int x = e.getX();
+            final StringBuilder sb = new StringBuilder();
+            sb.append(String.format("+%s (%s wide)", Histogram.formatNanos(render.nanos(x) - viewStart), Histogram.formatNanos((long) Math.max(1, render.nanosPerColumn))));
+            if (render.readsIn[x] > 0) {
+                sb.append(String.format(", in %d read(s) %s (largest %s)", render.readsIn[x], Stats.formatBytes(render.bytesIn[x]), Stats.formatBytes(render.maxIn[x])));
+            }
+            if (render.readsOut[x] > 0) {
+                sb.append(String.format(", out %d write(s) %s (largest %s)", render.readsOut[x], Stats.formatBytes(render.bytesOut[x]), Stats.formatBytes(render.maxOut[x])));
+            }
+            if (render.boundaries[x] > 0) sb.append(String.format(", %d boundaries", render.boundaries[x]));
+            if (render.gaps[x]) sb.append(", gap inside");
+            return sb.toString();
+        }
+    }
+}
@@ -0,0 +1,166 @@
+//
+// Copyright (c) 2022 Niklas Schultz
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+// documentation files (the "Software"), to deal in the Software without restriction,
+// including without limitation the rights to use, copy, modify, merge, publish, distribute,
+// sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so,
+// subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED
+// TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+// IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+// WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+// SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+//
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.concurrent.locks.*;
+import java.util.logging.*;
+
+// note(nschultz): Hashed timer wheel (Varghese & Lauck), one thread for any number of timers.
+// Scheduling is a lock free queue push, the wheel thread moves new timers into their bucket once per tick
+// and fires everything that is due. A timer is never fired early and at most about one tick late
+// ('lateness' keeps track of how late), timers with the same deadline fire in the order they were scheduled.
+//
+// Tasks run on the wheel thread and must not block, hand real work to some other thread.
+// While nothing is scheduled the thread parks instead of ticking.
+public final class TimerWheel {
+
+    private static final long TICK_NANOS = 250_000; // note(nschultz): parkNanos is good for ~50us on linux, 250us keeps us well clear of it
+    private static final int  SLOTS      = 4096;    // note(nschultz): ~1 s per revolution, longer timers just wait for a few rounds
+
+    private static TimerWheel shared = null; // note(nschultz): Guarded by TimerWheel.class
+
+    public final Histogram lateness = new Histogram();
+
+    private final ConcurrentLinkedQueue<Timeout> incoming = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pending = new AtomicInteger(0);
+    private final ArrayList<Timeout>[] buckets; // note(nschultz): Only touched by the wheel thread
+    private final long startNanos = System.nanoTime();
+    private final Thread thread;
+    private long tick = 0;
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private TimerWheel(final String name) {
+        this.buckets = new ArrayList[SLOTS];
+        for (int i = 0; i < SLOTS; ++i) {
+            this.buckets[i] = new ArrayList<>();
+        }
+
+        this.thread = new Thread(this::run);
+        this.thread.setName(name);
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    // note(nschultz): The one wheel everybody uses, impairments as well as heartbeats and timeouts
+    public static synchronized TimerWheel shared() {
+        if (shared == null) shared = new TimerWheel("TimerWheelThread");
+        return shared;
+    }
+
+    public Timeout schedule(final long delayNanos, final Runnable task) {
+        return scheduleAt(System.nanoTime() + Math.max(0, delayNanos), task);
+    }
+
+    // note(nschultz): Absolute System.nanoTime() deadline. Callers that need a strict order between their
+    // timers should use this, two relative delays taken a few microseconds apart can swap places.
+    public Timeout scheduleAt(final long deadlineNanos, final Runnable task) {
+        assert task != null;
+
+        final Timeout timeout = new Timeout(deadlineNanos, task);
+        this.pending.incrementAndGet();
+        this.incoming.add(timeout);
+        LockSupport.unpark(this.thread);
+        return timeout;
+    }
+
+    public int pending() {
+        return this.pending.get();
+    }
+
+    private void run() {
+        for (;;) {
+            if (this.pending.get() == 0) {
+                LockSupport.park(this);
+                // note(nschultz): Every bucket is empty, so we can simply jump to the present
+                this.tick = Math.max(this.tick, (System.nanoTime() - this.startNanos) / TICK_NANOS);
+                continue;
+            }
+
+            final long tickDeadline = this.startNanos + (this.tick + 1) * TICK_NANOS;
+            long now;
+            while ((now = System.nanoTime()) < tickDeadline) {
+                LockSupport.parkNanos(this, tickDeadline - now);
+            }
+
+            transferIncoming();
+            expire(this.buckets[(int) (this.tick & (SLOTS - 1))], now);
+            ++this.tick;
+        }
+    }
+
+    private void transferIncoming() {
+        Timeout timeout;
+        while ((timeout = this.incoming.poll()) != null) {
+            if (timeout.cancelled) {
+                this.pending.decrementAndGet();
+                continue;
+            }
+
+            // note(nschultz): Deadline rounded up to the tick it expires in, anything already due goes into the current one
+            final long due = Math.max(this.tick, (timeout.deadlineNanos - this.startNanos + TICK_NANOS - 1) / TICK_NANOS - 1);
+            timeout.rounds = (due - this.tick) / SLOTS;
+            this.buckets[(int) (due & (SLOTS - 1))].add(timeout);
+        }
+    }
+
+    private void expire(final ArrayList<Timeout> bucket, final long now) {
+        int kept = 0;
+        for (int i = 0; i < bucket.size(); ++i) {
+            final Timeout timeout = bucket.get(i);
+            if (timeout.cancelled) {
+                this.pending.decrementAndGet();
+            } else if (timeout.rounds > 0) {
+                --timeout.rounds;
+                bucket.set(kept++, timeout);
+            } else {
+                this.pending.decrementAndGet();
+                this.lateness.record(now - timeout.deadlineNanos);
+                try {
+                    timeout.task.run();
+                } catch (final RuntimeException ex) {
+                    Main.logger.log(Level.SEVERE, "Timer task failed", ex); // note(nschultz): Errors (and failed asserts) are not ours to swallow
+                }
+            }
+        }
+        bucket.subList(kept, bucket.size()).clear();
+    }
+
+    public static final class Timeout {
+
+        public final long deadlineNanos;
+
+        private final Runnable task;
+        private volatile boolean cancelled = false;
+        private long rounds = 0; // note(nschultz): Wheel thread only
+
+        private Timeout(final long deadlineNanos, final Runnable task) {
+            this.deadlineNanos = deadlineNanos;
+            this.task          = task;
+        }
+
+        // note(nschultz): The task will not run after this returns, unless it is already running
+        public void cancel() {
+            this.cancelled = true;
+        }
+
+        public boolean isCancelled() {
+            return this.cancelled;
+        }
+    }
+}
@@ -0,0 +1,397 @@
+//
+// Copyright (c) 2022 Niklas Schultz
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+// documentation files (the "Software"), to deal in the Software without restriction,
+// including without limitation the rights to use, copy, modify, merge, publish, distribute,
+// sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so,
+// subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED
+// TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+// IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+// WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+// SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+//
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.security.*;
+import java.util.concurrent.atomic.*;
+import java.util.concurrent.locks.*;
+import javax.net.ssl.*;
+
+// note(nschultz): TLS on top of a blocking SocketChannel by driving an SSLEngine ourselves.
+// We do not use SSLSocket so both handlers keep talking to the same Transport interface,
+// and the handshake can be timed on its own instead of disappearing into the first read.
+//
+// Reads and writes have their own lock, the engine is fine with one wrap and one unwrap
+// running at the same time. Lock order is always read -> write (an unwrap may have
+// to answer the peer, e.g. a TLS 1.3 KeyUpdate or a close_notify).
+//
+// Keystore and truststore are plain files (PKCS12 or JKS) configured in the Settings,
+// so everything works offline with self signed certificates. An empty truststore path
+// means the JDK default trust store. There is no host name verification, since test
+// certificates rarely match the address we connect to.
+public final class TlsTransport implements Transport {
+
+    private static final ByteBuffer EMPTY = ByteBuffer.allocate(0);
+
+    // note(nschultz): One context for the whole process so that the client and server session caches
+    // survive between connections, which is what makes resumption possible at all.
+    private static SSLContext context    = null; // note(nschultz): Guarded by TlsTransport.class
+    private static String     contextKey = null;
+
+    private final SocketChannel channel;
+    private final SSLEngine engine;
+    private final ReentrantLock readLock  = new ReentrantLock();
+    private final ReentrantLock writeLock = new ReentrantLock();
+
+    private ByteBuffer netIn;  // note(nschultz): Ciphertext read from the socket, not yet unwrapped (read lock)
+    private ByteBuffer appIn;  // note(nschultz): Plaintext unwrapped, not yet handed out (read lock)
+    private ByteBuffer netOut; // note(nschultz): Ciphertext about to be written (write lock)
+
+    private long handshakeNanos = 0;
+    private boolean resumed     = false;
+
+    private TlsTransport(final SocketChannel channel, final SSLEngine engine) {
+        assert channel != null;
+        assert engine  != null;
+        assert channel.isBlocking();
+
+        this.channel = channel;
+        this.engine  = engine;
+
+        final SSLSession session = engine.getSession();
+        this.netIn  = ByteBuffer.allocate(session.getPacketBufferSize());
+        this.appIn  = ByteBuffer.allocate(session.getApplicationBufferSize());
+        this.netOut = ByteBuffer.allocate(session.getPacketBufferSize());
+    }
+
+    // note(nschultz): Host and port are only used as the key for the client session cache
+    public static TlsTransport connect(final SocketChannel channel, final String host, final int port, final Handshakes stats) throws IOException {
+        final SSLEngine engine = context(false).createSSLEngine(host, port);
+        engine.setUseClientMode(true);
+        return handshake(channel, engine, stats);
+    }
+
+    public static TlsTransport accept(final SocketChannel channel, final Handshakes stats) throws IOException {
+        final SSLEngine engine = context(true).createSSLEngine();
+        engine.setUseClientMode(false);
+        return handshake(channel, engine, stats);
+    }
+
+    // note(nschultz): Fails with a readable message if the stores can not be loaded, so the
+    // server can refuse to open instead of failing every single handshake later on.
+    public static synchronized SSLContext context(final boolean server) throws IOException {
+        if (server && Settings.tlsKeyStore.isEmpty()) {
+            throw new IOException("TLS server mode needs a keystore (see Settings)");
+        }
+
+        final String key = String.join("\n", Settings.tlsKeyStore, Settings.tlsKeyStorePassword,
+                                             Settings.tlsTrustStore, Settings.tlsTrustStorePassword);
+        if (context != null && key.equals(contextKey)) return context;
+
+        try {
+            KeyManager[] keyManagers = null;
+            if (!Settings.tlsKeyStore.isEmpty()) {
+                final char[] password = Settings.tlsKeyStorePassword.toCharArray();
+                final KeyStore store = KeyStore.getInstance(new File(Settings.tlsKeyStore), password);
+                final KeyManagerFactory factory = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+                factory.init(store, password);
+                keyManagers = factory.getKeyManagers();
+            }
+
+            TrustManager[] trustManagers = null; // note(nschultz): null means the JDK default trust store
+            if (!Settings.tlsTrustStore.isEmpty()) {
+                final KeyStore store = KeyStore.getInstance(new File(Settings.tlsTrustStore), Settings.tlsTrustStorePassword.toCharArray());
+                final TrustManagerFactory factory = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+                factory.init(store);
+                trustManagers = factory.getTrustManagers();
+            }
+
+            final SSLContext ctx = SSLContext.getInstance("TLS");
+            ctx.init(keyManagers, trustManagers, null);
+            context    = ctx;
+            contextKey = key;
+            return ctx;
+        } catch (final GeneralSecurityException ex) {
+            throw new IOException("Failed to set up TLS: " + ex.getMessage(), ex);
+        }
+    }
+
+    private static TlsTransport handshake(final SocketChannel channel, final SSLEngine engine, final Handshakes stats) throws IOException {
+        final TlsTransport transport = new TlsTransport(channel, engine);
+        final long startMillis = System.currentTimeMillis();
+        final long startNanos  = System.nanoTime();
+        try {
+            engine.beginHandshake();
+            transport.processHandshake();
+        } catch (final IOException ex) {
+            stats.failed.increment();
+            throw ex;
+        }
+        transport.handshakeNanos = System.nanoTime() - startNanos;
+
+        // note(nschultz): JSSE does not tell us directly. A resumed session keeps the creation time of the
+        // session it was resumed from, a full handshake creates a fresh one.
+        transport.resumed = engine.getSession().getCreationTime() < startMillis;
+        (transport.resumed ? stats.resumed : stats.full).record(transport.handshakeNanos);
+        return transport;
+    }
+
+    private void processHandshake() throws IOException {
+        this.readLock.lock();
+        try {
+            processHandshakeLocked();
+        } finally {
+            this.readLock.unlock();
+        }
+    }
+
+    private void processHandshakeLocked() throws IOException {
+        for (;;) {
+            switch (this.engine.getHandshakeStatus()) {
+                case NEED_WRAP -> {
+                    this.writeLock.lock();
+                    try {
+                        wrapAndFlush(EMPTY);
+                    } finally {
+                        this.writeLock.unlock();
+                    }
+                }
+                case NEED_UNWRAP, NEED_UNWRAP_AGAIN -> {
+                    if (unwrapOnce() == -1) throw new EOFException("Connection closed during the TLS handshake");
+                }
+                case NEED_TASK -> runDelegatedTasks();
+                case FINISHED, NOT_HANDSHAKING -> {
+                    return;
+                }
+            }
+        }
+    }
+
+    @Override
+    public int read(final ByteBuffer dst) throws IOException {
+        this.readLock.lock();
+        try {
+            for (;;) {
+                if (this.appIn.position() > 0) return drainAppIn(dst);
+                if (unwrapOnce() == -1) return -1;
+
+                // note(nschultz): Post handshake messages (session tickets, key updates) unwrap to nothing,
+                // but may want an answer before we go back to waiting for data.
+                SSLEngineResult.HandshakeStatus status;
+                while ((status = this.engine.getHandshakeStatus()) == SSLEngineResult.HandshakeStatus.NEED_TASK
+                        || status == SSLEngineResult.HandshakeStatus.NEED_WRAP) {
+                    if (status == SSLEngineResult.HandshakeStatus.NEED_TASK) {
+                        runDelegatedTasks();
+                    } else {
+                        this.writeLock.lock();
+                        try {
+                            wrapAndFlush(EMPTY);
+                        } finally {
+                            this.writeLock.unlock();
+                        }
+                    }
+                }
+            }
+        } finally {
+            this.readLock.unlock();
+        }
+    }
+
+    @Override
+    public int write(final ByteBuffer src) throws IOException {
+        this.writeLock.lock();
+        try {
+            return wrapAndFlush(src);
+        } finally {
+            this.writeLock.unlock();
+        }
+    }
+
+    @Override
+    public boolean isOpen() {
+        return this.channel.isOpen();
+    }
+
+    @Override
+    public SocketChannel channel() {
+        return this.channel;
+    }
+
+    @Override
+    public String describe() {
+        final SSLSession session = this.engine.getSession();
+        return String.format("%s %s, %s handshake %s", session.getProtocol(), session.getCipherSuite(),
+                             this.resumed ? "resumed" : "full", Histogram.formatNanos(this.handshakeNanos));
+    }
+
+    public boolean isResumed() {
+        return this.resumed;
+    }
+
+    public long handshakeNanos() {
+        return this.handshakeNanos;
+    }
+
+    // note(nschultz): Sends close_notify if nobody is busy writing (we do not want to wait behind a
+    // blocked write to a slow peer), then closes the socket which also wakes up a blocked reader.
+    @Override
+    public void close() throws IOException {
+        this.engine.closeOutbound();
+        if (this.channel.isOpen() && this.writeLock.tryLock()) {
+            try {
+                wrapAndFlush(EMPTY);
+            } catch (final IOException ex) {
+                // note(nschultz): Peer is gone already, nothing to say goodbye to
+            } finally {
+                this.writeLock.unlock();
+            }
+        }
+        this.channel.close();
+    }
+
+    // note(nschultz): Returns -1 once the connection is done (eof or close_notify), 0 otherwise.
+    // Either some bytes got unwrapped into 'appIn' or we read more ciphertext from the socket.
+    private int unwrapOnce() throws IOException {
+        assert this.readLock.isHeldByCurrentThread();
+
+        this.netIn.flip();
+        final SSLEngineResult result;
+        try {
+            result = this.engine.unwrap(this.netIn, this.appIn);
+        } finally {
+            this.netIn.compact();
+        }
+
+        switch (result.getStatus()) {
+            case OK -> {
+                return 0;
+            }
+            case BUFFER_UNDERFLOW -> {
+                if (!this.netIn.hasRemaining()) {
+                    this.netIn = grow(this.netIn, this.engine.getSession().getPacketBufferSize());
+                }
+                if (this.channel.read(this.netIn) == -1) {
+                    try {
+                        this.engine.closeInbound();
+                    } catch (final SSLException ex) {
+                        // note(nschultz): No close_notify from the peer, we treat it like a plain eof
+                    }
+                    return -1;
+                }
+                return 0;
+            }
+            case BUFFER_OVERFLOW -> {
+                this.appIn = grow(this.appIn, this.engine.getSession().getApplicationBufferSize());
+                return 0;
+            }
+            case CLOSED -> {
+                if (this.engine.getHandshakeStatus() == SSLEngineResult.HandshakeStatus.NEED_WRAP && this.writeLock.tryLock()) {
+                    try {
+                        wrapAndFlush(EMPTY); // note(nschultz): Answer the close_notify
+                    } catch (final IOException ex) {
+                        // note(nschultz): We are done anyway
+                    } finally {
+                        this.writeLock.unlock();
+                    }
+                }
+                return -1;
+            }
+            default -> {
+                assert false : result.getStatus();
+                return -1;
+            }
+        }
+    }
+
+    private int wrapAndFlush(final ByteBuffer src) throws IOException {
+        assert this.writeLock.isHeldByCurrentThread();
+
+        int consumed = 0;
+        do {
+            this.netOut.clear();
+            final SSLEngineResult result = this.engine.wrap(src, this.netOut);
+            if (result.getStatus() == SSLEngineResult.Status.BUFFER_OVERFLOW) {
+                this.netOut = ByteBuffer.allocate(Math.max(this.netOut.capacity() * 2, this.engine.getSession().getPacketBufferSize()));
+                continue;
+            }
+            consumed += result.bytesConsumed();
+
+            this.netOut.flip();
+            while (this.netOut.hasRemaining()) {
+                this.channel.write(this.netOut);
+            }
+
+            if (result.getHandshakeStatus() == SSLEngineResult.HandshakeStatus.NEED_TASK) runDelegatedTasks();
+            if (result.getStatus() == SSLEngineResult.Status.CLOSED) {
+                if (src.hasRemaining()) throw new SSLException("TLS connection has been closed");
+                break;
+            }
+        } while (src.hasRemaining());
+        return consumed;
+    }
+
+    private int drainAppIn(final ByteBuffer dst) {
+        this.appIn.flip();
+        final int n = Math.min(dst.remaining(), this.appIn.remaining());
+        final int limit = this.appIn.limit();
+        this.appIn.limit(this.appIn.position() + n);
+        dst.put(this.appIn);
+        this.appIn.limit(limit);
+        this.appIn.compact();
+        return n;
+    }
+
+    private void runDelegatedTasks() {
+        Runnable task;
+        while ((task = this.engine.getDelegatedTask()) != null) {
+            task.run();
+        }
+    }
+
+    private static ByteBuffer grow(final ByteBuffer buf, final int atLeast) {
+        final ByteBuffer bigger = ByteBuffer.allocate(Math.max(buf.capacity() * 2, atLeast));
+        buf.flip();
+        bigger.put(buf);
+        return bigger;
+    }
+
+    // note(nschultz): Handshake latency per kind. Shared by all connections of a handler (or of a headless run).
+    public static final class Handshakes {
+
+        public final Histogram full    = new Histogram();
+        public final Histogram resumed = new Histogram();
+        public final LongAdder failed  = new LongAdder();
+
+        public void reset() {
+            this.full.reset();
+            this.resumed.reset();
+            this.failed.reset();
+        }
+
+        public long count() {
+            return this.full.count() + this.resumed.count() + this.failed.sum();
+        }
+
+        public String summary() {
+            final long full    = this.full.count();
+            final long resumed = this.resumed.count();
+            return String.format("%d full, %d resumed, %d failed, resumption hit rate %.1f%%",
+                                 full, resumed, this.failed.sum(),
+                                 full + resumed == 0 ? 0.0 : 100.0 * resumed / (full + resumed));
+        }
+
+        public String report() {
+            final StringBuilder sb = new StringBuilder();
+            sb.append(String.format("TLS handshakes: %s%n", summary()));
+            sb.append(String.format("  full:    %s%n", this.full.summary()));
+            sb.append(String.format("  resumed: %s%n", this.resumed.summary()));
+            return sb.toString();
+        }
+    }
+}
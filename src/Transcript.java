@@ -0,0 +1,1055 @@
+//
+// Copyright (c) 2022 Niklas Schultz
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+// documentation files (the "Software"), to deal in the Software without restriction,
+// including without limitation the rights to use, copy, modify, merge, publish, distribute,
+// sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so,
+// subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED
+// TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+// IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+// WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+// SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+//
+
+import java.nio.*;
+import java.nio.charset.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.regex.*;
+import java.util.zip.*;
+
+// note(nschultz): The raw session transcript. Every read and every write is appended as a frame
+// (time, connection, direction, bytes) before anything gets decoded. The bytes live in segments of
+// at most SEGMENT_SIZE, each segment carries the metadata of its own frames and a bloom filter over
+// the (lower cased) byte trigrams that occur in it. A search first asks the bloom filters which
+// segments can possibly contain the needle and only scans those, in parallel.
+//
+// Only the head segment is ever appended to. Once it is full it is sealed and the packer thread
+// deflates it in blocks of about BLOCK_SIZE (frame data plus varint coded frame metadata, each block
+// ends with a full flush so it can be inflated on its own) and swaps the packed segment in. A packed
+// segment keeps a sparse index with the first frame, byte offset and timestamp of every block,
+// so a reader seeking to a frame, an offset or a point in time inflates exactly one block.
+// Chatty text protocols shrink to a fraction, which is what lets a capture run for days.
+//
+// There is exactly one writer at a time (append is synchronized), readers never lock. Everything a
+// reader can reach through a published frame count has been written before that count was published.
+// Frames never span segments, and segments are dropped from the front once the memory they take
+// (packed size for packed segments) exceeds 'Settings.transcriptLimitMiB'. Besides the frame index
+// every byte also has a global byte offset, which is what the hex view pages through.
+public final class Transcript {
+
+    public static final byte IN  = 0;
+    public static final byte OUT = 1;
+
+    public static final int BROADCAST = -1; // note(nschultz): Connection id of a server send to every client
+
+    private static final int SEGMENT_SIZE    = 4 * 1024 * 1024;
+    private static final int INITIAL_SIZE    = 64 * 1024;
+    private static final int BLOCK_SIZE      = 64 * 1024; // note(nschultz): Frame data per packed block, the unit a reader inflates
+    private static final int FRAME_BYTES     = 8 + 4 + 4 + 4 + 1; // note(nschultz): Metadata of one unpacked frame
+    private static final int BLOOM_BITS_LOG2 = 19; // note(nschultz): 64 KiB per segment, ~1.5% overhead at full size
+    private static final int BLOOM_MASK      = (1 << BLOOM_BITS_LOG2) - 1;
+    private static final int BLOOM_BYTES     = (1 << BLOOM_BITS_LOG2) / 8;
+
+    private static final byte[] lower = new byte[256];
+    static {
+        for (int i = 0; i < 256; ++i) {
+            lower[i] = (byte) (i >= 'A' && i <= 'Z' ? i + ('a' - 'A') : i);
+        }
+    }
+
+    // note(nschultz): Shared by all transcripts. Packing is never urgent, the head keeps taking frames meanwhile.
+    private static final ExecutorService packer = Executors.newSingleThreadExecutor(r -> {
+        final Thread thread = new Thread(r);
+        thread.setName("TranscriptPackerThread");
+        thread.setPriority(Thread.MIN_PRIORITY);
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final long baseNanos  = System.nanoTime();
+    private final long baseMillis = System.currentTimeMillis();
+    private final ConcurrentHashMap<Integer, String> connectionNames = new ConcurrentHashMap<>();
+
+    private volatile Segment[] segments = new Segment[0];
+    private volatile long totalBytes    = 0; // note(nschultz): Frame bytes we still have
+    private volatile long footprint     = 0; // note(nschultz): Memory they take, packed or not
+    private long nextFrame              = 0;
+    private long nextByte               = 0;
+
+    public void append(final int conn, final byte dir, final byte[] data, final int off, final int len) {
+        assert data != null;
+        assert off >= 0 && len >= 0 && off + len <= data.length;
+
+        final long now = System.nanoTime();
+        synchronized (this) {
+            final RawSegment head = headFor(len);
+            head.append(this.nextFrame++, now, conn, dir, data, off, len);
+            this.nextByte   += len;
+            this.totalBytes += len;
+            this.footprint  += len + FRAME_BYTES;
+            trim();
+        }
+    }
+
+    // note(nschultz): Copies position..limit, the buffer itself is left alone
+    public void append(final int conn, final byte dir, final ByteBuffer buf) {
+        assert buf != null;
+
+        if (buf.hasArray()) {
+            append(conn, dir, buf.array(), buf.arrayOffset() + buf.position(), buf.remaining());
+        } else {
+            final byte[] copy = new byte[buf.remaining()];
+            buf.duplicate().get(copy);
+            append(conn, dir, copy, 0, copy.length);
+        }
+    }
+
+    public void nameConnection(final int conn, final String name) {
+        this.connectionNames.put(conn, name);
+    }
+
+    public String connectionName(final int conn) {
+        if (conn == BROADCAST) return "broadcast";
+        return this.connectionNames.getOrDefault(conn, "#" + conn);
+    }
+
+    public synchronized void clear() {
+        this.segments   = new Segment[0];
+        this.totalBytes = 0;
+        this.footprint  = 0;
+    }
+
+    public long byteCount() {
+        return this.totalBytes;
+    }
+
+    // note(nschultz): What the transcript actually occupies, compare with byteCount() for the packing ratio
+    public long footprint() {
+        return this.footprint;
+    }
+
+    // note(nschultz): Global frame indices run from firstFrame() (inclusive) to endFrame() (exclusive)
+    public long firstFrame() {
+        final Segment[] segments = this.segments;
+        return segments.length == 0 ? endFrame() : segments[0].firstFrame;
+    }
+
+    public long endFrame() {
+        final Segment[] segments = this.segments;
+        if (segments.length == 0) {
+            synchronized (this) {
+                return this.nextFrame;
+            }
+        }
+        final Segment head = segments[segments.length - 1];
+        return head.firstFrame + head.frames();
+    }
+
+    // note(nschultz): Global byte offsets run from firstByte() (inclusive) to endByte() (exclusive)
+    public long firstByte() {
+        final Segment[] segments = this.segments;
+        return segments.length == 0 ? endByte() : segments[0].firstByte;
+    }
+
+    public long endByte() {
+        final Segment[] segments = this.segments;
+        if (segments.length == 0) {
+            synchronized (this) {
+                return this.nextByte;
+            }
+        }
+        final Segment head = segments[segments.length - 1];
+        return head.firstByte + head.bytes();
+    }
+
+    // note(nschultz): Copies up to 'len' bytes starting at the global 'offset' into 'dst' and fills in
+    // the direction of every byte and whether a frame starts there. Returns how many bytes were
+    // available, which is less than 'len' at the end of the transcript and 0 if 'offset' was trimmed.
+    public int read(final long offset, final int len, final byte[] dst, final byte[] dirs, final boolean[] frameStarts) {
+        assert dst.length >= len && dirs.length >= len && frameStarts.length >= len;
+
+        final Segment[] segments = this.segments;
+        int lo = 0, hi = segments.length - 1, found = -1;
+        while (lo <= hi) {
+            final int mid = (lo + hi) >>> 1;
+            if (segments[mid].firstByte <= offset) {
+                found = mid;
+                lo = mid + 1;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        if (found == -1) return 0;
+
+        int n = 0;
+        for (int s = found; s < segments.length && n < len; ++s) {
+            n += segments[s].read(offset + n, len - n, dst, dirs, frameStarts, n);
+            if (s + 1 < segments.length && offset + n < segments[s + 1].firstByte) break; // note(nschultz): Past the published end
+        }
+        return n;
+    }
+
+    public long wallMillis(final long nanos) {
+        return this.baseMillis + (nanos - this.baseNanos) / 1_000_000;
+    }
+
+    // note(nschultz): Index of the first frame recorded at or after 'nanos' (System.nanoTime() based),
+    // endFrame() if there is none. Inflates at most one block.
+    public long frameAt(final long nanos) {
+        final Segment[] segments = this.segments;
+        int lo = 0, hi = segments.length - 1, found = -1;
+        while (lo <= hi) {
+            final int mid = (lo + hi) >>> 1;
+            if (segments[mid].frames() > 0 && segments[mid].lastNanos() >= nanos) {
+                found = mid;
+                hi = mid - 1;
+            } else {
+                lo = mid + 1;
+            }
+        }
+        if (found == -1) return endFrame();
+        return segments[found].firstFrame + segments[found].frameAt(nanos);
+    }
+
+    public long frameAtWallMillis(final long millis) {
+        return frameAt(this.baseNanos + (millis - this.baseMillis) * 1_000_000);
+    }
+
+    // note(nschultz): Returns null if the frame has been trimmed away (or does not exist yet)
+    public Frame frame(final long index) {
+        final Segment[] segments = this.segments;
+        int lo = 0, hi = segments.length - 1;
+        while (lo <= hi) {
+            final int mid = (lo + hi) >>> 1;
+            final Segment segment = segments[mid];
+            if (index < segment.firstFrame) {
+                hi = mid - 1;
+            } else if (index >= segment.firstFrame + segment.frames()) {
+                lo = mid + 1;
+            } else {
+                final int local = (int) (index - segment.firstFrame);
+                final Block block = segment.blockForFrame(local);
+                return block.frame((int) (index - block.firstFrame));
+            }
+        }
+        return null;
+    }
+
+    public Result search(final Query query, final int maxHits) {
+        assert query != null;
+        assert maxHits > 0;
+
+        final long start = System.nanoTime();
+        final Segment[] segments = this.segments;
+        final int[] frameCounts = new int[segments.length];
+        for (int i = 0; i < segments.length; ++i) {
+            frameCounts[i] = segments[i].frames(); // note(nschultz): Snapshot, frames appended while searching are not looked at
+        }
+
+        final java.util.List<java.util.List<Hit>> perSegment = java.util.stream.IntStream.range(0, segments.length).parallel()
+            .mapToObj(i -> segments[i].mayContain(query) ? segments[i].search(query, frameCounts[i], maxHits) : null)
+            .collect(java.util.stream.Collectors.toList());
+
+        final ArrayList<Hit> hits = new ArrayList<>();
+        int scanned = 0;
+        for (final java.util.List<Hit> segmentHits : perSegment) {
+            if (segmentHits == null) continue;
+            scanned += 1;
+            for (final Hit hit : segmentHits) {
+                if (hits.size() == maxHits) break;
+                hits.add(hit);
+            }
+        }
+        return new Result(hits, segments.length, scanned, System.nanoTime() - start);
+    }
+
+    private RawSegment headFor(final int len) {
+        final Segment[] segments = this.segments;
+        RawSegment sealed = null;
+        if (segments.length > 0 && segments[segments.length - 1] instanceof RawSegment) {
+            final RawSegment head = (RawSegment) segments[segments.length - 1];
+            if (head.fits(len)) return head;
+            sealed = head;
+        }
+
+        final RawSegment head = new RawSegment(this, this.nextFrame, this.nextByte, Math.max(SEGMENT_SIZE, len));
+        final Segment[] grown = Arrays.copyOf(segments, segments.length + 1);
+        grown[segments.length] = head;
+        this.segments   = grown;
+        this.footprint += BLOOM_BYTES;
+
+        if (sealed != null && sealed.frames > 0) {
+            final RawSegment toPack = sealed;
+            packer.execute(() -> pack(toPack));
+        }
+        return head;
+    }
+
+    // note(nschultz): Packer thread. The segment may have been trimmed or cleared away in the meantime.
+    private void pack(final RawSegment raw) {
+        final PackedSegment packed = new PackedSegment(raw);
+        synchronized (this) {
+            final Segment[] segments = this.segments;
+            for (int i = 0; i < segments.length; ++i) {
+                if (segments[i] != raw) continue;
+
+                final Segment[] swapped = segments.clone();
+                swapped[i] = packed;
+                this.segments   = swapped;
+                this.footprint += packed.footprint() - raw.footprint();
+                return;
+            }
+        }
+    }
+
+    private void trim() {
+        final long limit = Settings.transcriptLimitMiB * 1024L * 1024L;
+        final Segment[] segments = this.segments;
+        long footprint = this.footprint;
+        long total     = this.totalBytes;
+        int drop = 0;
+        while (footprint > limit && drop < segments.length - 1) { // note(nschultz): Never drop the head
+            footprint -= segments[drop].footprint();
+            total     -= segments[drop].bytes();
+            drop += 1;
+        }
+        if (drop > 0) {
+            this.segments   = Arrays.copyOfRange(segments, drop, segments.length);
+            this.footprint  = footprint;
+            this.totalBytes = total;
+        }
+    }
+
+    private static int trigramBit(final int b0, final int b1, final int b2) {
+        int h = (b0 << 16) | (b1 << 8) | b2;
+        h *= 0x9E3779B1; // note(nschultz): Fibonacci hashing, spreads the 24 bits over the whole int
+        return h >>> (32 - BLOOM_BITS_LOG2);
+    }
+
+    private static int trigramBit2(final int b0, final int b1, final int b2) {
+        int h = (b2 << 16) | (b1 << 8) | b0;
+        h *= 0x85EBCA6B;
+        return (h ^ (h >>> 15)) & BLOOM_MASK;
+    }
+
+    // note(nschultz): Either the head (or a full one waiting for the packer) or a packed one.
+    // Frame and byte positions are local to the segment, frames and bytes are what has been published.
+    private abstract static class Segment {
+
+        final Transcript owner;
+        final long firstFrame;
+        final long firstByte;
+        final long[] bloom;
+
+        Segment(final Transcript owner, final long firstFrame, final long firstByte, final long[] bloom) {
+            this.owner      = owner;
+            this.firstFrame = firstFrame;
+            this.firstByte  = firstByte;
+            this.bloom      = bloom;
+        }
+
+        abstract int frames();
+        abstract int bytes();
+        abstract long footprint();
+        abstract long lastNanos();
+        abstract int frameAt(final long nanos); // note(nschultz): First local frame at or after 'nanos', frames() if none
+        abstract Block blockForFrame(final int local);
+        abstract Block blockForByte(final int local);
+        abstract java.util.List<Hit> search(final Query query, final int frameCount, final int maxHits);
+
+        int read(final long offset, final int len, final byte[] dst, final byte[] dirs, final boolean[] frameStarts, final int dstOff) {
+            int n = 0;
+            while (n < len) {
+                final long local = offset + n - this.firstByte;
+                if (local < 0 || local >= bytes()) break;
+                final int k = blockForByte((int) local).read(offset + n, len - n, dst, dirs, frameStarts, dstOff + n);
+                if (k == 0) break;
+                n += k;
+            }
+            return n;
+        }
+
+        boolean mayContain(final Query query) {
+            final byte[] needle = query.needle;
+            if (needle == null || needle.length < 3) return true; // note(nschultz): Regex or too short to say anything
+
+            for (int i = 2; i < needle.length; ++i) {
+                final int b0 = lower[needle[i - 2] & 0xFF] & 0xFF;
+                final int b1 = lower[needle[i - 1] & 0xFF] & 0xFF;
+                final int b2 = lower[needle[i]     & 0xFF] & 0xFF;
+                final int bit1 = trigramBit(b0, b1, b2);
+                final int bit2 = trigramBit2(b0, b1, b2);
+                if ((this.bloom[bit1 >>> 6] & (1L << bit1)) == 0) return false;
+                if ((this.bloom[bit2 >>> 6] & (1L << bit2)) == 0) return false;
+            }
+            return true;
+        }
+    }
+
+    private static final class RawSegment extends Segment {
+
+        final int capacity;
+
+        byte[] data;
+        int used = 0;
+        long[] nanos   = new long[256];
+        int[]  starts  = new int[256];
+        int[]  lengths = new int[256];
+        int[]  conns   = new int[256];
+        byte[] dirs    = new byte[256];
+        volatile int frames = 0;
+
+        RawSegment(final Transcript owner, final long firstFrame, final long firstByte, final int capacity) {
+            super(owner, firstFrame, firstByte, new long[BLOOM_BYTES / 8]);
+            this.capacity = capacity;
+            this.data     = new byte[Math.min(capacity, INITIAL_SIZE)];
+        }
+
+        boolean fits(final int len) {
+            return this.capacity - this.used >= len;
+        }
+
+        void append(final long index, final long now, final int conn, final byte dir, final byte[] src, final int off, final int len) {
+            assert index == this.firstFrame + this.frames;
+            assert fits(len);
+
+            if (this.data.length - this.used < len) {
+                // note(nschultz): Readers may still hold the old array, which is fine, its prefix never changes
+                int size = this.data.length;
+                while (size - this.used < len) size = Math.min(this.capacity, size * 2);
+                this.data = Arrays.copyOf(this.data, size);
+            }
+            final int frame = this.frames;
+            if (frame == this.nanos.length) {
+                final int size = frame * 2;
+                this.nanos   = Arrays.copyOf(this.nanos, size);
+                this.starts  = Arrays.copyOf(this.starts, size);
+                this.lengths = Arrays.copyOf(this.lengths, size);
+                this.conns   = Arrays.copyOf(this.conns, size);
+                this.dirs    = Arrays.copyOf(this.dirs, size);
+            }
+
+            System.arraycopy(src, off, this.data, this.used, len);
+            for (int i = 2; i < len; ++i) {
+                final int b0 = lower[src[off + i - 2] & 0xFF] & 0xFF;
+                final int b1 = lower[src[off + i - 1] & 0xFF] & 0xFF;
+                final int b2 = lower[src[off + i]     & 0xFF] & 0xFF;
+                final int bit1 = trigramBit(b0, b1, b2);
+                final int bit2 = trigramBit2(b0, b1, b2);
+                this.bloom[bit1 >>> 6] |= 1L << bit1;
+                this.bloom[bit2 >>> 6] |= 1L << bit2;
+            }
+
+            this.nanos[frame]   = now;
+            this.starts[frame]  = this.used;
+            this.lengths[frame] = len;
+            this.conns[frame]   = conn;
+            this.dirs[frame]    = dir;
+            this.used += len;
+            this.frames = frame + 1; // note(nschultz): Publishes everything above
+        }
+
+        @Override
+        int frames() {
+            return this.frames;
+        }
+
+        @Override
+        int bytes() {
+            final int frames = this.frames;
+            return frames == 0 ? 0 : this.starts[frames - 1] + this.lengths[frames - 1];
+        }
+
+        // note(nschultz): Same sum the writer adds up in 'append', so it cancels out exactly when the segment goes away
+        @Override
+        long footprint() {
+            return BLOOM_BYTES + bytes() + (long) this.frames * FRAME_BYTES;
+        }
+
+        @Override
+        long lastNanos() {
+            final int frames = this.frames;
+            return frames == 0 ? Long.MIN_VALUE : this.nanos[frames - 1];
+        }
+
+        @Override
+        int frameAt(final long nanos) {
+            return snapshot(this.frames).frameAt(nanos);
+        }
+
+        @Override
+        Block blockForFrame(final int local) {
+            return snapshot(this.frames);
+        }
+
+        @Override
+        Block blockForByte(final int local) {
+            return snapshot(this.frames);
+        }
+
+        @Override
+        java.util.List<Hit> search(final Query query, final int frameCount, final int maxHits) {
+            return snapshot(frameCount).search(query, maxHits);
+        }
+
+        // note(nschultz): The whole segment as one block. 'frames' has to be read before the arrays.
+        private Block snapshot(final int frames) {
+            return new Block(this.owner, this.firstFrame, this.firstByte, frames,
+                             this.nanos, this.starts, this.lengths, this.conns, this.dirs, this.data);
+        }
+    }
+
+    // note(nschultz): Immutable. Block b covers the local frames blockFrame[b] until blockFrame[b + 1] and
+    // its deflated bytes are packed[blockOffset[b]] until packed[blockOffset[b + 1]]. Inflated it is the
+    // frame data followed by one (zigzag nanos delta, length, zigzag connection, direction) varint record per frame.
+    private static final class PackedSegment extends Segment {
+
+        final int frames;
+        final int bytes;
+        final long lastNanos;
+        final byte[] packed;
+        final int[]  blockFrame;
+        final int[]  blockByte;
+        final int[]  blockOffset;
+        final int[]  blockRaw;
+        final long[] blockNanos;
+
+        volatile Block cached = null; // note(nschultz): Last inflated block, readers tend to stay in one place
+
+        PackedSegment(final RawSegment raw) {
+            super(raw.owner, raw.firstFrame, raw.firstByte, raw.bloom);
+
+            final int frames = raw.frames;
+            final long[] nanos   = raw.nanos;
+            final int[]  starts  = raw.starts;
+            final int[]  lengths = raw.lengths;
+            final int[]  conns   = raw.conns;
+            final byte[] dirs    = raw.dirs;
+            final byte[] data    = raw.data;
+            assert frames > 0;
+
+            final IntList blockFrame  = new IntList();
+            final IntList blockOffset = new IntList();
+            final IntList blockRaw    = new IntList();
+            final java.util.ArrayList<Long> blockNanos = new java.util.ArrayList<>();
+
+            final Deflater deflater = new Deflater(Deflater.BEST_SPEED, true);
+            byte[] block  = new byte[BLOCK_SIZE * 2];
+            byte[] packed = new byte[Math.max(4096, raw.bytes() / 4)];
+            int packedLen = 0;
+            try {
+                int first = 0;
+                while (first < frames) {
+                    int end = first + 1;
+                    while (end < frames && starts[end] + lengths[end] - starts[first] <= BLOCK_SIZE) ++end;
+
+                    final int dataLen = starts[end - 1] + lengths[end - 1] - starts[first];
+                    final int rawMax  = dataLen + (end - first) * 26; // note(nschultz): Worst case varints
+                    if (block.length < rawMax) block = new byte[rawMax];
+                    System.arraycopy(data, starts[first], block, 0, dataLen);
+                    int pos = dataLen;
+                    long prev = nanos[first];
+                    for (int f = first; f < end; ++f) {
+                        pos = putVarLong(block, pos, zigzag(nanos[f] - prev));
+                        pos = putVarLong(block, pos, lengths[f]);
+                        pos = putVarLong(block, pos, zigzag(conns[f]));
+                        block[pos++] = dirs[f];
+                        prev = nanos[f];
+                    }
+
+                    blockFrame.add(first);
+                    blockOffset.add(packedLen);
+                    blockRaw.add(pos);
+                    blockNanos.add(nanos[first]);
+
+                    deflater.setInput(block, 0, pos);
+                    for (;;) {
+                        if (packed.length - packedLen < 1024) packed = Arrays.copyOf(packed, packed.length * 2);
+                        final int space = packed.length - packedLen;
+                        final int n = deflater.deflate(packed, packedLen, space, Deflater.FULL_FLUSH);
+                        packedLen += n;
+                        if (n < space) break;
+                    }
+                    first = end;
+                }
+            } finally {
+                deflater.end();
+            }
+            blockFrame.add(frames);
+            blockOffset.add(packedLen);
+
+            this.frames      = frames;
+            this.bytes       = raw.bytes();
+            this.lastNanos   = nanos[frames - 1];
+            this.packed      = Arrays.copyOf(packed, packedLen);
+            this.blockFrame  = blockFrame.toArray();
+            this.blockOffset = blockOffset.toArray();
+            this.blockRaw    = blockRaw.toArray();
+            this.blockNanos  = new long[blockNanos.size()];
+            this.blockByte   = new int[this.blockFrame.length];
+            for (int b = 0; b < this.blockNanos.length; ++b) {
+                this.blockNanos[b] = blockNanos.get(b);
+                this.blockByte[b]  = starts[this.blockFrame[b]];
+            }
+            this.blockByte[this.blockNanos.length] = this.bytes;
+        }
+
+        @Override int frames()     { return this.frames; }
+        @Override int bytes()      { return this.bytes; }
+        @Override long lastNanos() { return this.lastNanos; }
+
+        @Override
+        long footprint() {
+            return BLOOM_BYTES + this.packed.length + this.blockNanos.length * (4L * 4 + 8);
+        }
+
+        @Override
+        int frameAt(final long nanos) {
+            // note(nschultz): Last block starting at or before 'nanos', the frame we want is in there or starts the next one
+            int lo = 0, hi = this.blockNanos.length - 1, b = 0;
+            while (lo <= hi) {
+                final int mid = (lo + hi) >>> 1;
+                if (this.blockNanos[mid] <= nanos) {
+                    b = mid;
+                    lo = mid + 1;
+                } else {
+                    hi = mid - 1;
+                }
+            }
+            final Block block = block(b);
+            return (int) (block.firstFrame - this.firstFrame) + block.frameAt(nanos);
+        }
+
+        @Override
+        Block blockForFrame(final int local) {
+            return block(find(this.blockFrame, local));
+        }
+
+        @Override
+        Block blockForByte(final int local) {
+            return block(find(this.blockByte, local));
+        }
+
+        @Override
+        java.util.List<Hit> search(final Query query, final int frameCount, final int maxHits) {
+            final ArrayList<Hit> hits = new ArrayList<>();
+            for (int b = 0; b < this.blockNanos.length && hits.size() < maxHits; ++b) {
+                hits.addAll(block(b).search(query, maxHits - hits.size()));
+            }
+            return hits;
+        }
+
+        // note(nschultz): Last b with index[b] <= local
+        private static int find(final int[] index, final int local) {
+            int lo = 0, hi = index.length - 2, found = 0;
+            while (lo <= hi) {
+                final int mid = (lo + hi) >>> 1;
+                if (index[mid] <= local) {
+                    found = mid;
+                    lo = mid + 1;
+                } else {
+                    hi = mid - 1;
+                }
+            }
+            return found;
+        }
+
+        private Block block(final int b) {
+            final long firstFrame = this.firstFrame + this.blockFrame[b];
+            final Block cached = this.cached;
+            if (cached != null && cached.firstFrame == firstFrame) return cached;
+
+            final byte[] raw = new byte[this.blockRaw[b]];
+            final Inflater inflater = new Inflater(true);
+            try {
+                inflater.setInput(this.packed, this.blockOffset[b], this.blockOffset[b + 1] - this.blockOffset[b]);
+                int n = 0;
+                while (n < raw.length) {
+                    final int k = inflater.inflate(raw, n, raw.length - n);
+                    if (k == 0 && (inflater.needsInput() || inflater.finished())) throw new IllegalStateException("Truncated transcript block");
+                    n += k;
+                }
+            } catch (final DataFormatException ex) {
+                throw new IllegalStateException("Corrupt transcript block", ex);
+            } finally {
+                inflater.end();
+            }
+
+            final int count   = this.blockFrame[b + 1] - this.blockFrame[b];
+            final int dataLen = this.blockByte[b + 1]  - this.blockByte[b];
+            final long[] nanos   = new long[count];
+            final int[]  starts  = new int[count];
+            final int[]  lengths = new int[count];
+            final int[]  conns   = new int[count];
+            final byte[] dirs    = new byte[count];
+            final int[] pos = {dataLen};
+            long prev  = this.blockNanos[b];
+            int  start = 0;
+            for (int f = 0; f < count; ++f) {
+                prev       = prev + unzigzag(getVarLong(raw, pos));
+                nanos[f]   = prev;
+                starts[f]  = start;
+                lengths[f] = (int) getVarLong(raw, pos);
+                conns[f]   = (int) unzigzag(getVarLong(raw, pos));
+                dirs[f]    = raw[pos[0]++];
+                start += lengths[f];
+            }
+            assert start == dataLen;
+
+            final Block block = new Block(this.owner, firstFrame, this.firstByte + this.blockByte[b], count, nanos, starts, lengths, conns, dirs, raw);
+            this.cached = block;
+            return block;
+        }
+
+        private static long zigzag(final long v)   { return (v << 1) ^ (v >> 63); }
+        private static long unzigzag(final long v) { return (v >>> 1) ^ -(v & 1); }
+
+        private static int putVarLong(final byte[] dst, int pos, long v) {
+            while ((v & ~0x7FL) != 0) {
+                dst[pos++] = (byte) ((v & 0x7F) | 0x80);
+                v >>>= 7;
+            }
+            dst[pos++] = (byte) v;
+            return pos;
+        }
+
+        private static long getVarLong(final byte[] src, final int[] pos) {
+            long v = 0;
+            int shift = 0;
+            for (;;) {
+                final byte b = src[pos[0]++];
+                v |= (long) (b & 0x7F) << shift;
+                if (b >= 0) return v;
+                shift += 7;
+            }
+        }
+    }
+
+    // note(nschultz): A run of frames with their bytes, either a view onto the head segment or one inflated
+    // block of a packed segment. 'starts' are indices into 'data', which begins at global byte 'firstByte'.
+    private static final class Block {
+
+        final Transcript owner;
+        final long firstFrame;
+        final long firstByte;
+        final int count;
+        final long[] nanos;
+        final int[] starts;
+        final int[] lengths;
+        final int[] conns;
+        final byte[] dirs;
+        final byte[] data;
+
+        Block(final Transcript owner, final long firstFrame, final long firstByte, final int count, final long[] nanos,
+              final int[] starts, final int[] lengths, final int[] conns, final byte[] dirs, final byte[] data) {
+            this.owner      = owner;
+            this.firstFrame = firstFrame;
+            this.firstByte  = firstByte;
+            this.count      = count;
+            this.nanos      = nanos;
+            this.starts     = starts;
+            this.lengths    = lengths;
+            this.conns      = conns;
+            this.dirs       = dirs;
+            this.data       = data;
+        }
+
+        Frame frame(final int local) {
+            assert local >= 0 && local < this.count;
+
+            return new Frame(this.owner, this.firstFrame + local, this.nanos[local], this.conns[local], this.dirs[local],
+                             this.data, this.starts[local], this.lengths[local]);
+        }
+
+        // note(nschultz): Timestamps are taken before the append lock, so they are only nearly sorted. Good enough to seek.
+        int frameAt(final long nanos) {
+            int lo = 0, hi = this.count - 1, found = this.count;
+            while (lo <= hi) {
+                final int mid = (lo + hi) >>> 1;
+                if (this.nanos[mid] >= nanos) {
+                    found = mid;
+                    hi = mid - 1;
+                } else {
+                    lo = mid + 1;
+                }
+            }
+            return found;
+        }
+
+        int read(final long offset, final int len, final byte[] dst, final byte[] dirs, final boolean[] frameStarts, final int dstOff) {
+            final int frames = this.count;
+            if (frames == 0) return 0;
+
+            final int[] starts  = this.starts;
+            final int[] lengths = this.lengths;
+            final byte[] data   = this.data;
+            final int end = starts[frames - 1] + lengths[frames - 1];
+            final int from = (int) (offset - this.firstByte);
+            if (from < 0 || from >= end) return 0;
+
+            // note(nschultz): Last frame starting at or before 'from'
+            int lo = 0, hi = frames - 1, frame = 0;
+            while (lo <= hi) {
+                final int mid = (lo + hi) >>> 1;
+                if (starts[mid] <= from) {
+                    frame = mid;
+                    lo = mid + 1;
+                } else {
+                    hi = mid - 1;
+                }
+            }
+
+            final int n = Math.min(len, end - from);
+            System.arraycopy(data, from, dst, dstOff, n);
+            for (int i = 0; i < n; ++i) {
+                final int pos = from + i;
+                while (frame + 1 < frames && starts[frame + 1] <= pos) ++frame;
+                dirs[dstOff + i]        = this.dirs[frame];
+                frameStarts[dstOff + i] = starts[frame] == pos;
+            }
+            return n;
+        }
+
+        java.util.List<Hit> search(final Query query, final int maxHits) {
+            final ArrayList<Hit> hits = new ArrayList<>();
+            final int frameCount = this.count;
+            final byte[] data = this.data;
+            final int[] starts = this.starts;
+            final int[] lengths = this.lengths;
+
+            if (query.regex != null) {
+                final Matcher matcher = query.regex.matcher("");
+                for (int f = 0; f < frameCount && hits.size() < maxHits; ++f) {
+                    matcher.reset(new ByteChars(data, starts[f], lengths[f]));
+                    if (matcher.find()) {
+                        hits.add(hit(f, matcher.start(), matcher.end() - matcher.start()));
+                    }
+                }
+                return hits;
+            }
+
+            // note(nschultz): Scan the block as one piece and map each match back to its frame,
+            // that is a lot cheaper than starting over for every (usually tiny) frame.
+            final byte[] needle = query.needle;
+            final int[] skip = query.skip;
+            final boolean fold = query.ignoreCase;
+            final int end = frameCount == 0 ? 0 : starts[frameCount - 1] + lengths[frameCount - 1];
+            int frame = 0;
+            int pos = 0;
+            while (pos + needle.length <= end && hits.size() < maxHits) {
+                int j = needle.length - 1;
+                while (j >= 0 && eq(data[pos + j], needle[j], fold)) --j;
+                if (j < 0) {
+                    while (starts[frame] + lengths[frame] <= pos) ++frame;
+                    if (pos + needle.length <= starts[frame] + lengths[frame]) {
+                        hits.add(hit(frame, pos - starts[frame], needle.length));
+                        pos = starts[frame] + lengths[frame]; // note(nschultz): One hit per frame is enough
+                        continue;
+                    }
+                    // note(nschultz): Straddles two frames, that is not a real match
+                }
+                final int last = data[pos + needle.length - 1] & 0xFF;
+                pos += skip[fold ? lower[last] & 0xFF : last];
+            }
+            return hits;
+        }
+
+        private Hit hit(final int local, final int offsetInFrame, final int matchLength) {
+            final int start = this.starts[local];
+            final int len   = this.lengths[local];
+            final int from  = Math.max(0, offsetInFrame - 24);
+            final int to    = Math.min(len, offsetInFrame + matchLength + 24);
+            final StringBuilder preview = new StringBuilder(to - from);
+            for (int i = from; i < to; ++i) {
+                final int b = this.data[start + i] & 0xFF;
+                preview.append(b >= 0x20 && b < 0x7F ? (char) b : '.');
+            }
+            return new Hit(this.firstFrame + local, this.nanos[local], this.conns[local], this.dirs[local], offsetInFrame, len, preview.toString());
+        }
+
+        private static boolean eq(final byte a, final byte b, final boolean fold) {
+            return fold ? lower[a & 0xFF] == lower[b & 0xFF] : a == b;
+        }
+    }
+
+    private static final class IntList {
+
+        int[] values = new int[64];
+        int size = 0;
+
+        void add(final int value) {
+            if (this.size == this.values.length) this.values = Arrays.copyOf(this.values, this.size * 2);
+            this.values[this.size++] = value;
+        }
+
+        int[] toArray() {
+            return Arrays.copyOf(this.values, this.size);
+        }
+    }
+
+    public static final class Frame {
+
+        public final long index;
+        public final long nanos;
+        public final int conn;
+        public final byte dir;
+        public final int length;
+
+        private final Transcript owner;
+        private final byte[] data;
+        private final int start;
+
+        private Frame(final Transcript owner, final long index, final long nanos, final int conn, final byte dir,
+                      final byte[] data, final int start, final int length) {
+            this.owner  = owner;
+            this.index  = index;
+            this.nanos  = nanos;
+            this.conn   = conn;
+            this.dir    = dir;
+            this.data   = data;
+            this.start  = start;
+            this.length = length;
+        }
+
+        public byte byteAt(final int i) {
+            assert i >= 0 && i < this.length;
+            return this.data[this.start + i];
+        }
+
+        public byte[] bytes() {
+            return Arrays.copyOfRange(this.data, this.start, this.start + this.length);
+        }
+
+        public long wallMillis() {
+            return this.owner.wallMillis(this.nanos);
+        }
+    }
+
+    public static final class Query {
+
+        final byte[] needle;     // note(nschultz): null for regex queries
+        final int[] skip;        // note(nschultz): Horspool shift table for 'needle'
+        final boolean ignoreCase;
+        final Pattern regex;
+
+        private Query(final byte[] needle, final boolean ignoreCase, final Pattern regex) {
+            this.needle     = needle;
+            this.ignoreCase = ignoreCase;
+            this.regex      = regex;
+
+            if (needle != null) {
+                this.skip = new int[256];
+                Arrays.fill(this.skip, needle.length);
+                for (int i = 0; i < needle.length - 1; ++i) {
+                    final int b = needle[i] & 0xFF;
+                    if (ignoreCase) {
+                        final int l = lower[b] & 0xFF;
+                        this.skip[l] = needle.length - 1 - i;
+                        // note(nschultz): The upper case variant has to shift just as little
+                        if (l >= 'a' && l <= 'z') this.skip[l - ('a' - 'A')] = needle.length - 1 - i;
+                    } else {
+                        this.skip[b] = needle.length - 1 - i;
+                    }
+                }
+            } else {
+                this.skip = null;
+            }
+        }
+
+        public static Query text(final String text, final boolean ignoreCase) {
+            if (text.isEmpty()) throw new IllegalArgumentException("Nothing to search for");
+            return new Query(text.getBytes(StandardCharsets.UTF_8), ignoreCase, null);
+        }
+
+        // note(nschultz): Accepts 'DEADBEEF', 'de ad be ef' and '0xDE 0xAD'
+        public static Query hex(final String hex) {
+            final String digits = hex.replaceAll("0[xX]", "").replaceAll("[\\s,:-]", "");
+            if (digits.isEmpty() || digits.length() % 2 != 0) throw new IllegalArgumentException("Expected an even number of hex digits");
+            final byte[] needle = new byte[digits.length() / 2];
+            for (int i = 0; i < needle.length; ++i) {
+                needle[i] = (byte) Integer.parseInt(digits.substring(i * 2, i * 2 + 2), 16);
+            }
+            return new Query(needle, false, null);
+        }
+
+        // note(nschultz): The expression runs over the raw bytes (one byte per char). Non ascii literals
+        // in the expression are turned into their UTF-8 byte sequence so they still match.
+        public static Query regex(final String regex) {
+            final String bytewise = new String(regex.getBytes(StandardCharsets.UTF_8), StandardCharsets.ISO_8859_1);
+            try {
+                return new Query(null, false, Pattern.compile(bytewise));
+            } catch (final PatternSyntaxException ex) {
+                throw new IllegalArgumentException(ex.getDescription());
+            }
+        }
+    }
+
+    public static final class Hit {
+
+        public final long frame;
+        public final long nanos;
+        public final int conn;
+        public final byte dir;
+        public final int offsetInFrame;
+        public final int frameLength;
+        public final String preview;
+
+        private Hit(final long frame, final long nanos, final int conn, final byte dir, final int offsetInFrame, final int frameLength, final String preview) {
+            this.frame         = frame;
+            this.nanos         = nanos;
+            this.conn          = conn;
+            this.dir           = dir;
+            this.offsetInFrame = offsetInFrame;
+            this.frameLength   = frameLength;
+            this.preview       = preview;
+        }
+    }
+
+    public static final class Result {
+
+        public final java.util.List<Hit> hits;
+        public final int segments;
+        public final int segmentsScanned;
+        public final long elapsedNanos;
+
+        private Result(final java.util.List<Hit> hits, final int segments, final int segmentsScanned, final long elapsedNanos) {
+            this.hits            = hits;
+            this.segments        = segments;
+            this.segmentsScanned = segmentsScanned;
+            this.elapsedNanos    = elapsedNanos;
+        }
+    }
+
+    // note(nschultz): Zero copy CharSequence over a byte range, one char per byte
+    private static final class ByteChars implements CharSequence {
+
+        private final byte[] data;
+        private final int start;
+        private final int length;
+
+        ByteChars(final byte[] data, final int start, final int length) {
+            this.data   = data;
+            this.start  = start;
+            this.length = length;
+        }
+
+        @Override public int length()                 { return this.length; }
+        @Override public char charAt(final int index) { return (char) (this.data[this.start + index] & 0xFF); }
+
+        @Override
+        public CharSequence subSequence(final int from, final int to) {
+            return new ByteChars(this.data, this.start + from, to - from);
+        }
+
+        @Override
+        public String toString() {
+            return new String(this.data, this.start, this.length, StandardCharsets.ISO_8859_1);
+        }
+    }
+}
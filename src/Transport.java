@@ -0,0 +1,97 @@
+//
+// Copyright (c) 2022 Niklas Schultz
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+// documentation files (the "Software"), to deal in the Software without restriction,
+// including without limitation the rights to use, copy, modify, merge, publish, distribute,
+// sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so,
+// subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED
+// TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+// IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+// WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+// SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+//
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.util.concurrent.locks.*;
+
+// note(nschultz): What the handlers read from and write to. A blocking SocketChannel underneath,
+// either as is (Plain) or with a TLS engine on top (TlsTransport). One thread may read while
+// another one writes, there must not be two concurrent readers. Concurrent writers are fine,
+// every 'write' goes out as a whole before the next one starts.
+// A busy polling client (see BusyPoll) switches a Plain one to non-blocking after creating it,
+// reads then come back with 0 and writes spin until everything is out.
+public interface Transport extends Closeable {
+
+    // note(nschultz): Same contract as SocketChannel.read, -1 once the peer has closed its side
+    public int read(final ByteBuffer dst) throws IOException;
+
+    // note(nschultz): Unlike SocketChannel.write this only returns once everything has been written
+    public int write(final ByteBuffer src) throws IOException;
+
+    public boolean isOpen();
+
+    public SocketChannel channel();
+
+    // note(nschultz): Human readable, e.g. 'plain' or 'TLSv1.3 TLS_AES_256_GCM_SHA384 (resumed)'
+    public String describe();
+
+    public static final class Plain implements Transport {
+
+        private final SocketChannel channel;
+        private final ReentrantLock writeLock = new ReentrantLock(); // note(nschultz): A non-blocking write may only get part of it out
+
+        public Plain(final SocketChannel channel) {
+            assert channel != null;
+            assert channel.isBlocking();
+
+            this.channel = channel;
+        }
+
+        @Override
+        public int read(final ByteBuffer dst) throws IOException {
+            return this.channel.read(dst);
+        }
+
+        @Override
+        public int write(final ByteBuffer src) throws IOException {
+            this.writeLock.lock();
+            try {
+                int written = 0;
+                while (src.hasRemaining()) {
+                    final int n = this.channel.write(src);
+                    if (n == 0) Thread.onSpinWait(); // note(nschultz): Non-blocking and the send window is full
+                    written += n;
+                }
+                return written;
+            } finally {
+                this.writeLock.unlock();
+            }
+        }
+
+        @Override
+        public boolean isOpen() {
+            return this.channel.isOpen();
+        }
+
+        @Override
+        public SocketChannel channel() {
+            return this.channel;
+        }
+
+        @Override
+        public String describe() {
+            return "plain";
+        }
+
+        @Override
+        public void close() throws IOException {
+            this.channel.close();
+        }
+    }
+}
@@ -0,0 +1,152 @@
+//
+// Copyright (c) 2022 Niklas Schultz
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+// documentation files (the "Software"), to deal in the Software without restriction,
+// including without limitation the rights to use, copy, modify, merge, publish, distribute,
+// sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so,
+// subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED
+// TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+// IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+// WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+// SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+//
+
+import java.awt.*;
+import java.util.concurrent.*;
+import java.util.logging.*;
+import javax.swing.*;
+import javax.swing.text.*;
+
+// note(nschultz): The one place where every session in the window talks to swing. Network threads used
+// to post an invokeLater per received message, with a few busy sessions that is thousands of
+// events per second and the window stops reacting. Now they only queue the text and a single timer
+// inserts whatever piled up once per frame, consecutive pieces with the same style in one go.
+//
+// The periodic label/table refreshes of all sessions run on the same timer (every REFRESH_FRAMES frames)
+// instead of one swing timer per tab.
+public final class UiLoop {
+
+    private static final int FRAME_MILLIS   = 40;
+    private static final int REFRESH_FRAMES = 12;        // note(nschultz): ~500 ms, what the tabs used to do
+    private static final int FRAME_BUDGET   = 256 * 1024; // note(nschultz): chars per frame, the rest waits for the next one
+
+    private static UiLoop shared = null; // note(nschultz): Guarded by UiLoop.class
+
+    private final ConcurrentLinkedQueue<Append> appends = new ConcurrentLinkedQueue<>();
+    private final CopyOnWriteArrayList<Runnable> refreshers = new CopyOnWriteArrayList<>();
+    private final javax.swing.Timer timer;
+    private long frame = 0; // note(nschultz): Event thread only
+
+    private UiLoop() {
+        this.timer = new javax.swing.Timer(FRAME_MILLIS, e -> tick());
+        this.timer.setCoalesce(true);
+        this.timer.start();
+    }
+
+    public static synchronized UiLoop shared() {
+        if (shared == null) shared = new UiLoop();
+        return shared;
+    }
+
+    // note(nschultz): Any thread. On the event thread everything queued so far is inserted right away,
+    // so what the user typed never shows up before the messages that arrived earlier.
+    public void append(final JTextPane pane, final String string, final Color color, final boolean bold, final AllocationProfile.Slot slot) {
+        assert pane   != null;
+        assert string != null;
+        assert color  != null;
+
+        this.appends.add(new Append(pane, string, color, bold, slot));
+        if (EventQueue.isDispatchThread()) flush(Integer.MAX_VALUE);
+    }
+
+    // note(nschultz): Runs on the event thread about twice a second until it is removed again
+    public void addRefresher(final Runnable refresher) {
+        assert refresher != null;
+
+        if (!this.refreshers.contains(refresher)) this.refreshers.add(refresher);
+    }
+
+    public void removeRefresher(final Runnable refresher) {
+        this.refreshers.remove(refresher);
+    }
+
+    private void tick() {
+        assert EventQueue.isDispatchThread();
+
+        flush(FRAME_BUDGET);
+        if (++this.frame % REFRESH_FRAMES != 0) return;
+
+        for (final Runnable refresher : this.refreshers) {
+            try {
+                refresher.run();
+            } catch (final RuntimeException ex) {
+                Main.logger.log(Level.SEVERE, "UI refresh failed", ex);
+            }
+        }
+    }
+
+    private void flush(final int budget) {
+        assert EventQueue.isDispatchThread();
+
+        final StringBuilder run = new StringBuilder();
+        Append first = null;
+        int messages = 0;
+        int chars    = 0;
+        long mark    = AllocationProfile.begin();
+
+        Append next;
+        while (chars < budget && (next = this.appends.poll()) != null) {
+            if (first != null && !first.sameRunAs(next)) {
+                insert(first, run, mark, messages);
+                run.setLength(0);
+                messages = 0;
+                mark     = AllocationProfile.begin();
+            }
+            if (messages == 0) first = next;
+            run.append(next.string);
+            messages += 1;
+            chars    += next.string.length();
+        }
+        if (messages > 0) insert(first, run, mark, messages);
+    }
+
+    private static void insert(final Append style, final StringBuilder run, final long mark, final int messages) {
+        try {
+            final SimpleAttributeSet attr = new SimpleAttributeSet();
+            StyleConstants.setForeground(attr, style.color);
+            StyleConstants.setBold(attr, style.bold);
+
+            final StyledDocument doc = style.pane.getStyledDocument();
+            doc.insertString(doc.getLength(), run.toString(), attr);
+        } catch (final Exception ex) {
+            Main.logger.log(Level.SEVERE, ex.toString());
+        }
+        if (style.slot != null) style.slot.end(mark, messages);
+    }
+
+    private static final class Append {
+
+        final JTextPane pane;
+        final String string;
+        final Color color;
+        final boolean bold;
+        final AllocationProfile.Slot slot;
+
+        Append(final JTextPane pane, final String string, final Color color, final boolean bold, final AllocationProfile.Slot slot) {
+            this.pane   = pane;
+            this.string = string;
+            this.color  = color;
+            this.bold   = bold;
+            this.slot   = slot;
+        }
+
+        boolean sameRunAs(final Append other) {
+            return this.pane == other.pane && this.color.equals(other.color) && this.bold == other.bold && this.slot == other.slot;
+        }
+    }
+}